@@ -0,0 +1,59 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Strings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares rendering an {@code argString} with {@link ArgStringEncoder} to the previous, unescaped
+ * {@link StringBuilder} concatenation, for different sizes of the {@code message} field.
+ * <p>
+ * Run with {@code -prof gc} to compare the allocation rate, e.g.
+ * {@code mvn -Pbenchmarks test-compile exec:exec -Djmh.args="ArgStringEncoderBenchmark -prof gc"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ArgStringEncoderBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int messageLength;
+
+    private final ArgStringEncoder encoder = new ArgStringEncoder(0);
+    private final Map<String, Object> fields = new LinkedHashMap<>();
+
+    @Setup
+    public void setUp() {
+        fields.put("source", "example.org");
+        fields.put("level", 3);
+        fields.put("facility", "it's a facility");
+        fields.put("message", Strings.repeat("Can't connect to 'db01' ", messageLength / 24 + 1).substring(0, messageLength));
+    }
+
+    @Benchmark
+    public String legacyConcatenation() {
+        final StringBuilder sb = new StringBuilder(64 * fields.size());
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            sb.append('-').append(field.getKey()).append(" '").append(field.getValue()).append("' ");
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public String encoder() {
+        final StringBuilder sb = ArgStringEncoder.buffer();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            encoder.appendArgument(sb, field.getKey(), field.getValue(), Integer.MAX_VALUE);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,147 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.graylog2.alerts.AbstractAlertCondition;
+import org.graylog2.alerts.types.DummyAlertCondition;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.alarms.AlertCondition;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.streams.Stream;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Measures {@link RundeckAlarmCallback#call} against an in-process {@link MockWebServer}, and building the job
+ * execution request on its own, for different numbers of message fields, node filters and static job arguments.
+ * <p>
+ * Throughput and latency percentiles are reported per benchmark. Run with {@code -prof gc} (the default of the
+ * {@code benchmarks} profile) to report the allocation rate, e.g.
+ * {@code mvn -Pbenchmarks test-compile exec:exec -Djmh.args="RundeckAlarmCallbackBenchmark -prof gc"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RundeckAlarmCallbackBenchmark {
+    @Param({"1", "10", "50"})
+    public int fieldCount;
+
+    @Param({"1", "10"})
+    public int filterCount;
+
+    @Param({"1", "10"})
+    public int argCount;
+
+    private MockWebServer mockWebServer;
+    private RundeckAlarmCallback alarmCallback;
+    private RundeckTarget target;
+    private Stream stream;
+    private AlertCondition.CheckResult checkResult;
+
+    @Setup
+    public void setUp() throws Exception {
+        mockWebServer = new MockWebServer();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+        mockWebServer.start();
+
+        final Message message = new Message("Benchmark message", "example.org", new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC));
+        final StringBuilder fieldArgs = new StringBuilder("source,message");
+        for (int i = 0; i < fieldCount; i++) {
+            message.addField("field_" + i, "value_" + i);
+            fieldArgs.append(",field_").append(i);
+        }
+        final List<MessageSummary> messages = ImmutableList.of(new MessageSummary("graylog_0", message));
+
+        final StringBuilder includeFilters = new StringBuilder("tags:linux");
+        final StringBuilder excludeFilters = new StringBuilder("tags:windows");
+        for (int i = 1; i < filterCount; i++) {
+            includeFilters.append("&name").append(i).append(":node").append(i);
+            excludeFilters.append("&hostname").append(i).append(":host").append(i);
+        }
+
+        final StringBuilder args = new StringBuilder("arg0:value0");
+        for (int i = 1; i < argCount; i++) {
+            args.append("&arg").append(i).append(":value").append(i);
+        }
+
+        final Configuration configuration = new Configuration(ImmutableMap.<String, Object>builder()
+                .put("rundeck_url", mockWebServer.url("/").toString())
+                .put("job_id", "test-job-id")
+                .put("api_token", "test_api_token")
+                .put("args", args.toString())
+                .put("field_args", fieldArgs.toString())
+                .put("filter_include", includeFilters.toString())
+                .put("filter_exclude", excludeFilters.toString())
+                .put("exclude_precedence", false)
+                // every invocation sends the same alert
+                .put("idempotency_window", 0)
+                .build());
+
+        final OkHttpClient okHttpClient = new OkHttpClient();
+        alarmCallback = new RundeckAlarmCallback(okHttpClient);
+        alarmCallback.initialize(configuration);
+        target = RundeckTarget.create(configuration, mockWebServer.url("/").toString(), "test-job-id",
+                new RundeckHttpClients(okHttpClient, new RundeckMetrics(new MetricRegistry())), new AsyncJobDispatchers(new RundeckMetrics(new MetricRegistry())),
+                new RateLimiters(), new ConcurrencyLimiters(new RundeckMetrics(new MetricRegistry())), null,
+                new RundeckMetrics(new MetricRegistry()), new ExecutionTracker(), new JobDefinitionCache(),
+                new ApiTokens());
+
+        stream = mock(Stream.class);
+        final DummyAlertCondition alertCondition = new DummyAlertCondition(stream, "id",
+                new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC), "user", Collections.emptyMap());
+        checkResult = new AbstractAlertCondition.CheckResult(true, alertCondition, "Benchmark",
+                new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC), messages);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drainRecordedRequests() throws Exception {
+        // MockWebServer keeps every request, which would otherwise show up in the allocation profile
+        while (mockWebServer.takeRequest(0L, TimeUnit.MILLISECONDS) != null) {
+            // discard
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        mockWebServer.shutdown();
+    }
+
+    @Benchmark
+    public void call() throws Exception {
+        alarmCallback.call(stream, checkResult);
+    }
+
+    @Benchmark
+    public Request buildRequest() throws Exception {
+        return target.request(stream, checkResult.getMatchingMessages(), null);
+    }
+}
@@ -0,0 +1,121 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.ImmutableMap;
+import okhttp3.HttpUrl;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.configuration.Configuration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building the execution URL from the {@link RundeckCallPlan} with re-parsing the configuration on every
+ * call, which is what {@link RundeckAlarmCallback#call} did before the plan was introduced.
+ * Run with {@code -prof gc} to compare the allocation rate per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RundeckCallPlanBenchmark {
+    @Param({"1", "10", "50"})
+    public int fieldCount;
+
+    private Configuration configuration;
+    private RundeckCallPlan plan;
+    private MessageSummary message;
+
+    @Setup
+    public void setUp() {
+        final Message rawMessage = new Message("Benchmark message", "example.org", new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC));
+        final StringBuilder fieldArgs = new StringBuilder("source,message");
+        for (int i = 0; i < fieldCount; i++) {
+            rawMessage.addField("field_" + i, "value_" + i);
+            fieldArgs.append(",field_").append(i);
+        }
+        message = new MessageSummary("graylog_0", rawMessage);
+
+        configuration = new Configuration(ImmutableMap.<String, Object>builder()
+                .put("rundeck_url", "http://rundeck.example.com")
+                .put("job_id", "test-job-id")
+                .put("api_token", "test_api_token")
+                .put("args", "foo:bar&baz:qux")
+                .put("field_args", fieldArgs.toString())
+                .put("filter_include", "name:node01&tags:linux")
+                .put("filter_exclude", "name:node02&tags:windows")
+                .put("exclude_precedence", false)
+                .build());
+        plan = RundeckCallPlan.compile(configuration);
+    }
+
+    @Benchmark
+    public HttpUrl compiledPlan() {
+        return plan.executionUrl(plan.argString(message, null));
+    }
+
+    @Benchmark
+    public HttpUrl reparseConfiguration() {
+        final StringBuilder jobArguments = new StringBuilder();
+        final List<String> argumentList = Arrays.asList(configuration.getString("args", "").split("&"));
+        final List<String> includeFilters = Arrays.asList(configuration.getString("filter_include", "").split("&"));
+        final List<String> excludeFilters = Arrays.asList(configuration.getString("filter_exclude", "").split("&"));
+
+        final List<String> fieldsOfInterest = Arrays.asList(configuration.getString("field_args", "").split(","));
+        for (Map.Entry<String, Object> arg : message.getFields().entrySet()) {
+            if (fieldsOfInterest.contains(arg.getKey())) {
+                jobArguments.append("-").append(arg.getKey()).append(" '").append(arg.getValue()).append("' ");
+            }
+        }
+        if (fieldsOfInterest.contains("source")) {
+            jobArguments.append("-source '").append(message.getSource()).append("' ");
+        }
+        if (fieldsOfInterest.contains("message")) {
+            jobArguments.append("-message '").append(message.getMessage()).append("' ");
+        }
+        for (String arg : argumentList) {
+            String[] argumentPair = arg.split(":");
+            if (argumentPair.length == 2) {
+                jobArguments.append("-").append(argumentPair[0]).append(" '").append(argumentPair[1]).append("' ");
+            }
+        }
+
+        final HttpUrl.Builder urlBuilder = HttpUrl.parse(configuration.getString("rundeck_url", "http://localhost/"))
+                .newBuilder()
+                .addPathSegment("api")
+                .addPathSegment("12")
+                .addPathSegment("job")
+                .addPathSegment(configuration.getString("job_id", "0"))
+                .addPathSegment("executions");
+        for (String filter : includeFilters) {
+            String[] filterPair = filter.split(":");
+            if (filterPair.length == 2 && !filterPair[0].trim().isEmpty() && !filterPair[1].trim().isEmpty()) {
+                urlBuilder.addQueryParameter(filterPair[0], filterPair[1]);
+            }
+        }
+        for (String filter : excludeFilters) {
+            String[] filterPair = filter.split(":");
+            if (filterPair.length == 2 && !filterPair[0].trim().isEmpty() && !filterPair[1].trim().isEmpty()) {
+                urlBuilder.addQueryParameter("exclude-" + filterPair[0], filterPair[1]);
+            }
+        }
+        if (!configuration.getBoolean("exclude_precedence")) {
+            urlBuilder.addQueryParameter("exclude-precedence", "false");
+        }
+        if (jobArguments.length() > 0) {
+            urlBuilder.addQueryParameter("argString", jobArguments.toString());
+        }
+        return urlBuilder.build();
+    }
+}
@@ -0,0 +1,197 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+import org.graylog2.alerts.AbstractAlertCondition;
+import org.graylog2.alerts.types.DummyAlertCondition;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.alarms.AlertCondition;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.streams.Stream;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Drives {@link RundeckAlarmCallback#call} from many concurrent alert threads at a target rate against a
+ * {@link SimulatedRundeck}, and reports throughput, latency percentiles, failed and dropped alerts and the
+ * connections used, to size a deployment without a live Rundeck.
+ * <p>
+ * Settings are passed as {@code name=value} arguments, e.g. {@code rate=200 duration=60 threads=64 latency=50
+ * latency_p99=800 error_rate=0.01 rundeck_rate_limit=150}. Arguments starting with {@code callback.} configure the
+ * alarm callback, e.g. {@code callback.dispatch_mode=async callback.adaptive_concurrency=32}.
+ * <p>
+ * Latencies are measured from the time an alert was due, not from the time an alert thread picked it up, so a
+ * callback which can't keep up shows in the percentiles instead of silently lowering the rate. Alerts which don't
+ * even fit into the backlog of the alert threads are counted as missed.
+ */
+public class RundeckLoadTest {
+    private static final String CALLBACK_PREFIX = "callback.";
+
+    private final Map<String, String> settings;
+
+    private RundeckLoadTest(Map<String, String> settings) {
+        this.settings = settings;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> settings = new HashMap<>();
+        for (String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Expected name=value, got '" + arg + "'");
+            }
+            settings.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        new RundeckLoadTest(settings).run();
+        System.exit(0);
+    }
+
+    private int intSetting(String name, int defaultValue) {
+        return settings.containsKey(name) ? Integer.parseInt(settings.get(name)) : defaultValue;
+    }
+
+    private void run() throws Exception {
+        final int rate = intSetting("rate", 100);
+        final int durationSeconds = intSetting("duration", 30);
+        final int threads = intSetting("threads", 32);
+        final double errorRate = settings.containsKey("error_rate") ? Double.parseDouble(settings.get("error_rate")) : 0.0;
+        final SimulatedRundeck rundeck = new SimulatedRundeck(intSetting("latency", 50), intSetting("latency_p99", 500),
+                errorRate, intSetting("rundeck_rate_limit", 0));
+
+        final MockWebServer server = new MockWebServer();
+        server.setDispatcher(rundeck);
+        server.start();
+
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final RundeckDispatchEngine engine = new RundeckDispatchEngine(new OkHttpClient(), metricRegistry,
+                new InMemoryIdempotencyStore());
+        engine.startAsync().awaitRunning();
+        final RundeckAlarmCallback alarmCallback = new RundeckAlarmCallback(engine);
+        alarmCallback.initialize(new Configuration(callbackConfig(server)));
+        alarmCallback.checkConfiguration();
+
+        final Stream stream = mock(Stream.class);
+        final int alerts = rate * durationSeconds;
+        final long[] latencies = new long[alerts];
+        Arrays.fill(latencies, -1L);
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong missed = new AtomicLong();
+        final ThreadPoolExecutor alertThreads = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 16));
+
+        System.out.printf(Locale.ENGLISH, "Sending %d alerts at %d per second from %d threads to %s%n",
+                alerts, rate, threads, server.url("/"));
+        final long start = System.nanoTime();
+        for (int i = 0; i < alerts; i++) {
+            final long due = start + i * TimeUnit.SECONDS.toNanos(1L) / rate;
+            final long waitNanos = due - System.nanoTime();
+            if (waitNanos > 0L) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+
+            final int alert = i;
+            try {
+                alertThreads.execute(() -> {
+                    try {
+                        alarmCallback.call(stream, checkResult(stream, alert));
+                    } catch (AlarmCallbackException e) {
+                        failed.incrementAndGet();
+                    }
+                    latencies[alert] = System.nanoTime() - due;
+                });
+            } catch (RejectedExecutionException e) {
+                missed.incrementAndGet();
+            }
+        }
+        alertThreads.shutdown();
+        alertThreads.awaitTermination(1L, TimeUnit.HOURS);
+        final long elapsedNanos = System.nanoTime() - start;
+        final Map<String, RundeckHttpClients.PoolStatistics> poolStatistics = engine.poolStatistics();
+        // waits for asynchronously dispatched alerts
+        engine.stopAsync().awaitTerminated();
+        server.shutdown();
+
+        report(latencies, elapsedNanos, failed.get(), missed.get(), metricRegistry, rundeck, poolStatistics);
+    }
+
+    private Map<String, Object> callbackConfig(MockWebServer server) {
+        final Map<String, Object> config = new HashMap<>();
+        config.put("rundeck_url", server.url("/").toString());
+        config.put("job_id", "load-test-job");
+        config.put("api_token", "load-test-token");
+        config.put("args", "test:arg");
+        // every alert is triggered separately
+        config.put("idempotency_window", 0);
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            if (setting.getKey().startsWith(CALLBACK_PREFIX)) {
+                final String value = setting.getValue();
+                final Integer intValue = Ints.tryParse(value);
+                final Object parsed = intValue != null ? intValue
+                        : "true".equals(value) || "false".equals(value) ? (Object) Boolean.valueOf(value) : value;
+                config.put(setting.getKey().substring(CALLBACK_PREFIX.length()), parsed);
+            }
+        }
+        return config;
+    }
+
+    private static AlertCondition.CheckResult checkResult(Stream stream, int alert) {
+        final DateTime triggeredAt = new DateTime(DateTimeZone.UTC);
+        final Message message = new Message("Load test alert " + alert, "example.org", triggeredAt);
+        final DummyAlertCondition alertCondition = new DummyAlertCondition(stream, "load-test-condition", triggeredAt,
+                "user", Collections.emptyMap());
+        return new AbstractAlertCondition.CheckResult(true, alertCondition, "Load test", triggeredAt,
+                ImmutableList.of(new MessageSummary("graylog_0", message)));
+    }
+
+    private static void report(long[] latencies,
+                               long elapsedNanos,
+                               long failed,
+                               long missed,
+                               MetricRegistry metricRegistry,
+                               SimulatedRundeck rundeck,
+                               Map<String, RundeckHttpClients.PoolStatistics> poolStatistics) {
+        final long[] completed = Arrays.stream(latencies).filter(latency -> latency >= 0L).sorted().toArray();
+        final double seconds = elapsedNanos / 1e9;
+        final String prefix = RundeckAlarmCallback.class.getName() + ".load-test-job.";
+
+        System.out.printf(Locale.ENGLISH, "Alerts:       %d completed in %.1f s (%.1f per second), %d failed, %d missed%n",
+                completed.length, seconds, completed.length / seconds, failed, missed);
+        System.out.printf(Locale.ENGLISH, "Latency:      p50 %.1f ms, p99 %.1f ms, p999 %.1f ms, max %.1f ms%n",
+                percentileMillis(completed, 0.5), percentileMillis(completed, 0.99), percentileMillis(completed, 0.999),
+                percentileMillis(completed, 1.0));
+        System.out.printf(Locale.ENGLISH, "Dropped:      %d rate limited, %d duplicates%n",
+                metricRegistry.meter(prefix + "rate-limited").getCount(),
+                metricRegistry.meter(prefix + "duplicates").getCount());
+        System.out.printf(Locale.ENGLISH, "Rundeck:      %d requests, %d HTTP 500, %d HTTP 429, %d connections%n",
+                rundeck.requests(), rundeck.errors(), rundeck.rateLimited(), rundeck.connections());
+        for (Map.Entry<String, RundeckHttpClients.PoolStatistics> pool : poolStatistics.entrySet()) {
+            System.out.printf(Locale.ENGLISH, "Pool:         %s %s%n", pool.getKey(), pool.getValue());
+        }
+    }
+
+    private static double percentileMillis(long[] sortedNanos, double quantile) {
+        if (sortedNanos.length == 0) {
+            return 0.0;
+        }
+        final int index = Math.min(sortedNanos.length - 1, (int) Math.ceil(quantile * sortedNanos.length) - 1);
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,97 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for Rundeck in a {@link MockWebServer}.
+ * <p>
+ * Job execution requests are answered after a log-normally distributed delay, given by its median and 99th
+ * percentile, and fail with HTTP 500 at a configurable rate. With a rate limit, requests exceeding it are answered
+ * right away with HTTP 429 and {@code Retry-After: 1}. Successful responses contain a new execution ID, and status
+ * requests report every execution as succeeded.
+ */
+class SimulatedRundeck extends Dispatcher {
+    // the 99th percentile of the standard normal distribution
+    private static final double Z_99 = 2.326;
+
+    private final double mu;
+    private final double sigma;
+    private final double errorRate;
+    private final TokenBucketRateLimiter rateLimiter;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong executionIds = new AtomicLong();
+
+    /**
+     * @param medianLatencyMillis median response time of job execution requests
+     * @param p99LatencyMillis    99th percentile of the response time, at least the median
+     * @param errorRate           share of job execution requests failing with HTTP 500, between 0 and 1
+     * @param rateLimitPerSecond  job execution requests per second accepted by Rundeck, {@code 0} for no limit
+     */
+    SimulatedRundeck(long medianLatencyMillis, long p99LatencyMillis, double errorRate, int rateLimitPerSecond) {
+        this.mu = Math.log(Math.max(1L, medianLatencyMillis));
+        this.sigma = Math.log((double) Math.max(p99LatencyMillis, medianLatencyMillis) / Math.max(1L, medianLatencyMillis)) / Z_99;
+        this.errorRate = errorRate;
+        this.rateLimiter = rateLimitPerSecond > 0
+                ? new TokenBucketRateLimiter(rateLimitPerSecond, TimeUnit.SECONDS, rateLimitPerSecond)
+                : null;
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+        if (request.getSequenceNumber() == 0) {
+            connections.incrementAndGet();
+        }
+        if ("GET".equals(request.getMethod())) {
+            return new MockResponse().setBody("{\"id\":1,\"status\":\"succeeded\"}");
+        }
+
+        requests.incrementAndGet();
+        if (rateLimiter != null && !rateLimiter.tryAcquire()) {
+            rateLimited.incrementAndGet();
+            return new MockResponse().setResponseCode(429).setHeader("Retry-After", 1);
+        }
+
+        final Random random = ThreadLocalRandom.current();
+        Thread.sleep(latencyMillis(random));
+        if (random.nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            return new MockResponse().setResponseCode(500);
+        }
+        return new MockResponse().setBody("{\"id\":" + executionIds.incrementAndGet() + "}");
+    }
+
+    private long latencyMillis(Random random) {
+        return Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+    }
+
+    /**
+     * Returns the number of job execution requests received, including rejected ones.
+     */
+    long requests() {
+        return requests.get();
+    }
+
+    long connections() {
+        return connections.get();
+    }
+
+    long errors() {
+        return errors.get();
+    }
+
+    long rateLimited() {
+        return rateLimited.get();
+    }
+}
@@ -0,0 +1,290 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of concurrent job execution requests to a Rundeck endpoint, adapting the limit to the observed
+ * round-trip times and errors (additive increase, multiplicative decrease).
+ * <p>
+ * Every request whose round-trip time stays within {@link #LATENCY_TOLERANCE} times the baseline round-trip time
+ * raises the limit by {@code 1 / limit}, i.e. by about one per round trip, as long as the limit is actually used.
+ * A slower request or an HTTP 429 or 5xx response multiplies the limit by {@link #BACKOFF_RATIO}. I/O errors only
+ * lower the limit if they took too long, e.g. read timeouts, because a refused connection says nothing about the
+ * load of Rundeck. The baseline is the lowest round-trip time seen so far, drifting slowly towards the round-trip
+ * times of fast requests, so a lasting change of the network or of Rundeck doesn't lower the limit forever.
+ * <p>
+ * Calls exceeding the limit wait for a free slot up to a timeout, which every admission interceptor may set on its
+ * own, so callbacks with different timeouts can share the limiter of an endpoint. The limiter is applied by two
+ * interceptors: the {@linkplain #admission() admission} interceptor holds a slot for all attempts of a call, while
+ * the {@linkplain #sampler() sampler} has to be added after the {@link RetryInterceptor}, so every attempt adjusts
+ * the limit.
+ */
+class AdaptiveConcurrencyLimiter {
+    static final int INITIAL_LIMIT = 4;
+    static final double BACKOFF_RATIO = 0.9;
+    static final double LATENCY_TOLERANCE = 2.0;
+    // round-trip times of a few milliseconds jitter too much to be compared by ratio alone
+    private static final long MIN_LATENCY_SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(10L);
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final long timeoutNanos;
+    private final Lock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private int maxLimit;
+    private double limit;
+    private long baselineNanos = Long.MAX_VALUE;
+    private int inFlight = 0;
+    private int queued = 0;
+
+    /**
+     * @param maxLimit the highest number of concurrent requests
+     * @param timeout  how long a call waits for a free slot by default, {@code 0} to wait until a slot is free
+     */
+    AdaptiveConcurrencyLimiter(int maxLimit, long timeout, TimeUnit unit) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.limit = Math.min(this.maxLimit, INITIAL_LIMIT);
+    }
+
+    /**
+     * Waits until the number of requests in flight is below the limit and takes a slot.
+     *
+     * @return {@code false} if no slot was freed within the timeout
+     */
+    boolean acquire() throws InterruptedException {
+        return acquire(timeoutNanos);
+    }
+
+    /**
+     * Waits until the number of requests in flight is below the limit and takes a slot.
+     *
+     * @param timeoutNanos how long to wait for a free slot, {@code 0} to wait until a slot is free
+     * @return {@code false} if no slot was freed within the timeout
+     */
+    boolean acquire(long timeoutNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            final long deadline = System.nanoTime() + timeoutNanos;
+            queued++;
+            try {
+                while (inFlight >= (int) limit) {
+                    if (timeoutNanos == 0L) {
+                        slotFreed.await();
+                        continue;
+                    }
+                    final long remainingNanos = deadline - System.nanoTime();
+                    if (remainingNanos <= 0L) {
+                        return false;
+                    }
+                    slotFreed.awaitNanos(remainingNanos);
+                }
+            } finally {
+                queued--;
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            slotFreed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a request which Rundeck answered with anything but HTTP 429 or 5xx.
+     */
+    void onSuccess(long rttNanos) {
+        lock.lock();
+        try {
+            if (isSlow(rttNanos)) {
+                decrease();
+                return;
+            }
+
+            baselineNanos = baselineNanos == Long.MAX_VALUE || rttNanos < baselineNanos
+                    ? rttNanos
+                    : baselineNanos + (long) ((rttNanos - baselineNanos) * BASELINE_DRIFT);
+            // an idle endpoint says nothing about how many requests it could handle
+            if (inFlight * 2 >= limit) {
+                final double increased = Math.min(maxLimit, limit + 1.0 / limit);
+                final boolean grown = (int) increased > (int) limit;
+                limit = increased;
+                if (grown) {
+                    slotFreed.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a request which Rundeck rejected with HTTP 429 or 5xx.
+     */
+    void onOverload() {
+        lock.lock();
+        try {
+            decrease();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a request which failed with an I/O error.
+     */
+    void onFailure(long rttNanos) {
+        lock.lock();
+        try {
+            if (isSlow(rttNanos)) {
+                decrease();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isSlow(long rttNanos) {
+        return baselineNanos != Long.MAX_VALUE
+                && rttNanos > Math.max((long) (baselineNanos * LATENCY_TOLERANCE), baselineNanos + MIN_LATENCY_SLACK_NANOS);
+    }
+
+    private void decrease() {
+        limit = Math.max(1.0, limit * BACKOFF_RATIO);
+    }
+
+    /**
+     * Changes the highest number of concurrent requests, lowering the current limit if it exceeds the new maximum.
+     */
+    void setMaxLimit(int maxLimit) {
+        lock.lock();
+        try {
+            this.maxLimit = Math.max(1, maxLimit);
+            limit = Math.min(limit, this.maxLimit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int maxLimit() {
+        lock.lock();
+        try {
+            return maxLimit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of concurrent requests currently allowed.
+     */
+    int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of calls waiting for a free slot.
+     */
+    int queued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an interceptor which holds a slot while a call is sent, including all of its retries.
+     */
+    Interceptor admission() {
+        return admission(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns an interceptor which holds a slot while a call is sent, including all of its retries, and waits for a
+     * free slot up to the given timeout.
+     */
+    Interceptor admission(long timeout, TimeUnit unit) {
+        final long admissionTimeoutNanos = unit.toNanos(timeout);
+        return chain -> {
+            final boolean acquired;
+            try {
+                acquired = acquire(admissionTimeoutNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the concurrency limit of Rundeck");
+            }
+            if (!acquired) {
+                throw new ConcurrencyLimitException("Concurrency limit of Rundeck host " + chain.request().url().host()
+                        + " reached");
+            }
+            try {
+                return chain.proceed(chain.request());
+            } finally {
+                release();
+            }
+        };
+    }
+
+    /**
+     * Returns an interceptor which adjusts the limit to the round-trip time and outcome of every single request.
+     */
+    Interceptor sampler() {
+        return chain -> {
+            final long start = System.nanoTime();
+            final Response response;
+            try {
+                response = chain.proceed(chain.request());
+            } catch (IOException e) {
+                // a cancelled call says nothing about the load of Rundeck
+                if (!CallCancellation.isCanceled(chain.request())) {
+                    onFailure(System.nanoTime() - start);
+                }
+                throw e;
+            }
+            if (RetryInterceptor.isRetryable(response.code())) {
+                onOverload();
+            } else {
+                onSuccess(System.nanoTime() - start);
+            }
+            return response;
+        };
+    }
+
+    static class ConcurrencyLimitException extends IOException {
+        ConcurrencyLimitException(String message) {
+            super(message);
+        }
+    }
+}
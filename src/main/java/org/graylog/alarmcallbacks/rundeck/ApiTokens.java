@@ -0,0 +1,314 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * API tokens of all callbacks, which may be read from a file or an environment variable instead of being part of the
+ * configuration, so they can be rotated without editing every callback.
+ * <p>
+ * A configured API token of the form {@code file:<absolute path>} is read from the file, and one of the form
+ * {@code env:<name>} from the environment variable. Any other value is the token itself. Since anyone who may edit a
+ * callback chooses both the reference and the Rundeck URL the token is sent to, references are disabled unless the
+ * administrator of the Graylog server enables them with the system properties {@value #TOKEN_DIRECTORY_PROPERTY},
+ * the only directory token files may be read from, and {@value #TOKEN_ENV_PREFIX_PROPERTY}, the prefix of the
+ * environment variables tokens may be read from. Tokens are resolved once and
+ * cached, so looking one up is a volatile read. The directories of token files are watched by a single thread, and
+ * the tokens in a directory are reloaded whenever anything in it changes, which covers files replaced by a rename as
+ * well as mounted secrets swapping a symlinked directory. A token which can't be reloaded keeps its previous value.
+ */
+public class ApiTokens {
+    private static final Logger LOG = LoggerFactory.getLogger(ApiTokens.class);
+
+    static final String FILE_PREFIX = "file:";
+    static final String ENV_PREFIX = "env:";
+    static final String AUTH_TOKEN_HEADER = "X-Rundeck-Auth-Token";
+    static final String TOKEN_DIRECTORY_PROPERTY = "rundeck.api_token_directory";
+    static final String TOKEN_ENV_PREFIX_PROPERTY = "rundeck.api_token_env_prefix";
+
+    private static final int UNAUTHORIZED = 401;
+    private static final int FORBIDDEN = 403;
+
+    private final Function<String, String> environment;
+    @Nullable
+    private final Path tokenDirectory;
+    @Nullable
+    private final String envPrefix;
+    private final ConcurrentMap<String, ApiToken> tokens = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private final Set<Path> watchedDirectories = new HashSet<>();
+    private WatchService watchService;
+    private boolean closed = false;
+
+    public ApiTokens() {
+        this(System::getenv, tokenDirectory(System.getProperty(TOKEN_DIRECTORY_PROPERTY)),
+                System.getProperty(TOKEN_ENV_PREFIX_PROPERTY));
+    }
+
+    /**
+     * @param tokenDirectory the directory token files may be read from, {@code null} to disable token files
+     * @param envPrefix      the prefix of the environment variables tokens may be read from, {@code null} or empty to
+     *                       disable environment variables
+     */
+    ApiTokens(Function<String, String> environment, @Nullable Path tokenDirectory, @Nullable String envPrefix) {
+        this.environment = environment;
+        this.tokenDirectory = tokenDirectory == null ? null : tokenDirectory.toAbsolutePath().normalize();
+        this.envPrefix = envPrefix == null || envPrefix.trim().isEmpty() ? null : envPrefix.trim();
+    }
+
+    @Nullable
+    private static Path tokenDirectory(@Nullable String directory) {
+        if (directory == null || directory.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            final Path path = Paths.get(directory.trim());
+            if (path.isAbsolute()) {
+                return path;
+            }
+        } catch (InvalidPathException e) {
+            // reported below
+        }
+        LOG.warn("Ignoring {}, expected an absolute path but got {}", TOKEN_DIRECTORY_PROPERTY, directory);
+        return null;
+    }
+
+    /**
+     * Returns the token for the configured value, which is resolved when it's requested for the first time.
+     */
+    ApiToken forConfiguredValue(String configured) {
+        if (!configured.startsWith(FILE_PREFIX) && !configured.startsWith(ENV_PREFIX)) {
+            return new ApiToken(configured);
+        }
+        return tokens.computeIfAbsent(configured, reference -> {
+            final ApiToken token = new ApiToken(reference);
+            token.reload();
+            if (token.file != null && tokenDirectory != null && token.file.startsWith(tokenDirectory)) {
+                watch(token.file.getParent());
+            }
+            return token;
+        });
+    }
+
+    private void watch(Path directory) {
+        synchronized (lock) {
+            if (closed || watchedDirectories.contains(directory)) {
+                return;
+            }
+            try {
+                if (watchService == null) {
+                    final WatchService newWatchService = FileSystems.getDefault().newWatchService();
+                    new ThreadFactoryBuilder()
+                            .setNameFormat("rundeck-api-token-watcher-%d")
+                            .setDaemon(true)
+                            .build()
+                            .newThread(() -> processEvents(newWatchService))
+                            .start();
+                    watchService = newWatchService;
+                }
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirectories.add(directory);
+            } catch (IOException e) {
+                // the token is still reloaded when Rundeck rejects it
+                LOG.warn("Couldn't watch {} for changed Rundeck API tokens", directory, e);
+            }
+        }
+    }
+
+    private void processEvents(WatchService watchService) {
+        while (true) {
+            final WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            // any change may have replaced a token file, e.g. by swapping a symlink to its directory
+            key.pollEvents();
+            final Path directory = (Path) key.watchable();
+            for (ApiToken token : tokens.values()) {
+                if (token.file != null && directory.equals(token.file.getParent())) {
+                    token.reload();
+                }
+            }
+            if (!key.reset()) {
+                synchronized (lock) {
+                    watchedDirectories.remove(directory);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops watching token files. Cached tokens are still reloaded when Rundeck rejects them.
+     */
+    void close() {
+        synchronized (lock) {
+            closed = true;
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException e) {
+                    LOG.warn("Couldn't stop watching Rundeck API token files", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * An API token, which is either configured literally or resolved from a file or an environment variable.
+     */
+    class ApiToken {
+        private final String configured;
+        private final boolean literal;
+        @Nullable
+        private final Path file;
+        private volatile String value;
+
+        private ApiToken(String configured) {
+            this.configured = configured;
+            this.literal = !configured.startsWith(FILE_PREFIX) && !configured.startsWith(ENV_PREFIX);
+            this.file = configured.startsWith(FILE_PREFIX) ? path(configured.substring(FILE_PREFIX.length())) : null;
+            this.value = literal ? configured : "";
+        }
+
+        @Nullable
+        private Path path(String path) {
+            try {
+                final Path parsed = Paths.get(path.trim());
+                return parsed.isAbsolute() ? parsed.normalize() : null;
+            } catch (InvalidPathException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Returns the cached token, or an empty string if it has never been resolved.
+         */
+        String get() {
+            return value;
+        }
+
+        /**
+         * Resolves the token right away, without caching it.
+         *
+         * @throws IOException if the file can't be read, or the environment variable isn't set
+         */
+        String resolve() throws IOException {
+            if (literal) {
+                return configured;
+            }
+            if (configured.startsWith(ENV_PREFIX)) {
+                final String name = configured.substring(ENV_PREFIX.length()).trim();
+                if (envPrefix == null) {
+                    throw new IOException("Environment variables are disabled, set the system property "
+                            + TOKEN_ENV_PREFIX_PROPERTY + " to enable them");
+                }
+                if (!name.startsWith(envPrefix)) {
+                    throw new IOException("Environment variable " + name + " doesn't start with " + envPrefix);
+                }
+                final String resolved = environment.apply(name);
+                if (resolved == null || resolved.trim().isEmpty()) {
+                    throw new IOException("Environment variable " + name + " is not set");
+                }
+                return resolved.trim();
+            }
+            if (tokenDirectory == null) {
+                throw new IOException("Token files are disabled, set the system property " + TOKEN_DIRECTORY_PROPERTY
+                        + " to enable them");
+            }
+            if (file == null) {
+                throw new IOException("Expected an absolute path after '" + FILE_PREFIX + "'");
+            }
+            if (!file.startsWith(tokenDirectory)) {
+                throw new IOException("File " + file + " is not in " + tokenDirectory);
+            }
+            final String resolved;
+            try {
+                // a symlink must not lead out of the token directory either
+                if (!file.toRealPath().startsWith(tokenDirectory.toRealPath())) {
+                    throw new IOException("File " + file + " is not in " + tokenDirectory);
+                }
+                resolved = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+            } catch (NoSuchFileException e) {
+                throw new IOException("File " + file + " doesn't exist", e);
+            }
+            if (resolved.isEmpty()) {
+                throw new IOException("File " + file + " is empty");
+            }
+            return resolved;
+        }
+
+        /**
+         * Resolves and caches the token again. A token which can't be resolved keeps its previous value.
+         *
+         * @return the cached token
+         */
+        synchronized String reload() {
+            try {
+                final String resolved = resolve();
+                if (!value.isEmpty() && !value.equals(resolved)) {
+                    LOG.info("Reloaded Rundeck API token from {}", configured);
+                }
+                value = resolved;
+            } catch (IOException e) {
+                LOG.warn("Couldn't resolve Rundeck API token from {}: {}", configured, e.getMessage());
+            }
+            return value;
+        }
+
+        /**
+         * Returns an interceptor which sends a request once more with the current token if Rundeck rejects the token
+         * it was sent with, e.g. because the token has been rotated after the request was built. The token is
+         * reloaded first, unless it has already been reloaded in the meantime. It has to be added before all other
+         * interceptors, so the retried request passes through them again.
+         */
+        Interceptor interceptor() {
+            return chain -> {
+                final Request request = chain.request();
+                final Response response = chain.proceed(request);
+                if (literal || (response.code() != UNAUTHORIZED && response.code() != FORBIDDEN)) {
+                    return response;
+                }
+
+                final String sent = request.header(AUTH_TOKEN_HEADER);
+                String current = value;
+                if (current.equals(sent)) {
+                    current = reload();
+                }
+                if (current.isEmpty() || current.equals(sent)) {
+                    return response;
+                }
+
+                LOG.debug("Rundeck rejected the API token with HTTP status {}, retrying with the reloaded token", response.code());
+                response.body().close();
+                return chain.proceed(request.newBuilder().header(AUTH_TOKEN_HEADER, current).build());
+            };
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+/**
+ * Renders job arguments in the Rundeck {@code argString} syntax, e.g. {@code -source 'example.org' -level '3' }.
+ * <p>
+ * Values are wrapped in single quotes. Rundeck reads a doubled quote within a quoted value as a literal quote, so
+ * single quotes in values are doubled, e.g. {@code -message 'it''s down' }. Values are streamed into the buffer
+ * without intermediate strings, cut off at the maximum length of a single value, and arguments which would exceed
+ * the maximum length of the whole {@code argString} are truncated or left out. Values are never cut in the middle
+ * of an escaped quote or a surrogate pair.
+ * <p>
+ * The buffer returned by {@link #buffer()} is reused by all encoders of the current thread.
+ */
+class ArgStringEncoder {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(INITIAL_CAPACITY));
+
+    // the characters of -key 'value' besides key and value
+    private static final int ARGUMENT_OVERHEAD = 5;
+
+    private final int maxValueLength;
+
+    /**
+     * @param maxValueLength the maximum number of characters of a single escaped value, {@code 0} for no limit
+     */
+    ArgStringEncoder(int maxValueLength) {
+        this.maxValueLength = maxValueLength > 0 ? maxValueLength : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the empty buffer of the current thread. Buffers which have grown too large while rendering a huge
+     * {@code argString} are replaced, so they don't stay around.
+     */
+    static StringBuilder buffer() {
+        StringBuilder sb = BUFFER.get();
+        if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+            sb = new StringBuilder(INITIAL_CAPACITY);
+            BUFFER.set(sb);
+        }
+        sb.setLength(0);
+        return sb;
+    }
+
+    /**
+     * Appends the argument {@code -key 'value' } to the buffer, unless the buffer would exceed {@code maxLength}
+     * characters. The value is truncated if only part of it fits.
+     *
+     * @return {@code false} if the argument has been left out
+     */
+    boolean appendArgument(StringBuilder sb, String key, Object value, int maxLength) {
+        final int start = sb.length();
+        final int valueLimit = Math.min(maxValueLength, maxLength - start - key.length() - ARGUMENT_OVERHEAD);
+        if (valueLimit <= 0) {
+            return false;
+        }
+
+        sb.append('-').append(key).append(" '");
+        if (value instanceof Integer || value instanceof Long) {
+            // neither quotes nor surrogates, no need to go through a string
+            final int valueStart = sb.length();
+            sb.append(((Number) value).longValue());
+            if (sb.length() - valueStart > valueLimit) {
+                sb.setLength(valueStart + valueLimit);
+            }
+        } else {
+            final CharSequence text = value instanceof CharSequence ? (CharSequence) value : String.valueOf(value);
+            appendEscaped(sb, text, valueLimit);
+            if (text.length() > 0 && sb.length() - start == key.length() + 3) {
+                // nothing of the value fit, e.g. because it starts with a quote
+                sb.setLength(start);
+                return false;
+            }
+        }
+        sb.append("' ");
+        return true;
+    }
+
+    /**
+     * Appends the argument {@code -key 'value' } to the buffer, without any length limit.
+     */
+    static void appendEscapedArgument(StringBuilder sb, String key, CharSequence value) {
+        sb.append('-').append(key).append(" '");
+        appendEscaped(sb, value, Integer.MAX_VALUE);
+        sb.append("' ");
+    }
+
+    /**
+     * Appends the value with doubled single quotes, using at most {@code limit} characters in the buffer.
+     */
+    static void appendEscaped(StringBuilder sb, CharSequence value, int limit) {
+        final long end = (long) sb.length() + limit;
+        final int length = value.length();
+        int copyFrom = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c == '\'') {
+                // copy the run before the quote in one go
+                if (sb.length() + (i - copyFrom) + 2 > end) {
+                    appendTruncated(sb, value, copyFrom, i, end);
+                    return;
+                }
+                sb.append(value, copyFrom, i).append("''");
+                copyFrom = i + 1;
+            }
+        }
+        appendTruncated(sb, value, copyFrom, length, end);
+    }
+
+    private static void appendTruncated(StringBuilder sb, CharSequence value, int from, int to, long end) {
+        int cut = (int) Math.min(to, from + Math.max(0L, end - sb.length()));
+        if (cut < to && cut > from && Character.isHighSurrogate(value.charAt(cut - 1))) {
+            cut--;
+        }
+        sb.append(value, from, cut);
+    }
+
+    /**
+     * Cuts off the value at the maximum length of a single value, without splitting a surrogate pair.
+     */
+    String truncate(String value) {
+        if (value.length() <= maxValueLength) {
+            return value;
+        }
+
+        int cut = maxValueLength;
+        if (Character.isHighSurrogate(value.charAt(cut - 1))) {
+            cut--;
+        }
+        return value.substring(0, cut);
+    }
+}
@@ -0,0 +1,253 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.streams.Stream;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled template of a job argument, e.g. {@code host-${source}} or {@code ${message|truncate:200}}.
+ * <p>
+ * A template consists of literal text and expressions of the form {@code ${name|filter|filter...}}. The name is
+ * either a message field, e.g. {@code source} or {@code level}, or a stream property ({@code stream.id},
+ * {@code stream.title} or {@code stream.description}). Supported filters are {@code default:<value>}, which replaces
+ * a missing or empty value, and {@code truncate:<length>}. {@code $$} renders a literal {@code $}.
+ * <p>
+ * Templates are parsed once into a list of segments, with the value accessor and filters of every expression
+ * resolved up front, so rendering a template only loops over its segments.
+ */
+class ArgumentTemplate {
+    private static final Splitter ARGUMENT_SPLITTER = Splitter.on('&').trimResults().omitEmptyStrings();
+    private static final CharMatcher NAME_MATCHER = CharMatcher.inRange('a', 'z')
+            .or(CharMatcher.inRange('A', 'Z'))
+            .or(CharMatcher.inRange('0', '9'))
+            .or(CharMatcher.anyOf("_-.@"))
+            .precomputed();
+    private static final ThreadLocal<StringBuilder> VALUE_BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private final Segment[] segments;
+    private final String literal;
+
+    private ArgumentTemplate(Segment[] segments, @Nullable String literal) {
+        this.segments = segments;
+        this.literal = literal;
+    }
+
+    /**
+     * Parses templated job arguments of the form {@code key=template&key=template}.
+     *
+     * @throws IllegalArgumentException if an argument or template is invalid
+     */
+    static Map<String, ArgumentTemplate> compileArguments(String arguments) {
+        final Map<String, ArgumentTemplate> templates = new LinkedHashMap<>();
+        for (String argument : ARGUMENT_SPLITTER.split(arguments)) {
+            final int separator = argument.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=template: " + argument);
+            }
+
+            final String key = argument.substring(0, separator).trim();
+            if (!NAME_MATCHER.matchesAllOf(key)) {
+                throw new IllegalArgumentException("Invalid argument name: " + key);
+            }
+            templates.put(key, compile(argument.substring(separator + 1)));
+        }
+        return ImmutableMap.copyOf(templates);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the template is invalid
+     */
+    static ArgumentTemplate compile(String template) {
+        final List<Segment> segments = new ArrayList<>();
+        final StringBuilder text = new StringBuilder();
+        int i = 0;
+        while (i < template.length()) {
+            final char c = template.charAt(i);
+            if (c != '$' || i + 1 == template.length()) {
+                text.append(c);
+                i++;
+            } else if (template.charAt(i + 1) == '$') {
+                text.append('$');
+                i += 2;
+            } else if (template.charAt(i + 1) == '{') {
+                final int end = template.indexOf('}', i + 2);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated expression at position " + i + ": " + template);
+                }
+                if (text.length() > 0) {
+                    segments.add(new Literal(text.toString()));
+                    text.setLength(0);
+                }
+                segments.add(expression(template.substring(i + 2, end)));
+                i = end + 1;
+            } else {
+                text.append(c);
+                i++;
+            }
+        }
+        if (text.length() > 0) {
+            segments.add(new Literal(text.toString()));
+        }
+
+        final String literal;
+        if (segments.isEmpty()) {
+            literal = "";
+        } else if (segments.size() == 1 && segments.get(0) instanceof Literal) {
+            literal = ((Literal) segments.get(0)).text;
+        } else {
+            literal = null;
+        }
+        return new ArgumentTemplate(segments.toArray(new Segment[segments.size()]), literal);
+    }
+
+    private static Segment expression(String expression) {
+        final List<String> parts = Splitter.on('|').trimResults().splitToList(expression);
+        final String name = parts.get(0);
+        if (name.isEmpty() || !NAME_MATCHER.matchesAllOf(name)) {
+            throw new IllegalArgumentException("Invalid name in expression ${" + expression + "}");
+        }
+
+        final Filter[] filters = new Filter[parts.size() - 1];
+        for (int i = 1; i < parts.size(); i++) {
+            filters[i - 1] = filter(parts.get(i), expression);
+        }
+        return new Expression(accessor(name, expression), filters);
+    }
+
+    private static ValueAccessor accessor(String name, String expression) {
+        switch (name) {
+            case "stream.id":
+                return (message, stream) -> stream == null ? null : stream.getId();
+            case "stream.title":
+                return (message, stream) -> stream == null ? null : stream.getTitle();
+            case "stream.description":
+                return (message, stream) -> stream == null ? null : stream.getDescription();
+            default:
+                if (name.startsWith("stream.")) {
+                    throw new IllegalArgumentException("Unknown stream property in expression ${" + expression + "}");
+                }
+                return (message, stream) -> message == null ? null : RundeckCallPlan.fieldValue(message, name);
+        }
+    }
+
+    private static Filter filter(String filter, String expression) {
+        final int separator = filter.indexOf(':');
+        final String name = separator < 0 ? filter : filter.substring(0, separator);
+        final String argument = separator < 0 ? null : filter.substring(separator + 1);
+        switch (name) {
+            case "default":
+                if (argument == null) {
+                    throw new IllegalArgumentException("Missing default value in expression ${" + expression + "}");
+                }
+                return value -> value == null || value.length() == 0 ? argument : value;
+            case "truncate":
+                final int maxLength;
+                try {
+                    maxLength = argument == null ? -1 : Integer.parseInt(argument.trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid length in expression ${" + expression + "}");
+                }
+                if (maxLength < 1) {
+                    throw new IllegalArgumentException("Invalid length in expression ${" + expression + "}");
+                }
+                return value -> truncate(value, maxLength);
+            default:
+                throw new IllegalArgumentException("Unknown filter '" + name + "' in expression ${" + expression + "}");
+        }
+    }
+
+    @Nullable
+    private static CharSequence truncate(@Nullable CharSequence value, int maxLength) {
+        if (value == null || value.length() <= maxLength) {
+            return value;
+        }
+
+        int cut = maxLength;
+        if (Character.isHighSurrogate(value.charAt(cut - 1))) {
+            cut--;
+        }
+        return value.subSequence(0, cut);
+    }
+
+    /**
+     * Renders the template into the value buffer of the current thread, which stays valid until the next call.
+     */
+    CharSequence renderToBuffer(@Nullable MessageSummary message, @Nullable Stream stream) {
+        if (literal != null) {
+            return literal;
+        }
+
+        StringBuilder sb = VALUE_BUFFER.get();
+        if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+            sb = new StringBuilder(256);
+            VALUE_BUFFER.set(sb);
+        }
+        sb.setLength(0);
+        for (Segment segment : segments) {
+            segment.appendTo(sb, message, stream);
+        }
+        return sb;
+    }
+
+    String render(@Nullable MessageSummary message, @Nullable Stream stream) {
+        return renderToBuffer(message, stream).toString();
+    }
+
+    private interface Segment {
+        void appendTo(StringBuilder sb, @Nullable MessageSummary message, @Nullable Stream stream);
+    }
+
+    private interface ValueAccessor {
+        @Nullable
+        Object get(@Nullable MessageSummary message, @Nullable Stream stream);
+    }
+
+    private interface Filter {
+        @Nullable
+        CharSequence apply(@Nullable CharSequence value);
+    }
+
+    private static class Literal implements Segment {
+        private final String text;
+
+        Literal(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb, @Nullable MessageSummary message, @Nullable Stream stream) {
+            sb.append(text);
+        }
+    }
+
+    private static class Expression implements Segment {
+        private final ValueAccessor accessor;
+        private final Filter[] filters;
+
+        Expression(ValueAccessor accessor, Filter[] filters) {
+            this.accessor = accessor;
+            this.filters = filters;
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb, @Nullable MessageSummary message, @Nullable Stream stream) {
+            final Object value = accessor.get(message, stream);
+            CharSequence text = value == null || value instanceof CharSequence ? (CharSequence) value : String.valueOf(value);
+            for (Filter filter : filters) {
+                text = filter.apply(text);
+            }
+            if (text != null) {
+                sb.append(text);
+            }
+        }
+    }
+}
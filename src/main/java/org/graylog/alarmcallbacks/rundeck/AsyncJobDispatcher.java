@@ -0,0 +1,450 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends job execution requests without blocking the alert processing thread.
+ * <p>
+ * The number of concurrent requests per Rundeck host is limited. Requests exceeding that limit are kept in a bounded
+ * per-host queue, and the {@link OverflowPolicy} decides what happens once that queue is full.
+ * Outcomes of the requests are logged and counted, since they are only known after {@link #dispatch(Request)} has
+ * returned. The failure handler passed along with a request runs if it failed or has been dropped, e.g. to release
+ * the idempotency key of the alert.
+ * <p>
+ * The queue of a host is split into one lane per {@link TriggerPriority}. Each lane may only use its share of the
+ * requests in flight, and a free slot is handed to the waiting lanes by smooth weighted round-robin, so higher lanes
+ * are served more often without starving lower ones. If the queue is full, a request preempts the oldest pending
+ * request of a lower lane before the overflow policy applies.
+ */
+class AsyncJobDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncJobDispatcher.class);
+    private static final TriggerPriority[] PRIORITIES = TriggerPriority.values();
+
+    enum OverflowPolicy {
+        /** Wait until there's room in the pending queue. */
+        BLOCK,
+        /** Discard the oldest pending request to make room for the new one. */
+        DROP_OLDEST,
+        /** Reject the new request with an {@link AlarmCallbackException}. */
+        FAIL_FAST
+    }
+
+    private final OkHttpClient httpClient;
+    private final Dispatcher dispatcher;
+    private final int maxInFlightPerHost;
+    private final int maxPending;
+    private final OverflowPolicy overflowPolicy;
+    private final ConcurrentMap<String, HostQueue> hostQueues = new ConcurrentHashMap<>();
+
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong preempted = new AtomicLong();
+
+    AsyncJobDispatcher(OkHttpClient httpClient, int maxInFlightPerHost, int maxPending, OverflowPolicy overflowPolicy) {
+        // OkHttp's own dispatcher must not queue requests below our per-host limit.
+        this.dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(maxInFlightPerHost);
+        dispatcher.setMaxRequests(Math.max(dispatcher.getMaxRequests(), maxInFlightPerHost));
+
+        this.httpClient = bind(httpClient);
+        this.maxInFlightPerHost = maxInFlightPerHost;
+        this.maxPending = maxPending;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Returns a client derived from the given one which can be used for calls passed to
+     * {@link #dispatch(Call, TriggerPriority, Runnable)}. Requests of all clients bound to this dispatcher share its limits.
+     */
+    OkHttpClient bind(OkHttpClient client) {
+        return client.newBuilder().dispatcher(dispatcher).build();
+    }
+
+    /**
+     * Sends the request with {@link TriggerPriority#NORMAL} priority.
+     *
+     * @throws AlarmCallbackException if the request was rejected by the {@link OverflowPolicy}
+     * @see #dispatch(Call, TriggerPriority, Runnable)
+     */
+    void dispatch(Request request) throws AlarmCallbackException {
+        dispatch(httpClient.newCall(request), TriggerPriority.NORMAL);
+    }
+
+    /**
+     * Sends the call without a failure handler.
+     *
+     * @throws AlarmCallbackException if the request was rejected by the {@link OverflowPolicy}
+     * @see #dispatch(Call, TriggerPriority, Runnable)
+     */
+    void dispatch(Call call, TriggerPriority priority) throws AlarmCallbackException {
+        dispatch(call, priority, () -> {
+        });
+    }
+
+    /**
+     * Sends the call, or queues it in the lane of the given priority if the maximum number of in-flight requests to
+     * its host or of its lane has been reached. The failure handler runs on the thread which noticed the failure if
+     * the request fails, is answered with an unsuccessful HTTP status or is dropped. It doesn't run if the request is
+     * rejected, since the exception reports that already.
+     *
+     * @throws AlarmCallbackException if the request was rejected by the {@link OverflowPolicy}
+     */
+    void dispatch(Call call, TriggerPriority priority, Runnable onFailure) throws AlarmCallbackException {
+        final HostQueue hostQueue = hostQueues.computeIfAbsent(hostKey(call.request().url()), key -> new HostQueue());
+        final Pending pending = new Pending(call, priority, onFailure);
+        if (hostQueue.offer(pending)) {
+            send(hostQueue, pending);
+        }
+    }
+
+    private static String hostKey(HttpUrl url) {
+        return url.host() + ":" + url.port();
+    }
+
+    private void send(final HostQueue hostQueue, final Pending pending) {
+        pending.call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                failed.incrementAndGet();
+                LOG.warn("Failed to send alarm to Rundeck", e);
+                try {
+                    pending.failed();
+                } finally {
+                    sendNext(hostQueue, pending);
+                }
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try {
+                    if (response.isSuccessful()) {
+                        succeeded.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                        LOG.warn("Failed to send alarm to Rundeck with HTTP response code: {}", response.code());
+                        pending.failed();
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Rundeck HTTP response headers: {}", response.headers().toString());
+                            LOG.debug("Rundeck HTTP response body: {}", response.body().string());
+                        }
+                    }
+                } finally {
+                    response.body().close();
+                    sendNext(hostQueue, pending);
+                }
+            }
+        });
+    }
+
+    private void sendNext(HostQueue hostQueue, Pending finished) {
+        final Pending next = hostQueue.next(finished);
+        if (next != null) {
+            send(hostQueue, next);
+        }
+    }
+
+    /**
+     * Waits until all pending and in-flight requests have finished or the timeout has passed.
+     *
+     * @return {@code true} if all requests have finished
+     */
+    boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (HostQueue hostQueue : hostQueues.values()) {
+            if (!hostQueue.awaitDrained(deadline)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the threads sending requests. Requests which are still pending are not sent anymore.
+     */
+    void shutdown() {
+        dispatcher.executorService().shutdown();
+    }
+
+    long succeeded() {
+        return succeeded.get();
+    }
+
+    long failed() {
+        return failed.get();
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    long rejected() {
+        return rejected.get();
+    }
+
+    long preempted() {
+        return preempted.get();
+    }
+
+    /**
+     * Returns the number of requests of the given priority waiting to be sent, summed up over all hosts.
+     */
+    int pending(TriggerPriority priority) {
+        int pending = 0;
+        for (HostQueue hostQueue : hostQueues.values()) {
+            pending += hostQueue.pending(priority);
+        }
+        return pending;
+    }
+
+    /**
+     * Returns the number of requests of the given priority in flight, summed up over all hosts.
+     */
+    int inFlight(TriggerPriority priority) {
+        int inFlight = 0;
+        for (HostQueue hostQueue : hostQueues.values()) {
+            inFlight += hostQueue.inFlight(priority);
+        }
+        return inFlight;
+    }
+
+    private static class Pending {
+        private final Call call;
+        private final TriggerPriority priority;
+        private final Runnable onFailure;
+
+        Pending(Call call, TriggerPriority priority, Runnable onFailure) {
+            this.call = call;
+            this.priority = priority;
+            this.onFailure = onFailure;
+        }
+
+        void failed() {
+            try {
+                onFailure.run();
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to handle failed alarm for Rundeck host {}", host(this), e);
+            }
+        }
+    }
+
+    private static class Lane {
+        private final int weight;
+        private final int maxInFlight;
+        private final Deque<Pending> pending = new ArrayDeque<>();
+        private int inFlight = 0;
+        private int credit = 0;
+
+        Lane(TriggerPriority priority, int maxInFlightPerHost) {
+            this.weight = priority.weight();
+            this.maxInFlight = priority.concurrencyLimit(maxInFlightPerHost);
+        }
+
+        boolean canSend() {
+            return inFlight < maxInFlight;
+        }
+    }
+
+    private class HostQueue {
+        private final Lock lock = new ReentrantLock();
+        private final Condition notFull = lock.newCondition();
+        private final Condition drained = lock.newCondition();
+        private final Lane[] lanes = new Lane[PRIORITIES.length];
+        private int inFlight = 0;
+        private int pending = 0;
+
+        HostQueue() {
+            for (TriggerPriority priority : PRIORITIES) {
+                lanes[priority.ordinal()] = new Lane(priority, maxInFlightPerHost);
+            }
+        }
+
+        /**
+         * @return {@code true} if the request can be sent right away, {@code false} if it has been queued or dropped
+         */
+        boolean offer(Pending request) throws AlarmCallbackException {
+            final Lane lane = lanes[request.priority.ordinal()];
+            // the failure handler of a dropped request must not run while holding the lock
+            Pending discarded = null;
+            lock.lock();
+            try {
+                while (true) {
+                    if (inFlight < maxInFlightPerHost && lane.canSend() && lane.pending.isEmpty()) {
+                        inFlight++;
+                        lane.inFlight++;
+                        return true;
+                    }
+                    if (pending < maxPending) {
+                        lane.pending.addLast(request);
+                        pending++;
+                        return false;
+                    }
+
+                    final Pending victim = pollLowerPriority(request.priority);
+                    if (victim != null) {
+                        preempted.incrementAndGet();
+                        LOG.warn("Dropped pending {} priority alarm for {} in favor of a {} priority alarm",
+                                victim.priority, host(victim), request.priority);
+                        lane.pending.addLast(request);
+                        discarded = victim;
+                        return false;
+                    }
+
+                    switch (overflowPolicy) {
+                        case BLOCK:
+                            notFull.await();
+                            break;
+                        case DROP_OLDEST:
+                            dropped.incrementAndGet();
+                            // pending requests of higher lanes are never dropped for a lower one
+                            final Pending oldest = lane.pending.pollFirst();
+                            if (oldest == null) {
+                                LOG.warn("Dropped alarm for {}, too many pending requests", host(request));
+                                discarded = request;
+                                return false;
+                            }
+                            LOG.warn("Dropped pending alarm for {}, too many pending requests", host(oldest));
+                            lane.pending.addLast(request);
+                            discarded = oldest;
+                            return false;
+                        case FAIL_FAST:
+                        default:
+                            rejected.incrementAndGet();
+                            throw new AlarmCallbackException("Too many pending requests to Rundeck host " + host(request));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AlarmCallbackException("Interrupted while waiting for pending requests to Rundeck", e);
+            } finally {
+                lock.unlock();
+                if (discarded != null) {
+                    discarded.failed();
+                }
+            }
+        }
+
+        /**
+         * Removes the oldest pending request of the lowest lane below the given priority.
+         */
+        private Pending pollLowerPriority(TriggerPriority priority) {
+            for (int i = lanes.length - 1; i > priority.ordinal(); i--) {
+                final Pending oldest = lanes[i].pending.pollFirst();
+                if (oldest != null) {
+                    return oldest;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Marks one request as finished and returns the next pending request which takes over its slot, if any.
+         */
+        Pending next(Pending finished) {
+            lock.lock();
+            try {
+                inFlight--;
+                lanes[finished.priority.ordinal()].inFlight--;
+                notFull.signalAll();
+
+                final Lane lane = selectLane();
+                if (lane == null) {
+                    if (inFlight == 0) {
+                        drained.signalAll();
+                    }
+                    return null;
+                }
+                final Pending next = lane.pending.pollFirst();
+                inFlight++;
+                lane.inFlight++;
+                pending--;
+                return next;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Picks the lane to send from by smooth weighted round-robin among the lanes which have pending requests and
+         * room for another one in flight.
+         */
+        private Lane selectLane() {
+            Lane selected = null;
+            int totalWeight = 0;
+            for (Lane lane : lanes) {
+                if (lane.pending.isEmpty()) {
+                    lane.credit = 0;
+                } else if (lane.canSend()) {
+                    lane.credit += lane.weight;
+                    totalWeight += lane.weight;
+                    if (selected == null || lane.credit > selected.credit) {
+                        selected = lane;
+                    }
+                }
+            }
+            if (selected != null) {
+                selected.credit -= totalWeight;
+            }
+            return selected;
+        }
+
+        boolean awaitDrained(long deadline) throws InterruptedException {
+            lock.lock();
+            try {
+                while (inFlight > 0 || pending > 0) {
+                    final long remainingNanos = deadline - System.nanoTime();
+                    if (remainingNanos <= 0L) {
+                        return false;
+                    }
+                    drained.awaitNanos(remainingNanos);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int pending(TriggerPriority priority) {
+            lock.lock();
+            try {
+                return lanes[priority.ordinal()].pending.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int inFlight(TriggerPriority priority) {
+            lock.lock();
+            try {
+                return lanes[priority.ordinal()].inFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static String host(Pending pending) {
+        return pending.call.request().url().host();
+    }
+}
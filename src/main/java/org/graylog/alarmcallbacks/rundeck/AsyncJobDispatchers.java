@@ -0,0 +1,62 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous dispatchers shared by all callbacks which send to the same Rundeck endpoint with the same limits, so
+ * alerts of different priority compete for the same lanes.
+ * <p>
+ * Callbacks with different limits or overflow policies for the same endpoint get separate dispatchers, each with its
+ * own queue and in-flight limit, since a request can only be queued under a single set of limits. Their gauges are
+ * told apart by the limits in their names.
+ */
+public class AsyncJobDispatchers {
+    private final RundeckMetrics metrics;
+    private final ConcurrentMap<String, AsyncJobDispatcher> dispatchers = new ConcurrentHashMap<>();
+
+    public AsyncJobDispatchers(RundeckMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the dispatcher for the endpoint (scheme, host and port) of the given URL with the given limits. Calls
+     * have to be created by a client {@linkplain AsyncJobDispatcher#bind(OkHttpClient) bound} to it.
+     */
+    AsyncJobDispatcher forUrl(OkHttpClient httpClient, HttpUrl url, int maxInFlight, int maxPending,
+                              AsyncJobDispatcher.OverflowPolicy overflowPolicy) {
+        final String endpoint = url.scheme() + "://" + url.host() + ":" + url.port();
+        final String key = endpoint + "?inFlight=" + maxInFlight + "&pending=" + maxPending + "&overflow=" + overflowPolicy;
+        return dispatchers.computeIfAbsent(key, k -> {
+            final AsyncJobDispatcher dispatcher = new AsyncJobDispatcher(httpClient, maxInFlight, maxPending, overflowPolicy);
+            final String settings = maxInFlight + "-" + maxPending + "-" + overflowPolicy.name().toLowerCase(Locale.ENGLISH);
+            metrics.registerDispatcher(url.host() + ":" + url.port(), settings, dispatcher);
+            return dispatcher;
+        });
+    }
+
+    /**
+     * Waits until all dispatchers have sent their pending requests or the timeout has passed, and stops them.
+     *
+     * @return {@code true} if all pending requests have been sent
+     */
+    boolean shutdown(long timeout, TimeUnit unit) {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean drained = true;
+        for (AsyncJobDispatcher dispatcher : dispatchers.values()) {
+            try {
+                drained &= dispatcher.awaitDrained(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                drained = false;
+            }
+            dispatcher.shutdown();
+        }
+        return drained;
+    }
+}
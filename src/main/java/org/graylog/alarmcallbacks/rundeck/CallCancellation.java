@@ -0,0 +1,45 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+/**
+ * Marks the calls which the callback cancels itself, e.g. when the call timeout has passed or a hedged request has
+ * won, so interceptors can tell the cancellation apart from a failure of Rundeck.
+ * <p>
+ * OkHttp reports a cancelled call as an {@link java.io.IOException}, like any other I/O error, and interceptors don't
+ * have access to the call, so the mark is carried by the tag of the request.
+ */
+final class CallCancellation {
+    private volatile boolean canceled = false;
+
+    private CallCancellation() {
+    }
+
+    /**
+     * Creates a call which may be cancelled with {@link #cancel(Call)}.
+     */
+    static Call newCall(OkHttpClient client, Request request) {
+        return client.newCall(request.newBuilder().tag(new CallCancellation()).build());
+    }
+
+    /**
+     * Cancels the call. Cancelling a completed call has no effect.
+     */
+    static void cancel(Call call) {
+        final Object tag = call.request().tag();
+        if (tag instanceof CallCancellation) {
+            ((CallCancellation) tag).canceled = true;
+        }
+        call.cancel();
+    }
+
+    /**
+     * @return {@code true} if the call of the given request has been cancelled with {@link #cancel(Call)}
+     */
+    static boolean isCanceled(Request request) {
+        final Object tag = request.tag();
+        return tag instanceof CallCancellation && ((CallCancellation) tag).canceled;
+    }
+}
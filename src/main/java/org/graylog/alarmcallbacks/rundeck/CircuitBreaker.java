@@ -0,0 +1,112 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker for a single Rundeck endpoint.
+ * <p>
+ * After {@code failureThreshold} consecutive failures the breaker opens and rejects all requests for the configured
+ * duration. Afterwards a single probe request is let through (half-open state): if it succeeds the breaker closes
+ * again, otherwise it stays open for another period.
+ */
+class CircuitBreaker {
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final Ticker ticker;
+
+    private int failureThreshold;
+    private long openDurationNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0L;
+    private boolean probeInFlight = false;
+
+    /**
+     * @param failureThreshold number of consecutive failures which open the breaker, {@code 0} disables the breaker
+     */
+    CircuitBreaker(int failureThreshold, long openDuration, TimeUnit unit) {
+        this(failureThreshold, openDuration, unit, Ticker.systemTicker());
+    }
+
+    CircuitBreaker(int failureThreshold, long openDuration, TimeUnit unit, Ticker ticker) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = unit.toNanos(openDuration);
+        this.ticker = ticker;
+    }
+
+    /**
+     * @return {@code true} if a request may be sent, {@code false} if it should be rejected
+     */
+    synchronized boolean tryAcquire() {
+        switch (state) {
+            case OPEN:
+                if (ticker.read() - openedAt < openDurationNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return true;
+            case HALF_OPEN:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+            case CLOSED:
+            default:
+                return true;
+        }
+    }
+
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    /**
+     * Gives back the permit of a request which neither succeeded nor failed, e.g. because it was cancelled. A new
+     * probe may be sent right away.
+     */
+    synchronized void release() {
+        probeInFlight = false;
+    }
+
+    synchronized void onFailure() {
+        probeInFlight = false;
+        if (failureThreshold <= 0) {
+            return;
+        }
+
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = ticker.read();
+        }
+    }
+
+    /**
+     * Changes the settings, which apply from the next failure or the next request to an open breaker on.
+     */
+    synchronized void setSettings(int failureThreshold, long openDuration, TimeUnit unit) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = unit.toNanos(openDuration);
+    }
+
+    synchronized int failureThreshold() {
+        return failureThreshold;
+    }
+
+    synchronized long openDuration(TimeUnit unit) {
+        return unit.convert(openDurationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    synchronized State state() {
+        return state;
+    }
+}
@@ -0,0 +1,69 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.MapMaker;
+import okhttp3.HttpUrl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive concurrency limiters shared by all callbacks which send to the same Rundeck endpoint.
+ * <p>
+ * The limit protects the endpoint, so callbacks with different settings share a single limiter as well. The lowest
+ * maximum of all live callbacks applies, recomputed whenever a callback registers its maximum on initialization, while
+ * every callback waits for a free slot up to its own timeout, see {@link AdaptiveConcurrencyLimiter#admission(long,
+ * TimeUnit)}.
+ */
+public class ConcurrencyLimiters {
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrencyLimiters.class);
+
+    private final RundeckMetrics metrics;
+    private final ConcurrentMap<String, SharedConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    public ConcurrencyLimiters(RundeckMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Registers the maximum of the given owner, usually the configuration of a callback, and returns the limiter for
+     * the endpoint (scheme, host and port) of the given URL, whose maximum is the lowest one of all live owners. The
+     * owner is only weakly referenced.
+     */
+    AdaptiveConcurrencyLimiter forUrl(HttpUrl url, Object owner, int maxLimit) {
+        final String endpoint = url.scheme() + "://" + url.host() + ":" + url.port();
+        final SharedConcurrencyLimiter shared = limiters.computeIfAbsent(endpoint, k -> {
+            // every callback waits up to its own timeout
+            final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(maxLimit, 0L, TimeUnit.MILLISECONDS);
+            metrics.registerConcurrencyLimiter(url.host() + ":" + url.port(), limiter);
+            return new SharedConcurrencyLimiter(limiter);
+        });
+        shared.register(endpoint, owner, maxLimit);
+        return shared.limiter;
+    }
+
+    private static class SharedConcurrencyLimiter {
+        private final AdaptiveConcurrencyLimiter limiter;
+        // the maximum per owner, compared by identity and dropped once the owner has been garbage collected
+        private final ConcurrentMap<Object, Integer> registrations = new MapMaker().weakKeys().makeMap();
+
+        SharedConcurrencyLimiter(AdaptiveConcurrencyLimiter limiter) {
+            this.limiter = limiter;
+        }
+
+        synchronized void register(String endpoint, Object owner, int maxLimit) {
+            registrations.put(owner, Math.max(1, maxLimit));
+
+            int lowest = Integer.MAX_VALUE;
+            for (int registered : registrations.values()) {
+                lowest = Math.min(lowest, registered);
+            }
+            if (lowest != limiter.maxLimit()) {
+                limiter.setMaxLimit(lowest);
+                LOG.info("Maximum concurrency limit for Rundeck endpoint {} changed to {}", endpoint, lowest);
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Polls the status of triggered job executions until they have finished or timed out.
+ * <p>
+ * A single scheduler checks all tracked executions of all callbacks in one pass per tick and only queries those
+ * which are due, over the pooled connections of their Rundeck host. The polling interval of an execution starts
+ * short and doubles with every poll which finds it still running, so long-running jobs are queried less often.
+ * <p>
+ * At most {@link #MAX_TRACKED} executions are tracked; further executions are not tracked.
+ */
+public class ExecutionTracker {
+    private static final Logger LOG = LoggerFactory.getLogger(ExecutionTracker.class);
+
+    static final int MAX_TRACKED = 10_000;
+
+    enum Outcome {
+        SUCCEEDED, FAILED, TIMED_OUT,
+        /**
+         * Rundeck refused to report the status, e.g. because the execution has been deleted or the API token may not
+         * read it.
+         */
+        UNKNOWN
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Ticker ticker;
+    private final long initialIntervalNanos;
+    private final long maxIntervalNanos;
+    private final ConcurrentMap<String, TrackedExecution> executions = new ConcurrentHashMap<>();
+
+    public ExecutionTracker() {
+        this(Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("rundeck-execution-tracker-%d").setDaemon(true).build()),
+                Ticker.systemTicker(), 2000L, 60000L, 500L);
+    }
+
+    ExecutionTracker(ScheduledExecutorService scheduler,
+                     Ticker ticker,
+                     long initialIntervalMillis,
+                     long maxIntervalMillis,
+                     long tickMillis) {
+        this.scheduler = scheduler;
+        this.ticker = ticker;
+        this.initialIntervalNanos = TimeUnit.MILLISECONDS.toNanos(initialIntervalMillis);
+        this.maxIntervalNanos = TimeUnit.MILLISECONDS.toNanos(maxIntervalMillis);
+        scheduler.scheduleWithFixedDelay(this::poll, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts tracking an execution of the target's job.
+     *
+     * @return {@code false} if too many executions are tracked already
+     */
+    boolean track(RundeckTarget target, long executionId, long timeoutNanos) {
+        final String key = target.statusUrl(executionId).toString();
+        if (executions.size() >= MAX_TRACKED && !executions.containsKey(key)) {
+            LOG.debug("Not tracking execution {} of Rundeck job {}, too many executions tracked", executionId, target.jobId());
+            return false;
+        }
+
+        final long now = ticker.read();
+        executions.putIfAbsent(key, new TrackedExecution(key, target, executionId, now + timeoutNanos, now + initialIntervalNanos,
+                initialIntervalNanos));
+        return true;
+    }
+
+    /**
+     * Stops polling. Executions which are still tracked are abandoned.
+     */
+    void shutdown() {
+        scheduler.shutdownNow();
+        if (!executions.isEmpty()) {
+            LOG.info("Stopped tracking {} running Rundeck executions", executions.size());
+        }
+    }
+
+    int tracked() {
+        return executions.size();
+    }
+
+    private void poll() {
+        try {
+            final long now = ticker.read();
+            for (TrackedExecution execution : executions.values()) {
+                if (execution.polling.get()) {
+                    continue;
+                }
+                if (now - execution.deadline >= 0L) {
+                    finish(execution, Outcome.TIMED_OUT, "did not finish in time");
+                } else if (now - execution.nextPoll >= 0L && execution.polling.compareAndSet(false, true)) {
+                    execution.target.newStatusCall(execution.executionId).enqueue(new StatusCallback(execution));
+                }
+            }
+        } catch (Exception e) {
+            LOG.error("Unexpected error while polling Rundeck executions", e);
+        }
+    }
+
+    private void reschedule(TrackedExecution execution) {
+        execution.nextPoll = ticker.read() + execution.interval;
+        execution.interval = Math.min(execution.interval * 2L, maxIntervalNanos);
+        execution.polling.set(false);
+    }
+
+    private void finish(TrackedExecution execution, Outcome outcome, String status) {
+        if (!executions.remove(execution.key, execution)) {
+            return;
+        }
+
+        execution.target.metrics().markExecution(outcome);
+        if (outcome == Outcome.SUCCEEDED) {
+            LOG.debug("Execution {} of Rundeck job {} succeeded", execution.executionId, execution.target.jobId());
+        } else {
+            LOG.warn("Execution {} of Rundeck job {} {}", execution.executionId, execution.target.jobId(), status);
+        }
+    }
+
+    /**
+     * Maps the status of a Rundeck execution to its outcome.
+     *
+     * @return the outcome, or {@code null} if the execution hasn't finished yet
+     */
+    @Nullable
+    static Outcome outcome(String status) {
+        switch (status) {
+            case "succeeded":
+                return Outcome.SUCCEEDED;
+            case "failed":
+            case "failed-with-retry":
+            case "aborted":
+            case "timedout":
+                return Outcome.FAILED;
+            default:
+                return null;
+        }
+    }
+
+    private class StatusCallback implements Callback {
+        private final TrackedExecution execution;
+
+        StatusCallback(TrackedExecution execution) {
+            this.execution = execution;
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            LOG.debug("Couldn't check status of execution {} of Rundeck job {}", execution.executionId,
+                    execution.target.jobId(), e);
+            reschedule(execution);
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            try {
+                if (response.isSuccessful()) {
+                    final String status = JobRunRequestBody.executionStatus(response.body().byteStream());
+                    final Outcome outcome = status == null ? null : outcome(status);
+                    if (outcome != null) {
+                        finish(execution, outcome, status);
+                        return;
+                    }
+                } else if (response.code() != 429 && response.code() < 500) {
+                    finish(execution, Outcome.UNKNOWN, "couldn't be checked, HTTP response code: " + response.code());
+                    return;
+                }
+                reschedule(execution);
+            } catch (IOException e) {
+                onFailure(call, e);
+            } finally {
+                response.body().close();
+            }
+        }
+    }
+
+    private static class TrackedExecution {
+        private final String key;
+        private final RundeckTarget target;
+        private final long executionId;
+        private final long deadline;
+        private final AtomicBoolean polling = new AtomicBoolean();
+        private volatile long nextPoll;
+        private volatile long interval;
+
+        TrackedExecution(String key, RundeckTarget target, long executionId, long deadline, long nextPoll, long interval) {
+            this.key = key;
+            this.target = target;
+            this.executionId = executionId;
+            this.deadline = deadline;
+            this.nextPoll = nextPoll;
+            this.interval = interval;
+        }
+    }
+}
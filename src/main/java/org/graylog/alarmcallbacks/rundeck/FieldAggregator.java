@@ -0,0 +1,135 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.MessageSummary;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Aggregates the values of message fields over all messages matching an alert in a single pass.
+ * <p>
+ * The most frequent values of every field are tracked with the Space-Saving algorithm, so the memory used per field
+ * is bounded by {@link #capacity} no matter how many messages or distinct values there are. Counts are exact as long
+ * as a field has at most {@code capacity} distinct values and an upper bound otherwise.
+ */
+class FieldAggregator {
+    private static final int CAPACITY_PER_VALUE = 8;
+    private static final int MIN_CAPACITY = 64;
+
+    private final List<String> fields;
+    private final int topK;
+    private final int capacity;
+
+    FieldAggregator(Iterable<String> fields, int topK) {
+        this.fields = ImmutableList.copyOf(fields);
+        this.topK = topK;
+        this.capacity = Math.max(MIN_CAPACITY, topK * CAPACITY_PER_VALUE);
+    }
+
+    /**
+     * @return the summaries of all fields which are present in at least one message, in field order
+     */
+    Map<String, FieldSummary> aggregate(Iterable<MessageSummary> messages) {
+        final Map<String, FieldSummary> summaries = new LinkedHashMap<>();
+        for (String field : fields) {
+            summaries.put(field, new FieldSummary(capacity));
+        }
+
+        for (MessageSummary message : messages) {
+            for (Map.Entry<String, FieldSummary> entry : summaries.entrySet()) {
+                final Object value = RundeckCallPlan.fieldValue(message, entry.getKey());
+                if (value != null) {
+                    entry.getValue().add(String.valueOf(value));
+                }
+            }
+        }
+
+        summaries.values().removeIf(summary -> summary.total() == 0L);
+        return summaries;
+    }
+
+    int topK() {
+        return topK;
+    }
+
+    /**
+     * Bounded summary of the values of a single field.
+     */
+    static class FieldSummary {
+        private static final Comparator<Map.Entry<String, Counter>> BY_COUNT_DESCENDING =
+                Comparator.<Map.Entry<String, Counter>>comparingLong(entry -> entry.getValue().count)
+                        .reversed()
+                        .thenComparing(Map.Entry::getKey);
+
+        private final int capacity;
+        private final Map<String, Counter> counters = new HashMap<>();
+        private long distinct = 0L;
+        private long total = 0L;
+
+        FieldSummary(int capacity) {
+            this.capacity = capacity;
+        }
+
+        void add(String value) {
+            total++;
+
+            final Counter counter = counters.get(value);
+            if (counter != null) {
+                counter.count++;
+                return;
+            }
+
+            distinct++;
+            if (counters.size() < capacity) {
+                counters.put(value, new Counter(1L));
+                return;
+            }
+
+            // Space-Saving: the new value replaces the least frequent one and inherits its count
+            Map.Entry<String, Counter> min = null;
+            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+                if (min == null || entry.getValue().count < min.getValue().count) {
+                    min = entry;
+                }
+            }
+            counters.remove(min.getKey());
+            counters.put(value, new Counter(min.getValue().count + 1L));
+        }
+
+        /**
+         * @return up to {@code k} values, most frequent first
+         */
+        List<String> topValues(int k) {
+            return counters.entrySet().stream()
+                    .sorted(BY_COUNT_DESCENDING)
+                    .limit(k)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toCollection(ArrayList::new));
+        }
+
+        /**
+         * @return the number of distinct values, exact up to the capacity of the summary
+         */
+        long distinct() {
+            return distinct;
+        }
+
+        long total() {
+            return total;
+        }
+    }
+
+    private static class Counter {
+        private long count;
+
+        Counter(long count) {
+            this.count = count;
+        }
+    }
+}
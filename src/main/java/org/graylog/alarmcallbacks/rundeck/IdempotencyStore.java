@@ -0,0 +1,26 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.inject.ImplementedBy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the idempotency keys of triggered jobs, so an alert is not sent twice to the same job.
+ * <p>
+ * The default store only knows the keys of the local Graylog node. A store shared by all nodes of a cluster, e.g.
+ * backed by a database, can be bound by another plugin.
+ */
+@ImplementedBy(InMemoryIdempotencyStore.class)
+public interface IdempotencyStore {
+    /**
+     * Records the key, unless it has already been recorded within its time to live.
+     *
+     * @return {@code true} if the key has been recorded, {@code false} if it is a duplicate
+     */
+    boolean putIfAbsent(String key, long ttl, TimeUnit unit);
+
+    /**
+     * Removes the key, e.g. because the job couldn't be triggered and the alert may be sent again.
+     */
+    void remove(String key);
+}
@@ -0,0 +1,63 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the idempotency keys of the local Graylog node in memory.
+ * <p>
+ * At most {@link #MAX_KEYS} keys are kept; the least recently used keys are evicted first, even before their time
+ * to live has expired.
+ */
+@Singleton
+public class InMemoryIdempotencyStore implements IdempotencyStore {
+    static final int MAX_KEYS = 10_000;
+
+    private final Ticker ticker;
+    // key -> deadline in ticker nanos
+    private final ConcurrentMap<String, Long> keys;
+
+    @Inject
+    public InMemoryIdempotencyStore() {
+        this(Ticker.systemTicker(), MAX_KEYS);
+    }
+
+    InMemoryIdempotencyStore(Ticker ticker, int maxKeys) {
+        this.ticker = ticker;
+        final Cache<String, Long> cache = CacheBuilder.newBuilder().maximumSize(maxKeys).build();
+        this.keys = cache.asMap();
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, long ttl, TimeUnit unit) {
+        final long now = ticker.read();
+        final Long deadline = now + unit.toNanos(ttl);
+        while (true) {
+            final Long existing = keys.putIfAbsent(key, deadline);
+            if (existing == null) {
+                return true;
+            }
+            if (existing - now > 0L) {
+                return false;
+            }
+            if (keys.replace(key, existing, deadline)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        keys.remove(key);
+    }
+
+    int size() {
+        return keys.size();
+    }
+}
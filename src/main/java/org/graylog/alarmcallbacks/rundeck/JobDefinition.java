@@ -0,0 +1,102 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+/**
+ * The options declared by a Rundeck job, read from its XML job definition.
+ * <p>
+ * Options which are required and have no default value must be passed with every job execution. {@link #MISSING}
+ * stands for a job which doesn't exist.
+ */
+class JobDefinition {
+    static final JobDefinition MISSING = new JobDefinition(false, ImmutableSet.of(), ImmutableSet.of());
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = xmlInputFactory();
+
+    private final boolean exists;
+    private final Set<String> options;
+    private final Set<String> requiredOptions;
+
+    JobDefinition(boolean exists, Set<String> options, Set<String> requiredOptions) {
+        this.exists = exists;
+        this.options = ImmutableSet.copyOf(options);
+        this.requiredOptions = ImmutableSet.copyOf(requiredOptions);
+    }
+
+    private static XMLInputFactory xmlInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        // job definitions come from a remote server
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Reads the options of the first job in a Rundeck job list, e.g.
+     * {@code <joblist><job><context><options><option name="host" required="true"/></options></context></job></joblist>}.
+     */
+    static JobDefinition parse(InputStream definition) throws IOException {
+        final ImmutableSet.Builder<String> options = ImmutableSet.builder();
+        final ImmutableSet.Builder<String> requiredOptions = ImmutableSet.builder();
+        try {
+            final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(definition);
+            try {
+                int jobs = 0;
+                boolean inOptions = false;
+                while (reader.hasNext()) {
+                    final int event = reader.next();
+                    if (event == XMLStreamReader.START_ELEMENT) {
+                        final String element = reader.getLocalName();
+                        if ("job".equals(element) && ++jobs > 1) {
+                            break;
+                        } else if ("options".equals(element)) {
+                            inOptions = true;
+                        } else if (inOptions && "option".equals(element)) {
+                            final String name = reader.getAttributeValue(null, "name");
+                            if (name != null && !name.isEmpty()) {
+                                options.add(name);
+                                if (Boolean.parseBoolean(reader.getAttributeValue(null, "required"))
+                                        && reader.getAttributeValue(null, "value") == null) {
+                                    requiredOptions.add(name);
+                                }
+                            }
+                        }
+                    } else if (event == XMLStreamReader.END_ELEMENT && "options".equals(reader.getLocalName())) {
+                        inOptions = false;
+                    }
+                }
+                if (jobs == 0) {
+                    throw new IOException("Rundeck job definition doesn't contain a job");
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Couldn't parse Rundeck job definition", e);
+        }
+        return new JobDefinition(true, options.build(), requiredOptions.build());
+    }
+
+    boolean exists() {
+        return exists;
+    }
+
+    Set<String> options() {
+        return options;
+    }
+
+    /**
+     * @return the required options without a default value which are not among the given ones
+     */
+    Set<String> missingOptions(Set<String> passedOptions) {
+        return ImmutableSet.copyOf(Sets.difference(requiredOptions, passedOptions));
+    }
+}
@@ -0,0 +1,126 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Ticker;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Definitions of the Rundeck jobs triggered by all callbacks, cached for a time to live.
+ * <p>
+ * Looking up a definition never blocks: a cached definition is returned even if it is stale, while a single refresh
+ * per job runs in the background. Until the first refresh has finished, the definition is unknown. A failed refresh
+ * keeps the previous definition and is retried after the time to live, so jobs whose definition can't be read, e.g.
+ * because the API token may only run them, don't cause a request per alert.
+ */
+public class JobDefinitionCache {
+    private static final Logger LOG = LoggerFactory.getLogger(JobDefinitionCache.class);
+
+    private static final int NOT_FOUND = 404;
+
+    private final Ticker ticker;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public JobDefinitionCache() {
+        this(Ticker.systemTicker());
+    }
+
+    JobDefinitionCache(Ticker ticker) {
+        this.ticker = ticker;
+    }
+
+    /**
+     * Returns the cached definition of the target's job, and refreshes it in the background if it is older than the
+     * time to live.
+     *
+     * @return the definition, or {@code null} if it is unknown yet
+     */
+    @Nullable
+    JobDefinition get(RundeckTarget target, long ttlNanos) {
+        final Entry entry = entry(target);
+        final JobDefinition definition = entry.definition;
+        if (ticker.read() - entry.refreshAt >= 0L && entry.loading.compareAndSet(false, true)) {
+            target.newDefinitionCall().enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    failed(target, entry, ttlNanos, e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try {
+                        loaded(entry, ttlNanos, read(response));
+                    } catch (IOException e) {
+                        failed(target, entry, ttlNanos, e);
+                    } finally {
+                        response.body().close();
+                    }
+                }
+            });
+        }
+        return definition;
+    }
+
+    /**
+     * Loads the definition of the target's job right away and caches it.
+     *
+     * @throws IOException if the definition couldn't be loaded
+     */
+    JobDefinition load(RundeckTarget target, long ttlNanos) throws IOException {
+        final Entry entry = entry(target);
+        final Response response = target.newDefinitionCall().execute();
+        try {
+            final JobDefinition definition = read(response);
+            entry.definition = definition;
+            entry.refreshAt = ticker.read() + ttlNanos;
+            return definition;
+        } finally {
+            response.body().close();
+        }
+    }
+
+    private Entry entry(RundeckTarget target) {
+        // a new entry is due for a refresh right away
+        return entries.computeIfAbsent(target.definitionUrl().toString(), key -> new Entry(ticker.read()));
+    }
+
+    private static JobDefinition read(Response response) throws IOException {
+        if (response.code() == NOT_FOUND) {
+            return JobDefinition.MISSING;
+        }
+        if (!response.isSuccessful()) {
+            throw new IOException("Rundeck responded with HTTP status " + response.code());
+        }
+        return JobDefinition.parse(response.body().byteStream());
+    }
+
+    private void loaded(Entry entry, long ttlNanos, JobDefinition definition) {
+        entry.definition = definition;
+        entry.refreshAt = ticker.read() + ttlNanos;
+        entry.loading.set(false);
+    }
+
+    private void failed(RundeckTarget target, Entry entry, long ttlNanos, IOException e) {
+        LOG.debug("Couldn't load definition of Rundeck job {}", target.jobId(), e);
+        entry.refreshAt = ticker.read() + ttlNanos;
+        entry.loading.set(false);
+    }
+
+    private static class Entry {
+        private volatile JobDefinition definition;
+        private volatile long refreshAt;
+        private final AtomicBoolean loading = new AtomicBoolean();
+
+        Entry(long refreshAt) {
+            this.refreshAt = refreshAt;
+        }
+    }
+}
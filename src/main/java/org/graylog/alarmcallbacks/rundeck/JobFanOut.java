@@ -0,0 +1,180 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Triggers several Rundeck jobs concurrently and waits for their outcome.
+ * <p>
+ * Synchronous targets are sent in parallel and awaited with a single deadline for all of them. Targets in
+ * asynchronous mode only count as failed if their dispatcher rejects the request, and triggers dropped by a rate
+ * limit count as successful, just like for a single target.
+ */
+class JobFanOut {
+    private static final Logger LOG = LoggerFactory.getLogger(JobFanOut.class);
+
+    enum Mode {
+        /** Every job must be triggered successfully. */
+        ALL,
+        /** At least one job must be triggered successfully. */
+        ANY
+    }
+
+    private final Mode mode;
+    private final long timeoutNanos;
+
+    JobFanOut(Mode mode, long timeout, TimeUnit unit) {
+        this.mode = mode;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sends {@code requests.get(i)} to {@code targets.get(i)} and waits until the fan-out {@link Mode} is satisfied
+     * or the deadline has passed. Requests still in flight at the deadline are cancelled. The priority only applies
+     * to targets in asynchronous mode. {@code failureHandlers.get(i)} runs if the trigger of {@code targets.get(i)} is
+     * dropped by its rate limit or fails in asynchronous mode.
+     *
+     * @see RundeckTarget#send(Request, TriggerPriority, Runnable)
+     */
+    void send(List<RundeckTarget> targets,
+              List<Request> requests,
+              List<Runnable> failureHandlers,
+              TriggerPriority priority) throws AlarmCallbackException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        final Outcome outcome = new Outcome(targets.size());
+        final List<Call> calls = new ArrayList<>(targets.size());
+
+        for (int i = 0; i < targets.size(); i++) {
+            final RundeckTarget target = targets.get(i);
+            final Request request = requests.get(i);
+            try {
+                if (target.isAsync()) {
+                    target.send(request, priority, failureHandlers.get(i));
+                    outcome.succeeded();
+                } else if (!target.acquirePermit()) {
+                    failureHandlers.get(i).run();
+                    outcome.succeeded();
+                } else {
+                    final Call call = target.newCall(request);
+                    calls.add(call);
+                    call.enqueue(new OutcomeCallback(target, outcome));
+                }
+            } catch (Exception e) {
+                outcome.failed(new AlarmCallbackException("Failed to send alarm to Rundeck job " + target.jobId(), e));
+            }
+        }
+
+        final boolean completed;
+        try {
+            completed = outcome.await(mode, deadline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelAll(calls);
+            throw new AlarmCallbackException("Interrupted while waiting for Rundeck", e);
+        }
+
+        if (!completed) {
+            cancelAll(calls);
+            throw new AlarmCallbackException("Rundeck jobs were not triggered within "
+                    + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+        }
+
+        outcome.check(mode);
+    }
+
+    private static void cancelAll(List<Call> calls) {
+        for (Call call : calls) {
+            CallCancellation.cancel(call);
+        }
+    }
+
+    private static class OutcomeCallback implements Callback {
+        private final RundeckTarget target;
+        private final Outcome outcome;
+
+        OutcomeCallback(RundeckTarget target, Outcome outcome) {
+            this.target = target;
+            this.outcome = outcome;
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            outcome.failed(new AlarmCallbackException("Failed to send alarm to Rundeck job " + target.jobId(), e));
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) throws IOException {
+            try {
+                RundeckTarget.checkResponse(response);
+                target.triggered(response);
+                outcome.succeeded();
+            } catch (AlarmCallbackException e) {
+                outcome.failed(new AlarmCallbackException("Failed to send alarm to Rundeck job " + target.jobId(), e));
+            } finally {
+                response.body().close();
+            }
+        }
+    }
+
+    private static class Outcome {
+        private final int total;
+        private int succeeded = 0;
+        private final List<AlarmCallbackException> failures = new ArrayList<>();
+
+        Outcome(int total) {
+            this.total = total;
+        }
+
+        synchronized void succeeded() {
+            succeeded++;
+            notifyAll();
+        }
+
+        synchronized void failed(AlarmCallbackException e) {
+            LOG.debug("Fan-out to Rundeck failed", e);
+            failures.add(e);
+            notifyAll();
+        }
+
+        private boolean isDone(Mode mode) {
+            return succeeded + failures.size() == total || (mode == Mode.ANY && succeeded > 0);
+        }
+
+        /**
+         * @return {@code true} if the outcome is known before the deadline
+         */
+        synchronized boolean await(Mode mode, long deadline) throws InterruptedException {
+            while (!isDone(mode)) {
+                final long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0L) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+            }
+            return true;
+        }
+
+        synchronized void check(Mode mode) throws AlarmCallbackException {
+            if (failures.isEmpty() || (mode == Mode.ANY && succeeded > 0)) {
+                return;
+            }
+
+            final AlarmCallbackException e = new AlarmCallbackException("Failed to trigger " + failures.size()
+                    + " of " + total + " Rundeck jobs", failures.get(0));
+            for (AlarmCallbackException failure : failures.subList(1, failures.size())) {
+                e.addSuppressed(failure);
+            }
+            throw e;
+        }
+    }
+}
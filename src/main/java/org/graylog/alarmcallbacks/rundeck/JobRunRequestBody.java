@@ -0,0 +1,113 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * JSON body of a job execution request to the Rundeck API, e.g.
+ * {@code {"options":{"source":"example.org"},"filter":"tags: linux","asUser":"alice"}}.
+ * <p>
+ * The body is written straight to the connection each time it is sent, without building an intermediate tree or
+ * string, so retries and the outbox can write it again.
+ */
+class JobRunRequestBody extends RequestBody {
+    static final MediaType APPLICATION_JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private final Map<String, String> options;
+    private final String filter;
+    private final String asUser;
+
+    JobRunRequestBody(Map<String, String> options, @Nullable String filter, @Nullable String asUser) {
+        this.options = options;
+        this.filter = filter;
+        this.asUser = asUser;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return APPLICATION_JSON;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(sink.outputStream())) {
+            generator.writeStartObject();
+            if (!options.isEmpty()) {
+                generator.writeObjectFieldStart("options");
+                for (Map.Entry<String, String> option : options.entrySet()) {
+                    generator.writeStringField(option.getKey(), option.getValue());
+                }
+                generator.writeEndObject();
+            }
+            if (filter != null) {
+                generator.writeStringField("filter", filter);
+            }
+            if (asUser != null) {
+                generator.writeStringField("asUser", asUser);
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Reads the ID of the job execution from the JSON response of the Rundeck API.
+     *
+     * @return the execution ID, or {@code -1} if the response doesn't contain one
+     */
+    static long executionId(InputStream response) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return -1L;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if ("id".equals(fieldName) && (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_STRING)) {
+                    return value == JsonToken.VALUE_NUMBER_INT ? parser.getLongValue() : Long.parseLong(parser.getText());
+                }
+                parser.skipChildren();
+            }
+            return -1L;
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Reads the status of a job execution, e.g. {@code running} or {@code succeeded}, from the JSON response of the
+     * Rundeck API.
+     *
+     * @return the status, or {@code null} if the response doesn't contain one
+     */
+    @Nullable
+    static String executionStatus(InputStream response) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if ("status".equals(fieldName) && value == JsonToken.VALUE_STRING) {
+                    return parser.getText();
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+}
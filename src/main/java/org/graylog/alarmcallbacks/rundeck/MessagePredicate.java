@@ -0,0 +1,412 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.primitives.Doubles;
+import org.graylog2.plugin.MessageSummary;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiled condition on the fields of a message, which decides whether an alert triggers the job at all, e.g.
+ * {@code level <= 3 && source ~ "db-*"}.
+ * <p>
+ * A condition compares message fields with {@code ==}, {@code !=}, {@code <}, {@code <=}, {@code >} and {@code >=},
+ * matches them against a glob pattern with {@code ~} ({@code *} and {@code ?} as wildcards) or against a regular
+ * expression with {@code =~}, and combines comparisons with {@code &&}, {@code ||}, {@code !} and parentheses.
+ * Values are numbers, bare words or double quoted strings. Ordering operators need a number and compare numerically;
+ * {@code ==} and {@code !=} compare numerically if both sides are numbers, and as text otherwise. A missing field
+ * doesn't match any comparison but {@code !=}.
+ * <p>
+ * The condition is parsed once into a tree with all patterns compiled up front. Operands of {@code &&} and {@code ||}
+ * are evaluated cheapest first, and evaluation stops as soon as the outcome is known.
+ */
+class MessagePredicate {
+    private static final CharMatcher NAME_MATCHER = CharMatcher.inRange('a', 'z')
+            .or(CharMatcher.inRange('A', 'Z'))
+            .or(CharMatcher.inRange('0', '9'))
+            .or(CharMatcher.anyOf("_-.@"))
+            .precomputed();
+    private static final CharMatcher WORD_MATCHER = NAME_MATCHER.or(CharMatcher.anyOf("*?+:/")).precomputed();
+    private static final CharMatcher OPERATOR_MATCHER = CharMatcher.anyOf("=!<>~").precomputed();
+
+    private final Node root;
+
+    private MessagePredicate(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the condition is invalid
+     */
+    static MessagePredicate compile(String condition) {
+        final Parser parser = new Parser(condition);
+        final Node root = parser.or();
+        if (parser.hasNext()) {
+            throw parser.error("Unexpected '" + parser.peek() + "'");
+        }
+        return new MessagePredicate(root);
+    }
+
+    /**
+     * Tests the condition against the given messages. An alert without messages is tested against a message without
+     * any fields.
+     *
+     * @return {@code true} if at least one message matches
+     */
+    boolean matchesAny(List<MessageSummary> messages) {
+        if (messages.isEmpty()) {
+            return root.test(null);
+        }
+        for (MessageSummary message : messages) {
+            if (root.test(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean matches(@Nullable MessageSummary message) {
+        return root.test(message);
+    }
+
+    private enum Operator {
+        EQ("=="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">="), GLOB("~"), REGEX("=~");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        @Nullable
+        static Operator of(String symbol) {
+            for (Operator operator : values()) {
+                if (operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            return null;
+        }
+
+        boolean isOrdering() {
+            return this == LT || this == LE || this == GT || this == GE;
+        }
+    }
+
+    private static class Parser {
+        private final String condition;
+        private int position = 0;
+
+        Parser(String condition) {
+            this.condition = condition;
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position + ": " + condition);
+        }
+
+        private void skipWhitespace() {
+            while (position < condition.length() && Character.isWhitespace(condition.charAt(position))) {
+                position++;
+            }
+        }
+
+        boolean hasNext() {
+            skipWhitespace();
+            return position < condition.length();
+        }
+
+        char peek() {
+            return condition.charAt(position);
+        }
+
+        private boolean consume(String token) {
+            skipWhitespace();
+            if (condition.startsWith(token, position)) {
+                position += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        Node or() {
+            final List<Node> operands = new ArrayList<>();
+            operands.add(and());
+            while (consume("||")) {
+                operands.add(and());
+            }
+            return operands.size() == 1 ? operands.get(0) : new Junction(operands, true);
+        }
+
+        private Node and() {
+            final List<Node> operands = new ArrayList<>();
+            operands.add(unary());
+            while (consume("&&")) {
+                operands.add(unary());
+            }
+            return operands.size() == 1 ? operands.get(0) : new Junction(operands, false);
+        }
+
+        private Node unary() {
+            skipWhitespace();
+            if (condition.startsWith("!", position) && !condition.startsWith("!=", position)) {
+                position++;
+                return new Not(unary());
+            }
+            if (consume("(")) {
+                final Node node = or();
+                if (!consume(")")) {
+                    throw error("Expected ')'");
+                }
+                return node;
+            }
+            return comparison();
+        }
+
+        private Node comparison() {
+            final String field = token(NAME_MATCHER);
+            if (field.isEmpty()) {
+                throw error("Expected field name");
+            }
+
+            final String symbol = token(OPERATOR_MATCHER);
+            final Operator operator = Operator.of(symbol);
+            if (operator == null) {
+                throw error(symbol.isEmpty() ? "Expected operator after '" + field + "'" : "Unknown operator '" + symbol + "'");
+            }
+
+            final String value = value();
+            switch (operator) {
+                case GLOB:
+                    return new Matches(field, globPattern(value), true);
+                case REGEX:
+                    try {
+                        return new Matches(field, Pattern.compile(value), false);
+                    } catch (PatternSyntaxException e) {
+                        throw error("Invalid regular expression '" + value + "'");
+                    }
+                default:
+                    final Double number = Doubles.tryParse(value);
+                    if (operator.isOrdering() && number == null) {
+                        throw error("Expected number after '" + symbol + "'");
+                    }
+                    return new Compare(field, operator, value, number);
+            }
+        }
+
+        private String token(CharMatcher matcher) {
+            skipWhitespace();
+            final int start = position;
+            while (position < condition.length() && matcher.matches(condition.charAt(position))) {
+                position++;
+            }
+            return condition.substring(start, position);
+        }
+
+        private String value() {
+            skipWhitespace();
+            if (position < condition.length() && condition.charAt(position) == '"') {
+                final StringBuilder value = new StringBuilder();
+                position++;
+                while (position < condition.length()) {
+                    final char c = condition.charAt(position++);
+                    if (c == '"') {
+                        return value.toString();
+                    }
+                    if (c == '\\' && position < condition.length()) {
+                        value.append(condition.charAt(position++));
+                    } else {
+                        value.append(c);
+                    }
+                }
+                throw error("Unterminated string");
+            }
+
+            final String value = token(WORD_MATCHER);
+            if (value.isEmpty()) {
+                throw error("Expected value");
+            }
+            return value;
+        }
+    }
+
+    private static Pattern globPattern(String glob) {
+        final StringBuilder regex = new StringBuilder(glob.length() + 8);
+        final StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    @Nullable
+    private static Object fieldValue(@Nullable MessageSummary message, String field) {
+        return message == null ? null : RundeckCallPlan.fieldValue(message, field);
+    }
+
+    private abstract static class Node {
+        abstract boolean test(@Nullable MessageSummary message);
+
+        /**
+         * Returns the relative cost of evaluating the node.
+         */
+        abstract int cost();
+    }
+
+    private static class Junction extends Node {
+        private final Node[] operands;
+        private final boolean any;
+        private final int cost;
+
+        Junction(List<Node> operands, boolean any) {
+            this.operands = operands.toArray(new Node[operands.size()]);
+            // the operands have no side effects, so cheap ones can decide the outcome first
+            Arrays.sort(this.operands, Comparator.comparingInt(Node::cost));
+            this.any = any;
+            this.cost = Arrays.stream(this.operands).mapToInt(Node::cost).sum();
+        }
+
+        @Override
+        boolean test(@Nullable MessageSummary message) {
+            for (Node operand : operands) {
+                if (operand.test(message) == any) {
+                    return any;
+                }
+            }
+            return !any;
+        }
+
+        @Override
+        int cost() {
+            return cost;
+        }
+    }
+
+    private static class Not extends Node {
+        private final Node operand;
+
+        Not(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean test(@Nullable MessageSummary message) {
+            return !operand.test(message);
+        }
+
+        @Override
+        int cost() {
+            return operand.cost();
+        }
+    }
+
+    private static class Compare extends Node {
+        private final String field;
+        private final Operator operator;
+        private final String text;
+        private final Double number;
+
+        Compare(String field, Operator operator, String text, @Nullable Double number) {
+            this.field = field;
+            this.operator = operator;
+            this.text = text;
+            this.number = number;
+        }
+
+        @Override
+        boolean test(@Nullable MessageSummary message) {
+            final Object value = fieldValue(message, field);
+            if (value == null) {
+                return operator == Operator.NE;
+            }
+
+            final Double actual = number == null ? null : number(value);
+            if (actual == null) {
+                switch (operator) {
+                    case EQ:
+                        return text.equals(value.toString());
+                    case NE:
+                        return !text.equals(value.toString());
+                    default:
+                        return false;
+                }
+            }
+
+            final int comparison = Double.compare(actual, number);
+            switch (operator) {
+                case EQ:
+                    return comparison == 0;
+                case NE:
+                    return comparison != 0;
+                case LT:
+                    return comparison < 0;
+                case LE:
+                    return comparison <= 0;
+                case GT:
+                    return comparison > 0;
+                case GE:
+                default:
+                    return comparison >= 0;
+            }
+        }
+
+        @Nullable
+        private static Double number(Object value) {
+            return value instanceof Number ? Double.valueOf(((Number) value).doubleValue()) : Doubles.tryParse(value.toString().trim());
+        }
+
+        @Override
+        int cost() {
+            return 1;
+        }
+    }
+
+    private static class Matches extends Node {
+        private final String field;
+        private final Pattern pattern;
+        private final boolean glob;
+
+        /**
+         * @param glob {@code true} if the pattern has to match the whole value, {@code false} if it may match
+         *             anywhere in it
+         */
+        Matches(String field, Pattern pattern, boolean glob) {
+            this.field = field;
+            this.pattern = pattern;
+            this.glob = glob;
+        }
+
+        @Override
+        boolean test(@Nullable MessageSummary message) {
+            final Object value = fieldValue(message, field);
+            if (value == null) {
+                return false;
+            }
+            return glob ? pattern.matcher(value.toString()).matches() : pattern.matcher(value.toString()).find();
+        }
+
+        @Override
+        int cost() {
+            // globs compile to simple patterns
+            return glob ? 2 : 3;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.MapMaker;
+import okhttp3.HttpUrl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiters shared by all callbacks which trigger the same job on the same Rundeck endpoint.
+ * <p>
+ * The rate limit protects the job, so all callbacks triggering it share a single rate limiter, even if they configure
+ * different limits. The strictest rate and the strictest burst of all live callbacks apply: every callback registers
+ * its limits on initialization, and the registrations of callbacks which Graylog has discarded are dropped with them,
+ * so raising a limit or deleting the strictest callback takes effect without a restart.
+ */
+public class RateLimiters {
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimiters.class);
+
+    private final ConcurrentMap<String, SharedRateLimiter> rateLimiters = new ConcurrentHashMap<>();
+
+    public RateLimiters() {
+    }
+
+    /**
+     * Registers the limits of the given owner, usually the configuration of a callback, and returns the rate limiter
+     * for the given job, which is set to the strictest limits of all live owners. The owner is only weakly referenced.
+     */
+    TokenBucketRateLimiter forJob(HttpUrl url, String jobId, Object owner, int permitsPerMinute, int burst) {
+        final String key = url.scheme() + "://" + url.host() + ":" + url.port() + "/" + jobId;
+        final SharedRateLimiter shared = rateLimiters.computeIfAbsent(key, k -> new SharedRateLimiter(permitsPerMinute, burst));
+        shared.register(key, owner, permitsPerMinute, burst);
+        return shared.rateLimiter;
+    }
+
+    private static class SharedRateLimiter {
+        private final TokenBucketRateLimiter rateLimiter;
+        // the limits per owner, compared by identity and dropped once the owner has been garbage collected
+        private final ConcurrentMap<Object, int[]> registrations = new MapMaker().weakKeys().makeMap();
+        // the conflicting limits logged so far, so every conflict is only logged once
+        private final Set<String> conflicts = new HashSet<>();
+        private int permitsPerMinute;
+        private int burst;
+
+        SharedRateLimiter(int permitsPerMinute, int burst) {
+            this.rateLimiter = new TokenBucketRateLimiter(permitsPerMinute, TimeUnit.MINUTES, burst);
+            this.permitsPerMinute = permitsPerMinute;
+            this.burst = burst;
+        }
+
+        synchronized void register(String key, Object owner, int permitsPerMinute, int burst) {
+            registrations.put(owner, new int[]{permitsPerMinute, burst});
+
+            int strictestPermits = permitsPerMinute;
+            int strictestBurst = burst;
+            boolean conflicting = false;
+            for (int[] limits : registrations.values()) {
+                strictestPermits = Math.min(strictestPermits, limits[0]);
+                strictestBurst = Math.min(strictestBurst, limits[1]);
+                conflicting |= limits[0] != permitsPerMinute || limits[1] != burst;
+            }
+
+            if (strictestPermits != this.permitsPerMinute || strictestBurst != this.burst) {
+                this.permitsPerMinute = strictestPermits;
+                this.burst = strictestBurst;
+                rateLimiter.setLimits(strictestPermits, TimeUnit.MINUTES, strictestBurst);
+                LOG.info("Rate limit for Rundeck job {} changed to {} per minute with a burst of {}",
+                        key, strictestPermits, strictestBurst);
+            }
+            final String conflict = strictestPermits + "/" + strictestBurst + " " + permitsPerMinute + "/" + burst;
+            if (conflicting && conflicts.add(conflict)) {
+                LOG.warn("Callbacks use different rate limits for Rundeck job {}, using the strictest one of {} per "
+                        + "minute with a burst of {}", key, strictestPermits, strictestBurst);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.google.common.base.Ticker;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hedges job execution requests against a secondary Rundeck URL, e.g. another front-end of the same Rundeck cluster.
+ * <p>
+ * The request is sent to the primary URL first. If it hasn't been answered within a percentile of the recent response
+ * times of the primary URL, or if it failed, the same request is sent to the secondary URL as well. The first
+ * successful response wins and the other request is cancelled. Only the slowest requests are hedged, so the load on
+ * Rundeck barely grows, while a slow front-end no longer dominates the time it takes to trigger a job.
+ * <p>
+ * Both front-ends may trigger the job if they respond at nearly the same time. Passing the idempotency key to the job
+ * lets it detect this.
+ * <p>
+ * The response time of every request to the primary URL is recorded, whether it succeeded or failed. A request which
+ * lost the race or ran out of time counts with the time until it was cancelled, so a primary URL which is slower than
+ * the secondary one doesn't look fast just because its slow responses are never seen.
+ * <p>
+ * The minimum delay is used until {@link #MIN_SAMPLES} response times are known, and whenever the percentile is
+ * shorter. The percentile is recomputed at most once per second.
+ */
+class RequestHedger {
+    private static final Logger LOG = LoggerFactory.getLogger(RequestHedger.class);
+
+    static final int MIN_SAMPLES = 20;
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1L);
+    // no call timeout, but the deadline must not overflow
+    private static final long UNBOUNDED_NANOS = Long.MAX_VALUE / 2L;
+
+    private final double quantile;
+    private final long minDelayNanos;
+    private final Ticker ticker;
+    private final Histogram latencies = new Histogram(new ExponentiallyDecayingReservoir());
+    private volatile long delayNanos;
+    private volatile long refreshedAt;
+
+    RequestHedger(int percentile, long minDelay, TimeUnit unit) {
+        this(percentile, minDelay, unit, Ticker.systemTicker());
+    }
+
+    RequestHedger(int percentile, long minDelay, TimeUnit unit, Ticker ticker) {
+        this.quantile = percentile / 100.0;
+        this.minDelayNanos = unit.toNanos(minDelay);
+        this.ticker = ticker;
+        this.delayNanos = minDelayNanos;
+        this.refreshedAt = ticker.read();
+    }
+
+    /**
+     * Returns how long to wait for the primary URL before hedging.
+     */
+    long delayNanos() {
+        final long now = ticker.read();
+        if (now - refreshedAt >= REFRESH_NANOS) {
+            refreshedAt = now;
+            delayNanos = latencies.getCount() < MIN_SAMPLES
+                    ? minDelayNanos
+                    : Math.max(minDelayNanos, (long) latencies.getSnapshot().getValue(quantile));
+        }
+        return delayNanos;
+    }
+
+    void recordLatency(long nanos) {
+        latencies.update(nanos);
+    }
+
+    /**
+     * Sends the primary request, and the secondary request if the primary one is slow or failed, subject to the rate
+     * limit of the primary target. The handler runs if the rate limit dropped the trigger.
+     *
+     * @param timeoutNanos the time available for both requests, {@code 0} for no limit
+     * @return the ID of the job execution, or {@code -1} if it is unknown
+     * @throws AlarmCallbackException if both requests failed or no request succeeded within the timeout
+     */
+    long send(RundeckTarget primary,
+              Request primaryRequest,
+              RundeckTarget secondary,
+              Request secondaryRequest,
+              long timeoutNanos,
+              Runnable onDropped) throws AlarmCallbackException {
+        if (!primary.acquirePermit()) {
+            onDropped.run();
+            return -1L;
+        }
+
+        final long start = System.nanoTime();
+        final long budgetNanos = timeoutNanos > 0L ? timeoutNanos : UNBOUNDED_NANOS;
+        final long deadline = start + budgetNanos;
+        final Race race = new Race();
+        final Call primaryCall = primary.newCall(primaryRequest);
+        Call secondaryCall = null;
+        try {
+            primaryCall.enqueue(race.callback(primary, start, true));
+            race.await(start + Math.min(delayNanos(), budgetNanos));
+
+            if (!race.isSucceeded() && deadline - System.nanoTime() > 0L) {
+                LOG.debug("Hedging request to Rundeck job {} after {} ms", primary.jobId(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                primary.metrics().markHedged();
+                race.started();
+                secondaryCall = secondary.newCall(secondaryRequest);
+                secondaryCall.enqueue(race.callback(secondary, start, false));
+                race.await(deadline);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AlarmCallbackException("Interrupted while waiting for Rundeck job " + primary.jobId());
+        } finally {
+            // cancelling a completed call has no effect
+            race.completedPrimary(start);
+            CallCancellation.cancel(primaryCall);
+            if (secondaryCall != null) {
+                CallCancellation.cancel(secondaryCall);
+            }
+        }
+
+        return race.outcome(primary.jobId(), timeoutNanos);
+    }
+
+    private class Race {
+        private int pending = 1;
+        private boolean primaryCompleted = false;
+        private boolean succeeded = false;
+        private long executionId = -1L;
+        private final List<Exception> failures = new ArrayList<>(2);
+
+        synchronized void started() {
+            pending++;
+        }
+
+        /**
+         * Records the response time of the primary request, unless it has already been recorded.
+         */
+        synchronized void completedPrimary(long start) {
+            if (!primaryCompleted) {
+                primaryCompleted = true;
+                recordLatency(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * @return {@code true} if this is the first successful request
+         */
+        synchronized boolean succeeded(long executionId) {
+            pending--;
+            notifyAll();
+            if (succeeded) {
+                return false;
+            }
+            this.succeeded = true;
+            this.executionId = executionId;
+            return true;
+        }
+
+        synchronized void failed(Exception e) {
+            LOG.debug("Hedged request to Rundeck failed", e);
+            failures.add(e);
+            pending--;
+            notifyAll();
+        }
+
+        synchronized boolean isSucceeded() {
+            return succeeded;
+        }
+
+        /**
+         * Waits until a request succeeded, all requests failed or the deadline has passed.
+         */
+        synchronized void await(long deadline) throws InterruptedException {
+            while (!succeeded && pending > 0) {
+                final long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0L) {
+                    return;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+            }
+        }
+
+        synchronized long outcome(String jobId, long timeoutNanos) throws AlarmCallbackException {
+            if (succeeded) {
+                return executionId;
+            }
+            if (pending > 0) {
+                throw new AlarmCallbackException("Rundeck job " + jobId + " was not triggered within "
+                        + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+            }
+
+            final Exception failure = failures.get(0);
+            final AlarmCallbackException e = failure instanceof AlarmCallbackException
+                    ? (AlarmCallbackException) failure
+                    : new AlarmCallbackException("Failed to send alarm to Rundeck", failure);
+            for (Exception other : failures.subList(1, failures.size())) {
+                e.addSuppressed(other);
+            }
+            throw e;
+        }
+
+        Callback callback(RundeckTarget target, long start, boolean primary) {
+            return new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    if (primary) {
+                        completedPrimary(start);
+                    }
+                    failed(e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    if (primary) {
+                        completedPrimary(start);
+                    }
+                    try {
+                        RundeckTarget.checkResponse(response);
+                        final long executionId = target.triggered(response);
+                        if (succeeded(executionId) && !primary) {
+                            target.metrics().markHedgeWon();
+                        }
+                    } catch (Exception e) {
+                        failed(e);
+                    } finally {
+                        response.body().close();
+                    }
+                }
+            };
+        }
+    }
+}
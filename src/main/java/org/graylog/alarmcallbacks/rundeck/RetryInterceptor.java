@@ -0,0 +1,161 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries requests to Rundeck with exponential backoff and full jitter, guarded by a {@link CircuitBreaker}.
+ * <p>
+ * Only I/O errors and HTTP responses with status code 429 or 5xx are retried. A {@code Retry-After} header is
+ * honored: the request is never retried earlier than requested, and not at all if the requested delay exceeds the
+ * maximum backoff.
+ * <p>
+ * All attempts of a call share one deadline: a request is not retried if the backoff would end after the deadline.
+ * <p>
+ * A call cancelled with {@link CallCancellation} is neither retried nor counted as a failure of the endpoint.
+ */
+class RetryInterceptor implements Interceptor {
+    private static final Logger LOG = LoggerFactory.getLogger(RetryInterceptor.class);
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final CircuitBreaker circuitBreaker;
+    private final long callTimeoutNanos;
+
+    RetryInterceptor(int maxRetries, long initialBackoffMillis, long maxBackoffMillis, CircuitBreaker circuitBreaker) {
+        this(maxRetries, initialBackoffMillis, maxBackoffMillis, circuitBreaker, 0L);
+    }
+
+    /**
+     * @param callTimeoutMillis the time available for all attempts of a call, {@code 0} for no limit
+     */
+    RetryInterceptor(int maxRetries,
+                     long initialBackoffMillis,
+                     long maxBackoffMillis,
+                     CircuitBreaker circuitBreaker,
+                     long callTimeoutMillis) {
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.circuitBreaker = circuitBreaker;
+        this.callTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(callTimeoutMillis);
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        final Request request = chain.request();
+        final long deadline = System.nanoTime() + callTimeoutNanos;
+
+        for (int attempt = 0; ; attempt++) {
+            if (attempt > 0 && CallCancellation.isCanceled(request)) {
+                throw new IOException("Canceled");
+            }
+            if (!circuitBreaker.tryAcquire()) {
+                throw new CircuitBreakerOpenException("Circuit breaker for Rundeck host " + request.url().host() + " is open");
+            }
+
+            Response response = null;
+            IOException failure = null;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                if (CallCancellation.isCanceled(request)) {
+                    circuitBreaker.release();
+                    throw e;
+                }
+                failure = e;
+            } catch (RuntimeException e) {
+                // e.g. a failing interceptor, the breaker must not wait for the outcome of a probe forever
+                circuitBreaker.onFailure();
+                throw e;
+            }
+
+            if (response != null && !isRetryable(response.code())) {
+                circuitBreaker.onSuccess();
+                return response;
+            }
+            circuitBreaker.onFailure();
+
+            long delayMillis = attempt < maxRetries ? delayMillis(attempt, response) : -1L;
+            if (delayMillis >= 0L && callTimeoutNanos > 0L
+                    && System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) - deadline >= 0L) {
+                LOG.debug("Not retrying request to Rundeck, the backoff of {} ms would exceed the call deadline", delayMillis);
+                delayMillis = -1L;
+            }
+            if (delayMillis < 0L) {
+                if (failure != null) {
+                    throw failure;
+                }
+                return response;
+            }
+
+            if (response != null) {
+                LOG.debug("Rundeck responded with HTTP status {}, retrying in {} ms", response.code(), delayMillis);
+                response.body().close();
+            } else {
+                LOG.debug("Request to Rundeck failed, retrying in {} ms", delayMillis, failure);
+            }
+            sleep(delayMillis);
+        }
+    }
+
+    static boolean isRetryable(int code) {
+        return code == TOO_MANY_REQUESTS || code >= 500;
+    }
+
+    /**
+     * @return the delay before the next attempt, or {@code -1} if the request must not be retried
+     */
+    private long delayMillis(int attempt, @Nullable Response response) {
+        final long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt, 30));
+        final long jittered = ThreadLocalRandom.current().nextLong(backoff + 1L);
+
+        final long retryAfter = response == null ? -1L : retryAfterMillis(response);
+        if (retryAfter > maxBackoffMillis) {
+            return -1L;
+        }
+        return Math.max(jittered, retryAfter);
+    }
+
+    private static long retryAfterMillis(Response response) {
+        final String retryAfter = response.header("Retry-After");
+        if (retryAfter == null) {
+            return -1L;
+        }
+
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            final Date date = response.headers().getDate("Retry-After");
+            return date == null ? -1L : Math.max(0L, date.getTime() - System.currentTimeMillis());
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry request to Rundeck");
+        }
+    }
+
+    static class CircuitBreakerOpenException extends IOException {
+        CircuitBreakerOpenException(String message) {
+            super(message);
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package org.graylog.alarmcallbacks.rundeck;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.base.CharMatcher;
+import com.google.common.base.Enums;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
-import okhttp3.HttpUrl;
-import okhttp3.MediaType;
+import com.google.common.collect.Sets;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
 import org.graylog2.plugin.MessageSummary;
 import org.graylog2.plugin.alarms.AlertCondition;
 import org.graylog2.plugin.alarms.callbacks.AlarmCallback;
@@ -18,148 +21,288 @@ import org.graylog2.plugin.configuration.ConfigurationException;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
 import org.graylog2.plugin.configuration.fields.BooleanField;
 import org.graylog2.plugin.configuration.fields.ConfigurationField;
+import org.graylog2.plugin.configuration.fields.DropdownField;
+import org.graylog2.plugin.configuration.fields.NumberField;
 import org.graylog2.plugin.configuration.fields.TextField;
 import org.graylog2.plugin.streams.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
-import javax.ws.rs.core.HttpHeaders;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Arrays;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-
-import static java.util.Objects.requireNonNull;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class RundeckAlarmCallback implements AlarmCallback {
     private static final Logger LOG = LoggerFactory.getLogger(RundeckAlarmCallback.class);
 
-    private static final String CK_RUNDECK_URL = "rundeck_url";
-    private static final String CK_JOB_ID = "job_id";
-    private static final String CK_API_TOKEN = "api_token";
-    private static final String CK_ARGS = "args";
-    private static final String CK_FIELD_ARGS = "field_args";
-    private static final String CK_AS_USER = "as_user";
-    private static final String CK_FILTER_INCLUDE = "filter_include";
-    private static final String CK_FILTER_EXCLUDE = "filter_exclude";
-    private static final String CK_FILTER_EXCLUDE_PRECEDENCE = "exclude_precedence";
-
-    private static final String API_VERSION = "12";
+    static final String CK_RUNDECK_URL = "rundeck_url";
+    static final String CK_JOB_ID = "job_id";
+    static final String CK_API_TOKEN = "api_token";
+    static final String CK_ARGS = "args";
+    static final String CK_FIELD_ARGS = "field_args";
+    static final String CK_AS_USER = "as_user";
+    static final String CK_FILTER_INCLUDE = "filter_include";
+    static final String CK_FILTER_EXCLUDE = "filter_exclude";
+    static final String CK_FILTER_EXCLUDE_PRECEDENCE = "exclude_precedence";
+    static final String CK_TRIGGER_CONDITION = "trigger_condition";
+    static final String CK_DISPATCH_MODE = "dispatch_mode";
+    static final String CK_MAX_IN_FLIGHT = "max_in_flight";
+    static final String CK_MAX_PENDING = "max_pending";
+    static final String CK_OVERFLOW_POLICY = "overflow_policy";
+    static final String CK_PRIORITY = "priority";
+    static final String CK_PRIORITY_FIELD = "priority_field";
+    static final String CK_MAX_IDLE_CONNECTIONS = "max_idle_connections";
+    static final String CK_KEEP_ALIVE = "keep_alive";
+    static final String CK_MAX_RETRIES = "max_retries";
+    static final String CK_RETRY_BACKOFF = "retry_backoff";
+    static final String CK_RETRY_MAX_BACKOFF = "retry_max_backoff";
+    static final String CK_CONNECT_TIMEOUT = "connect_timeout";
+    static final String CK_READ_TIMEOUT = "read_timeout";
+    static final String CK_WRITE_TIMEOUT = "write_timeout";
+    static final String CK_CALL_TIMEOUT = "call_timeout";
+    static final String CK_CIRCUIT_BREAKER_THRESHOLD = "circuit_breaker_threshold";
+    static final String CK_CIRCUIT_BREAKER_OPEN = "circuit_breaker_open";
+    static final String CK_ADAPTIVE_CONCURRENCY = "adaptive_concurrency";
+    static final String CK_COALESCE_WINDOW = "coalesce_window";
+    static final String CK_COALESCE_FIELDS = "coalesce_fields";
+    static final String CK_COALESCE_MODE = "coalesce_mode";
+    static final String CK_RATE_LIMIT = "rate_limit";
+    static final String CK_RATE_LIMIT_BURST = "rate_limit_burst";
+    static final String CK_RATE_LIMIT_POLICY = "rate_limit_policy";
+    static final String CK_RATE_LIMIT_TIMEOUT = "rate_limit_timeout";
+    static final String CK_ADDITIONAL_TARGETS = "additional_targets";
+    static final String CK_FAN_OUT_MODE = "fan_out_mode";
+    static final String CK_FAN_OUT_TIMEOUT = "fan_out_timeout";
+    static final String CK_HEDGE_URL = "hedge_url";
+    static final String CK_HEDGE_PERCENTILE = "hedge_percentile";
+    static final String CK_HEDGE_MIN_DELAY = "hedge_min_delay";
+    static final String CK_FIELD_AGGREGATION = "field_aggregation";
+    static final String CK_AGGREGATION_TOP_K = "aggregation_top_k";
+    static final String CK_MAX_ARG_LENGTH = "max_arg_length";
+    static final String CK_MAX_FIELD_LENGTH = "max_field_length";
+    static final String CK_ARG_TEMPLATES = "arg_templates";
+    static final String CK_OUTBOX_DIRECTORY = "outbox_directory";
+    static final String CK_API_VERSION = "api_version";
+    static final String CK_EXECUTION_TIMEOUT = "execution_timeout";
+    static final String CK_JOB_DEFINITION_TTL = "job_definition_ttl";
+    static final String CK_IDEMPOTENCY_WINDOW = "idempotency_window";
+    static final String CK_IDEMPOTENCY_KEY_ARG = "idempotency_key_arg";
+
+    private static final String DISPATCH_MODE_SYNC = RundeckTarget.DISPATCH_MODE_SYNC;
+    private static final String DISPATCH_MODE_ASYNC = RundeckTarget.DISPATCH_MODE_ASYNC;
 
     private static final CharMatcher ARG_MATCHER = CharMatcher.noneOf("/&?").precomputed();
-    private static final MediaType TEXT_XML = MediaType.parse("text/xml");
-    private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+    private static final Splitter TARGET_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
 
-    private final OkHttpClient httpClient;
+    private final RundeckDispatchEngine engine;
     private Configuration configuration;
+    private List<RundeckTarget> targets;
+    private JobFanOut fanOut;
+    private RundeckTarget hedgeTarget;
+    private RequestHedger hedger;
+    private MessagePredicate triggerCondition;
+    private TriggerCoalescer.Policy coalescingPolicy;
+    private TriggerPriority defaultPriority;
+    private String priorityField;
 
     @Inject
+    public RundeckAlarmCallback(final RundeckDispatchEngine engine) {
+        this.engine = engine;
+    }
+
     public RundeckAlarmCallback(final OkHttpClient httpClient) {
-        this.httpClient = httpClient;
+        this(new RundeckDispatchEngine(httpClient, new MetricRegistry(), new InMemoryIdempotencyStore()));
     }
 
     @Override
     public void initialize(Configuration config) throws AlarmCallbackConfigurationException {
         this.configuration = config;
-    }
 
-    @Override
-    public void call(Stream stream, AlertCondition.CheckResult result) throws AlarmCallbackException {
-        final StringBuilder jobArguments = new StringBuilder();
-        final List<String> argumentList = Arrays.asList(configuration.getString(CK_ARGS, "").split("&"));
-        final List<String> includeFilters = Arrays.asList(configuration.getString(CK_FILTER_INCLUDE, "").split("&"));
-        final List<String> excludeFilters = Arrays.asList(configuration.getString(CK_FILTER_EXCLUDE, "").split("&"));
-
-        if (!result.getMatchingMessages().isEmpty()) {
-            // get fields from last message only
-            final MessageSummary lastMessage = result.getMatchingMessages().get(0);
-            final Map<String, Object> lastMessageFields = lastMessage.getFields();
-            final List<String> fieldsOfInterest = Arrays.asList(configuration.getString(CK_FIELD_ARGS, "").split(","));
-
-            // append message fields as job argument
-            for (Map.Entry<String, Object> arg : lastMessageFields.entrySet()) {
-                if (fieldsOfInterest.contains(arg.getKey())) {
-                    jobArguments.append("-").append(arg.getKey()).append(" '").append(arg.getValue()).append("' ");
-                }
-            }
-            // append message fields with getter functions
-            if (fieldsOfInterest.contains("source")) {
-                jobArguments.append("-source '").append(lastMessage.getSource()).append("' ");
-            }
-            if (fieldsOfInterest.contains("message")) {
-                jobArguments.append("-message '").append(lastMessage.getMessage()).append("' ");
+        // a relative outbox directory is reported by checkConfiguration()
+        final Path outboxDirectory = outboxDirectory(config);
+        final TriggerOutbox outbox;
+        if (outboxDirectory != null && outboxDirectory.isAbsolute()) {
+            try {
+                outbox = engine.outbox(outboxDirectory);
+            } catch (IOException e) {
+                throw new AlarmCallbackConfigurationException("Couldn't open Rundeck outbox in " + outboxDirectory + ": " + e.getMessage());
             }
+        } else {
+            outbox = null;
+        }
+
+        final String rundeckUrl = config.getString(CK_RUNDECK_URL, "http://localhost/");
+        final ImmutableList.Builder<RundeckTarget> targets = ImmutableList.builder();
+        targets.add(engine.target(config, rundeckUrl, config.getString(CK_JOB_ID, "0"), outbox));
+        for (String additionalTarget : TARGET_SPLITTER.split(config.getString(CK_ADDITIONAL_TARGETS, ""))) {
+            final Map.Entry<String, String> target = parseTarget(additionalTarget, rundeckUrl);
+            targets.add(engine.target(config, target.getValue(), target.getKey(), outbox));
+        }
+        this.targets = targets.build();
+
+        if (config.stringIsSet(CK_HEDGE_URL)) {
+            final String jobId = config.getString(CK_JOB_ID, "0");
+            this.hedgeTarget = engine.target(config, config.getString(CK_HEDGE_URL).trim(), jobId, null);
+            this.hedger = engine.hedger(rundeckUrl, jobId,
+                    Math.min(99, Math.max(1, config.getInt(CK_HEDGE_PERCENTILE, 95))),
+                    Math.max(0, config.getInt(CK_HEDGE_MIN_DELAY, 100)));
+        } else {
+            this.hedgeTarget = null;
+            this.hedger = null;
         }
 
-        // append job arguments given by user
-        for (String arg : argumentList) {
-            String[] argumentPair = arg.split(":");
-            if (argumentPair.length == 2) {
-                jobArguments.append("-").append(argumentPair[0]).append(" '").append(argumentPair[1]).append("' ");
+        final JobFanOut.Mode fanOutMode = Enums.getIfPresent(JobFanOut.Mode.class,
+                config.getString(CK_FAN_OUT_MODE, "").toUpperCase(Locale.ENGLISH))
+                .or(JobFanOut.Mode.ALL);
+        // an invalid priority is reported by checkConfiguration()
+        this.defaultPriority = Enums.getIfPresent(TriggerPriority.class,
+                config.getString(CK_PRIORITY, "").toUpperCase(Locale.ENGLISH))
+                .or(TriggerPriority.NORMAL);
+        this.priorityField = config.stringIsSet(CK_PRIORITY_FIELD) ? config.getString(CK_PRIORITY_FIELD).trim() : null;
+
+        MessagePredicate triggerCondition = null;
+        if (config.stringIsSet(CK_TRIGGER_CONDITION)) {
+            try {
+                triggerCondition = MessagePredicate.compile(config.getString(CK_TRIGGER_CONDITION));
+            } catch (IllegalArgumentException e) {
+                // an invalid trigger condition is reported by checkConfiguration()
             }
         }
+        this.triggerCondition = triggerCondition;
+
+        this.fanOut = new JobFanOut(fanOutMode, Math.max(1, config.getInt(CK_FAN_OUT_TIMEOUT, 30)), TimeUnit.SECONDS);
+
+        final int coalesceWindow = config.getInt(CK_COALESCE_WINDOW, 0);
+        if (coalesceWindow > 0) {
+            final TriggerCoalescer.Mode mode = Enums.getIfPresent(TriggerCoalescer.Mode.class,
+                    config.getString(CK_COALESCE_MODE, "").toUpperCase(Locale.ENGLISH))
+                    .or(TriggerCoalescer.Mode.LEADING);
+            this.coalescingPolicy = new TriggerCoalescer.Policy(
+                    rundeckUrl,
+                    config.getString(CK_JOB_ID, ""),
+                    mode,
+                    TimeUnit.SECONDS.toMillis(coalesceWindow),
+                    Splitter.on(',').trimResults().omitEmptyStrings().splitToList(config.getString(CK_COALESCE_FIELDS, "")));
+        } else {
+            this.coalescingPolicy = null;
+        }
+    }
 
+    @Nullable
+    private static Path outboxDirectory(Configuration config) throws AlarmCallbackConfigurationException {
+        if (!config.stringIsSet(CK_OUTBOX_DIRECTORY)) {
+            return null;
+        }
         try {
-            final HttpUrl.Builder urlBuilder = HttpUrl.parse(configuration.getString(CK_RUNDECK_URL, "http://localhost/"))
-                    .newBuilder()
-                    .addPathSegment("api")
-                    .addPathSegment(API_VERSION)
-                    .addPathSegment("job")
-                    .addPathSegment(configuration.getString(CK_JOB_ID, "0"))
-                    .addPathSegment("executions");
-
-            for (String filter : includeFilters) {
-                String[] filterPair = filter.split(":");
-                if (filterPair.length == 2) {
-                    String filterKey = filterPair[0];
-                    String filterValue = filterPair[1];
-
-                    if (!filterKey.trim().isEmpty() && !filterValue.trim().isEmpty()) {
-                        urlBuilder.addQueryParameter(filterKey, filterValue);
-                    }
-                }
+            return Paths.get(config.getString(CK_OUTBOX_DIRECTORY));
+        } catch (InvalidPathException e) {
+            throw new AlarmCallbackConfigurationException("Couldn't parse " + CK_OUTBOX_DIRECTORY + " correctly: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses an additional target of the form {@code job_id} or {@code job_id@rundeck_url}.
+     *
+     * @return the job ID and the Rundeck URL of the target
+     */
+    private static Map.Entry<String, String> parseTarget(String target, @Nullable String defaultRundeckUrl) {
+        final int separator = target.indexOf('@');
+        if (separator < 0) {
+            return Maps.immutableEntry(target, defaultRundeckUrl);
+        }
+        return Maps.immutableEntry(target.substring(0, separator).trim(), target.substring(separator + 1).trim());
+    }
+
+    @Override
+    public void call(Stream stream, AlertCondition.CheckResult result) throws AlarmCallbackException {
+        if (triggerCondition != null && !triggerCondition.matchesAny(result.getMatchingMessages())) {
+            targets.get(0).metrics().markFiltered();
+            LOG.debug("Skipped alarm for Rundeck job {}, no message matches the trigger condition", targets.get(0).jobId());
+            return;
+        }
+
+        try (Timer.Context ignored = targets.get(0).metrics().timeCall()) {
+            // matching messages are sorted newest first, alerts are coalesced by the fields of the latest one
+            final MessageSummary lastMessage = result.getMatchingMessages().isEmpty() ? null : result.getMatchingMessages().get(0);
+            final TriggerPriority priority = TriggerPriority.of(lastMessage, priorityField, defaultPriority);
+
+            final List<Request> requests = new ArrayList<>(targets.size());
+            final List<String> idempotencyKeys = new ArrayList<>(targets.size());
+            for (RundeckTarget target : targets) {
+                final String idempotencyKey = target.idempotencyKey(stream, result);
+                idempotencyKeys.add(idempotencyKey);
+                requests.add(target.request(stream, result.getMatchingMessages(), idempotencyKey));
             }
+            // the hedged request carries the key of the main job, so the job may recognize it
+            final Request hedgeRequest = hedgeTarget == null
+                    ? null
+                    : hedgeTarget.request(stream, result.getMatchingMessages(), idempotencyKeys.get(0));
+
+            engine.submit(coalescingPolicy, lastMessage, () -> send(requests, idempotencyKeys, hedgeRequest, priority));
+        }
+    }
 
-            for (String filter : excludeFilters) {
-                String[] filterPair = filter.split(":");
-                if (filterPair.length == 2) {
-                    String filterKey = filterPair[0];
-                    String filterValue = filterPair[1];
-                    if (!filterKey.trim().isEmpty() && !filterValue.trim().isEmpty()) {
-                        urlBuilder.addQueryParameter("exclude-" + filterKey, filterValue);
-                    }
+    /**
+     * Sends the requests of all targets which haven't been triggered for the same alert yet. A synchronous request
+     * to the main job alone is hedged, if enabled. The idempotency key of a target is released if its trigger is
+     * dropped by the rate limit or its request fails, either right away or later on in the asynchronous dispatcher or
+     * the outbox, so the alert may be sent again.
+     */
+    private void send(List<Request> requests,
+                      List<String> idempotencyKeys,
+                      @Nullable Request hedgeRequest,
+                      TriggerPriority priority) throws AlarmCallbackException {
+        final List<RundeckTarget> claimedTargets = new ArrayList<>(targets.size());
+        final List<Request> claimedRequests = new ArrayList<>(targets.size());
+        final List<String> claimedKeys = new ArrayList<>(targets.size());
+        final List<Runnable> failureHandlers = new ArrayList<>(targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            final RundeckTarget target = targets.get(i);
+            final String idempotencyKey = idempotencyKeys.get(i);
+            if (idempotencyKey != null && target.idempotencyWindowSeconds() > 0L) {
+                if (!engine.claim(idempotencyKey, target.idempotencyWindowSeconds())) {
+                    target.metrics().markDuplicate();
+                    LOG.debug("Skipped duplicate alarm {} for Rundeck job {}", idempotencyKey, target.jobId());
+                    continue;
                 }
+                claimedKeys.add(idempotencyKey);
+                failureHandlers.add(() -> engine.release(idempotencyKey));
+            } else {
+                failureHandlers.add(() -> {
+                });
             }
+            claimedTargets.add(target);
+            claimedRequests.add(requests.get(i));
+        }
 
-            if (!configuration.getBoolean(CK_FILTER_EXCLUDE_PRECEDENCE)) {
-                urlBuilder.addQueryParameter("exclude-precedence", Boolean.toString(configuration.getBoolean(CK_FILTER_EXCLUDE_PRECEDENCE)));
-            }
-            if (jobArguments.length() > 0) {
-                urlBuilder.addQueryParameter("argString", jobArguments.toString());
-            }
-            if (!configuration.getString(CK_AS_USER, "").trim().isEmpty()) {
-                urlBuilder.addQueryParameter("asUser", configuration.getString(CK_AS_USER));
+        try {
+            final RundeckTarget mainTarget = targets.get(0);
+            if (hedgeRequest != null && claimedTargets.size() == 1 && claimedTargets.get(0) == mainTarget
+                    && !mainTarget.isAsync()) {
+                hedger.send(mainTarget, claimedRequests.get(0), hedgeTarget, hedgeRequest, mainTarget.callTimeoutNanos(),
+                        failureHandlers.get(0));
+            } else if (claimedTargets.size() == 1) {
+                claimedTargets.get(0).send(claimedRequests.get(0), priority, failureHandlers.get(0));
+            } else if (!claimedTargets.isEmpty()) {
+                fanOut.send(claimedTargets, claimedRequests, failureHandlers, priority);
             }
-
-            Request request = new Request.Builder()
-                    .post(RequestBody.create(TEXT_XML, EMPTY_BYTE_ARRAY))
-                    .url(urlBuilder.build())
-                    .addHeader(HttpHeaders.ACCEPT, TEXT_XML.toString())
-                    .addHeader("X-Rundeck-Auth-Token", configuration.getString(CK_API_TOKEN, ""))
-                    .build();
-            final Response response = httpClient.newCall(request).execute();
-
-            if (!response.isSuccessful()) {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Rundeck HTTP response headers: {}", response.headers().toString());
-                    LOG.debug("Rundeck HTTP response body: {}", response.body().string());
-                }
-                throw new AlarmCallbackException("Failed to send alarm to Rundeck with HTTP response code: " + response.code());
+        } catch (AlarmCallbackException e) {
+            // the alert may be sent again, e.g. by a retry
+            for (String idempotencyKey : claimedKeys) {
+                engine.release(idempotencyKey);
             }
-        } catch (Exception e) {
-            throw new AlarmCallbackException("Failed to send alarm to Rundeck", e);
+            throw e;
         }
     }
 
@@ -171,15 +314,7 @@ public class RundeckAlarmCallback implements AlarmCallback {
     @Override
     public void checkConfiguration() throws ConfigurationException {
         if (configuration.stringIsSet(CK_RUNDECK_URL)) {
-            try {
-                final URI rundeckUri = new URI(configuration.getString(CK_RUNDECK_URL));
-
-                if (!"http".equals(rundeckUri.getScheme()) && !"https".equals(rundeckUri.getScheme())) {
-                    throw new ConfigurationException(CK_RUNDECK_URL + " must be a valid HTTP or HTTPS URL.");
-                }
-            } catch (URISyntaxException e) {
-                throw new ConfigurationException("Couldn't parse " + CK_RUNDECK_URL + " correctly.", e);
-            }
+            checkRundeckUrl(CK_RUNDECK_URL, configuration.getString(CK_RUNDECK_URL));
         }
 
         if (!configuration.stringIsSet(CK_JOB_ID)) {
@@ -190,10 +325,56 @@ public class RundeckAlarmCallback implements AlarmCallback {
             throw new ConfigurationException(CK_API_TOKEN + " is mandatory and must not be empty.");
         }
 
+        try {
+            targets.get(0).apiToken().resolve();
+        } catch (IOException e) {
+            throw new ConfigurationException(CK_API_TOKEN + " couldn't be resolved: " + e.getMessage());
+        }
+
+        if (configuration.intIsSet(CK_API_VERSION) && configuration.getInt(CK_API_VERSION) < RundeckCallPlan.DEFAULT_API_VERSION) {
+            throw new ConfigurationException(CK_API_VERSION + " must be at least " + RundeckCallPlan.DEFAULT_API_VERSION + ".");
+        }
+
+        // Rundeck's node filter expressions always let exclusions take precedence
+        if (configuration.intIsSet(CK_API_VERSION) && configuration.getInt(CK_API_VERSION) >= RundeckCallPlan.JSON_API_VERSION
+                && configuration.booleanIsSet(CK_FILTER_EXCLUDE_PRECEDENCE) && !configuration.getBoolean(CK_FILTER_EXCLUDE_PRECEDENCE)
+                && configuration.stringIsSet(CK_FILTER_INCLUDE) && configuration.stringIsSet(CK_FILTER_EXCLUDE)) {
+            throw new ConfigurationException(CK_FILTER_EXCLUDE_PRECEDENCE + " can only be disabled with API versions below "
+                    + RundeckCallPlan.JSON_API_VERSION + ".");
+        }
+
+        if (configuration.intIsSet(CK_EXECUTION_TIMEOUT) && configuration.getInt(CK_EXECUTION_TIMEOUT) < 0) {
+            throw new ConfigurationException(CK_EXECUTION_TIMEOUT + " must not be negative.");
+        }
+
+        if (configuration.intIsSet(CK_IDEMPOTENCY_WINDOW) && configuration.getInt(CK_IDEMPOTENCY_WINDOW) < 0) {
+            throw new ConfigurationException(CK_IDEMPOTENCY_WINDOW + " must not be negative.");
+        }
+
+        if (configuration.stringIsSet(CK_IDEMPOTENCY_KEY_ARG) && !ARG_MATCHER.matchesAllOf(configuration.getString(CK_IDEMPOTENCY_KEY_ARG))) {
+            throw new ConfigurationException("Idempotency key argument should not contain /,?,&");
+        }
+
         if (configuration.stringIsSet(CK_ARGS) && !ARG_MATCHER.matchesAllOf(configuration.getString(CK_ARGS))) {
             throw new ConfigurationException("Job arguments should not contain /,?,&");
         }
 
+        if (configuration.stringIsSet(CK_ARG_TEMPLATES)) {
+            try {
+                ArgumentTemplate.compileArguments(configuration.getString(CK_ARG_TEMPLATES));
+            } catch (IllegalArgumentException e) {
+                throw new ConfigurationException(CK_ARG_TEMPLATES + " is invalid: " + e.getMessage());
+            }
+        }
+
+        if (configuration.stringIsSet(CK_TRIGGER_CONDITION)) {
+            try {
+                MessagePredicate.compile(configuration.getString(CK_TRIGGER_CONDITION));
+            } catch (IllegalArgumentException e) {
+                throw new ConfigurationException(CK_TRIGGER_CONDITION + " is invalid: " + e.getMessage());
+            }
+        }
+
         if (configuration.stringIsSet(CK_FIELD_ARGS) && !ARG_MATCHER.matchesAllOf(configuration.getString(CK_FIELD_ARGS))) {
             throw new ConfigurationException("Field arguments should not contain /,?,&");
         }
@@ -201,6 +382,222 @@ public class RundeckAlarmCallback implements AlarmCallback {
         if (configuration.stringIsSet(CK_AS_USER) && !ARG_MATCHER.matchesAllOf(configuration.getString(CK_AS_USER))) {
             throw new ConfigurationException("Username should not contain /,?,&");
         }
+
+        if (configuration.stringIsSet(CK_DISPATCH_MODE)) {
+            final String dispatchMode = configuration.getString(CK_DISPATCH_MODE);
+            if (!DISPATCH_MODE_SYNC.equals(dispatchMode) && !DISPATCH_MODE_ASYNC.equals(dispatchMode)) {
+                throw new ConfigurationException(CK_DISPATCH_MODE + " must be either '" + DISPATCH_MODE_SYNC + "' or '" + DISPATCH_MODE_ASYNC + "'.");
+            }
+        }
+
+        if (configuration.intIsSet(CK_MAX_IN_FLIGHT) && configuration.getInt(CK_MAX_IN_FLIGHT) < 1) {
+            throw new ConfigurationException(CK_MAX_IN_FLIGHT + " must be at least 1.");
+        }
+
+        if (configuration.intIsSet(CK_MAX_PENDING) && configuration.getInt(CK_MAX_PENDING) < 0) {
+            throw new ConfigurationException(CK_MAX_PENDING + " must not be negative.");
+        }
+
+        if (configuration.intIsSet(CK_MAX_IDLE_CONNECTIONS) && configuration.getInt(CK_MAX_IDLE_CONNECTIONS) < 0) {
+            throw new ConfigurationException(CK_MAX_IDLE_CONNECTIONS + " must not be negative.");
+        }
+
+        if (configuration.intIsSet(CK_KEEP_ALIVE) && configuration.getInt(CK_KEEP_ALIVE) < 1) {
+            throw new ConfigurationException(CK_KEEP_ALIVE + " must be at least 1 second.");
+        }
+
+        if (configuration.intIsSet(CK_MAX_RETRIES) && configuration.getInt(CK_MAX_RETRIES) < 0) {
+            throw new ConfigurationException(CK_MAX_RETRIES + " must not be negative.");
+        }
+
+        if (configuration.intIsSet(CK_RETRY_BACKOFF) && configuration.getInt(CK_RETRY_BACKOFF) < 1) {
+            throw new ConfigurationException(CK_RETRY_BACKOFF + " must be at least 1 millisecond.");
+        }
+
+        if (configuration.intIsSet(CK_RETRY_MAX_BACKOFF) && configuration.intIsSet(CK_RETRY_BACKOFF)
+                && configuration.getInt(CK_RETRY_MAX_BACKOFF) < configuration.getInt(CK_RETRY_BACKOFF)) {
+            throw new ConfigurationException(CK_RETRY_MAX_BACKOFF + " must not be smaller than " + CK_RETRY_BACKOFF + ".");
+        }
+
+        if (configuration.intIsSet(CK_CONNECT_TIMEOUT) && configuration.getInt(CK_CONNECT_TIMEOUT) < 1) {
+            throw new ConfigurationException(CK_CONNECT_TIMEOUT + " must be at least 1 millisecond.");
+        }
+
+        if (configuration.intIsSet(CK_READ_TIMEOUT) && configuration.getInt(CK_READ_TIMEOUT) < 1) {
+            throw new ConfigurationException(CK_READ_TIMEOUT + " must be at least 1 millisecond.");
+        }
+
+        if (configuration.intIsSet(CK_WRITE_TIMEOUT) && configuration.getInt(CK_WRITE_TIMEOUT) < 1) {
+            throw new ConfigurationException(CK_WRITE_TIMEOUT + " must be at least 1 millisecond.");
+        }
+
+        if (configuration.intIsSet(CK_CALL_TIMEOUT) && configuration.getInt(CK_CALL_TIMEOUT) < 0) {
+            throw new ConfigurationException(CK_CALL_TIMEOUT + " must not be negative.");
+        }
+
+        if (configuration.intIsSet(CK_CIRCUIT_BREAKER_THRESHOLD) && configuration.getInt(CK_CIRCUIT_BREAKER_THRESHOLD) < 0) {
+            throw new ConfigurationException(CK_CIRCUIT_BREAKER_THRESHOLD + " must not be negative.");
+        }
+
+        if (configuration.intIsSet(CK_CIRCUIT_BREAKER_OPEN) && configuration.getInt(CK_CIRCUIT_BREAKER_OPEN) < 1) {
+            throw new ConfigurationException(CK_CIRCUIT_BREAKER_OPEN + " must be at least 1 second.");
+        }
+
+        if (configuration.intIsSet(CK_ADAPTIVE_CONCURRENCY) && configuration.getInt(CK_ADAPTIVE_CONCURRENCY) < 0) {
+            throw new ConfigurationException(CK_ADAPTIVE_CONCURRENCY + " must not be negative.");
+        }
+
+        if (configuration.intIsSet(CK_COALESCE_WINDOW) && configuration.getInt(CK_COALESCE_WINDOW) < 0) {
+            throw new ConfigurationException(CK_COALESCE_WINDOW + " must not be negative.");
+        }
+
+        if (configuration.stringIsSet(CK_COALESCE_MODE) && !Enums.getIfPresent(TriggerCoalescer.Mode.class,
+                configuration.getString(CK_COALESCE_MODE).toUpperCase(Locale.ENGLISH)).isPresent()) {
+            throw new ConfigurationException(CK_COALESCE_MODE + " must be either 'leading' or 'trailing'.");
+        }
+
+        if (configuration.intIsSet(CK_RATE_LIMIT) && configuration.getInt(CK_RATE_LIMIT) < 0) {
+            throw new ConfigurationException(CK_RATE_LIMIT + " must not be negative.");
+        }
+
+        if (configuration.intIsSet(CK_RATE_LIMIT_BURST) && configuration.getInt(CK_RATE_LIMIT_BURST) < 1) {
+            throw new ConfigurationException(CK_RATE_LIMIT_BURST + " must be at least 1.");
+        }
+
+        if (configuration.intIsSet(CK_RATE_LIMIT_TIMEOUT) && configuration.getInt(CK_RATE_LIMIT_TIMEOUT) < 0) {
+            throw new ConfigurationException(CK_RATE_LIMIT_TIMEOUT + " must not be negative.");
+        }
+
+        if (configuration.stringIsSet(CK_RATE_LIMIT_POLICY) && !Enums.getIfPresent(TokenBucketRateLimiter.Policy.class,
+                configuration.getString(CK_RATE_LIMIT_POLICY).toUpperCase(Locale.ENGLISH)).isPresent()) {
+            throw new ConfigurationException(CK_RATE_LIMIT_POLICY + " must be one of 'queue', 'drop' or 'fail'.");
+        }
+
+        if (configuration.stringIsSet(CK_OVERFLOW_POLICY) && !Enums.getIfPresent(AsyncJobDispatcher.OverflowPolicy.class,
+                configuration.getString(CK_OVERFLOW_POLICY).toUpperCase(Locale.ENGLISH)).isPresent()) {
+            throw new ConfigurationException(CK_OVERFLOW_POLICY + " must be one of 'block', 'drop_oldest' or 'fail_fast'.");
+        }
+
+        if (configuration.stringIsSet(CK_PRIORITY) && !Enums.getIfPresent(TriggerPriority.class,
+                configuration.getString(CK_PRIORITY).toUpperCase(Locale.ENGLISH)).isPresent()) {
+            throw new ConfigurationException(CK_PRIORITY + " must be one of 'critical', 'high', 'normal' or 'low'.");
+        }
+
+        if (configuration.stringIsSet(CK_ADDITIONAL_TARGETS)) {
+            for (String additionalTarget : TARGET_SPLITTER.split(configuration.getString(CK_ADDITIONAL_TARGETS))) {
+                final Map.Entry<String, String> target = parseTarget(additionalTarget, null);
+                if (target.getKey().isEmpty() || !ARG_MATCHER.matchesAllOf(target.getKey())) {
+                    throw new ConfigurationException(CK_ADDITIONAL_TARGETS + " contains an invalid job ID: " + additionalTarget);
+                }
+                if (target.getValue() != null) {
+                    checkRundeckUrl(CK_ADDITIONAL_TARGETS, target.getValue());
+                }
+            }
+        }
+
+        if (configuration.stringIsSet(CK_FAN_OUT_MODE) && !Enums.getIfPresent(JobFanOut.Mode.class,
+                configuration.getString(CK_FAN_OUT_MODE).toUpperCase(Locale.ENGLISH)).isPresent()) {
+            throw new ConfigurationException(CK_FAN_OUT_MODE + " must be either 'all' or 'any'.");
+        }
+
+        if (configuration.intIsSet(CK_FAN_OUT_TIMEOUT) && configuration.getInt(CK_FAN_OUT_TIMEOUT) < 1) {
+            throw new ConfigurationException(CK_FAN_OUT_TIMEOUT + " must be at least 1 second.");
+        }
+
+        if (configuration.stringIsSet(CK_HEDGE_URL)) {
+            checkRundeckUrl(CK_HEDGE_URL, configuration.getString(CK_HEDGE_URL).trim());
+        }
+
+        if (configuration.intIsSet(CK_HEDGE_PERCENTILE)
+                && (configuration.getInt(CK_HEDGE_PERCENTILE) < 1 || configuration.getInt(CK_HEDGE_PERCENTILE) > 99)) {
+            throw new ConfigurationException(CK_HEDGE_PERCENTILE + " must be between 1 and 99.");
+        }
+
+        if (configuration.intIsSet(CK_HEDGE_MIN_DELAY) && configuration.getInt(CK_HEDGE_MIN_DELAY) < 0) {
+            throw new ConfigurationException(CK_HEDGE_MIN_DELAY + " must not be negative.");
+        }
+
+        if (configuration.stringIsSet(CK_FIELD_AGGREGATION)) {
+            final String fieldAggregation = configuration.getString(CK_FIELD_AGGREGATION);
+            if (!RundeckCallPlan.FIELD_AGGREGATION_FIRST.equals(fieldAggregation)
+                    && !RundeckCallPlan.FIELD_AGGREGATION_AGGREGATE.equals(fieldAggregation)) {
+                throw new ConfigurationException(CK_FIELD_AGGREGATION + " must be either '" + RundeckCallPlan.FIELD_AGGREGATION_FIRST
+                        + "' or '" + RundeckCallPlan.FIELD_AGGREGATION_AGGREGATE + "'.");
+            }
+        }
+
+        if (configuration.intIsSet(CK_AGGREGATION_TOP_K) && configuration.getInt(CK_AGGREGATION_TOP_K) < 1) {
+            throw new ConfigurationException(CK_AGGREGATION_TOP_K + " must be at least 1.");
+        }
+
+        if (configuration.intIsSet(CK_MAX_ARG_LENGTH) && configuration.getInt(CK_MAX_ARG_LENGTH) < 0) {
+            throw new ConfigurationException(CK_MAX_ARG_LENGTH + " must not be negative.");
+        }
+
+        if (configuration.intIsSet(CK_MAX_FIELD_LENGTH) && configuration.getInt(CK_MAX_FIELD_LENGTH) < 0) {
+            throw new ConfigurationException(CK_MAX_FIELD_LENGTH + " must not be negative.");
+        }
+
+        if (configuration.stringIsSet(CK_OUTBOX_DIRECTORY)) {
+            try {
+                if (!Paths.get(configuration.getString(CK_OUTBOX_DIRECTORY)).isAbsolute()) {
+                    throw new ConfigurationException(CK_OUTBOX_DIRECTORY + " must be an absolute path.");
+                }
+            } catch (InvalidPathException e) {
+                throw new ConfigurationException("Couldn't parse " + CK_OUTBOX_DIRECTORY + " correctly.", e);
+            }
+        }
+
+        if (configuration.intIsSet(CK_JOB_DEFINITION_TTL) && configuration.getInt(CK_JOB_DEFINITION_TTL) < 0) {
+            throw new ConfigurationException(CK_JOB_DEFINITION_TTL + " must not be negative.");
+        }
+
+        checkJobDefinition(targets.get(0));
+    }
+
+    /**
+     * Checks the job arguments against the definition of the job, if enabled. Arguments which the job doesn't declare
+     * are only logged, since they are left out when triggering the job.
+     */
+    private static void checkJobDefinition(RundeckTarget target) throws ConfigurationException {
+        final JobDefinition definition;
+        try {
+            definition = target.loadDefinition();
+        } catch (IOException e) {
+            // Rundeck may be unreachable right now, or the API token may not be allowed to read the job
+            LOG.warn("Couldn't load the definition of Rundeck job {} to check the job arguments: {}", target.jobId(), e.getMessage());
+            return;
+        }
+        if (definition == null) {
+            return;
+        }
+
+        if (!definition.exists()) {
+            throw new ConfigurationException("Rundeck job " + target.jobId() + " doesn't exist.");
+        }
+
+        final Set<String> optionNames = target.optionNames();
+        final Set<String> missingOptions = definition.missingOptions(optionNames);
+        if (!missingOptions.isEmpty()) {
+            throw new ConfigurationException("Rundeck job " + target.jobId() + " requires the options " + missingOptions + ".");
+        }
+
+        final Set<String> unknownOptions = Sets.difference(optionNames, definition.options());
+        if (!unknownOptions.isEmpty()) {
+            LOG.warn("Rundeck job {} doesn't declare the options {}, they won't be passed", target.jobId(), unknownOptions);
+        }
+    }
+
+    private static void checkRundeckUrl(String key, String rundeckUrl) throws ConfigurationException {
+        try {
+            final URI rundeckUri = new URI(rundeckUrl);
+
+            if (!"http".equals(rundeckUri.getScheme()) && !"https".equals(rundeckUri.getScheme())) {
+                throw new ConfigurationException(key + " must be a valid HTTP or HTTPS URL.");
+            }
+        } catch (URISyntaxException e) {
+            throw new ConfigurationException("Couldn't parse " + key + " correctly.", e);
+        }
     }
 
     @Override
@@ -218,7 +615,9 @@ public class RundeckAlarmCallback implements AlarmCallback {
                 CK_API_TOKEN,
                 "API Token",
                 "",
-                "Rundeck API authentication token",
+                "Rundeck API authentication token, or " + ApiTokens.FILE_PREFIX + "<absolute path> or " + ApiTokens.ENV_PREFIX
+                        + "<variable> to read it from a file or an environment variable, if enabled by the system properties "
+                        + ApiTokens.TOKEN_DIRECTORY_PROPERTY + " and " + ApiTokens.TOKEN_ENV_PREFIX_PROPERTY,
                 ConfigurationField.Optional.NOT_OPTIONAL)
         );
         configurationRequest.addField(new TextField(
@@ -235,6 +634,34 @@ public class RundeckAlarmCallback implements AlarmCallback {
                 "Username who ran the job. Requires 'runAs' permission",
                 ConfigurationField.Optional.OPTIONAL)
         );
+        configurationRequest.addField(new NumberField(
+                CK_API_VERSION, "API version", RundeckCallPlan.DEFAULT_API_VERSION,
+                "Version of the Rundeck API. Starting with version " + RundeckCallPlan.JSON_API_VERSION
+                        + ", job arguments and node filters are sent in a JSON request body instead of the URL.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_EXECUTION_TIMEOUT, "Execution timeout (seconds)", 0,
+                "How long the status of a triggered job execution is tracked until it counts as timed out. Requires API version "
+                        + RundeckCallPlan.JSON_API_VERSION + " or later. 0 disables tracking.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_JOB_DEFINITION_TTL, "Job definition cache (seconds)", 0,
+                "How long the job definition is cached to leave out job arguments the job doesn't declare and to fail fast if "
+                        + "the job doesn't exist. Requires an API token which may read the job. 0 disables checking the job definition.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_IDEMPOTENCY_WINDOW, "Idempotency window (seconds)", 3600,
+                "How long a triggered alert is remembered, so the same alert doesn't trigger the job again. 0 disables deduplication.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new TextField(
+                CK_IDEMPOTENCY_KEY_ARG, "Idempotency key argument", "",
+                "Name of a job argument which receives the idempotency key of the alert, e.g. 'idempotency_key'. Empty doesn't pass the key.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
         configurationRequest.addField(new TextField(
                 CK_FILTER_INCLUDE,
                 "Include Node filter",
@@ -253,7 +680,14 @@ public class RundeckAlarmCallback implements AlarmCallback {
         );
         configurationRequest.addField(new BooleanField(
                 CK_FILTER_EXCLUDE_PRECEDENCE, "Exclude precedence", true,
-                "Whether exclusion filters take precedence")
+                "Whether exclusion filters take precedence. Always enabled starting with API version "
+                        + RundeckCallPlan.JSON_API_VERSION + ".")
+        );
+        configurationRequest.addField(new TextField(
+                CK_TRIGGER_CONDITION, "Trigger condition", "",
+                "Only trigger the job if a matching message satisfies this condition, e.g. 'level <= 3 && source ~ \"db-*\"'. " +
+                        "Supports ==, !=, <, <=, >, >=, ~ (glob), =~ (regular expression), &&, ||, ! and parentheses.",
+                ConfigurationField.Optional.OPTIONAL)
         );
         configurationRequest.addField(new TextField(
                 CK_ARGS, "Job arguments", "",
@@ -265,6 +699,204 @@ public class RundeckAlarmCallback implements AlarmCallback {
                 "Comma separated list of message fields which should append as a argument to the job.",
                 ConfigurationField.Optional.OPTIONAL)
         );
+        configurationRequest.addField(new TextField(
+                CK_ARG_TEMPLATES, "Templated job arguments", "",
+                "Job arguments rendered from the latest message and the stream, of the form: 'key=template&key=template', " +
+                        "e.g. 'host=${source}&severity=${level|default:3}&msg=${message|truncate:200}&stream=${stream.title}'",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new DropdownField(
+                CK_FIELD_AGGREGATION, "Field arguments from", RundeckCallPlan.FIELD_AGGREGATION_FIRST,
+                ImmutableMap.of(RundeckCallPlan.FIELD_AGGREGATION_FIRST, "First matching message",
+                        RundeckCallPlan.FIELD_AGGREGATION_AGGREGATE, "All matching messages"),
+                "Whether field arguments contain the values of the first matching message or the most frequent values " +
+                        "of all matching messages, together with a '<field>_count' argument",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_AGGREGATION_TOP_K, "Max. values per field", 5,
+                "Maximum number of values passed in a field argument, if all matching messages are used",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_MAX_ARG_LENGTH, "Max. argument length", 4096,
+                "Maximum length of all job arguments. Field values exceeding it are truncated or left out.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_MAX_FIELD_LENGTH, "Max. field length", 0,
+                "Maximum length of a single field argument. Longer values are truncated. 0 disables the limit.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new DropdownField(
+                CK_DISPATCH_MODE, "Dispatch mode", DISPATCH_MODE_SYNC,
+                ImmutableMap.of(DISPATCH_MODE_SYNC, "Synchronous", DISPATCH_MODE_ASYNC, "Asynchronous"),
+                "Whether to wait for Rundeck to accept the job execution or to send it in the background",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_MAX_IN_FLIGHT, "Max. requests in flight", 4,
+                "Maximum number of concurrent requests per Rundeck host in asynchronous mode",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_MAX_PENDING, "Max. pending requests", 100,
+                "Maximum number of requests per Rundeck host waiting to be sent in asynchronous mode",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new DropdownField(
+                CK_OVERFLOW_POLICY, "Overflow policy", "fail_fast",
+                ImmutableMap.of("block", "Block", "drop_oldest", "Drop oldest", "fail_fast", "Fail fast"),
+                "What to do with an alarm when too many requests are pending in asynchronous mode",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new DropdownField(
+                CK_PRIORITY, "Priority", "normal",
+                ImmutableMap.of("critical", "Critical", "high", "High", "normal", "Normal", "low", "Low"),
+                "Priority lane of the alarms in asynchronous mode. Higher lanes are sent first and may use more concurrent requests.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new TextField(
+                CK_PRIORITY_FIELD, "Priority field", "",
+                "Message field containing the priority of an alarm, either a priority name or a syslog level (e.g. 'level'). " +
+                        "Overrides the priority above if it contains a valid value.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_MAX_IDLE_CONNECTIONS, "Max. idle connections", 5,
+                "Maximum number of idle connections kept open to the Rundeck host",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_KEEP_ALIVE, "Keep-alive (seconds)", 300,
+                "How long idle connections to the Rundeck host are kept open",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_MAX_RETRIES, "Max. retries", 2,
+                "How often a failed job execution request is retried. Only I/O errors, HTTP 429 and HTTP 5xx responses are retried.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_RETRY_BACKOFF, "Retry backoff (milliseconds)", 500,
+                "Initial delay before retrying a failed request, doubled with every retry",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_RETRY_MAX_BACKOFF, "Max. retry backoff (milliseconds)", 10000,
+                "Maximum delay before retrying a failed request",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_CONNECT_TIMEOUT, "Connect timeout (milliseconds)", 10000,
+                "Maximum time to establish a connection to the Rundeck host",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_READ_TIMEOUT, "Read timeout (milliseconds)", 10000,
+                "Maximum time to wait for data from the Rundeck host",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_WRITE_TIMEOUT, "Write timeout (milliseconds)", 10000,
+                "Maximum time to wait while sending data to the Rundeck host",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_CALL_TIMEOUT, "Call timeout (milliseconds)", 30000,
+                "Maximum time to trigger a job synchronously, including retries, DNS lookup and TLS handshake. 0 disables the limit.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_CIRCUIT_BREAKER_THRESHOLD, "Circuit breaker threshold", 5,
+                "Number of consecutive failures after which requests to the Rundeck host are rejected. 0 disables the circuit breaker.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_CIRCUIT_BREAKER_OPEN, "Circuit breaker open (seconds)", 30,
+                "How long requests are rejected before probing the Rundeck host again",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_ADAPTIVE_CONCURRENCY, "Max. adaptive concurrency", 0,
+                "Maximum number of concurrent job execution requests per Rundeck host. The actual limit adapts to the " +
+                        "response times and errors of Rundeck. 0 disables the limit.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_COALESCE_WINDOW, "Coalescing window (seconds)", 0,
+                "Repeated alarms for the same job within this time window are suppressed. 0 disables coalescing.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new TextField(
+                CK_COALESCE_FIELDS, "Coalescing fields", "",
+                "Comma separated list of message fields, e. g. 'source'. Alarms are only coalesced if these fields are equal.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new DropdownField(
+                CK_COALESCE_MODE, "Coalescing mode", "leading",
+                ImmutableMap.of("leading", "Send first alarm", "trailing", "Send latest alarm at end of window"),
+                "Which alarm of a coalescing window triggers the job",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_RATE_LIMIT, "Rate limit (per minute)", 0,
+                "Maximum number of job executions per minute, shared by all callbacks triggering this job. 0 disables the rate limit.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_RATE_LIMIT_BURST, "Rate limit burst", 1,
+                "Number of job executions which may be triggered at once before the rate limit applies",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new DropdownField(
+                CK_RATE_LIMIT_POLICY, "Rate limit policy", "drop",
+                ImmutableMap.of("queue", "Wait", "drop", "Drop", "fail", "Fail"),
+                "What to do with an alarm exceeding the rate limit",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_RATE_LIMIT_TIMEOUT, "Rate limit timeout (seconds)", 10,
+                "How long an alarm waits for the rate limit before it fails, if the rate limit policy is 'Wait'",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new TextField(
+                CK_OUTBOX_DIRECTORY, "Outbox directory", "",
+                "Absolute path of a directory in which alarms are stored until Rundeck accepted them. Empty disables the outbox.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new TextField(
+                CK_ADDITIONAL_TARGETS, "Additional jobs", "",
+                "Comma separated list of further jobs to trigger, of the form 'job_id' or 'job_id@rundeck_url'",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new DropdownField(
+                CK_FAN_OUT_MODE, "Multiple jobs mode", "all",
+                ImmutableMap.of("all", "All jobs must succeed", "any", "Any job must succeed"),
+                "When triggering multiple jobs succeeds",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_FAN_OUT_TIMEOUT, "Multiple jobs timeout (seconds)", 30,
+                "How long to wait for all jobs to be triggered",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new TextField(
+                CK_HEDGE_URL, "Hedge Rundeck URL", "",
+                "Further URL of the same Rundeck installation, e.g. of another front-end, which also receives the job "
+                        + "execution if the Rundeck URL is slow to respond. Empty disables hedging.",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_HEDGE_PERCENTILE, "Hedge percentile", 95,
+                "Percentile of the recent response times of the Rundeck URL after which the hedge URL is tried as well",
+                ConfigurationField.Optional.OPTIONAL)
+        );
+        configurationRequest.addField(new NumberField(
+                CK_HEDGE_MIN_DELAY, "Min. hedge delay (milliseconds)", 100,
+                "Minimum time to wait for the Rundeck URL before the hedge URL is tried as well",
+                ConfigurationField.Optional.OPTIONAL)
+        );
 
 
         return configurationRequest;
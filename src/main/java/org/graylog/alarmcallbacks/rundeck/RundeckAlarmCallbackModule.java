@@ -5,6 +5,7 @@ import org.graylog2.plugin.PluginModule;
 public class RundeckAlarmCallbackModule extends PluginModule {
     @Override
     protected void configure() {
+        serviceBinder().addBinding().to(RundeckDispatchEngine.class);
         addAlarmCallback(RundeckAlarmCallback.class);
     }
 }
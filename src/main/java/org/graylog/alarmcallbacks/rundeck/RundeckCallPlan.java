@@ -0,0 +1,553 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import okhttp3.HttpUrl;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.streams.Stream;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, pre-compiled form of a {@link RundeckAlarmCallback} configuration.
+ * <p>
+ * Everything which only depends on the configuration (base URL, node filters, static job arguments and the set of
+ * message fields to forward) is computed once, so that rendering a single alert only has to fill in the values
+ * taken from the matching message.
+ * <p>
+ * Up to API version {@value #JSON_API_VERSION}, node filters, {@code argString} and {@code asUser} are passed as
+ * query parameters of an empty request. Starting with API version {@value #JSON_API_VERSION}, they are passed in a
+ * JSON request body, with the job arguments as an {@code options} map and the node filters as a single Rundeck node
+ * filter expression.
+ * <p>
+ * Once the definition of the job is known, {@link #restrictTo(Set)} compiles a plan which only passes the options the
+ * job declares.
+ */
+class RundeckCallPlan {
+    static final int DEFAULT_API_VERSION = 12;
+    static final int JSON_API_VERSION = 18;
+    static final String FIELD_AGGREGATION_FIRST = "first";
+    static final String FIELD_AGGREGATION_AGGREGATE = "aggregate";
+
+    private final HttpUrl apiUrl;
+    private final HttpUrl executionUrl;
+    private final HttpUrl definitionUrl;
+    private final boolean jsonApi;
+    private final String apiToken;
+    private final String asUser;
+    private final String nodeFilter;
+    private final Set<String> fieldArguments;
+    private final String staticArguments;
+    private final Map<String, String> staticOptions;
+    private final Map<String, ArgumentTemplate> templates;
+    private final FieldAggregator aggregator;
+    private final int maxArgLength;
+    private final ArgStringEncoder encoder;
+    private final Set<String> declaredOptions;
+
+    RundeckCallPlan(@Nullable HttpUrl apiUrl,
+                    @Nullable HttpUrl executionUrl,
+                    @Nullable HttpUrl definitionUrl,
+                    boolean jsonApi,
+                    String apiToken,
+                    @Nullable String asUser,
+                    @Nullable String nodeFilter,
+                    Set<String> fieldArguments,
+                    String staticArguments,
+                    Map<String, String> staticOptions,
+                    Map<String, ArgumentTemplate> templates,
+                    @Nullable FieldAggregator aggregator,
+                    int maxArgLength,
+                    ArgStringEncoder encoder,
+                    @Nullable Set<String> declaredOptions) {
+        this.apiUrl = apiUrl;
+        this.executionUrl = executionUrl;
+        this.definitionUrl = definitionUrl;
+        this.jsonApi = jsonApi;
+        this.apiToken = apiToken;
+        this.asUser = asUser;
+        this.nodeFilter = nodeFilter;
+        this.fieldArguments = ImmutableSet.copyOf(fieldArguments);
+        this.staticArguments = staticArguments;
+        this.staticOptions = ImmutableMap.copyOf(staticOptions);
+        this.templates = ImmutableMap.copyOf(templates);
+        this.aggregator = aggregator;
+        this.maxArgLength = maxArgLength;
+        this.encoder = encoder;
+        this.declaredOptions = declaredOptions == null ? null : ImmutableSet.copyOf(declaredOptions);
+    }
+
+    static RundeckCallPlan compile(Configuration configuration) {
+        return compile(configuration,
+                configuration.getString(RundeckAlarmCallback.CK_RUNDECK_URL, "http://localhost/"),
+                configuration.getString(RundeckAlarmCallback.CK_JOB_ID, "0"));
+    }
+
+    /**
+     * Compiles the configuration for the given Rundeck URL and job ID instead of the configured ones.
+     */
+    static RundeckCallPlan compile(Configuration configuration, String rundeckUrlString, String jobId) {
+        // an invalid API version is reported by checkConfiguration()
+        final int apiVersion = Math.max(DEFAULT_API_VERSION,
+                configuration.getInt(RundeckAlarmCallback.CK_API_VERSION, DEFAULT_API_VERSION));
+        final boolean jsonApi = apiVersion >= JSON_API_VERSION;
+        final String includeFilters = configuration.getString(RundeckAlarmCallback.CK_FILTER_INCLUDE, "");
+        final String excludeFilters = configuration.getString(RundeckAlarmCallback.CK_FILTER_EXCLUDE, "");
+
+        final HttpUrl rundeckUrl = HttpUrl.parse(rundeckUrlString);
+        final HttpUrl apiUrl;
+        final HttpUrl executionUrl;
+        final HttpUrl definitionUrl;
+        if (rundeckUrl == null) {
+            apiUrl = null;
+            executionUrl = null;
+            definitionUrl = null;
+        } else {
+            apiUrl = rundeckUrl.newBuilder()
+                    .addPathSegment("api")
+                    .addPathSegment(Integer.toString(apiVersion))
+                    .build();
+            final HttpUrl.Builder urlBuilder = apiUrl.newBuilder()
+                    .addPathSegment("job")
+                    .addPathSegment(jobId)
+                    .addPathSegment("executions");
+
+            if (!jsonApi) {
+                addFilters(urlBuilder, "", includeFilters);
+                addFilters(urlBuilder, "exclude-", excludeFilters);
+
+                final boolean excludePrecedence = configuration.getBoolean(RundeckAlarmCallback.CK_FILTER_EXCLUDE_PRECEDENCE);
+                if (!excludePrecedence) {
+                    urlBuilder.addQueryParameter("exclude-precedence", Boolean.toString(excludePrecedence));
+                }
+            }
+            executionUrl = urlBuilder.build();
+            definitionUrl = apiUrl.newBuilder()
+                    .addPathSegment("job")
+                    .addPathSegment(jobId)
+                    .addQueryParameter("format", "xml")
+                    .build();
+        }
+
+        final StringBuilder nodeFilter = new StringBuilder();
+        if (jsonApi) {
+            appendNodeFilters(nodeFilter, "", includeFilters);
+            appendNodeFilters(nodeFilter, "!", excludeFilters);
+        }
+
+        final ImmutableSet.Builder<String> fieldArguments = ImmutableSet.builder();
+        for (String field : configuration.getString(RundeckAlarmCallback.CK_FIELD_ARGS, "").split(",")) {
+            if (!field.isEmpty()) {
+                fieldArguments.add(field);
+            }
+        }
+
+        final ArgStringEncoder encoder = new ArgStringEncoder(
+                Math.max(0, configuration.getInt(RundeckAlarmCallback.CK_MAX_FIELD_LENGTH, 0)));
+        final StringBuilder staticArguments = new StringBuilder();
+        final Map<String, String> staticOptions = new LinkedHashMap<>();
+        for (String arg : configuration.getString(RundeckAlarmCallback.CK_ARGS, "").split("&")) {
+            final String[] argumentPair = arg.split(":");
+            if (argumentPair.length == 2) {
+                ArgStringEncoder.appendEscapedArgument(staticArguments, argumentPair[0], argumentPair[1]);
+                staticOptions.put(argumentPair[0], argumentPair[1]);
+            }
+        }
+
+        Map<String, ArgumentTemplate> templates;
+        try {
+            templates = ArgumentTemplate.compileArguments(configuration.getString(RundeckAlarmCallback.CK_ARG_TEMPLATES, ""));
+        } catch (IllegalArgumentException e) {
+            // invalid templates are reported by checkConfiguration()
+            templates = ImmutableMap.of();
+        }
+
+        final String asUser = configuration.getString(RundeckAlarmCallback.CK_AS_USER, "").trim();
+
+        final Set<String> fields = fieldArguments.build();
+        final boolean aggregate = FIELD_AGGREGATION_AGGREGATE.equals(
+                configuration.getString(RundeckAlarmCallback.CK_FIELD_AGGREGATION, FIELD_AGGREGATION_FIRST));
+        final FieldAggregator aggregator = aggregate && !fields.isEmpty()
+                ? new FieldAggregator(fields, Math.max(1, configuration.getInt(RundeckAlarmCallback.CK_AGGREGATION_TOP_K, 5)))
+                : null;
+
+        return new RundeckCallPlan(
+                apiUrl,
+                executionUrl,
+                definitionUrl,
+                jsonApi,
+                configuration.getString(RundeckAlarmCallback.CK_API_TOKEN, ""),
+                asUser.isEmpty() ? null : configuration.getString(RundeckAlarmCallback.CK_AS_USER),
+                nodeFilter.length() == 0 ? null : nodeFilter.toString(),
+                fields,
+                staticArguments.toString(),
+                staticOptions,
+                templates,
+                aggregator,
+                Math.max(0, configuration.getInt(RundeckAlarmCallback.CK_MAX_ARG_LENGTH, 4096)),
+                encoder,
+                null);
+    }
+
+    /**
+     * Compiles a plan which only passes the given options, i.e. those declared by the job. Field arguments are
+     * aggregated the same way, but their {@code _count} arguments are only passed if they are declared as well.
+     */
+    RundeckCallPlan restrictTo(Set<String> options) {
+        final Set<String> fields = ImmutableSet.copyOf(Iterables.filter(fieldArguments, options::contains));
+        final Map<String, String> declaredStaticOptions = new LinkedHashMap<>(Maps.filterKeys(staticOptions, options::contains));
+        final StringBuilder declaredStaticArguments = new StringBuilder();
+        for (Map.Entry<String, String> option : declaredStaticOptions.entrySet()) {
+            ArgStringEncoder.appendEscapedArgument(declaredStaticArguments, option.getKey(), option.getValue());
+        }
+
+        return new RundeckCallPlan(
+                apiUrl,
+                executionUrl,
+                definitionUrl,
+                jsonApi,
+                apiToken,
+                asUser,
+                nodeFilter,
+                fields,
+                declaredStaticArguments.toString(),
+                declaredStaticOptions,
+                Maps.filterKeys(templates, options::contains),
+                aggregator == null || fields.isEmpty() ? null : new FieldAggregator(fields, aggregator.topK()),
+                maxArgLength,
+                encoder,
+                options);
+    }
+
+    /**
+     * Returns the names of all options this plan may pass to the job.
+     */
+    Set<String> optionNames() {
+        final ImmutableSet.Builder<String> names = ImmutableSet.builder();
+        for (String field : fieldArguments) {
+            names.add(field);
+            if (aggregator != null && isDeclared(field + "_count")) {
+                names.add(field + "_count");
+            }
+        }
+        return names.addAll(templates.keySet()).addAll(staticOptions.keySet()).build();
+    }
+
+    private boolean isDeclared(String option) {
+        return declaredOptions == null || declaredOptions.contains(option);
+    }
+
+    private static void addFilters(HttpUrl.Builder urlBuilder, String prefix, String filters) {
+        for (String filter : filters.split("&")) {
+            final String[] filterPair = filter.split(":");
+            if (filterPair.length == 2) {
+                final String filterKey = filterPair[0];
+                final String filterValue = filterPair[1];
+                if (!filterKey.trim().isEmpty() && !filterValue.trim().isEmpty()) {
+                    urlBuilder.addQueryParameter(prefix + filterKey, filterValue);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the given filters in Rundeck's node filter syntax, e.g. {@code name: node01 !tags: windows}, mapping the
+     * legacy {@code os-*} filter names to the {@code os*} node attributes.
+     */
+    private static void appendNodeFilters(StringBuilder sb, String prefix, String filters) {
+        for (String filter : filters.split("&")) {
+            final String[] filterPair = filter.split(":");
+            if (filterPair.length == 2) {
+                final String filterKey = filterPair[0].trim();
+                final String filterValue = filterPair[1].trim();
+                if (!filterKey.isEmpty() && !filterValue.isEmpty()) {
+                    if (sb.length() > 0) {
+                        sb.append(' ');
+                    }
+                    sb.append(prefix).append(nodeAttribute(filterKey)).append(": ");
+                    if (filterValue.indexOf(' ') >= 0 || filterValue.indexOf('"') >= 0) {
+                        sb.append('"').append(filterValue.replace("\"", "\\\"")).append('"');
+                    } else {
+                        sb.append(filterValue);
+                    }
+                }
+            }
+        }
+    }
+
+    private static String nodeAttribute(String filterKey) {
+        switch (filterKey) {
+            case "os-name":
+                return "osName";
+            case "os-family":
+                return "osFamily";
+            case "os-arch":
+                return "osArch";
+            case "os-version":
+                return "osVersion";
+            default:
+                return filterKey;
+        }
+    }
+
+    /**
+     * Renders the Rundeck {@code argString} for the given message and stream, or an empty string if there are no
+     * arguments. Field arguments come first, followed by templated and static job arguments. Field values are
+     * truncated to the maximum field length, and field and templated arguments exceeding the maximum length of the
+     * {@code argString} are truncated or left out. Static job arguments are always passed.
+     */
+    String argString(@Nullable MessageSummary message, @Nullable Stream stream) {
+        if ((message == null || fieldArguments.isEmpty()) && templates.isEmpty()) {
+            return staticArguments;
+        }
+
+        final StringBuilder sb = ArgStringEncoder.buffer();
+        final int maxLength = maxArgLength - staticArguments.length();
+        if (message != null) {
+            for (String field : fieldArguments) {
+                final Object value = fieldValue(message, field);
+                if (value != null) {
+                    encoder.appendArgument(sb, field, value, maxLength);
+                }
+            }
+        }
+        appendTemplates(sb, message, stream, maxLength);
+
+        return sb.append(staticArguments).toString();
+    }
+
+    private void appendTemplates(StringBuilder sb, @Nullable MessageSummary message, @Nullable Stream stream, int maxLength) {
+        for (Map.Entry<String, ArgumentTemplate> template : templates.entrySet()) {
+            encoder.appendArgument(sb, template.getKey(), template.getValue().renderToBuffer(message, stream), maxLength);
+        }
+    }
+
+    /**
+     * Renders the Rundeck {@code argString} for the messages matching an alert.
+     * <p>
+     * Without field aggregation, only the field values of the first message are used. With field aggregation, every
+     * field argument receives the most frequent values over all messages, e.g. {@code -source 'a,b,c'}, and the
+     * number of distinct values, e.g. {@code -source_count '3'}. Values which don't fit into the maximum length of the
+     * {@code argString} are left out. Templated arguments are always rendered for the first message.
+     */
+    String argStringFor(List<MessageSummary> messages, @Nullable Stream stream) {
+        final MessageSummary first = messages.isEmpty() ? null : messages.get(0);
+        if (aggregator == null) {
+            return argString(first, stream);
+        }
+
+        final StringBuilder sb = ArgStringEncoder.buffer();
+        final int maxLength = maxArgLength - staticArguments.length();
+        for (Map.Entry<String, String> option : aggregatedOptions(messages).entrySet()) {
+            encoder.appendArgument(sb, option.getKey(), option.getValue(), maxLength);
+        }
+        appendTemplates(sb, first, stream, maxLength);
+
+        return sb.append(staticArguments).toString();
+    }
+
+    /**
+     * Returns the job options for the messages matching an alert, i.e. the same arguments as
+     * {@link #argStringFor(List, Stream)} without quoting, in the same order. Static job arguments override templated
+     * and field arguments of the same name.
+     */
+    Map<String, String> options(List<MessageSummary> messages, @Nullable Stream stream) {
+        final MessageSummary first = messages.isEmpty() ? null : messages.get(0);
+        final Map<String, String> options;
+        if (aggregator != null) {
+            options = aggregatedOptions(messages);
+        } else {
+            options = new LinkedHashMap<>();
+            if (first != null) {
+                final MessageSummary message = first;
+                for (String field : fieldArguments) {
+                    final Object value = fieldValue(message, field);
+                    if (value != null) {
+                        options.put(field, encoder.truncate(String.valueOf(value)));
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<String, ArgumentTemplate> template : templates.entrySet()) {
+            options.put(template.getKey(), template.getValue().render(first, stream));
+        }
+        options.putAll(staticOptions);
+        return options;
+    }
+
+    /**
+     * Returns the aggregated field arguments, e.g. {@code source -> a,b,c} and {@code source_count -> 3}, leaving out
+     * values which would exceed the maximum length of the {@code argString}.
+     */
+    private Map<String, String> aggregatedOptions(List<MessageSummary> messages) {
+        final int budget = maxArgLength - staticArguments.length();
+        final Map<String, String> options = new LinkedHashMap<>();
+        int length = 0;
+        for (Map.Entry<String, FieldAggregator.FieldSummary> entry : aggregator.aggregate(messages).entrySet()) {
+            final String field = entry.getKey();
+            final FieldAggregator.FieldSummary summary = entry.getValue();
+            final String countField = field + "_count";
+            final boolean passCount = isDeclared(countField);
+            final String count = Long.toString(summary.distinct());
+            final int countLength = passCount ? argumentLength(countField, count) : 0;
+
+            final StringBuilder values = new StringBuilder();
+            for (String topValue : summary.topValues(aggregator.topK())) {
+                final String value = encoder.truncate(topValue);
+                final int separatorLength = values.length() == 0 ? 0 : 1;
+                // -field 'values' -field_count 'n'
+                if (length + argumentLength(field, values) + separatorLength + value.length() + countLength > budget) {
+                    break;
+                }
+                if (separatorLength > 0) {
+                    values.append(',');
+                }
+                values.append(value);
+            }
+
+            if (values.length() > 0) {
+                options.put(field, values.toString());
+                if (passCount) {
+                    options.put(countField, count);
+                }
+                length += argumentLength(field, values) + countLength;
+            }
+        }
+        return options;
+    }
+
+    /**
+     * @return the length of the argument in an {@code argString}, i.e. {@code -key 'value' }
+     */
+    private static int argumentLength(String key, CharSequence value) {
+        return key.length() + value.length() + 5;
+    }
+
+    /**
+     * @return the length of the given options if they were rendered as an {@code argString}
+     */
+    static int argumentsLength(Map<String, String> options) {
+        int length = 0;
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            length += argumentLength(option.getKey(), option.getValue());
+        }
+        return length;
+    }
+
+    /**
+     * Returns the value of the given message field, including the {@code source} and {@code message} fields.
+     */
+    @Nullable
+    static Object fieldValue(MessageSummary message, String field) {
+        if ("source".equals(field)) {
+            return message.getSource();
+        } else if ("message".equals(field)) {
+            return message.getMessage();
+        } else {
+            return message.getField(field);
+        }
+    }
+
+    /**
+     * Builds the job execution URL for the given {@code argString}, which is ignored if the JSON API is used.
+     *
+     * @throws IllegalStateException if the configured Rundeck URL could not be parsed
+     */
+    HttpUrl executionUrl(String argString) {
+        if (executionUrl == null) {
+            throw new IllegalStateException("Invalid Rundeck URL");
+        }
+
+        if (jsonApi || argString.isEmpty() && asUser == null) {
+            return executionUrl;
+        }
+
+        final HttpUrl.Builder urlBuilder = executionUrl.newBuilder();
+        if (!argString.isEmpty()) {
+            urlBuilder.addQueryParameter("argString", argString);
+        }
+        if (asUser != null) {
+            urlBuilder.addQueryParameter("asUser", asUser);
+        }
+        return urlBuilder.build();
+    }
+
+    /**
+     * Builds the URL of the status of the given job execution.
+     *
+     * @throws IllegalStateException if the configured Rundeck URL could not be parsed
+     */
+    HttpUrl statusUrl(long executionId) {
+        if (apiUrl == null) {
+            throw new IllegalStateException("Invalid Rundeck URL");
+        }
+
+        return apiUrl.newBuilder()
+                .addPathSegment("execution")
+                .addPathSegment(Long.toString(executionId))
+                .build();
+    }
+
+    /**
+     * Builds the URL of the XML definition of the job.
+     *
+     * @throws IllegalStateException if the configured Rundeck URL could not be parsed
+     */
+    HttpUrl definitionUrl() {
+        if (definitionUrl == null) {
+            throw new IllegalStateException("Invalid Rundeck URL");
+        }
+        return definitionUrl;
+    }
+
+    /**
+     * Returns the base execution URL, or {@code null} if the configured Rundeck URL could not be parsed.
+     */
+    @Nullable
+    HttpUrl endpoint() {
+        return executionUrl;
+    }
+
+    /**
+     * @return {@code true} if the job execution is requested with a JSON body
+     */
+    boolean jsonApi() {
+        return jsonApi;
+    }
+
+    @Nullable
+    String asUser() {
+        return asUser;
+    }
+
+    /**
+     * Returns the node filters in Rundeck's node filter syntax for the JSON API, or {@code null} if there are none.
+     */
+    @Nullable
+    String nodeFilter() {
+        return nodeFilter;
+    }
+
+    /**
+     * Returns the configured API token, which may refer to a file or an environment variable, see {@link ApiTokens}.
+     */
+    String apiToken() {
+        return apiToken;
+    }
+
+    Set<String> fieldArguments() {
+        return fieldArguments;
+    }
+
+    String staticArguments() {
+        return staticArguments;
+    }
+}
@@ -0,0 +1,226 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.AbstractIdleService;
+import okhttp3.OkHttpClient;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.graylog2.plugin.configuration.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the job executions of all Rundeck alarm callbacks of a Graylog node.
+ * <p>
+ * Graylog creates a new {@link RundeckAlarmCallback} for every configured callback, so the engine owns everything
+ * which has to be shared between them: the HTTP clients and connection pools, asynchronous dispatchers, rate and
+ * concurrency limiters, coalescing windows, outboxes, metrics, the execution tracker, job definitions, API tokens, the
+ * response times used for hedging and the idempotency keys of recently triggered alerts. Resource use thus grows with the
+ * number of Rundeck endpoints and jobs, not with the number of callbacks.
+ * <p>
+ * Idempotency keys are looked up in a bounded cache of the local node first, and then recorded in the
+ * {@link IdempotencyStore}, which may be shared by all nodes of a Graylog cluster. The local cache spares the shared
+ * store the lookups for alerts which this node has sent itself, so it's skipped if the store is the
+ * {@link InMemoryIdempotencyStore} anyway.
+ * <p>
+ * The engine is registered with Graylog's service manager. On shutdown it stops accepting alarms, sends the alarms
+ * of open trailing coalescing windows, waits up to {@link #DRAIN_TIMEOUT_SECONDS} for the asynchronous dispatchers
+ * to drain, closes the outboxes, whose pending requests are replayed on the next start, stops the dispatcher threads
+ * of the Rundeck endpoints and stops watching API token files.
+ */
+@Singleton
+public class RundeckDispatchEngine extends AbstractIdleService {
+    private static final Logger LOG = LoggerFactory.getLogger(RundeckDispatchEngine.class);
+
+    static final long DRAIN_TIMEOUT_SECONDS = 30L;
+
+    private final RundeckHttpClients httpClients;
+    private final AsyncJobDispatchers asyncDispatchers;
+    private final TriggerCoalescer coalescer;
+    private final RateLimiters rateLimiters;
+    private final ConcurrencyLimiters concurrencyLimiters;
+    private final TriggerOutboxes outboxes;
+    private final RundeckMetrics metrics;
+    private final ExecutionTracker executionTracker;
+    private final JobDefinitionCache definitions;
+    private final ApiTokens apiTokens;
+    @Nullable
+    private final InMemoryIdempotencyStore localKeys;
+    private final IdempotencyStore idempotencyStore;
+    private final ConcurrentMap<String, RequestHedger> hedgers = new ConcurrentHashMap<>();
+    private volatile boolean shuttingDown = false;
+
+    @Inject
+    public RundeckDispatchEngine(OkHttpClient httpClient, MetricRegistry metricRegistry, IdempotencyStore idempotencyStore) {
+        this(httpClient, metricRegistry, idempotencyStore, new ApiTokens());
+    }
+
+    RundeckDispatchEngine(OkHttpClient httpClient,
+                          MetricRegistry metricRegistry,
+                          IdempotencyStore idempotencyStore,
+                          ApiTokens apiTokens) {
+        this(httpClient, new RundeckMetrics(metricRegistry), idempotencyStore, apiTokens);
+    }
+
+    private RundeckDispatchEngine(OkHttpClient httpClient,
+                                  RundeckMetrics metrics,
+                                  IdempotencyStore idempotencyStore,
+                                  ApiTokens apiTokens) {
+        this(new RundeckHttpClients(httpClient, metrics), metrics, idempotencyStore, apiTokens);
+    }
+
+    private RundeckDispatchEngine(RundeckHttpClients httpClients,
+                                  RundeckMetrics metrics,
+                                  IdempotencyStore idempotencyStore,
+                                  ApiTokens apiTokens) {
+        this(httpClients, new AsyncJobDispatchers(metrics), new TriggerCoalescer(), new RateLimiters(),
+                new ConcurrencyLimiters(metrics), new TriggerOutboxes(httpClients, metrics), metrics, new ExecutionTracker(),
+                new JobDefinitionCache(), apiTokens, idempotencyStore);
+    }
+
+    RundeckDispatchEngine(RundeckHttpClients httpClients,
+                          AsyncJobDispatchers asyncDispatchers,
+                          TriggerCoalescer coalescer,
+                          RateLimiters rateLimiters,
+                          ConcurrencyLimiters concurrencyLimiters,
+                          TriggerOutboxes outboxes,
+                          RundeckMetrics metrics,
+                          ExecutionTracker executionTracker,
+                          JobDefinitionCache definitions,
+                          ApiTokens apiTokens,
+                          IdempotencyStore idempotencyStore) {
+        this.httpClients = httpClients;
+        this.asyncDispatchers = asyncDispatchers;
+        this.coalescer = coalescer;
+        this.rateLimiters = rateLimiters;
+        this.concurrencyLimiters = concurrencyLimiters;
+        this.outboxes = outboxes;
+        this.metrics = metrics;
+        this.executionTracker = executionTracker;
+        this.definitions = definitions;
+        this.apiTokens = apiTokens;
+        this.idempotencyStore = idempotencyStore;
+        this.localKeys = idempotencyStore instanceof InMemoryIdempotencyStore ? null : new InMemoryIdempotencyStore();
+        metrics.registerCoalescer(coalescer);
+    }
+
+    /**
+     * Creates a target for the given job, sharing clients, dispatchers, rate and concurrency limiters and job
+     * definitions with all other targets of the same Rundeck endpoint, and API tokens with all targets reading them
+     * from the same file or environment variable.
+     */
+    RundeckTarget target(Configuration config, String rundeckUrl, String jobId, @Nullable TriggerOutbox outbox) {
+        return RundeckTarget.create(config, rundeckUrl, jobId, httpClients, asyncDispatchers, rateLimiters, concurrencyLimiters,
+                outbox, metrics, executionTracker, definitions, apiTokens);
+    }
+
+    /**
+     * Returns the hedger for the given job, which keeps track of the response times of its Rundeck URL. Callbacks
+     * using different hedging settings for the same job get separate hedgers.
+     */
+    RequestHedger hedger(String rundeckUrl, String jobId, int percentile, long minDelayMillis) {
+        final String key = rundeckUrl + "/" + jobId + "?percentile=" + percentile + "&minDelay=" + minDelayMillis;
+        return hedgers.computeIfAbsent(key, k -> new RequestHedger(percentile, minDelayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Returns a snapshot of the connection pool statistics of all Rundeck endpoints.
+     */
+    Map<String, RundeckHttpClients.PoolStatistics> poolStatistics() {
+        return httpClients.poolStatistics();
+    }
+
+    /**
+     * Returns the outbox in the given directory, which is opened when it's requested for the first time.
+     */
+    TriggerOutbox outbox(Path directory) throws IOException {
+        return outboxes.forDirectory(directory);
+    }
+
+    /**
+     * Fires the trigger right away, or according to the given coalescing policy.
+     *
+     * @throws AlarmCallbackException if the engine is shutting down, or the trigger failed
+     */
+    void submit(@Nullable TriggerCoalescer.Policy coalescingPolicy,
+                @Nullable MessageSummary message,
+                TriggerCoalescer.Trigger trigger) throws AlarmCallbackException {
+        if (shuttingDown) {
+            throw new AlarmCallbackException("Rundeck alarm callbacks are shutting down");
+        }
+
+        if (coalescingPolicy == null) {
+            trigger.fire();
+        } else {
+            coalescer.submit(coalescingPolicy, message, trigger);
+        }
+    }
+
+    /**
+     * Records the idempotency key of an alert which is about to be sent.
+     *
+     * @return {@code false} if the alert has already been sent within the given window, by this or another node
+     */
+    boolean claim(String idempotencyKey, long windowSeconds) {
+        if (localKeys != null && !localKeys.putIfAbsent(idempotencyKey, windowSeconds, TimeUnit.SECONDS)) {
+            return false;
+        }
+        try {
+            if (idempotencyStore.putIfAbsent(idempotencyKey, windowSeconds, TimeUnit.SECONDS)) {
+                return true;
+            }
+        } catch (RuntimeException e) {
+            // better send an alert twice than not at all
+            LOG.warn("Couldn't record idempotency key in {}", idempotencyStore.getClass().getSimpleName(), e);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the idempotency key of an alert which couldn't be sent, so it may be sent again.
+     */
+    void release(String idempotencyKey) {
+        if (localKeys != null) {
+            localKeys.remove(idempotencyKey);
+        }
+        try {
+            idempotencyStore.remove(idempotencyKey);
+        } catch (RuntimeException e) {
+            LOG.warn("Couldn't remove idempotency key from {}", idempotencyStore.getClass().getSimpleName(), e);
+        }
+    }
+
+    @Override
+    protected void startUp() {
+    }
+
+    @Override
+    protected void shutDown() {
+        shuttingDown = true;
+
+        coalescer.shutdown();
+        if (!asyncDispatchers.shutdown(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            LOG.warn("Pending alarms to Rundeck were not sent within {} seconds", DRAIN_TIMEOUT_SECONDS);
+        }
+        executionTracker.shutdown();
+        outboxes.close();
+        httpClients.shutdown();
+        apiTokens.close();
+    }
+
+    @Override
+    protected String serviceName() {
+        return "Rundeck alarm callback dispatch engine";
+    }
+}
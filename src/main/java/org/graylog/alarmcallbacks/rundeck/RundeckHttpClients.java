@@ -0,0 +1,261 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP clients with a dedicated connection pool, dispatcher and circuit breaker for each Rundeck endpoint.
+ * <p>
+ * All clients are derived from the {@link OkHttpClient} provided by Graylog, so they share its settings, but neither
+ * connections nor dispatcher threads for one Rundeck endpoint can starve or be starved by other HTTP traffic. The
+ * dispatcher of an endpoint runs at least as many calls at once as any callback of the endpoint allows with its
+ * adaptive concurrency limit, so calls don't queue in OkHttp, where the waiting time would count against their call
+ * timeout.
+ */
+public class RundeckHttpClients {
+    /**
+     * The limit of OkHttp's default dispatcher for all hosts, which also applies to a single Rundeck endpoint unless a
+     * callback allows a higher concurrency.
+     */
+    static final int MIN_MAX_REQUESTS = 64;
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_OPEN_DURATION_SECONDS = 30L;
+
+    private final OkHttpClient httpClient;
+    private final RundeckMetrics metrics;
+    private final ConcurrentMap<EndpointKey, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Dispatcher> dispatchers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SharedCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    public RundeckHttpClients(OkHttpClient httpClient, RundeckMetrics metrics) {
+        this.httpClient = httpClient;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the client for the endpoint (scheme, host and port) of the given URL with the given pool settings.
+     * Callbacks using the same endpoint and pool settings share a client, and all clients of an endpoint share its
+     * dispatcher, whose limit is raised to the given concurrency if it's lower.
+     */
+    OkHttpClient forUrl(HttpUrl url, int maxIdleConnections, long keepAliveSeconds, int maxConcurrency) {
+        final Dispatcher dispatcher = createOrRaiseDispatcher(url, maxConcurrency);
+        final EndpointKey key = new EndpointKey(url.scheme(), url.host(), url.port(), maxIdleConnections, keepAliveSeconds);
+        return endpoints.computeIfAbsent(key, k -> {
+            final Endpoint endpoint = createEndpoint(k, dispatcher);
+            final String hostAndPort = k.host + ":" + k.port;
+            metrics.registerConnectionPools(hostAndPort, () -> poolStatistics(hostAndPort));
+            return endpoint;
+        }).client;
+    }
+
+    private Dispatcher createOrRaiseDispatcher(HttpUrl url, int maxConcurrency) {
+        final Dispatcher dispatcher = dispatchers.computeIfAbsent(url.scheme() + "://" + url.host() + ":" + url.port(),
+                k -> new Dispatcher());
+        final int maxRequests = Math.max(MIN_MAX_REQUESTS, maxConcurrency);
+        synchronized (dispatcher) {
+            if (maxRequests > dispatcher.getMaxRequestsPerHost()) {
+                dispatcher.setMaxRequests(maxRequests);
+                dispatcher.setMaxRequestsPerHost(maxRequests);
+            }
+        }
+        return dispatcher;
+    }
+
+    private Endpoint createEndpoint(EndpointKey key, Dispatcher dispatcher) {
+        final ConnectionPool connectionPool = new ConnectionPool(key.maxIdleConnections, key.keepAliveSeconds, TimeUnit.SECONDS);
+        final OkHttpClient client = httpClient.newBuilder()
+                .dispatcher(dispatcher)
+                .connectionPool(connectionPool)
+                // HTTP/2 is negotiated via ALPN for HTTPS endpoints which support it
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .build();
+        return new Endpoint(client, connectionPool);
+    }
+
+    /**
+     * Returns the circuit breaker for the endpoint (scheme, host and port) of the given URL. A circuit breaker which
+     * no callback has registered its settings for yet uses the defaults of the callback configuration.
+     */
+    CircuitBreaker circuitBreaker(HttpUrl url) {
+        return sharedCircuitBreaker(url).circuitBreaker;
+    }
+
+    /**
+     * Registers the circuit breaker settings of the given owner, usually the configuration of a callback, and returns
+     * the circuit breaker for the endpoint (scheme, host and port) of the given URL. All callbacks of an endpoint share
+     * its circuit breaker, which uses the lowest failure threshold and the longest open duration of all live owners
+     * enabling it; it's only disabled if all of them disable it. The owner is only weakly referenced.
+     */
+    CircuitBreaker circuitBreaker(HttpUrl url, Object owner, int failureThreshold, long openDurationSeconds) {
+        final SharedCircuitBreaker shared = sharedCircuitBreaker(url);
+        shared.register(owner, failureThreshold, openDurationSeconds);
+        return shared.circuitBreaker;
+    }
+
+    private SharedCircuitBreaker sharedCircuitBreaker(HttpUrl url) {
+        return circuitBreakers.computeIfAbsent(url.scheme() + "://" + url.host() + ":" + url.port(), k -> new SharedCircuitBreaker(
+                new CircuitBreaker(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION_SECONDS, TimeUnit.SECONDS)));
+    }
+
+    /**
+     * Returns a snapshot of the connection pool statistics of all endpoints.
+     */
+    Map<String, PoolStatistics> poolStatistics() {
+        final ImmutableMap.Builder<String, PoolStatistics> statistics = ImmutableMap.builder();
+        for (Map.Entry<EndpointKey, Endpoint> entry : endpoints.entrySet()) {
+            final ConnectionPool connectionPool = entry.getValue().connectionPool;
+            statistics.put(entry.getKey().toString(),
+                    new PoolStatistics(connectionPool.connectionCount(), connectionPool.idleConnectionCount()));
+        }
+        return statistics.build();
+    }
+
+    /**
+     * Stops the dispatcher threads of all endpoints once their running calls have completed.
+     */
+    void shutdown() {
+        for (Dispatcher dispatcher : dispatchers.values()) {
+            dispatcher.executorService().shutdown();
+        }
+    }
+
+    /**
+     * Returns the dispatcher for the endpoint (scheme, host and port) of the given URL, if a client has been created
+     * for it.
+     */
+    @Nullable
+    Dispatcher dispatcher(HttpUrl url) {
+        return dispatchers.get(url.scheme() + "://" + url.host() + ":" + url.port());
+    }
+
+    /**
+     * Returns the sum of the connection pool statistics of all endpoints with the given host and port.
+     */
+    private PoolStatistics poolStatistics(String hostAndPort) {
+        int connectionCount = 0;
+        int idleConnectionCount = 0;
+        for (Map.Entry<EndpointKey, Endpoint> entry : endpoints.entrySet()) {
+            if (hostAndPort.equals(entry.getKey().host + ":" + entry.getKey().port)) {
+                connectionCount += entry.getValue().connectionPool.connectionCount();
+                idleConnectionCount += entry.getValue().connectionPool.idleConnectionCount();
+            }
+        }
+        return new PoolStatistics(connectionCount, idleConnectionCount);
+    }
+
+    static class PoolStatistics {
+        private final int connectionCount;
+        private final int idleConnectionCount;
+
+        PoolStatistics(int connectionCount, int idleConnectionCount) {
+            this.connectionCount = connectionCount;
+            this.idleConnectionCount = idleConnectionCount;
+        }
+
+        int connectionCount() {
+            return connectionCount;
+        }
+
+        int idleConnectionCount() {
+            return idleConnectionCount;
+        }
+
+        int activeConnectionCount() {
+            return Math.max(0, connectionCount - idleConnectionCount);
+        }
+
+        @Override
+        public String toString() {
+            return "PoolStatistics{connections=" + connectionCount + ", idle=" + idleConnectionCount + "}";
+        }
+    }
+
+    private static class SharedCircuitBreaker {
+        private final CircuitBreaker circuitBreaker;
+        // the settings per owner, compared by identity and dropped once the owner has been garbage collected
+        private final ConcurrentMap<Object, long[]> registrations = new MapMaker().weakKeys().makeMap();
+
+        SharedCircuitBreaker(CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+        }
+
+        synchronized void register(Object owner, int failureThreshold, long openDurationSeconds) {
+            registrations.put(owner, new long[]{failureThreshold, openDurationSeconds});
+
+            long lowestThreshold = 0L;
+            long longestOpenSeconds = 0L;
+            for (long[] settings : registrations.values()) {
+                if (settings[0] > 0L) {
+                    lowestThreshold = lowestThreshold == 0L ? settings[0] : Math.min(lowestThreshold, settings[0]);
+                    longestOpenSeconds = Math.max(longestOpenSeconds, settings[1]);
+                }
+            }
+            circuitBreaker.setSettings((int) lowestThreshold, Math.max(1L, longestOpenSeconds), TimeUnit.SECONDS);
+        }
+    }
+
+    private static class Endpoint {
+        private final OkHttpClient client;
+        private final ConnectionPool connectionPool;
+
+        Endpoint(OkHttpClient client, ConnectionPool connectionPool) {
+            this.client = client;
+            this.connectionPool = connectionPool;
+        }
+    }
+
+    private static class EndpointKey {
+        private final String scheme;
+        private final String host;
+        private final int port;
+        private final int maxIdleConnections;
+        private final long keepAliveSeconds;
+
+        EndpointKey(String scheme, String host, int port, int maxIdleConnections, long keepAliveSeconds) {
+            this.scheme = scheme;
+            this.host = host;
+            this.port = port;
+            this.maxIdleConnections = maxIdleConnections;
+            this.keepAliveSeconds = keepAliveSeconds;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final EndpointKey that = (EndpointKey) o;
+            return port == that.port &&
+                    maxIdleConnections == that.maxIdleConnections &&
+                    keepAliveSeconds == that.keepAliveSeconds &&
+                    Objects.equals(scheme, that.scheme) &&
+                    Objects.equals(host, that.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scheme, host, port, maxIdleConnections, keepAliveSeconds);
+        }
+
+        @Override
+        public String toString() {
+            return scheme + "://" + host + ":" + port + "?maxIdle=" + maxIdleConnections + "&keepAlive=" + keepAliveSeconds;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of all Rundeck jobs triggered by alarm callbacks, registered in Graylog's {@link MetricRegistry}.
+ * <p>
+ * Dropwizard metrics have no tags, so the job ID is part of every metric name, e.g.
+ * {@code org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.<job ID>.responses.5xx}.
+ */
+public class RundeckMetrics {
+    private final MetricRegistry metricRegistry;
+    private final ConcurrentMap<String, JobMetrics> jobMetrics = new ConcurrentHashMap<>();
+
+    public RundeckMetrics(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    JobMetrics forJob(String jobId) {
+        return jobMetrics.computeIfAbsent(jobId, id -> new JobMetrics(metricRegistry, id));
+    }
+
+    /**
+     * Registers the queue depth and in-flight requests of every priority lane of an asynchronous dispatcher, e.g.
+     * {@code org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.dispatch.<host:port>.4-100-fail_fast.critical.pending}.
+     * The settings tell apart the dispatchers of an endpoint with different limits.
+     */
+    void registerDispatcher(String endpoint, String settings, AsyncJobDispatcher dispatcher) {
+        for (TriggerPriority priority : TriggerPriority.values()) {
+            final String lane = priority.name().toLowerCase(Locale.ENGLISH);
+            register(MetricRegistry.name(RundeckAlarmCallback.class, "dispatch", endpoint, settings, lane, "pending"),
+                    () -> dispatcher.pending(priority));
+            register(MetricRegistry.name(RundeckAlarmCallback.class, "dispatch", endpoint, settings, lane, "in-flight"),
+                    () -> dispatcher.inFlight(priority));
+        }
+        register(MetricRegistry.name(RundeckAlarmCallback.class, "dispatch", endpoint, settings, "preempted"),
+                dispatcher::preempted);
+    }
+
+    /**
+     * Registers the current limit, in-flight requests and waiting calls of an adaptive concurrency limiter, e.g.
+     * {@code org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.concurrency.<host:port>.limit}.
+     */
+    void registerConcurrencyLimiter(String endpoint, AdaptiveConcurrencyLimiter limiter) {
+        register(MetricRegistry.name(RundeckAlarmCallback.class, "concurrency", endpoint, "limit"), limiter::limit);
+        register(MetricRegistry.name(RundeckAlarmCallback.class, "concurrency", endpoint, "in-flight"), limiter::inFlight);
+        register(MetricRegistry.name(RundeckAlarmCallback.class, "concurrency", endpoint, "queued"), limiter::queued);
+    }
+
+    /**
+     * Registers the number of forwarded and suppressed triggers of the coalescer, e.g.
+     * {@code org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.coalescer.suppressed}.
+     */
+    void registerCoalescer(TriggerCoalescer coalescer) {
+        register(MetricRegistry.name(RundeckAlarmCallback.class, "coalescer", "forwarded"), coalescer::forwarded);
+        register(MetricRegistry.name(RundeckAlarmCallback.class, "coalescer", "suppressed"), coalescer::suppressed);
+    }
+
+    /**
+     * Registers the total and idle connections of all connection pools for a Rundeck host, e.g.
+     * {@code org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.pool.<host:port>.connections}.
+     */
+    void registerConnectionPools(String endpoint, Supplier<RundeckHttpClients.PoolStatistics> statistics) {
+        register(MetricRegistry.name(RundeckAlarmCallback.class, "pool", endpoint, "connections"),
+                () -> statistics.get().connectionCount());
+        register(MetricRegistry.name(RundeckAlarmCallback.class, "pool", endpoint, "idle"),
+                () -> statistics.get().idleConnectionCount());
+    }
+
+    /**
+     * Registers the pending, delivered and rejected requests of an outbox, e.g.
+     * {@code org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.outbox.<directory>.rejected}.
+     */
+    void registerOutbox(String directory, TriggerOutbox outbox) {
+        register(MetricRegistry.name(RundeckAlarmCallback.class, "outbox", directory, "pending"), outbox::pending);
+        register(MetricRegistry.name(RundeckAlarmCallback.class, "outbox", directory, "delivered"), outbox::delivered);
+        register(MetricRegistry.name(RundeckAlarmCallback.class, "outbox", directory, "rejected"), outbox::rejected);
+    }
+
+    private void register(String name, Gauge<?> gauge) {
+        // a re-created engine replaces the gauges of the previous one, and every connection pool of a host registers
+        // the same gauges summing up all of them
+        metricRegistry.remove(name);
+        metricRegistry.register(name, gauge);
+    }
+
+    /**
+     * Metrics of a single Rundeck job, shared by all callbacks triggering it.
+     */
+    static class JobMetrics {
+        private final Timer callTimer;
+        private final Timer requestTimer;
+        private final Meter[] responses = new Meter[5];
+        private final Meter errors;
+        private final Meter rateLimited;
+        private final Meter duplicates;
+        private final Meter filtered;
+        private final Meter hedged;
+        private final Meter hedgeWins;
+        private final Meter[] executions = new Meter[ExecutionTracker.Outcome.values().length];
+        private final Histogram argStringLength;
+        private final Histogram urlLength;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        JobMetrics(MetricRegistry metricRegistry, String jobId) {
+            this.callTimer = metricRegistry.timer(name(jobId, "call"));
+            this.requestTimer = metricRegistry.timer(name(jobId, "request"));
+            for (int i = 0; i < responses.length; i++) {
+                responses[i] = metricRegistry.meter(name(jobId, "responses", (i + 1) + "xx"));
+            }
+            this.errors = metricRegistry.meter(name(jobId, "errors"));
+            this.rateLimited = metricRegistry.meter(name(jobId, "rate-limited"));
+            this.duplicates = metricRegistry.meter(name(jobId, "duplicates"));
+            this.filtered = metricRegistry.meter(name(jobId, "filtered"));
+            this.hedged = metricRegistry.meter(name(jobId, "hedged"));
+            this.hedgeWins = metricRegistry.meter(name(jobId, "hedge-wins"));
+            for (ExecutionTracker.Outcome outcome : ExecutionTracker.Outcome.values()) {
+                executions[outcome.ordinal()] = metricRegistry.meter(name(jobId, "executions",
+                        outcome.name().toLowerCase(Locale.ENGLISH).replace('_', '-')));
+            }
+            this.argStringLength = metricRegistry.histogram(name(jobId, "arg-string-length"));
+            this.urlLength = metricRegistry.histogram(name(jobId, "url-length"));
+
+            final String inFlightName = name(jobId, "in-flight");
+            metricRegistry.remove(inFlightName);
+            metricRegistry.register(inFlightName, (Gauge<Integer>) inFlight::get);
+        }
+
+        private static String name(String jobId, String... names) {
+            final String[] parts = new String[names.length + 1];
+            parts[0] = jobId;
+            System.arraycopy(names, 0, parts, 1, names.length);
+            return MetricRegistry.name(RundeckAlarmCallback.class, parts);
+        }
+
+        /**
+         * Starts timing a complete alarm callback invocation, including retries, queueing and rate limiting.
+         */
+        Timer.Context timeCall() {
+            return callTimer.time();
+        }
+
+        void recordRequest(int argStringLength, int urlLength) {
+            this.argStringLength.update(argStringLength);
+            this.urlLength.update(urlLength);
+        }
+
+        void markRateLimited() {
+            rateLimited.mark();
+        }
+
+        void markDuplicate() {
+            duplicates.mark();
+        }
+
+        void markFiltered() {
+            filtered.mark();
+        }
+
+        void markHedged() {
+            hedged.mark();
+        }
+
+        void markHedgeWon() {
+            hedgeWins.mark();
+        }
+
+        void markExecution(ExecutionTracker.Outcome outcome) {
+            executions[outcome.ordinal()].mark();
+        }
+
+        /**
+         * Returns an interceptor recording the round-trip time, response status class and in-flight count of every
+         * single HTTP request to Rundeck. It has to be added after the {@link RetryInterceptor}, so every attempt is
+         * recorded.
+         */
+        Interceptor interceptor() {
+            return chain -> {
+                inFlight.incrementAndGet();
+                final long start = System.nanoTime();
+                try {
+                    final Response response = chain.proceed(chain.request());
+                    final int statusClass = response.code() / 100;
+                    if (statusClass >= 1 && statusClass <= responses.length) {
+                        responses[statusClass - 1].mark();
+                    }
+                    return response;
+                } catch (IOException | RuntimeException e) {
+                    errors.mark();
+                    throw e;
+                } finally {
+                    requestTimer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    inFlight.decrementAndGet();
+                }
+            };
+        }
+    }
+}
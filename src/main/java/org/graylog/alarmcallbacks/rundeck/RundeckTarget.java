@@ -0,0 +1,616 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Enums;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.SettableFuture;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.alarms.AlertCondition;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.streams.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.core.HttpHeaders;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_ADAPTIVE_CONCURRENCY;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_CALL_TIMEOUT;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_CIRCUIT_BREAKER_OPEN;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_CIRCUIT_BREAKER_THRESHOLD;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_CONNECT_TIMEOUT;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_DISPATCH_MODE;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_EXECUTION_TIMEOUT;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_IDEMPOTENCY_KEY_ARG;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_IDEMPOTENCY_WINDOW;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_JOB_DEFINITION_TTL;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_KEEP_ALIVE;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_MAX_IDLE_CONNECTIONS;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_MAX_IN_FLIGHT;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_MAX_PENDING;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_MAX_RETRIES;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_OVERFLOW_POLICY;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_RATE_LIMIT;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_RATE_LIMIT_BURST;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_RATE_LIMIT_POLICY;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_RATE_LIMIT_TIMEOUT;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_READ_TIMEOUT;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_RETRY_BACKOFF;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_RETRY_MAX_BACKOFF;
+import static org.graylog.alarmcallbacks.rundeck.RundeckAlarmCallback.CK_WRITE_TIMEOUT;
+
+/**
+ * A single Rundeck job triggered by a callback, together with the HTTP client, dispatcher and rate limiter used to
+ * trigger it.
+ */
+class RundeckTarget {
+    private static final Logger LOG = LoggerFactory.getLogger(RundeckTarget.class);
+
+    static final String DISPATCH_MODE_SYNC = "sync";
+    static final String DISPATCH_MODE_ASYNC = "async";
+
+    private static final MediaType TEXT_XML = MediaType.parse("text/xml");
+    private static final byte[] EMPTY_BYTE_ARRAY = new byte[0];
+    private static final String APPLICATION_JSON = "application/json";
+
+    private final String jobId;
+    private final RundeckCallPlan plan;
+    private final ApiTokens.ApiToken apiToken;
+    private final OkHttpClient httpClient;
+    private final AsyncJobDispatcher asyncDispatcher;
+    private final OkHttpClient asyncClient;
+    private final TokenBucketRateLimiter rateLimiter;
+    private final TokenBucketRateLimiter.Policy rateLimitPolicy;
+    private final long rateLimitTimeoutNanos;
+    private final TriggerOutbox outbox;
+    private final RundeckMetrics.JobMetrics metrics;
+    private final OkHttpClient statusClient;
+    private final ExecutionTracker executionTracker;
+    private final long executionTimeoutNanos;
+    private final String idempotencyKeyArgument;
+    private final long idempotencyWindowSeconds;
+    private final long callTimeoutNanos;
+    private final JobDefinitionCache definitions;
+    private final long definitionTtlNanos;
+    private volatile ValidatedPlan validatedPlan;
+
+    private RundeckTarget(String jobId,
+                          RundeckCallPlan plan,
+                          ApiTokens.ApiToken apiToken,
+                          @Nullable OkHttpClient httpClient,
+                          @Nullable AsyncJobDispatcher asyncDispatcher,
+                          @Nullable OkHttpClient asyncClient,
+                          @Nullable TokenBucketRateLimiter rateLimiter,
+                          TokenBucketRateLimiter.Policy rateLimitPolicy,
+                          long rateLimitTimeoutNanos,
+                          @Nullable TriggerOutbox outbox,
+                          RundeckMetrics.JobMetrics metrics,
+                          @Nullable OkHttpClient statusClient,
+                          @Nullable ExecutionTracker executionTracker,
+                          long executionTimeoutNanos,
+                          @Nullable String idempotencyKeyArgument,
+                          long idempotencyWindowSeconds,
+                          long callTimeoutNanos,
+                          @Nullable JobDefinitionCache definitions,
+                          long definitionTtlNanos) {
+        this.jobId = jobId;
+        this.plan = plan;
+        this.apiToken = apiToken;
+        this.httpClient = httpClient;
+        this.asyncDispatcher = asyncDispatcher;
+        this.asyncClient = asyncClient;
+        this.rateLimiter = rateLimiter;
+        this.rateLimitPolicy = rateLimitPolicy;
+        this.rateLimitTimeoutNanos = rateLimitTimeoutNanos;
+        this.outbox = outbox;
+        this.metrics = metrics;
+        this.statusClient = statusClient;
+        this.executionTracker = executionTracker;
+        this.executionTimeoutNanos = executionTimeoutNanos;
+        this.idempotencyKeyArgument = idempotencyKeyArgument;
+        this.idempotencyWindowSeconds = idempotencyWindowSeconds;
+        this.callTimeoutNanos = callTimeoutNanos;
+        this.definitions = definitions;
+        this.definitionTtlNanos = definitionTtlNanos;
+    }
+
+    static RundeckTarget create(Configuration config,
+                                String rundeckUrl,
+                                String jobId,
+                                RundeckHttpClients httpClients,
+                                AsyncJobDispatchers asyncDispatchers,
+                                RateLimiters rateLimiters,
+                                ConcurrencyLimiters concurrencyLimiters,
+                                @Nullable TriggerOutbox outbox,
+                                RundeckMetrics metrics,
+                                ExecutionTracker executionTracker,
+                                JobDefinitionCache definitions,
+                                ApiTokens apiTokens) {
+        final RundeckCallPlan plan = RundeckCallPlan.compile(config, rundeckUrl, jobId);
+        final ApiTokens.ApiToken apiToken = apiTokens.forConfiguredValue(plan.apiToken());
+        final RundeckMetrics.JobMetrics jobMetrics = metrics.forJob(jobId);
+        final String idempotencyKeyArgument = config.stringIsSet(CK_IDEMPOTENCY_KEY_ARG)
+                ? config.getString(CK_IDEMPOTENCY_KEY_ARG).trim()
+                : null;
+        final long idempotencyWindowSeconds = Math.max(0, config.getInt(CK_IDEMPOTENCY_WINDOW, 3600));
+        final long callTimeoutMillis = Math.max(0, config.getInt(CK_CALL_TIMEOUT, 30000));
+        final long definitionTtlSeconds = Math.max(0, config.getInt(CK_JOB_DEFINITION_TTL, 0));
+
+        // an invalid Rundeck URL is reported by checkConfiguration() and when sending the request
+        final HttpUrl endpoint = plan.endpoint();
+        if (endpoint == null) {
+            return new RundeckTarget(jobId, plan, apiToken, null, null, null, null, TokenBucketRateLimiter.Policy.DROP, 0L, null,
+                    jobMetrics, null, null, 0L, idempotencyKeyArgument, idempotencyWindowSeconds, 0L, null, 0L);
+        }
+
+        final CircuitBreaker circuitBreaker = httpClients.circuitBreaker(endpoint, config,
+                Math.max(0, config.getInt(CK_CIRCUIT_BREAKER_THRESHOLD, 5)),
+                Math.max(1, config.getInt(CK_CIRCUIT_BREAKER_OPEN, 30)));
+        final long initialBackoff = Math.max(1, config.getInt(CK_RETRY_BACKOFF, 500));
+        final int maxConcurrency = config.getInt(CK_ADAPTIVE_CONCURRENCY, 0);
+        final OkHttpClient pooledClient = httpClients.forUrl(endpoint,
+                Math.max(0, config.getInt(CK_MAX_IDLE_CONNECTIONS, 5)),
+                Math.max(1, config.getInt(CK_KEEP_ALIVE, 300)),
+                maxConcurrency);
+        // the timeouts of the client provided by Graylog don't apply to Rundeck, and status and definition requests
+        // retry a rejected API token as well
+        final OkHttpClient timedClient = pooledClient.newBuilder()
+                .addInterceptor(apiToken.interceptor())
+                .connectTimeout(Math.max(1, config.getInt(CK_CONNECT_TIMEOUT, 10000)), TimeUnit.MILLISECONDS)
+                .readTimeout(Math.max(1, config.getInt(CK_READ_TIMEOUT, 10000)), TimeUnit.MILLISECONDS)
+                .writeTimeout(Math.max(1, config.getInt(CK_WRITE_TIMEOUT, 10000)), TimeUnit.MILLISECONDS)
+                .build();
+        final OkHttpClient.Builder httpClientBuilder = timedClient.newBuilder();
+        final AdaptiveConcurrencyLimiter concurrencyLimiter = maxConcurrency > 0
+                ? concurrencyLimiters.forUrl(endpoint, config, maxConcurrency)
+                : null;
+        if (concurrencyLimiter != null) {
+            httpClientBuilder.addInterceptor(concurrencyLimiter.admission(callTimeoutMillis, TimeUnit.MILLISECONDS));
+        }
+        httpClientBuilder.addInterceptor(new RetryInterceptor(
+                Math.max(0, config.getInt(CK_MAX_RETRIES, 2)),
+                initialBackoff,
+                Math.max(initialBackoff, config.getInt(CK_RETRY_MAX_BACKOFF, 10000)),
+                circuitBreaker,
+                callTimeoutMillis));
+        if (concurrencyLimiter != null) {
+            httpClientBuilder.addInterceptor(concurrencyLimiter.sampler());
+        }
+        final OkHttpClient httpClient = httpClientBuilder
+                .addInterceptor(jobMetrics.interceptor())
+                .build();
+        if (outbox != null) {
+            outbox.register(endpoint, httpClient, apiToken);
+        }
+
+        final AsyncJobDispatcher asyncDispatcher;
+        if (DISPATCH_MODE_ASYNC.equals(config.getString(CK_DISPATCH_MODE, DISPATCH_MODE_SYNC))) {
+            final AsyncJobDispatcher.OverflowPolicy overflowPolicy = Enums.getIfPresent(AsyncJobDispatcher.OverflowPolicy.class,
+                    config.getString(CK_OVERFLOW_POLICY, "").toUpperCase(Locale.ENGLISH))
+                    .or(AsyncJobDispatcher.OverflowPolicy.FAIL_FAST);
+            asyncDispatcher = asyncDispatchers.forUrl(
+                    pooledClient,
+                    endpoint,
+                    Math.max(1, config.getInt(CK_MAX_IN_FLIGHT, 4)),
+                    Math.max(0, config.getInt(CK_MAX_PENDING, 100)),
+                    overflowPolicy);
+        } else {
+            asyncDispatcher = null;
+        }
+
+        final int rateLimit = config.getInt(CK_RATE_LIMIT, 0);
+        final TokenBucketRateLimiter rateLimiter = rateLimit > 0
+                ? rateLimiters.forJob(endpoint, jobId, config, rateLimit, Math.max(1, config.getInt(CK_RATE_LIMIT_BURST, 1)))
+                : null;
+        final TokenBucketRateLimiter.Policy rateLimitPolicy = Enums.getIfPresent(TokenBucketRateLimiter.Policy.class,
+                config.getString(CK_RATE_LIMIT_POLICY, "").toUpperCase(Locale.ENGLISH))
+                .or(TokenBucketRateLimiter.Policy.DROP);
+        final long rateLimitTimeoutNanos = TimeUnit.SECONDS.toNanos(Math.max(0, config.getInt(CK_RATE_LIMIT_TIMEOUT, 10)));
+
+        // execution IDs are only returned by the JSON API
+        final int executionTimeout = config.getInt(CK_EXECUTION_TIMEOUT, 0);
+        final boolean trackExecutions = executionTimeout > 0 && plan.jsonApi();
+
+        return new RundeckTarget(jobId, plan, apiToken, httpClient, asyncDispatcher,
+                asyncDispatcher == null ? null : asyncDispatcher.bind(httpClient), rateLimiter, rateLimitPolicy, rateLimitTimeoutNanos,
+                outbox, jobMetrics, timedClient, trackExecutions ? executionTracker : null,
+                TimeUnit.SECONDS.toNanos(Math.max(0, executionTimeout)), idempotencyKeyArgument, idempotencyWindowSeconds,
+                TimeUnit.MILLISECONDS.toNanos(callTimeoutMillis), definitionTtlSeconds > 0 ? definitions : null,
+                TimeUnit.SECONDS.toNanos(definitionTtlSeconds));
+    }
+
+    String jobId() {
+        return jobId;
+    }
+
+    RundeckMetrics.JobMetrics metrics() {
+        return metrics;
+    }
+
+    ApiTokens.ApiToken apiToken() {
+        return apiToken;
+    }
+
+    /**
+     * @return {@code true} if {@link #send(Request, TriggerPriority)} returns before Rundeck has accepted the job execution
+     */
+    boolean isAsync() {
+        return asyncDispatcher != null || outbox != null;
+    }
+
+    /**
+     * Returns the time available for triggering the job synchronously, {@code 0} for no limit.
+     */
+    long callTimeoutNanos() {
+        return callTimeoutNanos;
+    }
+
+    /**
+     * Returns how long the idempotency key of a triggered alert is remembered, in seconds. {@code 0} disables
+     * deduplication.
+     */
+    long idempotencyWindowSeconds() {
+        return idempotencyWindowSeconds;
+    }
+
+    /**
+     * Derives the idempotency key of an alert for this job from the stream, the alert condition, the time the alert
+     * was triggered and the job, so every Graylog node derives the same key for the same alert.
+     *
+     * @return the hex encoded key, or {@code null} if it is neither used for deduplication nor passed to the job, or
+     * if the alert has no trigger time to tell it apart from other alerts of the same condition
+     */
+    @Nullable
+    String idempotencyKey(@Nullable Stream stream, AlertCondition.CheckResult result) {
+        if ((idempotencyWindowSeconds == 0L && idempotencyKeyArgument == null) || result.getTriggeredAt() == null) {
+            return null;
+        }
+
+        final AlertCondition condition = result.getTriggeredCondition();
+        final HttpUrl endpoint = plan.endpoint();
+        final Hasher hasher = Hashing.sha256().newHasher();
+        putField(hasher, stream == null ? null : stream.getId());
+        putField(hasher, condition == null ? null : condition.getId());
+        hasher.putLong(result.getTriggeredAt().getMillis());
+        putField(hasher, endpoint == null ? null : endpoint.toString());
+        putField(hasher, jobId);
+        return hasher.hash().toString();
+    }
+
+    private static void putField(Hasher hasher, @Nullable String value) {
+        hasher.putString(value == null ? "" : value, StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+
+    /**
+     * Builds the job execution request for the messages matching an alert of the given stream. The idempotency key
+     * is passed as a job argument, if configured.
+     */
+    Request request(@Nullable Stream stream, List<MessageSummary> messages, @Nullable String idempotencyKey)
+            throws AlarmCallbackException {
+        final ValidatedPlan validated = validatedPlan();
+        final RundeckCallPlan plan = validated.plan;
+        final boolean passKey = idempotencyKey != null && validated.passIdempotencyKey;
+        try {
+            if (plan.jsonApi()) {
+                final Map<String, String> options = plan.options(messages, stream);
+                if (passKey) {
+                    options.put(idempotencyKeyArgument, idempotencyKey);
+                }
+                final HttpUrl url = plan.executionUrl("");
+                metrics.recordRequest(RundeckCallPlan.argumentsLength(options), url.toString().length());
+
+                return new Request.Builder()
+                        .post(new JobRunRequestBody(options, plan.nodeFilter(), plan.asUser()))
+                        .url(url)
+                        .addHeader(HttpHeaders.ACCEPT, APPLICATION_JSON)
+                        .addHeader(ApiTokens.AUTH_TOKEN_HEADER, apiToken.get())
+                        .build();
+            }
+
+            // the key is hex encoded and always passed, regardless of the maximum length of the arguments
+            final String argString = passKey
+                    ? plan.argStringFor(messages, stream) + '-' + idempotencyKeyArgument + " '" + idempotencyKey + "' "
+                    : plan.argStringFor(messages, stream);
+            final HttpUrl url = plan.executionUrl(argString);
+            metrics.recordRequest(argString.length(), url.toString().length());
+
+            return new Request.Builder()
+                    .post(RequestBody.create(TEXT_XML, EMPTY_BYTE_ARRAY))
+                    .url(url)
+                    .addHeader(HttpHeaders.ACCEPT, TEXT_XML.toString())
+                    .addHeader(ApiTokens.AUTH_TOKEN_HEADER, apiToken.get())
+                    .build();
+        } catch (Exception e) {
+            throw new AlarmCallbackException("Failed to send alarm to Rundeck", e);
+        }
+    }
+
+    /**
+     * Returns the plan restricted to the options declared by the job, if its definition is known.
+     *
+     * @throws AlarmCallbackException if the job doesn't exist or a required option is never passed to it
+     */
+    private ValidatedPlan validatedPlan() throws AlarmCallbackException {
+        final JobDefinition definition = definitions == null ? null : definitions.get(this, definitionTtlNanos);
+        ValidatedPlan validated = validatedPlan;
+        if (validated == null || validated.definition != definition) {
+            validated = new ValidatedPlan(definition);
+            validatedPlan = validated;
+        }
+
+        if (definition != null && !definition.exists()) {
+            throw new AlarmCallbackException("Rundeck job " + jobId + " doesn't exist");
+        }
+        if (!validated.missingOptions.isEmpty()) {
+            throw new AlarmCallbackException("Rundeck job " + jobId + " requires the options " + validated.missingOptions);
+        }
+        return validated;
+    }
+
+    /**
+     * Returns the names of all options passed to the job, including the idempotency key.
+     */
+    Set<String> optionNames() {
+        final Set<String> names = plan.optionNames();
+        return idempotencyKeyArgument == null
+                ? names
+                : ImmutableSet.<String>builder().addAll(names).add(idempotencyKeyArgument).build();
+    }
+
+    HttpUrl definitionUrl() {
+        return plan.definitionUrl();
+    }
+
+    /**
+     * Creates a call requesting the XML definition of the job. It bypasses retries and the circuit breaker.
+     */
+    Call newDefinitionCall() {
+        return statusClient.newCall(new Request.Builder()
+                .get()
+                .url(definitionUrl())
+                .addHeader(HttpHeaders.ACCEPT, TEXT_XML.toString())
+                .addHeader(ApiTokens.AUTH_TOKEN_HEADER, apiToken.get())
+                .build());
+    }
+
+    /**
+     * Loads the definition of the job right away, e.g. to check the configuration.
+     *
+     * @return the definition, or {@code null} if checking job definitions is disabled
+     * @throws IOException if the definition couldn't be loaded
+     */
+    @Nullable
+    JobDefinition loadDefinition() throws IOException {
+        return definitions == null || statusClient == null ? null : definitions.load(this, definitionTtlNanos);
+    }
+
+    /**
+     * Sends the request synchronously, writes it to the outbox or hands it to the asynchronous dispatcher, subject
+     * to the rate limit. The priority selects the lane of the asynchronous dispatcher. The failure handler runs if the
+     * trigger is dropped by the rate limit, or if a request sent asynchronously or through the outbox fails after this
+     * method has returned, since neither is reported by an exception.
+     *
+     * @return the ID of the job execution, or {@code -1} if it is unknown, e.g. because the request was sent
+     * asynchronously, the trigger has been dropped, or the job was triggered with the XML API
+     * @throws AlarmCallbackException if the job couldn't be triggered, e.g. within the call timeout
+     */
+    long send(Request request, TriggerPriority priority, Runnable onFailure) throws AlarmCallbackException {
+        if (!acquirePermit()) {
+            onFailure.run();
+            return -1L;
+        }
+
+        try {
+            if (outbox != null) {
+                outbox.append(request, onFailure);
+                return -1L;
+            }
+            if (asyncDispatcher != null) {
+                asyncDispatcher.dispatch(asyncClient.newCall(request), priority, onFailure);
+                return -1L;
+            }
+            if (callTimeoutNanos > 0L) {
+                return executeWithDeadline(request);
+            }
+
+            final Response response = httpClient.newCall(request).execute();
+            try {
+                checkResponse(response);
+                return triggered(response);
+            } finally {
+                response.body().close();
+            }
+        } catch (AlarmCallbackException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new AlarmCallbackException("Failed to send alarm to Rundeck", e);
+        }
+    }
+
+    /**
+     * Runs the call on the dispatcher of the Rundeck endpoint and waits for its outcome until the call timeout has
+     * passed. The timeout covers everything the connect, read and write timeouts don't bound on their own, like
+     * retries, DNS lookups, TLS handshakes and responses trickling in, and the calling thread is released when it has
+     * passed.
+     */
+    private long executeWithDeadline(Request request) throws AlarmCallbackException {
+        final SettableFuture<Long> executionId = SettableFuture.create();
+        final Call call = newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                executionId.setException(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    checkResponse(response);
+                    executionId.set(triggered(response));
+                } catch (Exception e) {
+                    executionId.setException(e);
+                } finally {
+                    response.body().close();
+                }
+            }
+        });
+
+        try {
+            return executionId.get(callTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            CallCancellation.cancel(call);
+            throw new AlarmCallbackException("Rundeck job " + jobId + " was not triggered within "
+                    + TimeUnit.NANOSECONDS.toMillis(callTimeoutNanos) + " ms");
+        } catch (InterruptedException e) {
+            CallCancellation.cancel(call);
+            Thread.currentThread().interrupt();
+            throw new AlarmCallbackException("Interrupted while waiting for Rundeck job " + jobId);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AlarmCallbackException) {
+                throw (AlarmCallbackException) e.getCause();
+            }
+            throw new AlarmCallbackException("Failed to send alarm to Rundeck", e.getCause());
+        }
+    }
+
+    /**
+     * Reads the execution ID from a successful response and starts tracking the execution, if enabled.
+     *
+     * @return the execution ID, or {@code -1} if it is unknown
+     */
+    long triggered(Response response) {
+        if (!plan.jsonApi()) {
+            return -1L;
+        }
+
+        final long executionId = executionId(response);
+        LOG.debug("Triggered Rundeck job {} as execution {}", jobId, executionId);
+        if (executionId >= 0L && executionTracker != null) {
+            executionTracker.track(this, executionId, executionTimeoutNanos);
+        }
+        return executionId;
+    }
+
+    HttpUrl statusUrl(long executionId) {
+        return plan.statusUrl(executionId);
+    }
+
+    /**
+     * Creates a call querying the status of the given execution. It bypasses retries and the circuit breaker, and
+     * isn't recorded as a trigger in the job metrics.
+     */
+    Call newStatusCall(long executionId) {
+        return statusClient.newCall(new Request.Builder()
+                .get()
+                .url(statusUrl(executionId))
+                .addHeader(HttpHeaders.ACCEPT, APPLICATION_JSON)
+                .addHeader(ApiTokens.AUTH_TOKEN_HEADER, apiToken.get())
+                .build());
+    }
+
+    /**
+     * Creates a call for the request which bypasses the asynchronous dispatcher. It has to be cancelled with
+     * {@link CallCancellation#cancel(Call)}.
+     */
+    Call newCall(Request request) {
+        return CallCancellation.newCall(httpClient, request);
+    }
+
+    static void checkResponse(Response response) throws IOException, AlarmCallbackException {
+        if (!response.isSuccessful()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Rundeck HTTP response headers: {}", response.headers().toString());
+                LOG.debug("Rundeck HTTP response body: {}", response.body().string());
+            }
+            throw new AlarmCallbackException("Failed to send alarm to Rundeck with HTTP response code: " + response.code());
+        }
+    }
+
+    /**
+     * Reads the ID of the job execution from a successful JSON response.
+     *
+     * @return the execution ID, or {@code -1} if the response couldn't be parsed
+     */
+    static long executionId(Response response) {
+        try {
+            return JobRunRequestBody.executionId(response.body().byteStream());
+        } catch (IOException e) {
+            // the job has been triggered nonetheless
+            LOG.debug("Couldn't read execution ID from Rundeck response", e);
+            return -1L;
+        }
+    }
+
+    /**
+     * The plan for a known job definition, compiled once per definition.
+     */
+    private class ValidatedPlan {
+        private final JobDefinition definition;
+        private final RundeckCallPlan plan;
+        private final Set<String> missingOptions;
+        private final boolean passIdempotencyKey;
+
+        ValidatedPlan(@Nullable JobDefinition definition) {
+            this.definition = definition;
+            if (definition == null || !definition.exists()) {
+                this.plan = RundeckTarget.this.plan;
+                this.missingOptions = ImmutableSet.of();
+                this.passIdempotencyKey = idempotencyKeyArgument != null;
+            } else {
+                this.plan = RundeckTarget.this.plan.restrictTo(definition.options());
+                this.missingOptions = definition.missingOptions(optionNames());
+                this.passIdempotencyKey = idempotencyKeyArgument != null && definition.options().contains(idempotencyKeyArgument);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the job may be triggered, {@code false} if the trigger has been dropped
+     */
+    boolean acquirePermit() throws AlarmCallbackException {
+        if (rateLimiter == null) {
+            return true;
+        }
+
+        final long maxWaitNanos = rateLimitPolicy == TokenBucketRateLimiter.Policy.QUEUE ? rateLimitTimeoutNanos : 0L;
+        final long waitNanos = rateLimiter.reserve(maxWaitNanos);
+        if (waitNanos < 0L) {
+            if (rateLimitPolicy == TokenBucketRateLimiter.Policy.DROP) {
+                rateLimiter.markDropped();
+                metrics.markRateLimited();
+                LOG.debug("Dropped alarm for Rundeck job {}, rate limit exceeded", jobId);
+                return false;
+            }
+            throw new AlarmCallbackException("Rate limit for Rundeck job " + jobId + " exceeded");
+        }
+
+        if (waitNanos > 0L) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AlarmCallbackException("Interrupted while waiting for rate limit of Rundeck job " + jobId);
+            }
+        }
+        return true;
+    }
+}
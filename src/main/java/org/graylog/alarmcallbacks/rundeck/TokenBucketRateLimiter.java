@@ -0,0 +1,100 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket.
+ * <p>
+ * The bucket is implemented as a generic cell rate algorithm: instead of counting tokens it keeps the theoretical
+ * arrival time of the next permit in a single {@link AtomicLong}, which is advanced with compare-and-set. This is
+ * equivalent to a bucket of {@code burst} tokens which is refilled at a constant rate. The rate and burst may be
+ * changed while the bucket is in use.
+ */
+class TokenBucketRateLimiter {
+    enum Policy {
+        /** Wait for a permit up to a timeout, then fail. */
+        QUEUE,
+        /** Drop the trigger and count it. */
+        DROP,
+        /** Reject the trigger with an exception. */
+        FAIL
+    }
+
+    private volatile Limits limits;
+    private final Ticker ticker;
+    private final AtomicLong theoreticalArrival;
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param permits number of permits per {@code unit}
+     * @param burst   number of permits which may be acquired at once
+     */
+    TokenBucketRateLimiter(int permits, TimeUnit unit, int burst) {
+        this(permits, unit, burst, Ticker.systemTicker());
+    }
+
+    TokenBucketRateLimiter(int permits, TimeUnit unit, int burst, Ticker ticker) {
+        this.limits = new Limits(permits, unit, burst);
+        this.ticker = ticker;
+        this.theoreticalArrival = new AtomicLong(ticker.read());
+    }
+
+    /**
+     * Changes the rate and burst. Permits which have already been reserved are not affected.
+     */
+    void setLimits(int permits, TimeUnit unit, int burst) {
+        limits = new Limits(permits, unit, burst);
+    }
+
+    /**
+     * Reserves a permit if it is available within the given time.
+     *
+     * @return the time in nanoseconds the caller has to wait before using the permit, or {@code -1} if no permit
+     * is available within {@code maxWaitNanos}
+     */
+    long reserve(long maxWaitNanos) {
+        final Limits current = limits;
+        while (true) {
+            final long now = ticker.read();
+            final long arrival = theoreticalArrival.get();
+            final long nextArrival = Math.max(arrival, now) + current.intervalNanos;
+            final long waitNanos = nextArrival - now - current.burstToleranceNanos;
+
+            if (waitNanos > maxWaitNanos) {
+                return -1L;
+            }
+            if (theoreticalArrival.compareAndSet(arrival, nextArrival)) {
+                return Math.max(0L, waitNanos);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if a permit was available right away
+     */
+    boolean tryAcquire() {
+        return reserve(0L) == 0L;
+    }
+
+    void markDropped() {
+        dropped.incrementAndGet();
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    private static class Limits {
+        private final long intervalNanos;
+        private final long burstToleranceNanos;
+
+        Limits(int permits, TimeUnit unit, int burst) {
+            this.intervalNanos = Math.max(1L, unit.toNanos(1L) / permits);
+            this.burstToleranceNanos = intervalNanos * Math.max(1, burst);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suppresses or merges repeated triggers of the same job within a time window.
+ * <p>
+ * Triggers are grouped by Rundeck URL, job ID and the values of a configurable set of message fields. In
+ * {@link Mode#LEADING leading} mode the first trigger of a group is forwarded right away and all further triggers
+ * within the window are suppressed, unless the first one failed. In {@link Mode#TRAILING trailing} mode the first
+ * trigger opens the window and only the latest trigger of the group is forwarded when the window closes, by one of
+ * {@link #FLUSH_THREADS} threads, so a slow Rundeck server delays neither other windows nor the eviction of expired
+ * leading windows.
+ * <p>
+ * At most {@link #MAX_KEYS} groups are tracked per mode; triggers of further groups are forwarded without coalescing.
+ */
+public class TriggerCoalescer {
+    private static final Logger LOG = LoggerFactory.getLogger(TriggerCoalescer.class);
+
+    static final int MAX_KEYS = 10_000;
+    static final int FLUSH_THREADS = 4;
+    static final long FLUSH_TIMEOUT_SECONDS = 10L;
+
+    enum Mode {
+        LEADING, TRAILING
+    }
+
+    interface Trigger {
+        void fire() throws AlarmCallbackException;
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService flushExecutor;
+    private final Ticker ticker;
+    private final ConcurrentMap<String, Long> leadingDeadlines = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, PendingTrigger> trailingTriggers = new ConcurrentHashMap<>();
+
+    private final AtomicLong forwarded = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    public TriggerCoalescer() {
+        this(Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("rundeck-coalescer-%d").setDaemon(true).build()),
+                newFlushExecutor(),
+                Ticker.systemTicker());
+    }
+
+    TriggerCoalescer(ScheduledExecutorService scheduler, ExecutorService flushExecutor, Ticker ticker) {
+        this.scheduler = scheduler;
+        this.flushExecutor = flushExecutor;
+        this.ticker = ticker;
+        this.scheduler.scheduleWithFixedDelay(this::evictExpired, 1L, 1L, TimeUnit.SECONDS);
+    }
+
+    private static ExecutorService newFlushExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(FLUSH_THREADS, FLUSH_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("rundeck-coalescer-flush-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Forwards, delays or suppresses the trigger according to the given policy. Exceptions of triggers which are
+     * fired later on are logged.
+     */
+    void submit(Policy policy, @Nullable MessageSummary message, Trigger trigger) throws AlarmCallbackException {
+        final String key = policy.key(message);
+        if (policy.mode == Mode.TRAILING) {
+            submitTrailing(key, policy.windowMillis, trigger);
+        } else {
+            submitLeading(key, policy.windowMillis, trigger);
+        }
+    }
+
+    private void submitLeading(String key, long windowMillis, Trigger trigger) throws AlarmCallbackException {
+        if (leadingDeadlines.size() >= MAX_KEYS && !leadingDeadlines.containsKey(key)) {
+            forward(trigger);
+            return;
+        }
+
+        final long now = ticker.read();
+        final boolean[] open = {false};
+        final Long deadline = leadingDeadlines.compute(key, (k, current) -> {
+            if (current != null && current - now > 0L) {
+                return current;
+            }
+            open[0] = true;
+            return now + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        });
+
+        if (!open[0]) {
+            suppressed.incrementAndGet();
+            return;
+        }
+        try {
+            forward(trigger);
+        } catch (AlarmCallbackException | RuntimeException e) {
+            // a failed trigger must not suppress the next one
+            leadingDeadlines.remove(key, deadline);
+            throw e;
+        }
+    }
+
+    private void submitTrailing(String key, long windowMillis, Trigger trigger) throws AlarmCallbackException {
+        final PendingTrigger created = new PendingTrigger(trigger);
+        while (true) {
+            final PendingTrigger existing = trailingTriggers.get(key);
+            if (existing != null) {
+                if (existing.replace(trigger)) {
+                    suppressed.incrementAndGet();
+                    return;
+                }
+                // the pending trigger is being flushed right now, wait until it's gone
+                Thread.yield();
+                continue;
+            }
+
+            if (trailingTriggers.size() >= MAX_KEYS) {
+                forward(trigger);
+                return;
+            }
+            if (trailingTriggers.putIfAbsent(key, created) == null) {
+                scheduler.schedule(() -> flushExecutor.execute(() -> flush(key, created)), windowMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+    }
+
+    private void flush(String key, PendingTrigger pendingTrigger) {
+        if (!trailingTriggers.remove(key, pendingTrigger)) {
+            // already flushed on shutdown
+            return;
+        }
+        final Trigger trigger = pendingTrigger.flush();
+        try {
+            forward(trigger);
+        } catch (AlarmCallbackException e) {
+            LOG.warn("Failed to send coalesced alarm to Rundeck", e);
+        } catch (Exception e) {
+            LOG.error("Unexpected error while sending coalesced alarm to Rundeck", e);
+        }
+    }
+
+    private void forward(Trigger trigger) throws AlarmCallbackException {
+        forwarded.incrementAndGet();
+        trigger.fire();
+    }
+
+    private void evictExpired() {
+        final long now = ticker.read();
+        for (Map.Entry<String, Long> entry : leadingDeadlines.entrySet()) {
+            if (entry.getValue() - now <= 0L) {
+                leadingDeadlines.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Sends the latest trigger of every open trailing window right away, waits up to {@link #FLUSH_TIMEOUT_SECONDS}
+     * for windows which are being flushed and stops the scheduler.
+     */
+    void shutdown() {
+        scheduler.shutdownNow();
+        for (Map.Entry<String, PendingTrigger> entry : trailingTriggers.entrySet()) {
+            flush(entry.getKey(), entry.getValue());
+        }
+        flushExecutor.shutdown();
+        try {
+            if (!flushExecutor.awaitTermination(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("Coalesced alarms to Rundeck were not sent within {} seconds", FLUSH_TIMEOUT_SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long forwarded() {
+        return forwarded.get();
+    }
+
+    long suppressed() {
+        return suppressed.get();
+    }
+
+    int trackedKeys() {
+        return leadingDeadlines.size() + trailingTriggers.size();
+    }
+
+    /**
+     * Coalescing settings of a single callback.
+     */
+    static class Policy {
+        private final String rundeckUrl;
+        private final String jobId;
+        private final Mode mode;
+        private final long windowMillis;
+        private final List<String> keyFields;
+
+        Policy(String rundeckUrl, String jobId, Mode mode, long windowMillis, List<String> keyFields) {
+            this.rundeckUrl = rundeckUrl;
+            this.jobId = jobId;
+            this.mode = mode;
+            this.windowMillis = windowMillis;
+            this.keyFields = ImmutableList.copyOf(keyFields);
+        }
+
+        String key(@Nullable MessageSummary message) {
+            final StringBuilder sb = new StringBuilder(rundeckUrl).append('\0').append(jobId).append('\0').append(mode).append('\0').append(windowMillis);
+            for (String field : keyFields) {
+                sb.append('\0');
+                if (message != null) {
+                    sb.append(RundeckCallPlan.fieldValue(message, field));
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class PendingTrigger {
+        private Trigger latest;
+        private boolean flushed = false;
+
+        PendingTrigger(Trigger trigger) {
+            this.latest = trigger;
+        }
+
+        synchronized boolean replace(Trigger trigger) {
+            if (flushed) {
+                return false;
+            }
+            latest = trigger;
+            return true;
+        }
+
+        synchronized Trigger flush() {
+            flushed = true;
+            return latest;
+        }
+    }
+}
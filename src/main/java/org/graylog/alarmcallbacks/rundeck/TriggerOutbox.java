@@ -0,0 +1,670 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only log of job execution requests which have not been delivered to Rundeck yet.
+ * <p>
+ * Requests are appended to a memory-mapped log file and {@link #append(Request, Runnable)} only returns once they have been
+ * forced to disk. Concurrent appends share a single {@code force()} (group commit): the first waiting writer forces
+ * everything appended so far while the others wait for it. A background thread delivers the logged requests and
+ * appends an acknowledgement record for every delivered one. Delivery is at least once, since an acknowledgement
+ * may be lost in a crash. If a Rundeck endpoint fails, its requests are parked with an exponential backoff, while the
+ * requests to other endpoints are still delivered. Once the log is half full and mostly consists of delivered
+ * requests, the pending ones are copied into a new log file, which atomically replaces the old one.
+ * <p>
+ * Requests are delivered with the HTTP client and API token
+ * {@linkplain #register(HttpUrl, OkHttpClient, ApiTokens.ApiToken) registered} for their job, so they pass through the
+ * same connection pool, timeouts, circuit breaker and limits as requests sent directly, and a rotated API token is used
+ * for requests logged before the rotation. Requests replayed for a job which hasn't been registered since the outbox
+ * was opened are delivered with a default client for their endpoint and the logged token. A request rejected with HTTP
+ * status 401 or 403 is retried up to {@value #MAX_AUTH_ATTEMPTS} times, since it may be accepted once the job has
+ * been registered with a new token. After that, and on other client errors, the request is given up on, and the failure handler passed to {@link #append(Request, Runnable)} runs, e.g.
+ * to release the idempotency key of the alert. Failure handlers aren't logged, so replayed requests have none.
+ * <p>
+ * When the outbox is opened, all requests which haven't been acknowledged are replayed. A torn record at the end
+ * of the log, e.g. after a crash in the middle of an append, is detected by its checksum and ignored.
+ */
+class TriggerOutbox implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(TriggerOutbox.class);
+    private static final Runnable NO_FAILURE_HANDLER = () -> {
+    };
+
+    static final String LOG_FILE_NAME = "rundeck-outbox.log";
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    private static final int MAGIC = 0x52444f42;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_LENGTH = 8;
+    // payload length, checksum and record type
+    private static final int RECORD_HEADER_LENGTH = 9;
+    private static final byte TYPE_TRIGGER = 1;
+    private static final byte TYPE_ACK = 2;
+    private static final int UNAUTHORIZED = 401;
+    private static final int FORBIDDEN = 403;
+    private static final int TOO_MANY_REQUESTS = 429;
+    static final int MAX_AUTH_ATTEMPTS = 20;
+
+    private final Path logFile;
+    private final Function<HttpUrl, OkHttpClient> defaultClients;
+    private final ConcurrentMap<String, Registration> registrations = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private final Object lock = new Object();
+    private final Map<Long, Request> pending = new LinkedHashMap<>();
+    private FileChannel channel;
+    private volatile MappedByteBuffer buffer;
+    private int position;
+    private long nextId;
+    private int acknowledged = 0;
+    private volatile boolean closed = false;
+
+    private final AtomicLong appendSequence = new AtomicLong();
+    private final Object commitMonitor = new Object();
+    private long committedSequence = 0L;
+    private boolean committing = false;
+
+    private final DelayQueue<Entry> deliveryQueue = new DelayQueue<>();
+    // only used by the drainer thread
+    private final Map<String, Backoff> backoffs = new HashMap<>();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final Thread drainer;
+
+    private TriggerOutbox(Path logFile, Function<HttpUrl, OkHttpClient> defaultClients, int capacity,
+                          long initialBackoffMillis, long maxBackoffMillis) {
+        this.logFile = logFile;
+        this.defaultClients = defaultClients;
+        this.capacity = capacity;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.drainer = new ThreadFactoryBuilder()
+                .setNameFormat("rundeck-outbox-" + logFile.getParent().getFileName() + "-%d")
+                .setDaemon(true)
+                .build()
+                .newThread(this::drain);
+    }
+
+    /**
+     * Opens the outbox in the given directory, replays all pending requests and starts delivering them.
+     *
+     * @param defaultClients creates the client for requests of jobs which haven't been registered
+     * @param capacity       size of the log file in bytes
+     */
+    static TriggerOutbox open(Path directory, Function<HttpUrl, OkHttpClient> defaultClients, int capacity,
+                              long initialBackoffMillis, long maxBackoffMillis) throws IOException {
+        Files.createDirectories(directory);
+        final TriggerOutbox outbox = new TriggerOutbox(directory.resolve(LOG_FILE_NAME), defaultClients, capacity,
+                initialBackoffMillis, maxBackoffMillis);
+        outbox.recover();
+        outbox.drainer.start();
+        return outbox;
+    }
+
+    private void recover() throws IOException {
+        synchronized (lock) {
+            long maxId = 0L;
+            if (Files.exists(logFile)) {
+                try (FileChannel existing = FileChannel.open(logFile, StandardOpenOption.READ)) {
+                    maxId = replay(existing.map(FileChannel.MapMode.READ_ONLY, 0L, existing.size()));
+                }
+            }
+            nextId = maxId + 1L;
+
+            // start with a fresh log, so no garbage after a torn record can ever be mistaken for a valid record
+            compact();
+            for (Map.Entry<Long, Request> entry : pending.entrySet()) {
+                deliveryQueue.add(new Entry(entry.getKey(), entry.getValue(), NO_FAILURE_HANDLER));
+            }
+            if (!pending.isEmpty()) {
+                LOG.info("Replaying {} undelivered Rundeck job executions from {}", pending.size(), logFile);
+            }
+        }
+    }
+
+    /**
+     * Reads all valid records of the log into {@link #pending}.
+     *
+     * @return the highest request ID in the log
+     */
+    private long replay(ByteBuffer log) throws IOException {
+        if (log.limit() < FILE_HEADER_LENGTH || log.getInt(0) != MAGIC) {
+            throw new IOException(logFile + " is not a Rundeck outbox");
+        }
+        if (log.getInt(4) != VERSION) {
+            throw new IOException("Unsupported version " + log.getInt(4) + " of Rundeck outbox " + logFile);
+        }
+
+        long maxId = 0L;
+        int offset = FILE_HEADER_LENGTH;
+        while (offset + RECORD_HEADER_LENGTH <= log.limit()) {
+            final int length = log.getInt(offset);
+            if (length <= 0 || length > log.limit() - offset - RECORD_HEADER_LENGTH) {
+                break;
+            }
+
+            final byte[] record = new byte[length + 1];
+            final ByteBuffer source = log.duplicate();
+            source.position(offset + 8);
+            source.get(record);
+            if (checksum(record) != log.getInt(offset + 4)) {
+                LOG.warn("Ignoring torn record at offset {} of Rundeck outbox {}", offset, logFile);
+                break;
+            }
+
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, 1, length));
+            final long id = in.readLong();
+            maxId = Math.max(maxId, id);
+            if (record[0] == TYPE_TRIGGER) {
+                pending.put(id, readRequest(in));
+            } else if (record[0] == TYPE_ACK) {
+                pending.remove(id);
+            }
+            offset += RECORD_HEADER_LENGTH + length;
+        }
+        return maxId;
+    }
+
+    /**
+     * Delivers the requests to the given job execution URL with the given client and the current value of the given
+     * API token from now on, including the ones replayed from the log. The query of the URL is ignored.
+     */
+    void register(HttpUrl executionUrl, OkHttpClient client, ApiTokens.ApiToken apiToken) {
+        registrations.put(registrationKey(executionUrl), new Registration(client, apiToken));
+    }
+
+    private Registration registration(HttpUrl url) {
+        return registrations.computeIfAbsent(registrationKey(url), k -> new Registration(defaultClients.apply(url), null));
+    }
+
+    private static String registrationKey(HttpUrl url) {
+        return url.scheme() + "://" + url.host() + ":" + url.port() + url.encodedPath();
+    }
+
+    /**
+     * Durably appends the request to the log without a failure handler.
+     *
+     * @throws IOException if the request couldn't be written to disk or the outbox is full
+     * @see #append(Request, Runnable)
+     */
+    void append(Request request) throws IOException {
+        append(request, NO_FAILURE_HANDLER);
+    }
+
+    /**
+     * Durably appends the request to the log. The request is delivered in the background, and the failure handler
+     * runs on the delivering thread if Rundeck rejected it for good.
+     *
+     * @throws IOException if the request couldn't be written to disk or the outbox is full
+     */
+    void append(Request request, Runnable onFailure) throws IOException {
+        final byte[] encodedRequest = writeRequest(request);
+
+        final long id;
+        final long sequence;
+        synchronized (lock) {
+            if (closed) {
+                throw new IOException("Rundeck outbox " + logFile + " is closed");
+            }
+
+            id = nextId++;
+            final ByteBuffer record = record(TYPE_TRIGGER, id, encodedRequest);
+            if (position + record.remaining() > capacity) {
+                compact();
+                if (position + record.remaining() > capacity) {
+                    throw new IOException("Rundeck outbox " + logFile + " is full");
+                }
+            }
+            write(record);
+            pending.put(id, request);
+            sequence = appendSequence.incrementAndGet();
+        }
+
+        commit(sequence);
+        deliveryQueue.add(new Entry(id, request, onFailure));
+    }
+
+    /**
+     * Waits until all records up to the given sequence number have been forced to disk. Only one thread forces the
+     * log at a time, and it forces all records appended so far.
+     */
+    private void commit(long sequence) throws IOException {
+        final long target;
+        final MappedByteBuffer current;
+        synchronized (commitMonitor) {
+            while (committing && committedSequence < sequence) {
+                try {
+                    commitMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while writing to Rundeck outbox");
+                }
+            }
+            if (committedSequence >= sequence) {
+                return;
+            }
+
+            committing = true;
+            // records up to this sequence number are either in this buffer or have been forced by a compaction
+            target = appendSequence.get();
+            current = buffer;
+        }
+
+        boolean forced = false;
+        try {
+            current.force();
+            forced = true;
+        } finally {
+            synchronized (commitMonitor) {
+                committing = false;
+                if (forced) {
+                    committedSequence = Math.max(committedSequence, target);
+                }
+                commitMonitor.notifyAll();
+            }
+        }
+    }
+
+    private void acknowledge(long id) {
+        synchronized (lock) {
+            if (pending.remove(id) == null || closed) {
+                return;
+            }
+
+            // acknowledgements are forced with the next commit, a lost one only leads to a duplicate delivery
+            final ByteBuffer record = record(TYPE_ACK, id, new byte[0]);
+            if (position + record.remaining() > capacity || (position > capacity / 2 && acknowledged >= pending.size())) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    LOG.warn("Couldn't compact Rundeck outbox {}", logFile, e);
+                }
+            }
+            if (position + record.remaining() <= capacity) {
+                write(record);
+                acknowledged++;
+            }
+        }
+    }
+
+    /**
+     * Writes all pending requests into a new log file, forces it to disk and atomically replaces the current log.
+     */
+    private void compact() throws IOException {
+        final List<ByteBuffer> records = new ArrayList<>(pending.size());
+        int length = FILE_HEADER_LENGTH;
+        for (Map.Entry<Long, Request> entry : pending.entrySet()) {
+            final ByteBuffer record = record(TYPE_TRIGGER, entry.getKey(), writeRequest(entry.getValue()));
+            length += record.remaining();
+            records.add(record);
+        }
+
+        final Path compacted = logFile.resolveSibling(LOG_FILE_NAME + ".compact");
+        // a leftover of a crash may have been created by an earlier version with default permissions
+        Files.deleteIfExists(compacted);
+        try (FileChannel out = createOwnerOnly(compacted)) {
+            final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_LENGTH).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            writeFully(out, header);
+            for (ByteBuffer record : records) {
+                writeFully(out, record);
+            }
+            out.force(true);
+        }
+
+        try {
+            Files.move(compacted, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(compacted, logFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory();
+
+        final FileChannel previous = channel;
+        channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, Math.max(capacity, length));
+        position = length;
+        acknowledged = 0;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    private void syncDirectory() {
+        try (FileChannel directory = FileChannel.open(logFile.getParent(), StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException e) {
+            // not supported on all platforms, the rename is durable after the next sync of the file system
+            LOG.debug("Couldn't sync directory of Rundeck outbox {}", logFile, e);
+        }
+    }
+
+    /**
+     * Creates a new file which only its owner may read and write, since the log contains API tokens. The permissions
+     * are part of the creation, so there's no moment in which others may open the file.
+     */
+    private static FileChannel createOwnerOnly(Path file) throws IOException {
+        final Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            return FileChannel.open(file, options, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        }
+        return FileChannel.open(file, options);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void write(ByteBuffer record) {
+        final ByteBuffer target = buffer.duplicate();
+        target.position(position);
+        target.put(record);
+        position = target.position();
+    }
+
+    private static ByteBuffer record(byte type, long id, byte[] payload) {
+        final int length = 8 + payload.length;
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + length);
+        record.putInt(length).putInt(0).put(type).putLong(id).put(payload);
+        record.putInt(4, checksum(record.array(), 8, 1 + length));
+        record.flip();
+        return record;
+    }
+
+    private static int checksum(byte[] bytes) {
+        return checksum(bytes, 0, bytes.length);
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] writeRequest(Request request) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(request.method());
+        out.writeUTF(request.url().toString());
+
+        final Headers headers = request.headers();
+        out.writeInt(headers.size());
+        for (int i = 0; i < headers.size(); i++) {
+            out.writeUTF(headers.name(i));
+            out.writeUTF(headers.value(i));
+        }
+
+        final RequestBody body = request.body();
+        if (body == null) {
+            out.writeBoolean(false);
+        } else {
+            final Buffer content = new Buffer();
+            body.writeTo(content);
+            final byte[] contentBytes = content.readByteArray();
+            out.writeBoolean(true);
+            out.writeUTF(body.contentType() == null ? "" : body.contentType().toString());
+            out.writeInt(contentBytes.length);
+            out.write(contentBytes);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Request readRequest(DataInputStream in) throws IOException {
+        final String method = in.readUTF();
+        final Request.Builder builder = new Request.Builder().url(HttpUrl.parse(in.readUTF()));
+
+        final int headerCount = in.readInt();
+        for (int i = 0; i < headerCount; i++) {
+            builder.addHeader(in.readUTF(), in.readUTF());
+        }
+
+        RequestBody body = null;
+        if (in.readBoolean()) {
+            final String contentType = in.readUTF();
+            final byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            body = RequestBody.create(contentType.isEmpty() ? null : MediaType.parse(contentType), content);
+        }
+        return builder.method(method, body).build();
+    }
+
+    private void drain() {
+        while (!closed) {
+            final Entry entry;
+            try {
+                entry = deliveryQueue.poll(1L, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (entry == null) {
+                continue;
+            }
+
+            final HttpUrl url = entry.request.url();
+            final String endpoint = url.scheme() + "://" + url.host() + ":" + url.port();
+            final Backoff backoff = backoffs.get(endpoint);
+            if (backoff != null && backoff.nextAttemptNanos - System.nanoTime() > 0L) {
+                // the endpoint failed recently, park the request until it's tried again
+                entry.nextAttemptNanos = backoff.nextAttemptNanos;
+                deliveryQueue.add(entry);
+                continue;
+            }
+
+            if (deliver(entry)) {
+                acknowledge(entry.id);
+                backoffs.remove(endpoint);
+            } else {
+                final Backoff failed = backoffs.computeIfAbsent(endpoint, k -> new Backoff(initialBackoffMillis));
+                failed.onFailure(maxBackoffMillis);
+                entry.nextAttemptNanos = failed.nextAttemptNanos;
+                deliveryQueue.add(entry);
+            }
+        }
+    }
+
+    /**
+     * @return {@code false} if the delivery should be retried later, {@code true} if the request has been delivered or
+     * given up on
+     */
+    private boolean deliver(Entry entry) {
+        final Request request = entry.request;
+        final Registration registration = registration(request.url());
+        final Request current = registration.apiToken == null || registration.apiToken.get().isEmpty()
+                ? request
+                : request.newBuilder().header(ApiTokens.AUTH_TOKEN_HEADER, registration.apiToken.get()).build();
+        try {
+            final Response response = registration.client.newCall(current).execute();
+            try {
+                if (response.isSuccessful()) {
+                    delivered.incrementAndGet();
+                    return true;
+                }
+                if ((response.code() == UNAUTHORIZED || response.code() == FORBIDDEN)
+                        && ++entry.authAttempts < MAX_AUTH_ATTEMPTS) {
+                    LOG.warn("Rundeck rejected the API token of a job execution from the outbox with HTTP status {}, "
+                            + "retrying later", response.code());
+                    return false;
+                }
+                if (response.code() == TOO_MANY_REQUESTS || response.code() >= 500) {
+                    LOG.debug("Rundeck responded with HTTP status {}, retrying job execution later", response.code());
+                    return false;
+                }
+                // retrying won't help, e.g. the job doesn't exist anymore or the token has been revoked
+                LOG.warn("Failed to send alarm from outbox to Rundeck with HTTP response code: {}", response.code());
+                rejected.incrementAndGet();
+                entry.failed();
+                return true;
+            } finally {
+                response.body().close();
+            }
+        } catch (IOException e) {
+            LOG.debug("Failed to send alarm from outbox to Rundeck, retrying later", e);
+            return false;
+        }
+    }
+
+    /**
+     * Stops delivering requests. Pending requests stay in the log and are replayed when the outbox is opened again.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        drainer.interrupt();
+        try {
+            drainer.join(TimeUnit.SECONDS.toMillis(10L));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (lock) {
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    int pending() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    long delivered() {
+        return delivered.get();
+    }
+
+    /**
+     * Returns the number of requests given up on because Rundeck rejected them.
+     */
+    long rejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the offset in the log file at which the next record is written
+     */
+    int position() {
+        synchronized (lock) {
+            return position;
+        }
+    }
+
+    Path logFile() {
+        return logFile;
+    }
+
+    private static class Registration {
+        private final OkHttpClient client;
+        @Nullable
+        private final ApiTokens.ApiToken apiToken;
+
+        Registration(OkHttpClient client, @Nullable ApiTokens.ApiToken apiToken) {
+            this.client = client;
+            this.apiToken = apiToken;
+        }
+    }
+
+    /**
+     * A pending request, ordered by the time of its next delivery attempt and then by the order of appending.
+     */
+    private static class Entry implements Delayed {
+        private final long id;
+        private final Request request;
+        private final Runnable onFailure;
+        private long nextAttemptNanos = System.nanoTime();
+        private int authAttempts = 0;
+
+        Entry(long id, Request request, Runnable onFailure) {
+            this.id = id;
+            this.request = request;
+            this.onFailure = onFailure;
+        }
+
+        void failed() {
+            try {
+                onFailure.run();
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to handle rejected job execution from the outbox", e);
+            }
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(nextAttemptNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            final Entry other = (Entry) o;
+            final long difference = nextAttemptNanos - other.nextAttemptNanos;
+            if (difference != 0L) {
+                return difference < 0L ? -1 : 1;
+            }
+            return Long.compare(id, other.id);
+        }
+    }
+
+    /**
+     * The backoff of a Rundeck endpoint whose last delivery failed.
+     */
+    private static class Backoff {
+        private long backoffMillis;
+        private long nextAttemptNanos;
+
+        Backoff(long initialBackoffMillis) {
+            this.backoffMillis = initialBackoffMillis;
+        }
+
+        void onFailure(long maxBackoffMillis) {
+            nextAttemptNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis);
+            backoffMillis = Math.min(maxBackoffMillis, backoffMillis * 2L);
+        }
+    }
+}
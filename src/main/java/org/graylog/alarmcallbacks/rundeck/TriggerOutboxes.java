@@ -0,0 +1,85 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outboxes shared by all callbacks which use the same outbox directory.
+ * <p>
+ * Requests replayed for a job whose callback hasn't been created since Graylog started are delivered with the
+ * connection pool and circuit breaker of their Rundeck endpoint, the default timeouts and without retries.
+ */
+public class TriggerOutboxes {
+    private static final Logger LOG = LoggerFactory.getLogger(TriggerOutboxes.class);
+
+    static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000L;
+    private static final long MAX_BACKOFF_MILLIS = 60000L;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 10000L;
+
+    private final RundeckHttpClients httpClients;
+    private final RundeckMetrics metrics;
+    private final ConcurrentMap<Path, TriggerOutbox> outboxes = new ConcurrentHashMap<>();
+
+    public TriggerOutboxes(RundeckHttpClients httpClients, RundeckMetrics metrics) {
+        this.httpClients = httpClients;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the outbox in the given directory. The outbox is opened, and its pending requests are replayed, when
+     * it's requested for the first time.
+     */
+    TriggerOutbox forDirectory(Path directory) throws IOException {
+        try {
+            return outboxes.computeIfAbsent(directory.toAbsolutePath().normalize(), this::open);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Closes all outboxes. Their pending requests are replayed when they are opened again.
+     */
+    void close() {
+        for (TriggerOutbox outbox : outboxes.values()) {
+            try {
+                outbox.close();
+            } catch (IOException e) {
+                LOG.warn("Couldn't close Rundeck outbox {}", outbox.logFile(), e);
+            }
+        }
+        outboxes.clear();
+    }
+
+    private TriggerOutbox open(Path directory) {
+        try {
+            final TriggerOutbox outbox = TriggerOutbox.open(directory, this::defaultClient, DEFAULT_CAPACITY,
+                    INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+            metrics.registerOutbox(directory.toString(), outbox);
+            return outbox;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private OkHttpClient defaultClient(HttpUrl url) {
+        // the defaults of the callback configuration
+        return httpClients.forUrl(url, 5, 300L, 0).newBuilder()
+                .connectTimeout(DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .readTimeout(DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .writeTimeout(DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .addInterceptor(new RetryInterceptor(0, INITIAL_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS,
+                        httpClients.circuitBreaker(url)))
+                .build();
+    }
+}
@@ -0,0 +1,88 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Enums;
+import com.google.common.primitives.Ints;
+import org.graylog2.plugin.MessageSummary;
+
+import javax.annotation.Nullable;
+import java.util.Locale;
+
+/**
+ * Priority of a job trigger, which selects the lane it is queued in by the {@link AsyncJobDispatcher}.
+ * <p>
+ * Every lane has a scheduling weight and may use a share of the requests in flight to a Rundeck host, so a flood of
+ * low-priority triggers can neither occupy all connections nor starve higher lanes.
+ */
+enum TriggerPriority {
+    CRITICAL(8, 100),
+    HIGH(4, 75),
+    NORMAL(2, 50),
+    LOW(1, 25);
+
+    private final int weight;
+    private final int concurrencyPercent;
+
+    TriggerPriority(int weight, int concurrencyPercent) {
+        this.weight = weight;
+        this.concurrencyPercent = concurrencyPercent;
+    }
+
+    int weight() {
+        return weight;
+    }
+
+    /**
+     * Returns the maximum number of requests of this lane in flight, given the limit of the whole host.
+     */
+    int concurrencyLimit(int maxInFlight) {
+        return Math.max(1, (maxInFlight * concurrencyPercent + 99) / 100);
+    }
+
+    /**
+     * Returns the priority of an alert, taken from the given field of its latest message if possible.
+     */
+    static TriggerPriority of(@Nullable MessageSummary message, @Nullable String field, TriggerPriority defaultPriority) {
+        if (message == null || field == null) {
+            return defaultPriority;
+        }
+        final TriggerPriority priority = parse(RundeckCallPlan.fieldValue(message, field));
+        return priority == null ? defaultPriority : priority;
+    }
+
+    /**
+     * Parses a priority name (e.g. {@code critical}) or a syslog severity level from {@code 0} (emergency) to
+     * {@code 7} (debug).
+     *
+     * @return the priority, or {@code null} if the value is neither
+     */
+    @Nullable
+    static TriggerPriority parse(@Nullable Object value) {
+        if (value instanceof Number) {
+            return fromSyslogLevel(((Number) value).intValue());
+        }
+        if (value == null) {
+            return null;
+        }
+
+        final String text = value.toString().trim();
+        final Integer level = Ints.tryParse(text);
+        if (level != null) {
+            return fromSyslogLevel(level);
+        }
+        return Enums.getIfPresent(TriggerPriority.class, text.toUpperCase(Locale.ENGLISH)).orNull();
+    }
+
+    @Nullable
+    private static TriggerPriority fromSyslogLevel(int level) {
+        if (level < 0 || level > 7) {
+            return null;
+        }
+        if (level <= 2) {
+            return CRITICAL;
+        }
+        if (level == 3) {
+            return HIGH;
+        }
+        return level <= 5 ? NORMAL : LOW;
+    }
+}
@@ -0,0 +1,225 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdaptiveConcurrencyLimiterTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(20L);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100L);
+
+    private final AtomicLong responseDelayMillis = new AtomicLong();
+    private MockWebServer mockWebServer;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        mockWebServer = new MockWebServer();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                Thread.sleep(responseDelayMillis.get());
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+        mockWebServer.start();
+        executor = Executors.newFixedThreadPool(16);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void limitGrowsWhileItIsUsed() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 0L, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < AdaptiveConcurrencyLimiter.INITIAL_LIMIT; i++) {
+            assertTrue(limiter.acquire());
+        }
+
+        for (int i = 0; i < 4 * AdaptiveConcurrencyLimiter.INITIAL_LIMIT; i++) {
+            limiter.onSuccess(FAST);
+        }
+
+        assertTrue(limiter.limit() > AdaptiveConcurrencyLimiter.INITIAL_LIMIT);
+    }
+
+    @Test
+    public void limitDoesNotGrowWhileIdle() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 0L, TimeUnit.MILLISECONDS);
+        assertTrue(limiter.acquire());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess(FAST);
+        }
+
+        assertEquals(AdaptiveConcurrencyLimiter.INITIAL_LIMIT, limiter.limit());
+    }
+
+    @Test
+    public void limitNeverExceedsMaximum() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(5, 0L, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.acquire());
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            limiter.onSuccess(FAST);
+        }
+
+        assertEquals(5, limiter.limit());
+    }
+
+    @Test
+    public void overloadAndSlowResponsesLowerLimit() {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 0L, TimeUnit.MILLISECONDS);
+        limiter.onSuccess(FAST);
+
+        limiter.onOverload();
+        assertEquals(3, limiter.limit());
+
+        limiter.onSuccess(SLOW);
+        limiter.onSuccess(SLOW);
+        limiter.onSuccess(SLOW);
+        assertEquals(2, limiter.limit());
+
+        for (int i = 0; i < 100; i++) {
+            limiter.onOverload();
+        }
+        assertEquals(1, limiter.limit());
+    }
+
+    @Test
+    public void onlySlowFailuresLowerLimit() {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 0L, TimeUnit.MILLISECONDS);
+        limiter.onSuccess(FAST);
+
+        limiter.onFailure(FAST);
+        assertEquals(AdaptiveConcurrencyLimiter.INITIAL_LIMIT, limiter.limit());
+
+        limiter.onFailure(SLOW);
+        assertEquals(3, limiter.limit());
+    }
+
+    @Test
+    public void callsWaitForFreeSlot() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 10L, TimeUnit.SECONDS);
+        assertTrue(limiter.acquire());
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        executor.submit(() -> {
+            if (limiter.acquire()) {
+                acquired.countDown();
+            }
+            return null;
+        });
+        while (limiter.queued() == 0) {
+            Thread.sleep(10L);
+        }
+        assertEquals(1, limiter.inFlight());
+
+        limiter.release();
+        assertTrue(acquired.await(10L, TimeUnit.SECONDS));
+        assertEquals(0, limiter.queued());
+        assertEquals(1, limiter.inFlight());
+    }
+
+    @Test
+    public void loweringMaxLimitLowersLimit() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 0L, TimeUnit.MILLISECONDS);
+        limiter.setMaxLimit(2);
+        assertEquals(2, limiter.limit());
+
+        limiter.setMaxLimit(10);
+        assertEquals(2, limiter.limit());
+        assertEquals(10, limiter.maxLimit());
+    }
+
+    @Test
+    public void acquireWaitsUpToGivenTimeout() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 0L, TimeUnit.MILLISECONDS);
+        assertTrue(limiter.acquire());
+        assertFalse(limiter.acquire(TimeUnit.MILLISECONDS.toNanos(50L)));
+    }
+
+    @Test
+    public void admissionFailsIfNoSlotIsFreedWithinTimeout() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 50L, TimeUnit.MILLISECONDS);
+        assertTrue(limiter.acquire());
+        assertFalse(limiter.acquire());
+
+        try {
+            send(client(limiter));
+            fail("Expected ConcurrencyLimitException");
+        } catch (AdaptiveConcurrencyLimiter.ConcurrencyLimitException e) {
+            assertEquals(0, mockWebServer.getRequestCount());
+        }
+    }
+
+    @Test
+    public void limitFollowsLatencyDegradation() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(16, 0L, TimeUnit.MILLISECONDS);
+        final OkHttpClient client = client(limiter);
+
+        sendConcurrently(client, 16, 20);
+        final int healthyLimit = limiter.limit();
+        assertTrue(healthyLimit > AdaptiveConcurrencyLimiter.INITIAL_LIMIT);
+
+        // Rundeck gets slow
+        responseDelayMillis.set(200L);
+        sendConcurrently(client, 16, 1);
+        final int degradedLimit = limiter.limit();
+        assertTrue(degradedLimit < healthyLimit);
+        assertEquals(0, limiter.inFlight());
+        assertEquals(0, limiter.queued());
+    }
+
+    private OkHttpClient client(AdaptiveConcurrencyLimiter limiter) {
+        return new OkHttpClient.Builder()
+                .addInterceptor(limiter.admission())
+                .addInterceptor(limiter.sampler())
+                .build();
+    }
+
+    private void sendConcurrently(OkHttpClient client, int threads, int requestsPerThread) throws Exception {
+        final List<Future<?>> futures = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < requestsPerThread; j++) {
+                    send(client);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30L, TimeUnit.SECONDS);
+        }
+    }
+
+    private void send(OkHttpClient client) throws IOException {
+        client.newCall(new Request.Builder().url(mockWebServer.url("/")).build()).execute().body().close();
+    }
+}
@@ -0,0 +1,197 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.ImmutableMap;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ApiTokensTest {
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ApiTokens apiTokens;
+    private MockWebServer mockWebServer;
+    private Path tokenFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+        apiTokens = new ApiTokens(ImmutableMap.of("RUNDECK_TOKEN", " env_api_token\n", "GRAYLOG_SECRET", "secret")::get,
+                temporaryFolder.newFolder("tokens").toPath(), "RUNDECK_");
+        tokenFile = temporaryFolder.getRoot().toPath().resolve("tokens").resolve("rundeck.token");
+        write(tokenFile, "old_api_token\n");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        apiTokens.close();
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void usesOtherValuesAsToken() throws Exception {
+        final ApiTokens.ApiToken token = apiTokens.forConfiguredValue("test_api_token");
+
+        assertEquals("test_api_token", token.get());
+        assertEquals("test_api_token", token.resolve());
+    }
+
+    @Test
+    public void readsTokenFromEnvironmentVariable() throws Exception {
+        assertEquals("env_api_token", apiTokens.forConfiguredValue("env:RUNDECK_TOKEN").get());
+        assertResolveFails(apiTokens.forConfiguredValue("env:RUNDECK_MISSING"), "Environment variable RUNDECK_MISSING is not set");
+    }
+
+    @Test
+    public void rejectsEnvironmentVariableWithoutAllowedPrefix() throws Exception {
+        final ApiTokens.ApiToken token = apiTokens.forConfiguredValue("env:GRAYLOG_SECRET");
+
+        assertEquals("", token.get());
+        assertResolveFails(token, "Environment variable GRAYLOG_SECRET doesn't start with RUNDECK_");
+    }
+
+    @Test
+    public void rejectsFileOutsideTokenDirectory() throws Exception {
+        final Path outside = temporaryFolder.newFile("secret.conf").toPath();
+        write(outside, "secret");
+        final Path link = tokenFile.resolveSibling("link.token");
+        Files.createSymbolicLink(link, outside);
+
+        assertEquals("", apiTokens.forConfiguredValue("file:" + outside).get());
+        assertResolveFails(apiTokens.forConfiguredValue("file:" + outside), "File " + outside + " is not in "
+                + tokenFile.getParent());
+        assertResolveFails(apiTokens.forConfiguredValue("file:" + tokenFile.getParent() + "/../secret.conf"),
+                "File " + outside + " is not in " + tokenFile.getParent());
+        assertResolveFails(apiTokens.forConfiguredValue("file:" + link), "File " + link + " is not in "
+                + tokenFile.getParent());
+    }
+
+    @Test
+    public void rejectsReferencesUnlessEnabled() throws Exception {
+        final ApiTokens disabled = new ApiTokens(ImmutableMap.of("RUNDECK_TOKEN", "env_api_token")::get, null, null);
+
+        assertResolveFails(disabled.forConfiguredValue("env:RUNDECK_TOKEN"), "Environment variables are disabled, "
+                + "set the system property " + ApiTokens.TOKEN_ENV_PREFIX_PROPERTY + " to enable them");
+        assertResolveFails(disabled.forConfiguredValue("file:" + tokenFile), "Token files are disabled, "
+                + "set the system property " + ApiTokens.TOKEN_DIRECTORY_PROPERTY + " to enable them");
+        disabled.close();
+    }
+
+    @Test
+    public void readsTokenFromFile() throws Exception {
+        final ApiTokens.ApiToken token = apiTokens.forConfiguredValue("file:" + tokenFile);
+
+        assertEquals("old_api_token", token.get());
+        assertSame(token, apiTokens.forConfiguredValue("file:" + tokenFile));
+        assertResolveFails(apiTokens.forConfiguredValue("file:relative.token"), "Expected an absolute path after 'file:'");
+    }
+
+    @Test
+    public void reloadsTokenWhenFileIsReplaced() throws Exception {
+        final ApiTokens.ApiToken token = apiTokens.forConfiguredValue("file:" + tokenFile);
+
+        final Path newTokenFile = tokenFile.resolveSibling("rundeck.token.new");
+        write(newTokenFile, "new_api_token");
+        Files.move(newTokenFile, tokenFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30L);
+        while (!"new_api_token".equals(token.get()) && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals("new_api_token", token.get());
+    }
+
+    @Test
+    public void keepsPreviousTokenIfFileCantBeRead() throws Exception {
+        final ApiTokens.ApiToken token = apiTokens.forConfiguredValue("file:" + tokenFile);
+
+        write(tokenFile, "");
+        assertEquals("old_api_token", token.reload());
+        Files.delete(tokenFile);
+        assertEquals("old_api_token", token.reload());
+    }
+
+    @Test
+    public void retriesOnceWithReloadedToken() throws Exception {
+        final ApiTokens.ApiToken token = apiTokens.forConfiguredValue("file:" + tokenFile);
+        mockWebServer.enqueue(new MockResponse().setResponseCode(401));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+        final Request request = request(token);
+        write(tokenFile, "new_api_token");
+
+        final Response response = client(token).newCall(request).execute();
+        response.body().close();
+        assertEquals(200, response.code());
+        assertEquals(2, mockWebServer.getRequestCount());
+        assertEquals("old_api_token", mockWebServer.takeRequest().getHeader(ApiTokens.AUTH_TOKEN_HEADER));
+        assertEquals("new_api_token", mockWebServer.takeRequest().getHeader(ApiTokens.AUTH_TOKEN_HEADER));
+    }
+
+    @Test
+    public void doesNotRetryUnchangedToken() throws Exception {
+        final ApiTokens.ApiToken token = apiTokens.forConfiguredValue("file:" + tokenFile);
+        mockWebServer.enqueue(new MockResponse().setResponseCode(403));
+
+        final Response response = client(token).newCall(request(token)).execute();
+        response.body().close();
+        assertEquals(403, response.code());
+        assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    public void doesNotRetryOtherErrors() throws Exception {
+        final ApiTokens.ApiToken token = apiTokens.forConfiguredValue("file:" + tokenFile);
+        mockWebServer.enqueue(new MockResponse().setResponseCode(404));
+        final Request request = request(token);
+        write(tokenFile, "new_api_token");
+
+        final Response response = client(token).newCall(request).execute();
+        response.body().close();
+        assertEquals(404, response.code());
+        assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    private OkHttpClient client(ApiTokens.ApiToken token) {
+        return new OkHttpClient.Builder().addInterceptor(token.interceptor()).build();
+    }
+
+    private Request request(ApiTokens.ApiToken token) {
+        return new Request.Builder()
+                .get()
+                .url(mockWebServer.url("/api/12/job/test-job-id"))
+                .addHeader(ApiTokens.AUTH_TOKEN_HEADER, token.get())
+                .build();
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertResolveFails(ApiTokens.ApiToken token, String expectedMessage) {
+        try {
+            token.resolve();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals(expectedMessage, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ArgStringEncoderTest {
+    private static final int RUNS = 2000;
+    private static final String[] ALPHABET = {"a", "b", "Z", "0", " ", "'", "''", "\"", "\\", "-", ",", "\n", "\u00e9", "\ud83d\ude00"};
+
+    @Test
+    public void doublesSingleQuotes() {
+        final StringBuilder sb = new StringBuilder();
+        new ArgStringEncoder(0).appendArgument(sb, "message", "it's 'down'", Integer.MAX_VALUE);
+
+        assertEquals("-message 'it''s ''down''' ", sb.toString());
+    }
+
+    @Test
+    public void rendersNumbersAndEmptyValues() {
+        final StringBuilder sb = new StringBuilder();
+        final ArgStringEncoder encoder = new ArgStringEncoder(0);
+        encoder.appendArgument(sb, "level", 3, Integer.MAX_VALUE);
+        encoder.appendArgument(sb, "count", 12345678901L, Integer.MAX_VALUE);
+        encoder.appendArgument(sb, "empty", "", Integer.MAX_VALUE);
+
+        assertEquals("-level '3' -count '12345678901' -empty '' ", sb.toString());
+    }
+
+    @Test
+    public void truncatesValuesAndLeavesOutArgumentsWhichDontFit() {
+        final StringBuilder sb = new StringBuilder();
+        final ArgStringEncoder encoder = new ArgStringEncoder(4);
+
+        assertTrue(encoder.appendArgument(sb, "a", "abcdefgh", 19));
+        assertTrue(encoder.appendArgument(sb, "b", "abcdefgh", 19));
+        assertFalse(encoder.appendArgument(sb, "c", "abcdefgh", 19));
+
+        assertEquals("-a 'abcd' -b 'abc' ", sb.toString());
+    }
+
+    @Test
+    public void neverSplitsEscapedQuotes() {
+        final StringBuilder sb = new StringBuilder();
+        new ArgStringEncoder(3).appendArgument(sb, "a", "ab'c", Integer.MAX_VALUE);
+
+        assertEquals("-a 'ab' ", sb.toString());
+    }
+
+    @Test
+    public void bufferIsReusedAndCleared() {
+        final StringBuilder sb = ArgStringEncoder.buffer();
+        sb.append("leftover");
+
+        assertTrue(sb == ArgStringEncoder.buffer());
+        assertEquals(0, ArgStringEncoder.buffer().length());
+    }
+
+    @Test
+    public void encodedArgumentsDecodeToOriginalValues() {
+        final Random random = new Random(42L);
+        final ArgStringEncoder encoder = new ArgStringEncoder(0);
+        for (int run = 0; run < RUNS; run++) {
+            final List<Map.Entry<String, String>> arguments = randomArguments(random);
+            final StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> argument : arguments) {
+                assertTrue(encoder.appendArgument(sb, argument.getKey(), argument.getValue(), Integer.MAX_VALUE));
+            }
+
+            assertEquals(sb.toString(), arguments, decode(sb.toString()));
+        }
+    }
+
+    @Test
+    public void truncatedArgumentsStayWithinLimitsAndDecodeToPrefixes() {
+        final Random random = new Random(4711L);
+        for (int run = 0; run < RUNS; run++) {
+            final int maxValueLength = random.nextInt(20);
+            final int maxLength = random.nextInt(120);
+            final ArgStringEncoder encoder = new ArgStringEncoder(maxValueLength);
+            final List<Map.Entry<String, String>> arguments = randomArguments(random);
+            final StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> argument : arguments) {
+                encoder.appendArgument(sb, argument.getKey(), argument.getValue(), maxLength);
+            }
+
+            final String argString = sb.toString();
+            assertTrue(argString, argString.length() <= maxLength);
+
+            // decoded arguments are a subsequence of the original ones, with truncated values
+            int next = 0;
+            for (Map.Entry<String, String> decoded : decode(argString)) {
+                while (!arguments.get(next).getKey().equals(decoded.getKey())) {
+                    next++;
+                }
+                final String value = arguments.get(next++).getValue();
+                assertTrue(argString, value.startsWith(decoded.getValue()));
+                assertTrue(argString, maxValueLength == 0 || escapedLength(decoded.getValue()) <= maxValueLength);
+                assertFalse(argString, !decoded.getValue().isEmpty()
+                        && Character.isHighSurrogate(decoded.getValue().charAt(decoded.getValue().length() - 1)));
+            }
+        }
+    }
+
+    @Test
+    public void truncateKeepsSurrogatePairsTogether() {
+        final ArgStringEncoder encoder = new ArgStringEncoder(2);
+
+        assertEquals("ab", encoder.truncate("abc"));
+        assertEquals("a", encoder.truncate("a\ud83d\ude00"));
+        assertEquals("a", new ArgStringEncoder(0).truncate("a"));
+    }
+
+    private static List<Map.Entry<String, String>> randomArguments(Random random) {
+        final int count = 1 + random.nextInt(5);
+        final List<Map.Entry<String, String>> arguments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final StringBuilder value = new StringBuilder();
+            final int length = random.nextInt(30);
+            for (int j = 0; j < length; j++) {
+                value.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+            }
+            arguments.add(new AbstractMap.SimpleImmutableEntry<>("field" + i, value.toString()));
+        }
+        return arguments;
+    }
+
+    private static int escapedLength(String value) {
+        return value.length() + value.replaceAll("[^']", "").length();
+    }
+
+    /**
+     * Splits an {@code argString} like Rundeck does, reading a doubled quote within a quoted value as a literal quote.
+     */
+    private static List<Map.Entry<String, String>> decode(String argString) {
+        final List<Map.Entry<String, String>> arguments = new ArrayList<>();
+        int i = 0;
+        while (i < argString.length()) {
+            assertEquals(argString, '-', argString.charAt(i));
+            final int keyEnd = argString.indexOf(" '", i);
+            final String key = argString.substring(i + 1, keyEnd);
+            final StringBuilder value = new StringBuilder();
+            i = keyEnd + 2;
+            while (true) {
+                final char c = argString.charAt(i++);
+                if (c == '\'') {
+                    if (i < argString.length() && argString.charAt(i) == '\'') {
+                        value.append('\'');
+                        i++;
+                        continue;
+                    }
+                    break;
+                }
+                value.append(c);
+            }
+            assertEquals(argString, ' ', argString.charAt(i++));
+            arguments.add(new AbstractMap.SimpleImmutableEntry<>(key, value.toString()));
+        }
+        return arguments;
+    }
+}
@@ -0,0 +1,94 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.streams.Stream;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ArgumentTemplateTest {
+    private final MessageSummary message = message();
+
+    @Test
+    public void renderReplacesMessageFields() {
+        assertEquals("host-example.org:3", ArgumentTemplate.compile("host-${source}:${level}").render(message, null));
+    }
+
+    @Test
+    public void renderKeepsLiteralText() {
+        assertEquals("plain $ text $ {x}", ArgumentTemplate.compile("plain $$ text $ {x}").render(message, null));
+        assertEquals("", ArgumentTemplate.compile("").render(message, null));
+    }
+
+    @Test
+    public void defaultReplacesMissingValues() {
+        final ArgumentTemplate template = ArgumentTemplate.compile("${missing|default:n/a}");
+
+        assertEquals("n/a", template.render(message, null));
+        assertEquals("n/a", template.render(null, null));
+        assertEquals("3", ArgumentTemplate.compile("${level|default:5}").render(message, null));
+    }
+
+    @Test
+    public void truncateCutsOffValues() {
+        assertEquals("Test", ArgumentTemplate.compile("${message|truncate:4}").render(message, null));
+        assertEquals("Test message", ArgumentTemplate.compile("${message|truncate:200}").render(message, null));
+        assertEquals("unkn", ArgumentTemplate.compile("${missing|default:unknown|truncate:4}").render(message, null));
+    }
+
+    @Test
+    public void renderReplacesStreamProperties() {
+        final Stream stream = mock(Stream.class);
+        when(stream.getId()).thenReturn("stream-id");
+        when(stream.getTitle()).thenReturn("Errors");
+
+        assertEquals("Errors (stream-id)", ArgumentTemplate.compile("${stream.title} (${stream.id})").render(message, stream));
+        assertEquals("none", ArgumentTemplate.compile("${stream.description|default:none}").render(message, stream));
+    }
+
+    @Test
+    public void compileArgumentsKeepsOrder() {
+        final Map<String, ArgumentTemplate> templates = ArgumentTemplate.compileArguments("host=${source} & sev=${level}");
+
+        assertEquals("[host, sev]", templates.keySet().toString());
+        assertEquals("3", templates.get("sev").render(message, null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compileFailsOnUnterminatedExpression() {
+        ArgumentTemplate.compile("${source");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compileFailsOnUnknownFilter() {
+        ArgumentTemplate.compile("${source|upper}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compileFailsOnInvalidLength() {
+        ArgumentTemplate.compile("${message|truncate:0}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compileFailsOnUnknownStreamProperty() {
+        ArgumentTemplate.compile("${stream.owner}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compileArgumentsFailsWithoutKey() {
+        ArgumentTemplate.compileArguments("${source}");
+    }
+
+    private static MessageSummary message() {
+        final Message message = new Message("Test message", "example.org", new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC));
+        message.addField("level", 3);
+        return new MessageSummary("graylog_0", message);
+    }
+}
@@ -0,0 +1,247 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncJobDispatcherTest {
+    private final OkHttpClient okHttpClient = new OkHttpClient();
+    private final CountDownLatch responseLatch = new CountDownLatch(1);
+
+    private MockWebServer mockWebServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mockWebServer = new MockWebServer();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                responseLatch.await(10, TimeUnit.SECONDS);
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+        mockWebServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        responseLatch.countDown();
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void dispatchDoesNotWaitForResponse() throws Exception {
+        final AsyncJobDispatcher dispatcher = new AsyncJobDispatcher(okHttpClient, 1, 10, AsyncJobDispatcher.OverflowPolicy.FAIL_FAST);
+
+        dispatcher.dispatch(request("/1"));
+        dispatcher.dispatch(request("/2"));
+        assertEquals(0L, dispatcher.succeeded());
+
+        responseLatch.countDown();
+        awaitCount(2L, dispatcher::succeeded);
+        assertEquals(0L, dispatcher.failed());
+    }
+
+    @Test
+    public void dispatchFailsFastIfQueueIsFull() throws Exception {
+        final AsyncJobDispatcher dispatcher = new AsyncJobDispatcher(okHttpClient, 1, 1, AsyncJobDispatcher.OverflowPolicy.FAIL_FAST);
+
+        dispatcher.dispatch(request("/1"));
+        dispatcher.dispatch(request("/2"));
+        try {
+            dispatcher.dispatch(request("/3"));
+            fail("Expected AlarmCallbackException");
+        } catch (AlarmCallbackException e) {
+            assertEquals(1L, dispatcher.rejected());
+        }
+
+        responseLatch.countDown();
+        awaitCount(2L, dispatcher::succeeded);
+    }
+
+    @Test
+    public void dispatchDropsOldestPendingRequestIfQueueIsFull() throws Exception {
+        final AsyncJobDispatcher dispatcher = new AsyncJobDispatcher(okHttpClient, 1, 1, AsyncJobDispatcher.OverflowPolicy.DROP_OLDEST);
+
+        dispatcher.dispatch(request("/1"));
+        dispatcher.dispatch(request("/2"));
+        dispatcher.dispatch(request("/3"));
+        assertEquals(1L, dispatcher.dropped());
+
+        responseLatch.countDown();
+        awaitCount(2L, dispatcher::succeeded);
+        assertEquals("/1", mockWebServer.takeRequest(10, TimeUnit.SECONDS).getPath());
+        assertEquals("/3", mockWebServer.takeRequest(10, TimeUnit.SECONDS).getPath());
+    }
+
+    @Test
+    public void dispatchBlocksUntilQueueHasRoom() throws Exception {
+        final AsyncJobDispatcher dispatcher = new AsyncJobDispatcher(okHttpClient, 1, 0, AsyncJobDispatcher.OverflowPolicy.BLOCK);
+
+        dispatcher.dispatch(request("/1"));
+        final Thread blocked = new Thread(() -> {
+            try {
+                dispatcher.dispatch(request("/2"));
+            } catch (AlarmCallbackException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        blocked.start();
+        blocked.join(200L);
+        assertEquals(Thread.State.WAITING, blocked.getState());
+
+        responseLatch.countDown();
+        blocked.join(10000L);
+        awaitCount(2L, dispatcher::succeeded);
+    }
+
+    @Test
+    public void dispatchCountsFailedRequests() throws Exception {
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(500);
+            }
+        });
+        final AsyncJobDispatcher dispatcher = new AsyncJobDispatcher(okHttpClient, 1, 10, AsyncJobDispatcher.OverflowPolicy.FAIL_FAST);
+
+        dispatcher.dispatch(request("/1"));
+        awaitCount(1L, dispatcher::failed);
+        assertEquals(0L, dispatcher.succeeded());
+    }
+
+    @Test
+    public void dispatchRunsFailureHandlerOfFailedRequests() throws Exception {
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(request.getPath().equals("/failing") ? 500 : 200);
+            }
+        });
+        final AsyncJobDispatcher dispatcher = new AsyncJobDispatcher(okHttpClient, 1, 10, AsyncJobDispatcher.OverflowPolicy.FAIL_FAST);
+        final OkHttpClient client = dispatcher.bind(okHttpClient);
+        final AtomicInteger failures = new AtomicInteger();
+
+        dispatcher.dispatch(client.newCall(request("/failing")), TriggerPriority.NORMAL, failures::incrementAndGet);
+        dispatcher.dispatch(client.newCall(request("/1")), TriggerPriority.NORMAL, failures::incrementAndGet);
+        awaitCount(1L, dispatcher::succeeded);
+        assertEquals(1L, dispatcher.failed());
+        assertEquals(1, failures.get());
+    }
+
+    @Test
+    public void dispatchRunsFailureHandlerOfDroppedRequests() throws Exception {
+        final AsyncJobDispatcher dispatcher = new AsyncJobDispatcher(okHttpClient, 1, 1, AsyncJobDispatcher.OverflowPolicy.DROP_OLDEST);
+        final OkHttpClient client = dispatcher.bind(okHttpClient);
+        final AtomicInteger failures = new AtomicInteger();
+
+        dispatcher.dispatch(client.newCall(request("/1")), TriggerPriority.NORMAL, failures::incrementAndGet);
+        dispatcher.dispatch(client.newCall(request("/2")), TriggerPriority.NORMAL, failures::incrementAndGet);
+        dispatcher.dispatch(client.newCall(request("/3")), TriggerPriority.NORMAL, failures::incrementAndGet);
+        assertEquals(1, failures.get());
+
+        responseLatch.countDown();
+        awaitCount(2L, dispatcher::succeeded);
+        assertEquals(1, failures.get());
+    }
+
+    @Test
+    public void dispatchSendsHigherPriorityFirst() throws Exception {
+        final AsyncJobDispatcher dispatcher = new AsyncJobDispatcher(okHttpClient, 1, 10, AsyncJobDispatcher.OverflowPolicy.FAIL_FAST);
+        final OkHttpClient client = dispatcher.bind(okHttpClient);
+
+        dispatcher.dispatch(client.newCall(request("/1")), TriggerPriority.NORMAL);
+        dispatcher.dispatch(client.newCall(request("/low")), TriggerPriority.LOW);
+        dispatcher.dispatch(client.newCall(request("/critical")), TriggerPriority.CRITICAL);
+        assertEquals(1, dispatcher.pending(TriggerPriority.LOW));
+        assertEquals(1, dispatcher.pending(TriggerPriority.CRITICAL));
+
+        responseLatch.countDown();
+        awaitCount(3L, dispatcher::succeeded);
+        assertEquals("/1", mockWebServer.takeRequest(10, TimeUnit.SECONDS).getPath());
+        assertEquals("/critical", mockWebServer.takeRequest(10, TimeUnit.SECONDS).getPath());
+        assertEquals("/low", mockWebServer.takeRequest(10, TimeUnit.SECONDS).getPath());
+    }
+
+    @Test
+    public void dispatchPreemptsLowerPriorityIfQueueIsFull() throws Exception {
+        final AsyncJobDispatcher dispatcher = new AsyncJobDispatcher(okHttpClient, 1, 1, AsyncJobDispatcher.OverflowPolicy.FAIL_FAST);
+        final OkHttpClient client = dispatcher.bind(okHttpClient);
+
+        dispatcher.dispatch(client.newCall(request("/1")), TriggerPriority.NORMAL);
+        dispatcher.dispatch(client.newCall(request("/low")), TriggerPriority.LOW);
+        dispatcher.dispatch(client.newCall(request("/high")), TriggerPriority.HIGH);
+        assertEquals(1L, dispatcher.preempted());
+        assertEquals(0L, dispatcher.rejected());
+        assertEquals(0, dispatcher.pending(TriggerPriority.LOW));
+
+        responseLatch.countDown();
+        awaitCount(2L, dispatcher::succeeded);
+        assertEquals("/1", mockWebServer.takeRequest(10, TimeUnit.SECONDS).getPath());
+        assertEquals("/high", mockWebServer.takeRequest(10, TimeUnit.SECONDS).getPath());
+    }
+
+    @Test
+    public void dispatchLimitsRequestsInFlightPerLane() throws Exception {
+        final AsyncJobDispatcher dispatcher = new AsyncJobDispatcher(okHttpClient, 4, 10, AsyncJobDispatcher.OverflowPolicy.FAIL_FAST);
+        final OkHttpClient client = dispatcher.bind(okHttpClient);
+
+        dispatcher.dispatch(client.newCall(request("/low1")), TriggerPriority.LOW);
+        dispatcher.dispatch(client.newCall(request("/low2")), TriggerPriority.LOW);
+        dispatcher.dispatch(client.newCall(request("/critical")), TriggerPriority.CRITICAL);
+        assertEquals(1, dispatcher.inFlight(TriggerPriority.LOW));
+        assertEquals(1, dispatcher.pending(TriggerPriority.LOW));
+        assertEquals(1, dispatcher.inFlight(TriggerPriority.CRITICAL));
+
+        responseLatch.countDown();
+        awaitCount(3L, dispatcher::succeeded);
+    }
+
+    @Test
+    public void awaitDrainedWaitsForPendingRequests() throws Exception {
+        final AsyncJobDispatcher dispatcher = new AsyncJobDispatcher(okHttpClient, 1, 10, AsyncJobDispatcher.OverflowPolicy.FAIL_FAST);
+
+        dispatcher.dispatch(request("/1"));
+        dispatcher.dispatch(request("/2"));
+        assertFalse(dispatcher.awaitDrained(100L, TimeUnit.MILLISECONDS));
+
+        responseLatch.countDown();
+        assertTrue(dispatcher.awaitDrained(10L, TimeUnit.SECONDS));
+        assertEquals(2L, dispatcher.succeeded());
+        dispatcher.shutdown();
+    }
+
+    private Request request(String path) {
+        return new Request.Builder()
+                .post(RequestBody.create(MediaType.parse("text/xml"), new byte[0]))
+                .url(mockWebServer.url(path))
+                .build();
+    }
+
+    private static void awaitCount(long expected, LongSupplier counter) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (counter.getAsLong() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(expected, counter.getAsLong());
+    }
+}
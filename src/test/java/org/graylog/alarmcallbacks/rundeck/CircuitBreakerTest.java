@@ -0,0 +1,91 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Test
+    public void breakerOpensAfterConsecutiveFailures() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 30L, TimeUnit.SECONDS, ticker);
+
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onFailure();
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onSuccess();
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.state());
+
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.state());
+        assertFalse(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    public void breakerAllowsSingleProbeWhenHalfOpen() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 30L, TimeUnit.SECONDS, ticker);
+        circuitBreaker.onFailure();
+        assertFalse(circuitBreaker.tryAcquire());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30L));
+        assertTrue(circuitBreaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.state());
+        assertFalse(circuitBreaker.tryAcquire());
+
+        circuitBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.state());
+        assertTrue(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    public void releasedProbeLetsNextProbeThrough() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 30L, TimeUnit.SECONDS, ticker);
+        circuitBreaker.onFailure();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30L));
+        assertTrue(circuitBreaker.tryAcquire());
+        assertFalse(circuitBreaker.tryAcquire());
+
+        circuitBreaker.release();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.state());
+        assertTrue(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    public void breakerReopensIfProbeFails() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(3, 30L, TimeUnit.SECONDS, ticker);
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30L));
+        assertTrue(circuitBreaker.tryAcquire());
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.state());
+        assertFalse(circuitBreaker.tryAcquire());
+    }
+
+    @Test
+    public void breakerWithoutThresholdNeverOpens() {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(0, 30L, TimeUnit.SECONDS, ticker);
+        for (int i = 0; i < 100; i++) {
+            circuitBreaker.onFailure();
+        }
+        assertTrue(circuitBreaker.tryAcquire());
+    }
+}
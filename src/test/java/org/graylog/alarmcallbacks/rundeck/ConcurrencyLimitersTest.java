@@ -0,0 +1,43 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.codahale.metrics.MetricRegistry;
+import okhttp3.HttpUrl;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class ConcurrencyLimitersTest {
+    private static final HttpUrl URL = HttpUrl.parse("http://rundeck.example.com/api/12/job/1/executions");
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final ConcurrencyLimiters concurrencyLimiters = new ConcurrencyLimiters(new RundeckMetrics(metricRegistry));
+
+    @Test
+    public void callbacksOfSameEndpointShareLowestMaxLimit() {
+        final Object owner1 = new Object();
+        final Object owner2 = new Object();
+        final AdaptiveConcurrencyLimiter limiter1 = concurrencyLimiters.forUrl(URL, owner1, 10);
+        final AdaptiveConcurrencyLimiter limiter2 = concurrencyLimiters.forUrl(URL, owner2, 2);
+        final AdaptiveConcurrencyLimiter limiter3 = concurrencyLimiters.forUrl(HttpUrl.parse("http://rundeck.example.com/"), owner1, 10);
+
+        assertSame(limiter1, limiter2);
+        assertSame(limiter1, limiter3);
+        assertNotSame(limiter1, concurrencyLimiters.forUrl(HttpUrl.parse("http://rundeck.example.com:4440/"), owner1, 10));
+        assertEquals(2, limiter1.maxLimit());
+        assertEquals(2, limiter1.limit());
+
+        final String prefix = RundeckAlarmCallback.class.getName() + ".concurrency.rundeck.example.com:80.";
+        assertEquals(2, metricRegistry.getGauges().get(prefix + "limit").getValue());
+    }
+
+    @Test
+    public void raisedMaxLimitReplacesPreviousRegistration() {
+        final Object owner = new Object();
+        concurrencyLimiters.forUrl(URL, owner, 2);
+        final AdaptiveConcurrencyLimiter limiter = concurrencyLimiters.forUrl(URL, owner, 10);
+
+        assertEquals(10, limiter.maxLimit());
+    }
+}
@@ -0,0 +1,140 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.graylog2.plugin.configuration.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ExecutionTrackerTest {
+    private static final String PREFIX = RundeckAlarmCallback.class.getName() + ".test-job-id.executions.";
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final ConcurrentMap<String, AtomicInteger> polls = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private MockWebServer mockWebServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mockWebServer = new MockWebServer();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                final int poll = polls.computeIfAbsent(request.getPath(), path -> new AtomicInteger()).incrementAndGet();
+                switch (request.getPath()) {
+                    case "/api/18/execution/1":
+                        return status(poll < 3 ? "running" : "succeeded");
+                    case "/api/18/execution/2":
+                        return status("failed");
+                    case "/api/18/execution/3":
+                        return status("running");
+                    default:
+                        return new MockResponse().setResponseCode(404);
+                }
+            }
+        });
+        mockWebServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdownNow();
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void pollsUntilExecutionsHaveFinished() throws Exception {
+        final ExecutionTracker tracker = new ExecutionTracker(scheduler, Ticker.systemTicker(), 10L, 40L, 5L);
+        final RundeckTarget target = target(tracker);
+        final long timeoutNanos = TimeUnit.SECONDS.toNanos(30L);
+
+        assertTrue(tracker.track(target, 1L, timeoutNanos));
+        assertTrue(tracker.track(target, 2L, timeoutNanos));
+        assertTrue(tracker.track(target, 4L, timeoutNanos));
+
+        awaitCount(0L, tracker::tracked);
+        assertEquals(1L, metricRegistry.meter(PREFIX + "succeeded").getCount());
+        assertEquals(1L, metricRegistry.meter(PREFIX + "failed").getCount());
+        assertEquals(0L, metricRegistry.meter(PREFIX + "timed-out").getCount());
+        assertEquals(1L, metricRegistry.meter(PREFIX + "unknown").getCount());
+        assertEquals(3, polls.get("/api/18/execution/1").get());
+        assertEquals(1, polls.get("/api/18/execution/2").get());
+        assertEquals(1, polls.get("/api/18/execution/4").get());
+    }
+
+    @Test
+    public void executionsTimeOut() throws Exception {
+        final ExecutionTracker tracker = new ExecutionTracker(scheduler, Ticker.systemTicker(), 10L, 40L, 5L);
+
+        assertTrue(tracker.track(target(tracker), 3L, TimeUnit.MILLISECONDS.toNanos(200L)));
+
+        awaitCount(0L, tracker::tracked);
+        assertEquals(1L, metricRegistry.meter(PREFIX + "timed-out").getCount());
+        assertTrue(polls.get("/api/18/execution/3").get() > 1);
+    }
+
+    @Test
+    public void numberOfTrackedExecutionsIsBounded() throws Exception {
+        final ExecutionTracker tracker = new ExecutionTracker(scheduler, Ticker.systemTicker(), 3600_000L, 3600_000L, 5L);
+        final RundeckTarget target = target(tracker);
+        final long timeoutNanos = TimeUnit.HOURS.toNanos(1L);
+
+        for (int i = 0; i < ExecutionTracker.MAX_TRACKED; i++) {
+            assertTrue(tracker.track(target, i, timeoutNanos));
+        }
+        assertFalse(tracker.track(target, ExecutionTracker.MAX_TRACKED, timeoutNanos));
+        assertEquals(ExecutionTracker.MAX_TRACKED, tracker.tracked());
+    }
+
+    @Test
+    public void mapsStatusToOutcome() {
+        assertEquals(ExecutionTracker.Outcome.SUCCEEDED, ExecutionTracker.outcome("succeeded"));
+        assertEquals(ExecutionTracker.Outcome.FAILED, ExecutionTracker.outcome("aborted"));
+        assertEquals(ExecutionTracker.Outcome.FAILED, ExecutionTracker.outcome("timedout"));
+        assertNull(ExecutionTracker.outcome("running"));
+        assertNull(ExecutionTracker.outcome("scheduled"));
+    }
+
+    private RundeckTarget target(ExecutionTracker tracker) {
+        final Configuration configuration = new Configuration(ImmutableMap.<String, Object>of(
+                "api_token", "test_api_token",
+                "api_version", 18,
+                "execution_timeout", 30));
+        return RundeckTarget.create(configuration, mockWebServer.url("/").toString(), "test-job-id",
+                new RundeckHttpClients(new OkHttpClient(), new RundeckMetrics(new MetricRegistry())), new AsyncJobDispatchers(new RundeckMetrics(metricRegistry)),
+                new RateLimiters(), new ConcurrencyLimiters(new RundeckMetrics(metricRegistry)), null,
+                new RundeckMetrics(metricRegistry), tracker, new JobDefinitionCache(), new ApiTokens());
+    }
+
+    private static MockResponse status(String status) {
+        return new MockResponse().setBody("{\"id\":1,\"status\":\"" + status + "\"}");
+    }
+
+    private static void awaitCount(long expected, LongSupplier counter) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (counter.getAsLong() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(expected, counter.getAsLong());
+    }
+}
@@ -0,0 +1,61 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FieldAggregatorTest {
+    @Test
+    public void aggregateCountsDistinctAndTopValues() {
+        final FieldAggregator aggregator = new FieldAggregator(ImmutableList.of("source", "level", "missing"), 2);
+        final List<MessageSummary> messages = ImmutableList.of(
+                message("a", 1), message("b", 1), message("a", 2), message("c", 1), message("a", 1), message("b", 3));
+
+        final Map<String, FieldAggregator.FieldSummary> summaries = aggregator.aggregate(messages);
+
+        assertEquals(ImmutableList.of("source", "level"), ImmutableList.copyOf(summaries.keySet()));
+        assertEquals(ImmutableList.of("a", "b"), summaries.get("source").topValues(2));
+        assertEquals(3L, summaries.get("source").distinct());
+        assertEquals(6L, summaries.get("source").total());
+        assertEquals(ImmutableList.of("1", "2", "3"), summaries.get("level").topValues(5));
+        assertFalse(summaries.containsKey("missing"));
+    }
+
+    @Test
+    public void memoryIsBoundedWithManyDistinctValues() {
+        final FieldAggregator.FieldSummary summary = new FieldAggregator.FieldSummary(16);
+        for (int i = 0; i < 10_000; i++) {
+            summary.add("rare-" + i);
+            summary.add("frequent");
+        }
+
+        assertEquals(16, summary.topValues(Integer.MAX_VALUE).size());
+        assertEquals("frequent", summary.topValues(1).get(0));
+        assertEquals(20_000L, summary.total());
+        assertTrue(summary.distinct() >= 10_001L);
+    }
+
+    @Test
+    public void aggregateWithoutMessagesIsEmpty() {
+        final FieldAggregator aggregator = new FieldAggregator(ImmutableList.of("source"), 5);
+
+        assertTrue(aggregator.aggregate(new ArrayList<>()).isEmpty());
+    }
+
+    private static MessageSummary message(String source, int level) {
+        final Message message = new Message("Test", source, new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC));
+        message.addField("level", level);
+        return new MessageSummary("graylog_0", message);
+    }
+}
@@ -0,0 +1,59 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryIdempotencyStoreTest {
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+    private final InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(ticker, 100);
+
+    @Test
+    public void putIfAbsentRejectsDuplicatesWithinTimeToLive() {
+        assertTrue(store.putIfAbsent("key1", 60L, TimeUnit.SECONDS));
+        assertFalse(store.putIfAbsent("key1", 60L, TimeUnit.SECONDS));
+        assertTrue(store.putIfAbsent("key2", 60L, TimeUnit.SECONDS));
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(60L));
+        assertTrue(store.putIfAbsent("key1", 60L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void removeForgetsKey() {
+        assertTrue(store.putIfAbsent("key", 60L, TimeUnit.SECONDS));
+        store.remove("key");
+
+        assertTrue(store.putIfAbsent("key", 60L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void storeIsBounded() {
+        for (int i = 0; i < 1000; i++) {
+            store.putIfAbsent("key" + i, 60L, TimeUnit.SECONDS);
+        }
+
+        assertTrue(store.size() <= 100);
+    }
+
+    @Test
+    public void defaultStoreKeepsManyKeys() {
+        final InMemoryIdempotencyStore defaultStore = new InMemoryIdempotencyStore();
+        for (int i = 0; i < 100; i++) {
+            defaultStore.putIfAbsent("key" + i, 60L, TimeUnit.SECONDS);
+        }
+
+        assertEquals(100, defaultStore.size());
+    }
+}
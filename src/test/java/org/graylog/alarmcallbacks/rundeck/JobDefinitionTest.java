@@ -0,0 +1,75 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JobDefinitionTest {
+    private static final String DEFINITION = "<joblist>\n"
+            + "  <job>\n"
+            + "    <id>test-job-id</id>\n"
+            + "    <name>Restart</name>\n"
+            + "    <context>\n"
+            + "      <project>ops</project>\n"
+            + "      <options preserveOrder=\"true\">\n"
+            + "        <option name=\"source\" required=\"true\">\n"
+            + "          <description>Host to restart</description>\n"
+            + "        </option>\n"
+            + "        <option name=\"level\" required=\"true\" value=\"3\" />\n"
+            + "        <option name=\"message\" />\n"
+            + "      </options>\n"
+            + "    </context>\n"
+            + "    <sequence><command><exec>restart</exec></command></sequence>\n"
+            + "  </job>\n"
+            + "</joblist>";
+
+    @Test
+    public void parseReadsDeclaredOptions() throws Exception {
+        final JobDefinition definition = parse(DEFINITION);
+
+        assertTrue(definition.exists());
+        assertEquals(ImmutableSet.of("source", "level", "message"), definition.options());
+    }
+
+    @Test
+    public void requiredOptionsWithoutDefaultValueMustBePassed() throws Exception {
+        final JobDefinition definition = parse(DEFINITION);
+
+        assertEquals(ImmutableSet.of("source"), definition.missingOptions(ImmutableSet.of("message")));
+        assertEquals(ImmutableSet.of(), definition.missingOptions(ImmutableSet.of("source")));
+    }
+
+    @Test
+    public void parseReadsJobWithoutOptions() throws Exception {
+        final JobDefinition definition = parse("<joblist><job><name>Restart</name></job></joblist>");
+
+        assertTrue(definition.exists());
+        assertEquals(ImmutableSet.of(), definition.options());
+    }
+
+    @Test(expected = IOException.class)
+    public void parseFailsWithoutJob() throws Exception {
+        parse("<joblist></joblist>");
+    }
+
+    @Test(expected = IOException.class)
+    public void parseFailsOnInvalidXml() throws Exception {
+        parse("<joblist><job>");
+    }
+
+    @Test
+    public void missingJobDoesNotExist() {
+        assertFalse(JobDefinition.MISSING.exists());
+    }
+
+    private static JobDefinition parse(String definition) throws IOException {
+        return JobDefinition.parse(new ByteArrayInputStream(definition.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,49 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.ImmutableMap;
+import okio.Buffer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class JobRunRequestBodyTest {
+    @Test
+    public void writesOptionsFilterAndUser() throws Exception {
+        final JobRunRequestBody body = new JobRunRequestBody(
+                ImmutableMap.of("message", "say \"hi\"\n", "source", "example.org"), "tags: linux", "alice");
+
+        assertEquals("{\"options\":{\"message\":\"say \\\"hi\\\"\\n\",\"source\":\"example.org\"},"
+                + "\"filter\":\"tags: linux\",\"asUser\":\"alice\"}", write(body));
+    }
+
+    @Test
+    public void bodyCanBeWrittenRepeatedly() throws Exception {
+        final JobRunRequestBody body = new JobRunRequestBody(Collections.emptyMap(), null, null);
+
+        assertEquals("{}", write(body));
+        assertEquals("{}", write(body));
+    }
+
+    @Test
+    public void readsExecutionId() throws Exception {
+        assertEquals(42L, executionId("{\"href\":\"http://rundeck\",\"job\":{\"id\":\"job-uuid\"},\"id\":42}"));
+        assertEquals(42L, executionId("{\"id\":\"42\"}"));
+        assertEquals(-1L, executionId("{\"executions\":[{\"id\":1}]}"));
+        assertEquals(-1L, executionId("[]"));
+    }
+
+    private static String write(JobRunRequestBody body) throws IOException {
+        final Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return buffer.readUtf8();
+    }
+
+    private static long executionId(String response) throws IOException {
+        return JobRunRequestBody.executionId(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,122 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessagePredicateTest {
+    private final MessageSummary database = message("db-01.example.org", 3, "Connection refused");
+    private final MessageSummary webServer = message("web-01.example.org", 6, "GET /index.html 200");
+
+    @Test
+    public void comparesNumbers() {
+        assertTrue(MessagePredicate.compile("level <= 3").matches(database));
+        assertFalse(MessagePredicate.compile("level < 3").matches(database));
+        assertTrue(MessagePredicate.compile("level > 2.5").matches(database));
+        assertTrue(MessagePredicate.compile("level>=3").matches(database));
+        assertTrue(MessagePredicate.compile("level == 3.0").matches(database));
+        assertTrue(MessagePredicate.compile("level != 6").matches(database));
+        assertTrue(MessagePredicate.compile("code == 500").matches(message("app", 3, "x", "500")));
+    }
+
+    @Test
+    public void comparesText() {
+        assertTrue(MessagePredicate.compile("source == db-01.example.org").matches(database));
+        assertTrue(MessagePredicate.compile("message == \"Connection refused\"").matches(database));
+        assertTrue(MessagePredicate.compile("source != \"web-01.example.org\"").matches(database));
+        assertFalse(MessagePredicate.compile("level == high").matches(database));
+    }
+
+    @Test
+    public void matchesGlobsAgainstWholeValue() {
+        final MessagePredicate predicate = MessagePredicate.compile("source ~ db-*");
+
+        assertTrue(predicate.matches(database));
+        assertFalse(predicate.matches(webServer));
+        assertFalse(MessagePredicate.compile("source ~ db").matches(database));
+        assertTrue(MessagePredicate.compile("source ~ \"db-0?.example.org\"").matches(database));
+        // the dots are literal
+        assertFalse(MessagePredicate.compile("source ~ \"db-01.example.org\"").matches(message("db-01xexample.org", 3, "x")));
+    }
+
+    @Test
+    public void matchesRegularExpressionsAnywhere() {
+        assertTrue(MessagePredicate.compile("message =~ \"refused|reset\"").matches(database));
+        assertFalse(MessagePredicate.compile("message =~ \"^refused\"").matches(database));
+    }
+
+    @Test
+    public void combinesConditions() {
+        final MessagePredicate predicate = MessagePredicate.compile("level <= 3 && source ~ \"db-*\" || message =~ \" 5[0-9]{2}$\"");
+
+        assertTrue(predicate.matches(database));
+        assertFalse(predicate.matches(webServer));
+        assertTrue(predicate.matches(message("web-02", 6, "GET / 503")));
+        assertTrue(MessagePredicate.compile("!(source ~ web-*)").matches(database));
+        assertFalse(MessagePredicate.compile("!source ~ db-* && level == 3").matches(database));
+        assertTrue(MessagePredicate.compile("level == 6 || (level == 3 && !(message =~ ok))").matches(database));
+    }
+
+    @Test
+    public void missingFieldsOnlyMatchNotEquals() {
+        assertFalse(MessagePredicate.compile("missing == 1").matches(database));
+        assertFalse(MessagePredicate.compile("missing < 1").matches(database));
+        assertFalse(MessagePredicate.compile("missing ~ *").matches(database));
+        assertTrue(MessagePredicate.compile("missing != 1").matches(database));
+    }
+
+    @Test
+    public void matchesAnyMessage() {
+        final MessagePredicate predicate = MessagePredicate.compile("level <= 3");
+
+        assertTrue(predicate.matchesAny(ImmutableList.of(webServer, database)));
+        assertFalse(predicate.matchesAny(ImmutableList.of(webServer)));
+        assertFalse(predicate.matchesAny(Collections.emptyList()));
+        assertTrue(MessagePredicate.compile("source != db").matchesAny(Collections.emptyList()));
+    }
+
+    @Test
+    public void rejectsInvalidConditions() {
+        assertInvalid("", "Expected field name at position 0: ");
+        assertInvalid("level", "Expected operator after 'level' at position 5: level");
+        assertInvalid("level <> 3", "Unknown operator '<>' at position 8: level <> 3");
+        assertInvalid("level <= high", "Expected number after '<=' at position 13: level <= high");
+        assertInvalid("level ==", "Expected value at position 8: level ==");
+        assertInvalid("message == \"open", "Unterminated string at position 16: message == \"open");
+        assertInvalid("(level == 3", "Expected ')' at position 11: (level == 3");
+        assertInvalid("level == 3 level == 4", "Unexpected 'l' at position 11: level == 3 level == 4");
+        assertInvalid("message =~ \"[\"", "Invalid regular expression '[' at position 14: message =~ \"[\"");
+    }
+
+    private static void assertInvalid(String condition, String expectedMessage) {
+        try {
+            MessagePredicate.compile(condition);
+            fail("Expected IllegalArgumentException for " + condition);
+        } catch (IllegalArgumentException e) {
+            assertEquals(expectedMessage, e.getMessage());
+        }
+    }
+
+    private static MessageSummary message(String source, int level, String text) {
+        return message(source, level, text, null);
+    }
+
+    private static MessageSummary message(String source, int level, String text, String code) {
+        final Message message = new Message(text, source, new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC));
+        message.addField("level", level);
+        if (code != null) {
+            message.addField("code", code);
+        }
+        return new MessageSummary("graylog_0", message);
+    }
+}
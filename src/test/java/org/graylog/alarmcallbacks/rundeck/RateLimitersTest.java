@@ -0,0 +1,71 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import okhttp3.HttpUrl;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class RateLimitersTest {
+    private static final HttpUrl URL = HttpUrl.parse("http://rundeck.example.com/api/12/job/1/executions");
+
+    private final RateLimiters rateLimiters = new RateLimiters();
+
+    @Test
+    public void callbacksOfSameJobShareStrictestRateLimit() {
+        final Object owner1 = new Object();
+        final Object owner2 = new Object();
+        final Object owner3 = new Object();
+        final TokenBucketRateLimiter rateLimiter1 = rateLimiters.forJob(URL, "1", owner1, 60, 5);
+        final TokenBucketRateLimiter rateLimiter2 = rateLimiters.forJob(URL, "1", owner2, 30, 2);
+        final TokenBucketRateLimiter rateLimiter3 = rateLimiters.forJob(URL, "1", owner3, 120, 10);
+
+        assertSame(rateLimiter1, rateLimiter2);
+        assertSame(rateLimiter1, rateLimiter3);
+        assertNotSame(rateLimiter1, rateLimiters.forJob(URL, "2", owner1, 60, 5));
+        assertNotSame(rateLimiter1, rateLimiters.forJob(HttpUrl.parse("http://rundeck.example.com:4440/"), "1", owner1, 60, 5));
+
+        assertTrue(rateLimiter1.tryAcquire());
+        assertTrue(rateLimiter1.tryAcquire());
+        assertFalse(rateLimiter1.tryAcquire());
+    }
+
+    @Test
+    public void raisedRateLimitReplacesPreviousRegistration() {
+        final Object owner = new Object();
+        rateLimiters.forJob(URL, "1", owner, 30, 2);
+        final TokenBucketRateLimiter rateLimiter = rateLimiters.forJob(URL, "1", owner, 60, 3);
+
+        assertTrue(rateLimiter.tryAcquire());
+        assertTrue(rateLimiter.tryAcquire());
+        assertTrue(rateLimiter.tryAcquire());
+        assertFalse(rateLimiter.tryAcquire());
+    }
+
+    @Test
+    public void rateLimitOfDiscardedCallbackIsDropped() throws InterruptedException {
+        final Object owner = new Object();
+        Object strictOwner = new Object();
+        final WeakReference<Object> strictReference = new WeakReference<>(strictOwner);
+        rateLimiters.forJob(URL, "1", owner, 60, 3);
+        rateLimiters.forJob(URL, "1", strictOwner, 30, 1);
+
+        strictOwner = null;
+        for (int i = 0; i < 50 && strictReference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        assumeTrue(strictReference.get() == null);
+
+        final TokenBucketRateLimiter rateLimiter = rateLimiters.forJob(URL, "1", owner, 60, 3);
+        assertTrue(rateLimiter.tryAcquire());
+        assertTrue(rateLimiter.tryAcquire());
+        assertTrue(rateLimiter.tryAcquire());
+        assertFalse(rateLimiter.tryAcquire());
+    }
+}
@@ -0,0 +1,160 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.graylog2.plugin.configuration.Configuration;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RequestHedgerTest {
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Test
+    public void delayIsMinimumDelayUntilEnoughResponseTimesAreKnown() {
+        final RequestHedger hedger = new RequestHedger(95, 100L, TimeUnit.MILLISECONDS, ticker);
+        for (int i = 0; i < RequestHedger.MIN_SAMPLES - 1; i++) {
+            hedger.recordLatency(TimeUnit.SECONDS.toNanos(1L));
+        }
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100L), hedger.delayNanos());
+    }
+
+    @Test
+    public void delayFollowsPercentileOfResponseTimes() {
+        final RequestHedger hedger = new RequestHedger(90, 10L, TimeUnit.MILLISECONDS, ticker);
+        for (int i = 1; i <= 100; i++) {
+            hedger.recordLatency(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        // recomputed at most once per second
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(10L), hedger.delayNanos());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+        final long delayMillis = TimeUnit.NANOSECONDS.toMillis(hedger.delayNanos());
+        assertEquals(90.0, delayMillis, 1.0);
+    }
+
+    @Test
+    public void delayIsNeverShorterThanMinimumDelay() {
+        final RequestHedger hedger = new RequestHedger(95, 100L, TimeUnit.MILLISECONDS, ticker);
+        for (int i = 0; i < 100; i++) {
+            hedger.recordLatency(TimeUnit.MILLISECONDS.toNanos(5L));
+        }
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100L), hedger.delayNanos());
+    }
+
+    @Test
+    public void hedgesWonBySecondaryLeavePrimaryCircuitBreakerClosed() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final MockWebServer primaryServer = new MockWebServer();
+        primaryServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                release.await(10L, TimeUnit.SECONDS);
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+        primaryServer.start();
+        final MockWebServer secondaryServer = new MockWebServer();
+        secondaryServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+        secondaryServer.start();
+
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final RundeckHttpClients httpClients = new RundeckHttpClients(new OkHttpClient(), new RundeckMetrics(new MetricRegistry()));
+        final RundeckTarget primary = target(primaryServer, httpClients, metricRegistry);
+        final RundeckTarget secondary = target(secondaryServer, httpClients, metricRegistry);
+        final RequestHedger hedger = new RequestHedger(95, 10L, TimeUnit.MILLISECONDS);
+        try {
+            for (int i = 0; i < 10; i++) {
+                hedger.send(primary, primary.request(null, Collections.emptyList(), null),
+                        secondary, secondary.request(null, Collections.emptyList(), null), TimeUnit.SECONDS.toNanos(5L), () -> {
+                        });
+            }
+            // the cancelled primary requests fail on the threads of the HTTP client
+            Thread.sleep(500L);
+
+            assertEquals(10L, metricRegistry.meter(RundeckAlarmCallback.class.getName() + ".test-job-id.hedge-wins").getCount());
+            assertEquals(CircuitBreaker.State.CLOSED, httpClients.circuitBreaker(primaryServer.url("/")).state());
+        } finally {
+            release.countDown();
+            primaryServer.shutdown();
+            secondaryServer.shutdown();
+        }
+    }
+
+    @Test
+    public void cancelledPrimaryRequestsCountWithTimeUntilCancellation() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final MockWebServer primaryServer = new MockWebServer();
+        primaryServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                release.await(10L, TimeUnit.SECONDS);
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+        primaryServer.start();
+        final MockWebServer secondaryServer = new MockWebServer();
+        secondaryServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(200).setBodyDelay(100L, TimeUnit.MILLISECONDS);
+            }
+        });
+        secondaryServer.start();
+
+        final MetricRegistry metricRegistry = new MetricRegistry();
+        final RundeckHttpClients httpClients = new RundeckHttpClients(new OkHttpClient(), new RundeckMetrics(metricRegistry));
+        final RundeckTarget primary = target(primaryServer, httpClients, metricRegistry);
+        final RundeckTarget secondary = target(secondaryServer, httpClients, metricRegistry);
+        final RequestHedger hedger = new RequestHedger(50, 1L, TimeUnit.MILLISECONDS, ticker);
+        try {
+            for (int i = 0; i < RequestHedger.MIN_SAMPLES; i++) {
+                hedger.send(primary, primary.request(null, Collections.emptyList(), null),
+                        secondary, secondary.request(null, Collections.emptyList(), null), TimeUnit.SECONDS.toNanos(5L), () -> {
+                        });
+            }
+            nanos.addAndGet(TimeUnit.SECONDS.toNanos(1L));
+
+            assertTrue(hedger.delayNanos() >= TimeUnit.MILLISECONDS.toNanos(100L));
+        } finally {
+            release.countDown();
+            primaryServer.shutdown();
+            secondaryServer.shutdown();
+        }
+    }
+
+    private static RundeckTarget target(MockWebServer server, RundeckHttpClients httpClients, MetricRegistry metricRegistry) {
+        final Configuration configuration = new Configuration(ImmutableMap.<String, Object>of("api_token", "test_api_token"));
+        return RundeckTarget.create(configuration, server.url("/").toString(), "test-job-id", httpClients,
+                new AsyncJobDispatchers(new RundeckMetrics(metricRegistry)), new RateLimiters(),
+                new ConcurrencyLimiters(new RundeckMetrics(metricRegistry)), null, new RundeckMetrics(metricRegistry),
+                new ExecutionTracker(), new JobDefinitionCache(), new ApiTokens());
+    }
+}
@@ -0,0 +1,214 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Ticker;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryInterceptorTest {
+    private MockWebServer mockWebServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void retriesServerErrors() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(500));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+
+        final Response response = execute(client(3, new CircuitBreaker(0, 30L, TimeUnit.SECONDS)));
+
+        assertEquals(200, response.code());
+        assertEquals(3, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    public void retriesIOErrors() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+
+        final Response response = execute(client(1, new CircuitBreaker(0, 30L, TimeUnit.SECONDS)));
+
+        assertEquals(200, response.code());
+        assertEquals(2, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(404));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+
+        final Response response = execute(client(3, new CircuitBreaker(0, 30L, TimeUnit.SECONDS)));
+
+        assertEquals(404, response.code());
+        assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    public void returnsLastResponseWhenRetriesAreExhausted() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(500));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(502));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+
+        final Response response = execute(client(1, new CircuitBreaker(0, 30L, TimeUnit.SECONDS)));
+
+        assertEquals(502, response.code());
+        assertEquals(2, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    public void honorsRetryAfter() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(429).addHeader("Retry-After", "1"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+
+        final long start = System.nanoTime();
+        final Response response = execute(client(1, new CircuitBreaker(0, 30L, TimeUnit.SECONDS), 10000L));
+
+        assertEquals(200, response.code());
+        assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1L));
+    }
+
+    @Test
+    public void doesNotRetryIfRetryAfterExceedsMaxBackoff() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(503).addHeader("Retry-After", "120"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+
+        final Response response = execute(client(3, new CircuitBreaker(0, 30L, TimeUnit.SECONDS)));
+
+        assertEquals(503, response.code());
+        assertEquals(1, mockWebServer.getRequestCount());
+    }
+
+    @Test
+    public void openCircuitBreakerFailsFast() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+
+        final OkHttpClient client = client(5, new CircuitBreaker(2, 30L, TimeUnit.SECONDS));
+        try {
+            execute(client);
+            fail("Expected CircuitBreakerOpenException");
+        } catch (RetryInterceptor.CircuitBreakerOpenException e) {
+            assertEquals(2, mockWebServer.getRequestCount());
+        }
+
+        try {
+            execute(client);
+            fail("Expected CircuitBreakerOpenException");
+        } catch (RetryInterceptor.CircuitBreakerOpenException e) {
+            assertEquals(2, mockWebServer.getRequestCount());
+        }
+    }
+
+    @Test
+    public void doesNotRetryAfterCallDeadline() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(503).addHeader("Retry-After", "1"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+
+        final OkHttpClient client = new OkHttpClient().newBuilder()
+                .addInterceptor(new RetryInterceptor(3, 1L, 10000L, new CircuitBreaker(0, 30L, TimeUnit.SECONDS), 500L))
+                .build();
+        final long start = System.nanoTime();
+        final Response response = execute(client);
+
+        assertEquals(503, response.code());
+        assertEquals(1, mockWebServer.getRequestCount());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1L));
+    }
+
+    @Test
+    public void cancelledCallLeavesCircuitBreakerClosed() throws Exception {
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 30L, TimeUnit.SECONDS);
+        final AtomicReference<Call> call = new AtomicReference<>();
+        final AtomicInteger attempts = new AtomicInteger();
+        // OkHttp fails a call which is cancelled while it's being sent with an IOException
+        final OkHttpClient client = new OkHttpClient().newBuilder()
+                .addInterceptor(new RetryInterceptor(3, 1L, 10L, circuitBreaker))
+                .addInterceptor(chain -> {
+                    attempts.incrementAndGet();
+                    CallCancellation.cancel(call.get());
+                    throw new IOException("Canceled");
+                })
+                .build();
+        call.set(CallCancellation.newCall(client, new Request.Builder().get().url(mockWebServer.url("/")).build()));
+
+        try {
+            call.get().execute();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals(1, attempts.get());
+            assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.state());
+        }
+    }
+
+    @Test
+    public void unexpectedExceptionCompletesProbe() throws Exception {
+        final AtomicLong nanos = new AtomicLong();
+        final CircuitBreaker circuitBreaker = new CircuitBreaker(1, 30L, TimeUnit.SECONDS, new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        });
+        circuitBreaker.onFailure();
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30L));
+        final OkHttpClient client = new OkHttpClient().newBuilder()
+                .addInterceptor(new RetryInterceptor(3, 1L, 10L, circuitBreaker))
+                .addInterceptor(chain -> {
+                    throw new IllegalStateException("Broken interceptor");
+                })
+                .build();
+
+        try {
+            execute(client);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.state());
+        }
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30L));
+        assertTrue(circuitBreaker.tryAcquire());
+    }
+
+    private OkHttpClient client(int maxRetries, CircuitBreaker circuitBreaker) {
+        return client(maxRetries, circuitBreaker, 10L);
+    }
+
+    private OkHttpClient client(int maxRetries, CircuitBreaker circuitBreaker, long maxBackoffMillis) {
+        return new OkHttpClient().newBuilder()
+                .addInterceptor(new RetryInterceptor(maxRetries, 1L, maxBackoffMillis, circuitBreaker))
+                .build();
+    }
+
+    private Response execute(OkHttpClient client) throws Exception {
+        final Response response = client.newCall(new Request.Builder().get().url(mockWebServer.url("/")).build()).execute();
+        response.body().close();
+        return response;
+    }
+}
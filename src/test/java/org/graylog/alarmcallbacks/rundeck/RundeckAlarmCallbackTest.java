@@ -1,16 +1,21 @@
 package org.graylog.alarmcallbacks.rundeck;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.graylog2.alerts.AbstractAlertCondition;
 import org.graylog2.alerts.types.DummyAlertCondition;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
 import org.graylog2.plugin.alarms.AlertCondition;
 import org.graylog2.plugin.alarms.callbacks.AlarmCallbackConfigurationException;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationException;
 import org.graylog2.plugin.streams.Stream;
@@ -19,17 +24,37 @@ import org.joda.time.DateTimeZone;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.hasItems;
+import static org.hamcrest.CoreMatchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 
 public class RundeckAlarmCallbackTest {
@@ -43,6 +68,9 @@ public class RundeckAlarmCallbackTest {
             .put("exclude_precedence", true)
             .build();
 
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private final OkHttpClient okHttpClient = new OkHttpClient();
 
     private RundeckAlarmCallback alarmCallback;
@@ -112,6 +140,450 @@ public class RundeckAlarmCallbackTest {
         mockWebServer.shutdown();
     }
 
+    @Test
+    public void callRetriesWithRotatedApiToken() throws Exception {
+        final Path tokenFile = temporaryFolder.newFile("rundeck.token").toPath();
+        Files.write(tokenFile, "old_api_token\n".getBytes(StandardCharsets.UTF_8));
+        final List<String> sentTokens = new CopyOnWriteArrayList<>();
+        final MockWebServer mockWebServer = new MockWebServer();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                final String token = request.getHeader("X-Rundeck-Auth-Token");
+                sentTokens.add(token);
+                if ("new_api_token".equals(token)) {
+                    return new MockResponse().setResponseCode(200);
+                }
+                // the token is rotated after the request has been built with the old one
+                try {
+                    Files.write(tokenFile, "new_api_token".getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return new MockResponse().setResponseCode(401);
+            }
+        });
+        mockWebServer.start();
+
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", mockWebServer.url("/").toString());
+        configSource.put("api_token", "file:" + tokenFile);
+        alarmCallback = new RundeckAlarmCallback(new RundeckDispatchEngine(okHttpClient, new MetricRegistry(),
+                new InMemoryIdempotencyStore(), new ApiTokens(System::getenv, tokenFile.getParent(), null)));
+        alarmCallback.initialize(new Configuration(configSource));
+        alarmCallback.checkConfiguration();
+
+        final Stream stream = mock(Stream.class);
+        alarmCallback.call(stream, checkResult(stream));
+
+        assertEquals(Arrays.asList("old_api_token", "new_api_token"), sentTokens);
+
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void callSendsJsonBodyWithNewerApiVersion() throws Exception {
+        final MockWebServer mockWebServer = new MockWebServer();
+        mockWebServer.enqueue(new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .setBody("{\"id\":42,\"href\":\"http://rundeck.example.com/api/18/execution/42\",\"status\":\"running\"}"));
+        mockWebServer.start();
+
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", mockWebServer.url("/").toString());
+        configSource.put("args", "test:arg");
+        configSource.put("filter_include", "tags:linux");
+        configSource.put("filter_exclude", "");
+        configSource.put("api_version", 18);
+        final Configuration configuration = new Configuration(configSource);
+
+        alarmCallback.initialize(configuration);
+        alarmCallback.checkConfiguration();
+        final Stream mockStream = mock(Stream.class);
+        alarmCallback.call(mockStream, checkResult(mockStream));
+
+        final RecordedRequest recordedRequest = mockWebServer.takeRequest(10, TimeUnit.SECONDS);
+        assertEquals("POST /api/18/job/test-job-id/executions HTTP/1.1", recordedRequest.getRequestLine());
+        assertEquals("application/json", recordedRequest.getHeader("Accept"));
+        assertEquals("application/json; charset=utf-8", recordedRequest.getHeader("Content-Type"));
+        assertEquals("{\"options\":{\"test\":\"arg\"},\"filter\":\"tags: linux\"}", recordedRequest.getBody().readUtf8());
+
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void callFailsIfResponseExceedsCallTimeout() throws Exception {
+        final MockWebServer mockWebServer = new MockWebServer();
+        // every single byte arrives well within the read timeout, the whole response doesn't
+        mockWebServer.enqueue(new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .setBody("{\"id\":42,\"status\":\"running\"}")
+                .throttleBody(1L, 500L, TimeUnit.MILLISECONDS));
+        mockWebServer.start();
+
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", mockWebServer.url("/").toString());
+        configSource.put("api_version", 18);
+        configSource.put("max_retries", 0);
+        configSource.put("call_timeout", 1000);
+        alarmCallback.initialize(new Configuration(configSource));
+
+        final Stream mockStream = mock(Stream.class);
+        final long start = System.nanoTime();
+        try {
+            alarmCallback.call(mockStream, checkResult(mockStream));
+            fail("Expected AlarmCallbackException");
+        } catch (AlarmCallbackException e) {
+            assertEquals("Rundeck job test-job-id was not triggered within 1000 ms", e.getMessage());
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3L));
+
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void callFailsIfResponseExceedsReadTimeout() throws Exception {
+        final MockWebServer mockWebServer = new MockWebServer();
+        mockWebServer.enqueue(new MockResponse()
+                .addHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON)
+                .setBody("{\"id\":42,\"status\":\"running\"}")
+                .setBodyDelay(5L, TimeUnit.SECONDS));
+        mockWebServer.start();
+
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", mockWebServer.url("/").toString());
+        configSource.put("api_version", 18);
+        configSource.put("max_retries", 0);
+        configSource.put("read_timeout", 500);
+        configSource.put("call_timeout", 0);
+        alarmCallback.initialize(new Configuration(configSource));
+
+        final Stream mockStream = mock(Stream.class);
+        final long start = System.nanoTime();
+        try {
+            alarmCallback.call(mockStream, checkResult(mockStream));
+            fail("Expected AlarmCallbackException");
+        } catch (AlarmCallbackException e) {
+            assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3L));
+
+        mockWebServer.shutdown();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void checkConfigurationFailsIfCallTimeoutIsNegative()
+            throws AlarmCallbackConfigurationException, ConfigurationException {
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("call_timeout", -1);
+
+        alarmCallback.initialize(new Configuration(configSource));
+        alarmCallback.checkConfiguration();
+    }
+
+    @Test
+    public void callHedgesSlowRequest() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final MockWebServer primaryServer = new MockWebServer();
+        primaryServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                release.await(10L, TimeUnit.SECONDS);
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+        primaryServer.start();
+        final MockWebServer hedgeServer = new MockWebServer();
+        hedgeServer.enqueue(new MockResponse().setResponseCode(200));
+        hedgeServer.start();
+
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", primaryServer.url("/").toString());
+        configSource.put("hedge_url", hedgeServer.url("/").toString());
+        configSource.put("hedge_min_delay", 100);
+        alarmCallback.initialize(new Configuration(configSource));
+        alarmCallback.checkConfiguration();
+
+        final Stream mockStream = mock(Stream.class);
+        final long start = System.nanoTime();
+        try {
+            alarmCallback.call(mockStream, checkResult(mockStream));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5L));
+        } finally {
+            release.countDown();
+        }
+
+        final RecordedRequest recordedRequest = hedgeServer.takeRequest(10, TimeUnit.SECONDS);
+        assertEquals("POST /api/12/job/test-job-id/executions HTTP/1.1", recordedRequest.getRequestLine());
+        assertEquals(1, primaryServer.getRequestCount());
+
+        primaryServer.shutdown();
+        hedgeServer.shutdown();
+    }
+
+    @Test
+    public void callDoesNotHedgeFastRequest() throws Exception {
+        final MockWebServer primaryServer = new MockWebServer();
+        primaryServer.enqueue(new MockResponse().setResponseCode(200));
+        primaryServer.start();
+        final MockWebServer hedgeServer = new MockWebServer();
+        hedgeServer.enqueue(new MockResponse().setResponseCode(200));
+        hedgeServer.start();
+
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", primaryServer.url("/").toString());
+        configSource.put("hedge_url", hedgeServer.url("/").toString());
+        configSource.put("hedge_min_delay", 5000);
+        alarmCallback.initialize(new Configuration(configSource));
+
+        final Stream mockStream = mock(Stream.class);
+        alarmCallback.call(mockStream, checkResult(mockStream));
+
+        assertEquals(1, primaryServer.getRequestCount());
+        assertEquals(0, hedgeServer.getRequestCount());
+
+        primaryServer.shutdown();
+        hedgeServer.shutdown();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void checkConfigurationFailsIfHedgePercentileIsInvalid()
+            throws AlarmCallbackConfigurationException, ConfigurationException {
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("hedge_url", "http://rundeck2.example.com");
+        configSource.put("hedge_percentile", 100);
+
+        alarmCallback.initialize(new Configuration(configSource));
+        alarmCallback.checkConfiguration();
+    }
+
+    @Test
+    public void callLeavesOutOptionsTheJobDoesNotDeclare() throws Exception {
+        final MockWebServer mockWebServer = jobServer(new MockResponse().setBody("<joblist><job><context><options>"
+                + "<option name=\"test\" required=\"true\"/></options></context></job></joblist>"));
+
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", mockWebServer.url("/").toString());
+        configSource.put("args", "test:arg&unknown:value");
+        configSource.put("filter_include", "");
+        configSource.put("filter_exclude", "");
+        configSource.put("job_definition_ttl", 300);
+        alarmCallback.initialize(new Configuration(configSource));
+        alarmCallback.checkConfiguration();
+
+        final Stream mockStream = mock(Stream.class);
+        alarmCallback.call(mockStream, checkResult(mockStream));
+
+        final RecordedRequest definitionRequest = mockWebServer.takeRequest(10, TimeUnit.SECONDS);
+        assertEquals("GET /api/12/job/test-job-id?format=xml HTTP/1.1", definitionRequest.getRequestLine());
+        final RecordedRequest executionRequest = mockWebServer.takeRequest(10, TimeUnit.SECONDS);
+        assertEquals("POST /api/12/job/test-job-id/executions?argString=-test%20%27arg%27%20 HTTP/1.1",
+                executionRequest.getRequestLine());
+
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void callFailsFastIfRequiredOptionIsMissing() throws Exception {
+        final MockWebServer mockWebServer = jobServer(new MockResponse().setBody("<joblist><job><context><options>"
+                + "<option name=\"host\" required=\"true\"/></options></context></job></joblist>"));
+
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", mockWebServer.url("/").toString());
+        configSource.put("job_definition_ttl", 300);
+        alarmCallback.initialize(new Configuration(configSource));
+        try {
+            alarmCallback.checkConfiguration();
+            fail("Expected ConfigurationException");
+        } catch (ConfigurationException e) {
+            assertEquals("Rundeck job test-job-id requires the options [host].", e.getMessage());
+        }
+
+        final Stream mockStream = mock(Stream.class);
+        try {
+            alarmCallback.call(mockStream, checkResult(mockStream));
+            fail("Expected AlarmCallbackException");
+        } catch (AlarmCallbackException e) {
+            assertEquals("Rundeck job test-job-id requires the options [host]", e.getMessage());
+        }
+        assertEquals(1, mockWebServer.getRequestCount());
+
+        mockWebServer.shutdown();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void checkConfigurationFailsIfJobDoesNotExist() throws Exception {
+        final MockWebServer mockWebServer = jobServer(new MockResponse().setResponseCode(404));
+        try {
+            final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+            configSource.put("rundeck_url", mockWebServer.url("/").toString());
+            configSource.put("job_definition_ttl", 300);
+            alarmCallback.initialize(new Configuration(configSource));
+            alarmCallback.checkConfiguration();
+        } finally {
+            mockWebServer.shutdown();
+        }
+    }
+
+    /**
+     * Starts a server which responds to job definition requests with the given response, and accepts every job
+     * execution.
+     */
+    private static MockWebServer jobServer(MockResponse definitionResponse) throws IOException {
+        final MockWebServer mockWebServer = new MockWebServer();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return "GET".equals(request.getMethod()) ? definitionResponse : new MockResponse().setResponseCode(200);
+            }
+        });
+        mockWebServer.start();
+        return mockWebServer;
+    }
+
+    @Test
+    public void callSkipsDuplicateAlertAndPassesIdempotencyKey() throws Exception {
+        final MockWebServer mockWebServer = new MockWebServer();
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+        mockWebServer.start();
+
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", mockWebServer.url("/").toString());
+        configSource.put("args", "test:arg");
+        configSource.put("filter_include", "");
+        configSource.put("filter_exclude", "");
+        configSource.put("api_version", 18);
+        configSource.put("idempotency_key_arg", "idempotency_key");
+        alarmCallback.initialize(new Configuration(configSource));
+        alarmCallback.checkConfiguration();
+
+        final Stream mockStream = mock(Stream.class);
+        final DummyAlertCondition alertCondition = new DummyAlertCondition(mockStream, "id",
+                new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC), "user", Collections.emptyMap());
+        final AlertCondition.CheckResult checkResult = new AbstractAlertCondition.CheckResult(true, alertCondition, "Test",
+                new DateTime(2017, 3, 20, 0, 5, DateTimeZone.UTC), Collections.emptyList());
+        alarmCallback.call(mockStream, checkResult);
+        alarmCallback.call(mockStream, checkResult);
+
+        final RecordedRequest recordedRequest = mockWebServer.takeRequest(10, TimeUnit.SECONDS);
+        assertTrue(recordedRequest.getBody().readUtf8().matches("\\{\"options\":\\{\"test\":\"arg\",\"idempotency_key\":\"[0-9a-f]{64}\"}}"));
+        assertEquals(1, mockWebServer.getRequestCount());
+
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void callSendsAlertAgainAfterRateLimitDroppedIt() throws Exception {
+        final MockWebServer mockWebServer = new MockWebServer();
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+        mockWebServer.start();
+
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", mockWebServer.url("/").toString());
+        configSource.put("rate_limit", 600);
+        configSource.put("rate_limit_burst", 1);
+        configSource.put("rate_limit_policy", "drop");
+        alarmCallback.initialize(new Configuration(configSource));
+        alarmCallback.checkConfiguration();
+
+        final Stream mockStream = mock(Stream.class);
+        final DummyAlertCondition alertCondition = new DummyAlertCondition(mockStream, "id",
+                new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC), "user", Collections.emptyMap());
+        final AlertCondition.CheckResult first = new AbstractAlertCondition.CheckResult(true, alertCondition, "Test",
+                new DateTime(2017, 3, 20, 0, 5, DateTimeZone.UTC), Collections.emptyList());
+        final AlertCondition.CheckResult second = new AbstractAlertCondition.CheckResult(true, alertCondition, "Test",
+                new DateTime(2017, 3, 20, 0, 6, DateTimeZone.UTC), Collections.emptyList());
+        alarmCallback.call(mockStream, first);
+        // dropped by the rate limit, so its idempotency key must not stay claimed
+        alarmCallback.call(mockStream, second);
+        assertEquals(1, mockWebServer.getRequestCount());
+
+        Thread.sleep(200L);
+        alarmCallback.call(mockStream, second);
+        assertEquals(2, mockWebServer.getRequestCount());
+
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void callOnlyTriggersJobIfMessageMatchesTriggerCondition() throws Exception {
+        final MockWebServer mockWebServer = new MockWebServer();
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+        mockWebServer.start();
+
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", mockWebServer.url("/").toString());
+        configSource.put("trigger_condition", "level <= 3 && source ~ \"db-*\"");
+        alarmCallback.initialize(new Configuration(configSource));
+        alarmCallback.checkConfiguration();
+
+        final Stream mockStream = mock(Stream.class);
+        alarmCallback.call(mockStream, checkResult(mockStream, message("web-01", 2), message("db-01", 6)));
+        assertEquals(0, mockWebServer.getRequestCount());
+
+        alarmCallback.call(mockStream, checkResult(mockStream, message("web-01", 6), message("db-01", 2)));
+        assertEquals("POST", mockWebServer.takeRequest(10, TimeUnit.SECONDS).getMethod());
+
+        mockWebServer.shutdown();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void checkConfigurationFailsIfTriggerConditionIsInvalid()
+            throws AlarmCallbackConfigurationException, ConfigurationException {
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("trigger_condition", "level <= high");
+
+        alarmCallback.initialize(new Configuration(configSource));
+        alarmCallback.checkConfiguration();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void checkConfigurationFailsIfApiVersionIsTooOld()
+            throws AlarmCallbackConfigurationException, ConfigurationException {
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("api_version", 11);
+        final Configuration configuration = new Configuration(configSource);
+
+        alarmCallback.initialize(configuration);
+        alarmCallback.checkConfiguration();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void checkConfigurationFailsIfIncludePrecedenceIsUsedWithNewerApiVersion()
+            throws AlarmCallbackConfigurationException, ConfigurationException {
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("api_version", 18);
+        configSource.put("exclude_precedence", false);
+        final Configuration configuration = new Configuration(configSource);
+
+        alarmCallback.initialize(configuration);
+        alarmCallback.checkConfiguration();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void checkConfigurationFailsIfPriorityIsInvalid()
+            throws AlarmCallbackConfigurationException, ConfigurationException {
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("priority", "urgent");
+        final Configuration configuration = new Configuration(configSource);
+
+        alarmCallback.initialize(configuration);
+        alarmCallback.checkConfiguration();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void checkConfigurationFailsIfArgumentTemplateIsInvalid()
+            throws AlarmCallbackConfigurationException, ConfigurationException {
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("arg_templates", "host=${source|upper}");
+        final Configuration configuration = new Configuration(configSource);
+
+        alarmCallback.initialize(configuration);
+        alarmCallback.checkConfiguration();
+    }
+
     @Test(expected = ConfigurationException.class)
     public void checkConfigurationFailsIfJobIdIsMissing()
             throws AlarmCallbackConfigurationException, ConfigurationException {
@@ -126,6 +598,30 @@ public class RundeckAlarmCallbackTest {
         alarmCallback.checkConfiguration();
     }
 
+    @Test
+    public void checkConfigurationFailsIfApiTokenCantBeResolved()
+            throws AlarmCallbackConfigurationException {
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("api_token", "file:" + temporaryFolder.getRoot().toPath().resolve("missing.token"));
+
+        alarmCallback.initialize(new Configuration(configSource));
+        try {
+            alarmCallback.checkConfiguration();
+            fail("Expected ConfigurationException");
+        } catch (ConfigurationException e) {
+            assertThat(e.getMessage(), startsWith("api_token couldn't be resolved"));
+        }
+    }
+
+    @Test
+    public void getAttributesMasksApiTokenReference() throws AlarmCallbackConfigurationException {
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("api_token", "env:RUNDECK_API_TOKEN");
+        alarmCallback.initialize(new Configuration(configSource));
+
+        assertThat((String) alarmCallback.getAttributes().get("api_token"), equalTo("****"));
+    }
+
     @Test(expected = ConfigurationException.class)
     public void checkConfigurationFailsIfArgsContainsInvalidCharacters()
             throws AlarmCallbackConfigurationException, ConfigurationException {
@@ -191,11 +687,271 @@ public class RundeckAlarmCallbackTest {
         alarmCallback.checkConfiguration();
     }
 
+    @Test
+    public void testCallSucceedsInAsynchronousMode() throws Exception {
+        final MockWebServer mockWebServer = new MockWebServer();
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+        mockWebServer.start();
+
+        final Stream mockStream = mock(Stream.class);
+        final AlertCondition.CheckResult checkResult = new AbstractAlertCondition.NegativeCheckResult(
+                new DummyAlertCondition(
+                        mockStream,
+                        "id",
+                        new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC),
+                        "user",
+                        Collections.emptyMap())
+        );
+
+        final Configuration configuration = new Configuration(VALID_CONFIG_SOURCE);
+        configuration.setString("rundeck_url", mockWebServer.url("/").toString());
+        configuration.setString("dispatch_mode", "async");
+
+        alarmCallback.initialize(configuration);
+        alarmCallback.checkConfiguration();
+        alarmCallback.call(mockStream, checkResult);
+
+        final RecordedRequest recordedRequest = mockWebServer.takeRequest(10, TimeUnit.SECONDS);
+        assertEquals("POST /api/12/job/test-job-id/executions HTTP/1.1", recordedRequest.getRequestLine());
+
+        mockWebServer.shutdown();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void checkConfigurationFailsIfOverflowPolicyIsInvalid()
+            throws AlarmCallbackConfigurationException, ConfigurationException {
+        final Configuration configuration = new Configuration(VALID_CONFIG_SOURCE);
+        configuration.setString("overflow_policy", "invalid");
+
+        alarmCallback.initialize(configuration);
+        alarmCallback.checkConfiguration();
+    }
+
+    @Test
+    public void testCallIsRateLimitedAcrossThreads() throws Exception {
+        final AtomicInteger receivedRequests = new AtomicInteger();
+        final MockWebServer mockWebServer = new MockWebServer();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                receivedRequests.incrementAndGet();
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+        mockWebServer.start();
+
+        final Stream mockStream = mock(Stream.class);
+        final AlertCondition.CheckResult checkResult = new AbstractAlertCondition.NegativeCheckResult(
+                new DummyAlertCondition(
+                        mockStream,
+                        "id",
+                        new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC),
+                        "user",
+                        Collections.emptyMap())
+        );
+
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", mockWebServer.url("/").toString());
+        configSource.put("rate_limit", 600);
+        configSource.put("rate_limit_burst", 5);
+        configSource.put("rate_limit_policy", "drop");
+        alarmCallback.initialize(new Configuration(configSource));
+        alarmCallback.checkConfiguration();
+
+        final long durationNanos = TimeUnit.SECONDS.toNanos(2L);
+        final ExecutorService executorService = Executors.newFixedThreadPool(16);
+        final long start = System.nanoTime();
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            futures.add(executorService.submit(() -> {
+                while (System.nanoTime() - start < durationNanos) {
+                    alarmCallback.call(mockStream, checkResult);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30L, TimeUnit.SECONDS);
+        }
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        executorService.shutdown();
+        mockWebServer.shutdown();
+
+        // 10 executions per second plus a burst of 5
+        final long maxRequests = 5L + (elapsedMillis / 100L) + 1L;
+        assertTrue("Expected at most " + maxRequests + " requests but got " + receivedRequests.get(),
+                receivedRequests.get() <= maxRequests);
+        assertTrue("Expected at least 20 requests but got " + receivedRequests.get(), receivedRequests.get() >= 20);
+    }
+
+    @Test
+    public void testCallTriggersAllTargets() throws Exception {
+        final MockWebServer primaryServer = new MockWebServer();
+        primaryServer.enqueue(new MockResponse().setResponseCode(200));
+        primaryServer.enqueue(new MockResponse().setResponseCode(200));
+        primaryServer.start();
+        final MockWebServer secondaryServer = new MockWebServer();
+        secondaryServer.enqueue(new MockResponse().setResponseCode(200));
+        secondaryServer.start();
+
+        final Stream mockStream = mock(Stream.class);
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", primaryServer.url("/").toString());
+        configSource.put("additional_targets", "other-job, remote-job@" + secondaryServer.url("/"));
+        alarmCallback.initialize(new Configuration(configSource));
+        alarmCallback.checkConfiguration();
+        alarmCallback.call(mockStream, checkResult(mockStream));
+
+        assertEquals(2, primaryServer.getRequestCount());
+        assertEquals(1, secondaryServer.getRequestCount());
+        final List<String> primaryRequestPaths = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            final String path = primaryServer.takeRequest().getPath();
+            primaryRequestPaths.add(path.substring(0, path.indexOf('?')));
+        }
+        assertThat(primaryRequestPaths, hasItems(
+                "/api/12/job/test-job-id/executions",
+                "/api/12/job/other-job/executions"));
+        assertThat(secondaryServer.takeRequest().getPath(), startsWith("/api/12/job/remote-job/executions"));
+
+        primaryServer.shutdown();
+        secondaryServer.shutdown();
+    }
+
+    @Test
+    public void testCallFailsIfOneTargetFailsInAllMode() throws Exception {
+        final MockWebServer primaryServer = new MockWebServer();
+        primaryServer.enqueue(new MockResponse().setResponseCode(200));
+        primaryServer.start();
+        final MockWebServer secondaryServer = new MockWebServer();
+        secondaryServer.enqueue(new MockResponse().setResponseCode(500));
+        secondaryServer.start();
+
+        final Stream mockStream = mock(Stream.class);
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", primaryServer.url("/").toString());
+        configSource.put("additional_targets", "remote-job@" + secondaryServer.url("/"));
+        configSource.put("max_retries", 0);
+        alarmCallback.initialize(new Configuration(configSource));
+
+        try {
+            alarmCallback.call(mockStream, checkResult(mockStream));
+            fail("Expected AlarmCallbackException");
+        } catch (AlarmCallbackException e) {
+            assertEquals("Failed to trigger 1 of 2 Rundeck jobs", e.getMessage());
+        }
+
+        primaryServer.shutdown();
+        secondaryServer.shutdown();
+    }
+
+    @Test
+    public void testCallSucceedsIfOneTargetSucceedsInAnyMode() throws Exception {
+        final MockWebServer primaryServer = new MockWebServer();
+        primaryServer.enqueue(new MockResponse().setResponseCode(200));
+        primaryServer.start();
+        final MockWebServer secondaryServer = new MockWebServer();
+        secondaryServer.enqueue(new MockResponse().setResponseCode(500));
+        secondaryServer.start();
+
+        final Stream mockStream = mock(Stream.class);
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", primaryServer.url("/").toString());
+        configSource.put("additional_targets", "remote-job@" + secondaryServer.url("/"));
+        configSource.put("max_retries", 0);
+        configSource.put("fan_out_mode", "any");
+        alarmCallback.initialize(new Configuration(configSource));
+        alarmCallback.checkConfiguration();
+        alarmCallback.call(mockStream, checkResult(mockStream));
+
+        assertEquals(1, primaryServer.getRequestCount());
+
+        primaryServer.shutdown();
+        secondaryServer.shutdown();
+    }
+
+    @Test
+    public void testCallFailsIfTargetsExceedFanOutTimeout() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final MockWebServer primaryServer = new MockWebServer();
+        primaryServer.enqueue(new MockResponse().setResponseCode(200));
+        primaryServer.start();
+        final MockWebServer secondaryServer = new MockWebServer();
+        secondaryServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                release.await(10L, TimeUnit.SECONDS);
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+        secondaryServer.start();
+
+        final Stream mockStream = mock(Stream.class);
+        final Map<String, Object> configSource = new HashMap<>(VALID_CONFIG_SOURCE);
+        configSource.put("rundeck_url", primaryServer.url("/").toString());
+        configSource.put("additional_targets", "remote-job@" + secondaryServer.url("/"));
+        configSource.put("max_retries", 0);
+        configSource.put("fan_out_timeout", 1);
+        alarmCallback.initialize(new Configuration(configSource));
+
+        final long start = System.nanoTime();
+        try {
+            alarmCallback.call(mockStream, checkResult(mockStream));
+            fail("Expected AlarmCallbackException");
+        } catch (AlarmCallbackException e) {
+            assertEquals("Rundeck jobs were not triggered within 1000 ms", e.getMessage());
+        } finally {
+            release.countDown();
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5L));
+
+        primaryServer.shutdown();
+        secondaryServer.shutdown();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void checkConfigurationFailsIfAdditionalTargetUrlIsInvalid()
+            throws AlarmCallbackConfigurationException, ConfigurationException {
+        final Configuration configuration = new Configuration(VALID_CONFIG_SOURCE);
+        configuration.setString("additional_targets", "other-job, remote-job@ftp://rundeck.example.com");
+
+        alarmCallback.initialize(configuration);
+        alarmCallback.checkConfiguration();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void checkConfigurationFailsIfAdditionalTargetJobIdIsEmpty()
+            throws AlarmCallbackConfigurationException, ConfigurationException {
+        final Configuration configuration = new Configuration(VALID_CONFIG_SOURCE);
+        configuration.setString("additional_targets", "@http://rundeck.example.com");
+
+        alarmCallback.initialize(configuration);
+        alarmCallback.checkConfiguration();
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void checkConfigurationFailsIfOutboxDirectoryIsRelative()
+            throws AlarmCallbackConfigurationException, ConfigurationException {
+        final Configuration configuration = new Configuration(VALID_CONFIG_SOURCE);
+        configuration.setString("outbox_directory", "relative/outbox");
+
+        alarmCallback.initialize(configuration);
+        alarmCallback.checkConfiguration();
+    }
+
     @Test
     public void testGetRequestedConfiguration() {
         assertThat(alarmCallback.getRequestedConfiguration().asList().keySet(),
                 hasItems("rundeck_url", "job_id", "api_token", "args",
-                        "filter_include", "filter_exclude", "exclude_precedence"));
+                        "filter_include", "filter_exclude", "exclude_precedence",
+                        "dispatch_mode", "max_in_flight", "max_pending", "overflow_policy",
+                        "additional_targets", "fan_out_mode", "fan_out_timeout",
+                        "field_aggregation", "aggregation_top_k", "max_arg_length", "outbox_directory",
+                        "api_version", "execution_timeout",
+                        "max_field_length", "arg_templates", "priority", "priority_field",
+                        "idempotency_window", "idempotency_key_arg", "connect_timeout", "read_timeout",
+                        "write_timeout", "call_timeout", "hedge_url", "hedge_percentile", "hedge_min_delay",
+                        "job_definition_ttl", "adaptive_concurrency", "trigger_condition"));
     }
 
     @Test
@@ -203,6 +959,30 @@ public class RundeckAlarmCallbackTest {
         assertThat(alarmCallback.getName(), equalTo("Rundeck alarm callback"));
     }
 
+    private static AlertCondition.CheckResult checkResult(Stream stream) {
+        return new AbstractAlertCondition.NegativeCheckResult(
+                new DummyAlertCondition(
+                        stream,
+                        "id",
+                        new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC),
+                        "user",
+                        Collections.emptyMap())
+        );
+    }
+
+    private static AlertCondition.CheckResult checkResult(Stream stream, MessageSummary... messages) {
+        final DummyAlertCondition alertCondition = new DummyAlertCondition(stream, "id",
+                new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC), "user", Collections.emptyMap());
+        return new AbstractAlertCondition.CheckResult(true, alertCondition, "Test",
+                new DateTime(2017, 3, 20, 0, 5, DateTimeZone.UTC), Arrays.asList(messages));
+    }
+
+    private static MessageSummary message(String source, int level) {
+        final Message message = new Message("Test message", source, new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC));
+        message.addField("level", level);
+        return new MessageSummary("graylog_0", message);
+    }
+
     private Configuration validConfigurationWithout(final String key) {
         return new Configuration(Maps.filterEntries(VALID_CONFIG_SOURCE, new Predicate<Map.Entry<String, Object>>() {
             @Override
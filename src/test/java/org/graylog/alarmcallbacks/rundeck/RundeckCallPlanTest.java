@@ -0,0 +1,228 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import okhttp3.HttpUrl;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.configuration.Configuration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class RundeckCallPlanTest {
+    private static final ImmutableMap<String, Object> CONFIG_SOURCE = ImmutableMap.<String, Object>builder()
+            .put("rundeck_url", "http://rundeck.example.com")
+            .put("job_id", "test-job-id")
+            .put("api_token", "test_api_token")
+            .put("args", "foo:bar&invalid&baz:qux")
+            .put("field_args", "source,message,level,missing")
+            .put("filter_include", "name:node01&tags:linux")
+            .put("filter_exclude", "name:node02")
+            .put("exclude_precedence", false)
+            .put("as_user", "alice")
+            .build();
+
+    private final RundeckCallPlan plan = RundeckCallPlan.compile(new Configuration(CONFIG_SOURCE));
+
+    @Test
+    public void compileRendersStaticParts() {
+        assertEquals("test_api_token", plan.apiToken());
+        assertEquals("-foo 'bar' -baz 'qux' ", plan.staticArguments());
+        assertThat(plan.fieldArguments(), hasItems("source", "message", "level", "missing"));
+    }
+
+    @Test
+    public void executionUrlContainsFiltersAndArguments() {
+        final HttpUrl url = plan.executionUrl(plan.argString(null, null));
+
+        assertEquals("/api/12/job/test-job-id/executions", url.encodedPath());
+        assertEquals("node01", url.queryParameter("name"));
+        assertEquals("linux", url.queryParameter("tags"));
+        assertEquals("node02", url.queryParameter("exclude-name"));
+        assertEquals("false", url.queryParameter("exclude-precedence"));
+        assertEquals("-foo 'bar' -baz 'qux' ", url.queryParameter("argString"));
+        assertEquals("alice", url.queryParameter("asUser"));
+    }
+
+    @Test
+    public void argStringContainsMessageFields() {
+        final Message message = new Message("Test message", "example.org", new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC));
+        message.addField("level", 3);
+        message.addField("ignored", "value");
+
+        assertEquals("-source 'example.org' -message 'Test message' -level '3' -foo 'bar' -baz 'qux' ",
+                plan.argString(new MessageSummary("graylog_0", message), null));
+    }
+
+    @Test
+    public void argStringEscapesQuotesAndTruncatesFields() {
+        final Map<String, Object> configSource = new HashMap<>(CONFIG_SOURCE);
+        configSource.put("field_args", "message,source");
+        configSource.put("max_field_length", 12);
+        final RundeckCallPlan truncatingPlan = RundeckCallPlan.compile(new Configuration(configSource));
+        final Message message = new Message("Can't connect to 'db01'", "example.org", new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC));
+
+        assertEquals("-message 'Can''t conne' -source 'example.org' -foo 'bar' -baz 'qux' ",
+                truncatingPlan.argString(new MessageSummary("graylog_0", message), null));
+    }
+
+    @Test
+    public void argStringIsTruncatedToMaxLength() {
+        final Map<String, Object> configSource = new HashMap<>(CONFIG_SOURCE);
+        configSource.put("field_args", "message,source");
+        configSource.put("max_arg_length", 40);
+        final RundeckCallPlan truncatingPlan = RundeckCallPlan.compile(new Configuration(configSource));
+
+        assertEquals("-message 'Test m' -foo 'bar' -baz 'qux' ", truncatingPlan.argString(message("host1", 1), null));
+    }
+
+    @Test
+    public void argStringContainsTemplatedArguments() {
+        final Map<String, Object> configSource = new HashMap<>(CONFIG_SOURCE);
+        configSource.put("field_args", "source");
+        configSource.put("arg_templates", "msg=${message|truncate:4}&sev=${missing|default:3}");
+        final RundeckCallPlan templatedPlan = RundeckCallPlan.compile(new Configuration(configSource));
+
+        assertEquals("-source 'host1' -msg 'Test' -sev '3' -foo 'bar' -baz 'qux' ",
+                templatedPlan.argString(message("host1", 1), null));
+        assertEquals("-msg '' -sev '3' -foo 'bar' -baz 'qux' ", templatedPlan.argString(null, null));
+    }
+
+    @Test
+    public void argStringUsesFirstMessageWithoutAggregation() {
+        final List<MessageSummary> messages = ImmutableList.of(message("host1", 1), message("host2", 2));
+
+        assertEquals("-source 'host1' -message 'Test message' -level '1' -foo 'bar' -baz 'qux' ",
+                plan.argStringFor(messages, null));
+    }
+
+    @Test
+    public void argStringAggregatesAllMessages() {
+        final Map<String, Object> configSource = new HashMap<>(CONFIG_SOURCE);
+        configSource.put("field_args", "source,level");
+        configSource.put("field_aggregation", "aggregate");
+        configSource.put("aggregation_top_k", 2);
+        final RundeckCallPlan aggregatingPlan = RundeckCallPlan.compile(new Configuration(configSource));
+        final List<MessageSummary> messages = ImmutableList.of(
+                message("host1", 1), message("host2", 1), message("host1", 1), message("host3", 2));
+
+        assertEquals("-source 'host1,host2' -source_count '3' -level '1,2' -level_count '2' -foo 'bar' -baz 'qux' ",
+                aggregatingPlan.argStringFor(messages, null));
+    }
+
+    @Test
+    public void restrictedPlanOnlyPassesDeclaredOptions() {
+        final RundeckCallPlan restrictedPlan = plan.restrictTo(ImmutableSet.of("source", "level", "baz"));
+        final Message message = new Message("Test message", "example.org", new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC));
+        message.addField("level", 3);
+        final List<MessageSummary> messages = ImmutableList.of(new MessageSummary("graylog_0", message));
+
+        assertEquals("-source 'example.org' -level '3' -baz 'qux' ", restrictedPlan.argStringFor(messages, null));
+        assertEquals(ImmutableMap.of("source", "example.org", "level", "3", "baz", "qux"), restrictedPlan.options(messages, null));
+        assertEquals(ImmutableSet.of("source", "level", "baz"), restrictedPlan.optionNames());
+        assertEquals("http://rundeck.example.com/api/12/job/test-job-id?format=xml", restrictedPlan.definitionUrl().toString());
+    }
+
+    @Test
+    public void restrictedPlanOnlyPassesDeclaredCounts() {
+        final Map<String, Object> configSource = new HashMap<>(CONFIG_SOURCE);
+        configSource.put("field_args", "source,level");
+        configSource.put("field_aggregation", "aggregate");
+        final RundeckCallPlan restrictedPlan = RundeckCallPlan.compile(new Configuration(configSource))
+                .restrictTo(ImmutableSet.of("source", "level", "level_count"));
+        final List<MessageSummary> messages = ImmutableList.of(message("host1", 1), message("host2", 2));
+
+        assertEquals("-source 'host1,host2' -level '1,2' -level_count '2' ", restrictedPlan.argStringFor(messages, null));
+    }
+
+    @Test
+    public void aggregatedArgStringIsTruncatedToMaxLength() {
+        final Map<String, Object> configSource = new HashMap<>(CONFIG_SOURCE);
+        configSource.put("field_args", "source,level");
+        configSource.put("field_aggregation", "aggregate");
+        configSource.put("max_arg_length", 64);
+        final RundeckCallPlan aggregatingPlan = RundeckCallPlan.compile(new Configuration(configSource));
+        final List<MessageSummary> messages = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            messages.add(message("host" + i, i));
+        }
+
+        final String argString = aggregatingPlan.argStringFor(messages, null);
+        assertTrue(argString, argString.length() <= 64);
+        assertEquals("-source 'host0,host1' -source_count '50' -foo 'bar' -baz 'qux' ", argString);
+    }
+
+    @Test
+    public void executionUrlOmitsEmptyArguments() {
+        final RundeckCallPlan emptyPlan = RundeckCallPlan.compile(new Configuration(ImmutableMap.<String, Object>of(
+                "rundeck_url", "http://rundeck.example.com",
+                "job_id", "test-job-id",
+                "exclude_precedence", true)));
+        final HttpUrl url = emptyPlan.executionUrl(emptyPlan.argString(null, null));
+
+        assertEquals("http://rundeck.example.com/api/12/job/test-job-id/executions", url.toString());
+        assertNull(url.query());
+    }
+
+    @Test
+    public void jsonApiPassesFiltersAndArgumentsInBody() {
+        final Map<String, Object> configSource = new HashMap<>(CONFIG_SOURCE);
+        configSource.put("api_version", 18);
+        configSource.put("filter_include", "name:node01&os-family:unix&tags:a b");
+        final RundeckCallPlan jsonPlan = RundeckCallPlan.compile(new Configuration(configSource));
+        final HttpUrl url = jsonPlan.executionUrl(jsonPlan.argString(null, null));
+
+        assertTrue(jsonPlan.jsonApi());
+        assertEquals("http://rundeck.example.com/api/18/job/test-job-id/executions", url.toString());
+        assertEquals("name: node01 osFamily: unix tags: \"a b\" !name: node02", jsonPlan.nodeFilter());
+        assertEquals("alice", jsonPlan.asUser());
+    }
+
+    @Test
+    public void optionsContainMessageFieldsAndStaticArguments() {
+        final Map<String, String> options = plan.options(ImmutableList.of(message("host1", 1), message("host2", 2)), null);
+
+        assertEquals(ImmutableList.of("source", "message", "level", "foo", "baz"), ImmutableList.copyOf(options.keySet()));
+        assertEquals("host1", options.get("source"));
+        assertEquals("1", options.get("level"));
+        assertEquals("bar", options.get("foo"));
+    }
+
+    @Test
+    public void optionsAggregateAllMessages() {
+        final Map<String, Object> configSource = new HashMap<>(CONFIG_SOURCE);
+        configSource.put("field_args", "source");
+        configSource.put("field_aggregation", "aggregate");
+        final RundeckCallPlan aggregatingPlan = RundeckCallPlan.compile(new Configuration(configSource));
+        final Map<String, String> options = aggregatingPlan.options(ImmutableList.of(
+                message("host1", 1), message("host2", 1), message("host1", 1)), null);
+
+        assertEquals(ImmutableMap.of("source", "host1,host2", "source_count", "2", "foo", "bar", "baz", "qux"), options);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void executionUrlFailsWithInvalidRundeckUrl() {
+        final RundeckCallPlan invalidPlan = RundeckCallPlan.compile(new Configuration(ImmutableMap.<String, Object>of(
+                "rundeck_url", "Definitely$$Not#A!!URL")));
+        invalidPlan.executionUrl("");
+    }
+
+    private static MessageSummary message(String source, int level) {
+        final Message message = new Message("Test message", source, new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC));
+        message.addField("level", level);
+        return new MessageSummary("graylog_0", message);
+    }
+}
@@ -0,0 +1,87 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import okhttp3.OkHttpClient;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RundeckDispatchEngineTest {
+    private static final String RUNDECK_URL = "http://rundeck.example.com/";
+
+    private final RundeckDispatchEngine engine = new RundeckDispatchEngine(new OkHttpClient(), new MetricRegistry(),
+            new InMemoryIdempotencyStore());
+    private final List<String> fired = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void submitFiresTriggerWithoutCoalescing() throws Exception {
+        engine.submit(null, null, () -> fired.add("1"));
+
+        assertEquals(ImmutableList.of("1"), fired);
+    }
+
+    @Test
+    public void shutdownSendsCoalescedTriggersAndRejectsNewOnes() throws Exception {
+        final TriggerCoalescer.Policy policy = new TriggerCoalescer.Policy(RUNDECK_URL, "job",
+                TriggerCoalescer.Mode.TRAILING, 60000L, ImmutableList.of());
+        engine.startAsync().awaitRunning();
+        engine.submit(policy, null, () -> fired.add("1"));
+        assertTrue(fired.isEmpty());
+
+        engine.stopAsync().awaitTerminated();
+        assertEquals(ImmutableList.of("1"), fired);
+
+        try {
+            engine.submit(null, null, () -> fired.add("2"));
+            fail("Expected AlarmCallbackException");
+        } catch (AlarmCallbackException e) {
+            assertEquals(ImmutableList.of("1"), fired);
+        }
+    }
+
+    @Test
+    public void claimRejectsClaimedKeyUntilReleased() {
+        assertTrue(engine.claim("key", 60L));
+        assertFalse(engine.claim("key", 60L));
+
+        engine.release("key");
+        assertTrue(engine.claim("key", 60L));
+    }
+
+    @Test
+    public void claimLooksUpLocalKeysBeforeSharedStore() {
+        final AtomicInteger lookups = new AtomicInteger();
+        final InMemoryIdempotencyStore store = new InMemoryIdempotencyStore();
+        final RundeckDispatchEngine sharedEngine = new RundeckDispatchEngine(new OkHttpClient(), new MetricRegistry(),
+                new IdempotencyStore() {
+                    @Override
+                    public boolean putIfAbsent(String key, long ttl, TimeUnit unit) {
+                        lookups.incrementAndGet();
+                        return store.putIfAbsent(key, ttl, unit);
+                    }
+
+                    @Override
+                    public void remove(String key) {
+                        store.remove(key);
+                    }
+                });
+
+        assertTrue(sharedEngine.claim("key", 60L));
+        assertFalse(sharedEngine.claim("key", 60L));
+        assertEquals(1, lookups.get());
+
+        sharedEngine.release("key");
+        assertTrue(sharedEngine.claim("key", 60L));
+        assertEquals(2, lookups.get());
+    }
+}
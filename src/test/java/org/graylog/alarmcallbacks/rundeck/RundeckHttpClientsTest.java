@@ -0,0 +1,111 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.codahale.metrics.MetricRegistry;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class RundeckHttpClientsTest {
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final RundeckHttpClients httpClients = new RundeckHttpClients(new OkHttpClient(), new RundeckMetrics(metricRegistry));
+
+    private MockWebServer mockWebServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void forUrlReturnsSameClientForSameEndpoint() {
+        final OkHttpClient client1 = httpClients.forUrl(HttpUrl.parse("http://rundeck.example.com/api/12/job/1/executions"), 5, 300L, 0);
+        final OkHttpClient client2 = httpClients.forUrl(HttpUrl.parse("http://rundeck.example.com/api/12/job/2/executions"), 5, 300L, 0);
+        final OkHttpClient client3 = httpClients.forUrl(HttpUrl.parse("http://rundeck.example.com:4440/api/12/job/1/executions"), 5, 300L, 0);
+        final OkHttpClient client4 = httpClients.forUrl(HttpUrl.parse("http://rundeck.example.com/api/12/job/1/executions"), 10, 300L, 0);
+
+        assertSame(client1, client2);
+        assertNotSame(client1, client3);
+        assertNotSame(client1, client4);
+        assertEquals(3, httpClients.poolStatistics().size());
+    }
+
+    @Test
+    public void clientsOfEndpointShareDedicatedDispatcher() {
+        final HttpUrl url = HttpUrl.parse("http://rundeck.example.com/api/12/job/1/executions");
+        final OkHttpClient client1 = httpClients.forUrl(url, 5, 300L, 0);
+        assertEquals(RundeckHttpClients.MIN_MAX_REQUESTS, client1.dispatcher().getMaxRequestsPerHost());
+
+        final OkHttpClient client2 = httpClients.forUrl(url, 10, 300L, 100);
+        final OkHttpClient client3 = httpClients.forUrl(HttpUrl.parse("http://rundeck.example.com:4440/"), 5, 300L, 0);
+
+        assertNotSame(new OkHttpClient().dispatcher(), client1.dispatcher());
+        assertSame(client1.dispatcher(), client2.dispatcher());
+        assertSame(client1.dispatcher(), httpClients.dispatcher(url));
+        assertNotSame(client1.dispatcher(), client3.dispatcher());
+        assertEquals(100, client1.dispatcher().getMaxRequestsPerHost());
+        assertEquals(100, client1.dispatcher().getMaxRequests());
+        assertEquals(RundeckHttpClients.MIN_MAX_REQUESTS, client3.dispatcher().getMaxRequestsPerHost());
+    }
+
+    @Test
+    public void callbacksOfEndpointShareCircuitBreaker() {
+        final HttpUrl url = HttpUrl.parse("http://rundeck.example.com/api/12/job/1/executions");
+        final Object owner1 = new Object();
+        final Object owner2 = new Object();
+        final Object owner3 = new Object();
+        final CircuitBreaker circuitBreaker = httpClients.circuitBreaker(url);
+        assertEquals(RundeckHttpClients.DEFAULT_FAILURE_THRESHOLD, circuitBreaker.failureThreshold());
+
+        assertSame(circuitBreaker, httpClients.circuitBreaker(url, owner1, 10, 30L));
+        assertSame(circuitBreaker, httpClients.circuitBreaker(HttpUrl.parse("http://rundeck.example.com/"), owner2, 3, 60L));
+        assertSame(circuitBreaker, httpClients.circuitBreaker(url, owner3, 0, 300L));
+        assertNotSame(circuitBreaker, httpClients.circuitBreaker(HttpUrl.parse("http://rundeck.example.com:4440/")));
+        assertEquals(3, circuitBreaker.failureThreshold());
+        assertEquals(60L, circuitBreaker.openDuration(TimeUnit.SECONDS));
+
+        // re-initializing a callback replaces its settings
+        httpClients.circuitBreaker(url, owner2, 20, 10L);
+        assertEquals(10, circuitBreaker.failureThreshold());
+        assertEquals(30L, circuitBreaker.openDuration(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void poolStatisticsContainIdleConnections() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("OK"));
+        final HttpUrl url = mockWebServer.url("/");
+        final OkHttpClient client = httpClients.forUrl(url, 5, 300L, 0);
+
+        final Response response = client.newCall(new Request.Builder().get().url(url).build()).execute();
+        response.body().close();
+
+        final Map<String, RundeckHttpClients.PoolStatistics> statistics = httpClients.poolStatistics();
+        assertEquals(1, statistics.size());
+        final RundeckHttpClients.PoolStatistics poolStatistics = statistics.values().iterator().next();
+        assertEquals(1, poolStatistics.connectionCount());
+        assertEquals(1, poolStatistics.idleConnectionCount());
+        assertEquals(0, poolStatistics.activeConnectionCount());
+
+        final String prefix = RundeckAlarmCallback.class.getName() + ".pool." + url.host() + ":" + url.port() + ".";
+        assertEquals(1, metricRegistry.getGauges().get(prefix + "connections").getValue());
+        assertEquals(1, metricRegistry.getGauges().get(prefix + "idle").getValue());
+    }
+}
@@ -0,0 +1,147 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RundeckMetricsTest {
+    private static final String PREFIX = RundeckAlarmCallback.class.getName() + ".test-job-id.";
+    private static final String RUNDECK_URL = "http://rundeck.example.com/";
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final RundeckMetrics metrics = new RundeckMetrics(metricRegistry);
+    private MockWebServer mockWebServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void interceptorRecordsEveryAttempt() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setResponseCode(503));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+
+        final RundeckMetrics.JobMetrics jobMetrics = metrics.forJob("test-job-id");
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(new RetryInterceptor(1, 1L, 10L, new CircuitBreaker(0, 30L, TimeUnit.SECONDS)))
+                .addInterceptor(jobMetrics.interceptor())
+                .build();
+        client.newCall(new Request.Builder().url(mockWebServer.url("/")).build()).execute().body().close();
+
+        assertEquals(2L, metricRegistry.timer(PREFIX + "request").getCount());
+        assertEquals(1L, metricRegistry.meter(PREFIX + "responses.2xx").getCount());
+        assertEquals(1L, metricRegistry.meter(PREFIX + "responses.5xx").getCount());
+        assertEquals(0L, metricRegistry.meter(PREFIX + "errors").getCount());
+        assertEquals(0, metricRegistry.getGauges().get(PREFIX + "in-flight").getValue());
+    }
+
+    @Test
+    public void interceptorRecordsErrors() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+
+        final OkHttpClient client = new OkHttpClient.Builder()
+                .addInterceptor(metrics.forJob("test-job-id").interceptor())
+                .build();
+        try {
+            client.newCall(new Request.Builder().url(mockWebServer.url("/")).build()).execute();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals(1L, metricRegistry.meter(PREFIX + "errors").getCount());
+            assertEquals(1L, metricRegistry.timer(PREFIX + "request").getCount());
+        }
+    }
+
+    @Test
+    public void recordsCallsAndRequests() throws Exception {
+        final RundeckMetrics.JobMetrics jobMetrics = metrics.forJob("test-job-id");
+        try (Timer.Context ignored = jobMetrics.timeCall()) {
+            jobMetrics.recordRequest(42, 100);
+        }
+        jobMetrics.markRateLimited();
+
+        assertEquals(1L, metricRegistry.timer(PREFIX + "call").getCount());
+        assertEquals(42L, metricRegistry.histogram(PREFIX + "arg-string-length").getSnapshot().getMax());
+        assertEquals(100L, metricRegistry.histogram(PREFIX + "url-length").getSnapshot().getMax());
+        assertEquals(1L, metricRegistry.meter(PREFIX + "rate-limited").getCount());
+    }
+
+    @Test
+    public void jobMetricsAreShared() throws Exception {
+        assertSame(metrics.forJob("test-job-id"), metrics.forJob("test-job-id"));
+
+        final Gauge<?> gauge = metricRegistry.getGauges().get(PREFIX + "in-flight");
+        new RundeckMetrics(metricRegistry).forJob("test-job-id");
+        assertEquals(0, gauge.getValue());
+        assertEquals(0, metricRegistry.getGauges().get(PREFIX + "in-flight").getValue());
+    }
+
+    @Test
+    public void registersConcurrencyLimiterGauges() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new ConcurrencyLimiters(metrics)
+                .forUrl(mockWebServer.url("/"), this, 10);
+        assertTrue(limiter.acquire());
+
+        final String prefix = RundeckAlarmCallback.class.getName() + ".concurrency."
+                + mockWebServer.getHostName() + ":" + mockWebServer.getPort() + ".";
+        assertEquals(AdaptiveConcurrencyLimiter.INITIAL_LIMIT, metricRegistry.getGauges().get(prefix + "limit").getValue());
+        assertEquals(1, metricRegistry.getGauges().get(prefix + "in-flight").getValue());
+        assertEquals(0, metricRegistry.getGauges().get(prefix + "queued").getValue());
+    }
+
+    @Test
+    public void registersGaugesOfEveryDispatcherOfEndpoint() throws Exception {
+        final AsyncJobDispatchers dispatchers = new AsyncJobDispatchers(metrics);
+        final HttpUrl url = mockWebServer.url("/");
+        dispatchers.forUrl(new OkHttpClient(), url, 4, 100, AsyncJobDispatcher.OverflowPolicy.FAIL_FAST);
+        dispatchers.forUrl(new OkHttpClient(), url, 8, 100, AsyncJobDispatcher.OverflowPolicy.BLOCK);
+
+        final String prefix = RundeckAlarmCallback.class.getName() + ".dispatch."
+                + mockWebServer.getHostName() + ":" + mockWebServer.getPort() + ".";
+        assertEquals(0, metricRegistry.getGauges().get(prefix + "4-100-fail_fast.critical.pending").getValue());
+        assertEquals(0, metricRegistry.getGauges().get(prefix + "8-100-block.critical.pending").getValue());
+        assertEquals(0L, metricRegistry.getGauges().get(prefix + "8-100-block.preempted").getValue());
+        dispatchers.shutdown(0L, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void registersCoalescerGauges() throws Exception {
+        final TriggerCoalescer coalescer = new TriggerCoalescer();
+        metrics.registerCoalescer(coalescer);
+        final TriggerCoalescer.Policy policy = new TriggerCoalescer.Policy(RUNDECK_URL, "test-job-id",
+                TriggerCoalescer.Mode.LEADING, 60000L, Collections.emptyList());
+        coalescer.submit(policy, null, () -> {
+        });
+        coalescer.submit(policy, null, () -> {
+        });
+        coalescer.shutdown();
+
+        final String prefix = RundeckAlarmCallback.class.getName() + ".coalescer.";
+        assertEquals(1L, metricRegistry.getGauges().get(prefix + "forwarded").getValue());
+        assertEquals(1L, metricRegistry.getGauges().get(prefix + "suppressed").getValue());
+    }
+}
@@ -0,0 +1,66 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketRateLimiterTest {
+    private final AtomicLong nanos = new AtomicLong(-1234567890L);
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Test
+    public void allowsBurstThenRefillsAtConstantRate() {
+        final TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(10, TimeUnit.SECONDS, 3, ticker);
+
+        assertTrue(rateLimiter.tryAcquire());
+        assertTrue(rateLimiter.tryAcquire());
+        assertTrue(rateLimiter.tryAcquire());
+        assertFalse(rateLimiter.tryAcquire());
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(100L));
+        assertTrue(rateLimiter.tryAcquire());
+        assertFalse(rateLimiter.tryAcquire());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(10L));
+        assertTrue(rateLimiter.tryAcquire());
+        assertTrue(rateLimiter.tryAcquire());
+        assertTrue(rateLimiter.tryAcquire());
+        assertFalse(rateLimiter.tryAcquire());
+    }
+
+    @Test
+    public void reserveReturnsWaitTime() {
+        final TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(10, TimeUnit.SECONDS, 1, ticker);
+        final long interval = TimeUnit.MILLISECONDS.toNanos(100L);
+
+        assertEquals(0L, rateLimiter.reserve(0L));
+        assertEquals(-1L, rateLimiter.reserve(interval - 1L));
+        assertEquals(interval, rateLimiter.reserve(interval));
+        assertEquals(2 * interval, rateLimiter.reserve(TimeUnit.SECONDS.toNanos(1L)));
+    }
+
+    @Test
+    public void appliesChangedLimits() {
+        final TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(10, TimeUnit.SECONDS, 3, ticker);
+
+        rateLimiter.setLimits(1, TimeUnit.SECONDS, 1);
+        assertTrue(rateLimiter.tryAcquire());
+        assertFalse(rateLimiter.tryAcquire());
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(500L));
+        assertFalse(rateLimiter.tryAcquire());
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(500L));
+        assertTrue(rateLimiter.tryAcquire());
+    }
+}
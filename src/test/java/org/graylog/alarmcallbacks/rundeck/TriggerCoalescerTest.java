@@ -0,0 +1,202 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.graylog2.plugin.alarms.callbacks.AlarmCallbackException;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TriggerCoalescerTest {
+    private static final String RUNDECK_URL = "http://rundeck.example.com/";
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+    private final List<String> fired = new CopyOnWriteArrayList<>();
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService flushExecutor;
+    private TriggerCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        flushExecutor = Executors.newFixedThreadPool(2);
+        coalescer = new TriggerCoalescer(scheduler, flushExecutor, ticker);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        flushExecutor.shutdownNow();
+    }
+
+    @Test
+    public void leadingModeForwardsFirstTriggerOfWindow() throws Exception {
+        final TriggerCoalescer.Policy policy = new TriggerCoalescer.Policy(RUNDECK_URL, "job",
+                TriggerCoalescer.Mode.LEADING, 1000L, ImmutableList.of("source"));
+
+        coalescer.submit(policy, message("host1"), () -> fired.add("1"));
+        coalescer.submit(policy, message("host1"), () -> fired.add("2"));
+        coalescer.submit(policy, message("host2"), () -> fired.add("3"));
+        coalescer.submit(policy, message("host1"), () -> fired.add("4"));
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000L));
+        coalescer.submit(policy, message("host1"), () -> fired.add("5"));
+
+        assertEquals(ImmutableList.of("1", "3", "5"), fired);
+        assertEquals(3L, coalescer.forwarded());
+        assertEquals(2L, coalescer.suppressed());
+    }
+
+    @Test
+    public void shutdownFlushesOpenTrailingWindows() throws Exception {
+        final TriggerCoalescer.Policy policy = new TriggerCoalescer.Policy(RUNDECK_URL, "job",
+                TriggerCoalescer.Mode.TRAILING, 60000L, ImmutableList.of("source"));
+
+        coalescer.submit(policy, message("host1"), () -> fired.add("1"));
+        coalescer.submit(policy, message("host1"), () -> fired.add("2"));
+        coalescer.shutdown();
+
+        assertEquals(ImmutableList.of("2"), fired);
+        assertEquals(0, coalescer.trackedKeys());
+        assertTrue(scheduler.isShutdown());
+    }
+
+    @Test
+    public void leadingModeSeparatesJobs() throws Exception {
+        final TriggerCoalescer.Policy policy1 = new TriggerCoalescer.Policy(RUNDECK_URL, "job1",
+                TriggerCoalescer.Mode.LEADING, 1000L, Collections.emptyList());
+        final TriggerCoalescer.Policy policy2 = new TriggerCoalescer.Policy(RUNDECK_URL, "job2",
+                TriggerCoalescer.Mode.LEADING, 1000L, Collections.emptyList());
+
+        coalescer.submit(policy1, null, () -> fired.add("1"));
+        coalescer.submit(policy2, null, () -> fired.add("2"));
+
+        assertEquals(ImmutableList.of("1", "2"), fired);
+    }
+
+    @Test
+    public void leadingModeSeparatesRundeckServers() throws Exception {
+        final TriggerCoalescer.Policy policy1 = new TriggerCoalescer.Policy(RUNDECK_URL, "job",
+                TriggerCoalescer.Mode.LEADING, 1000L, Collections.emptyList());
+        final TriggerCoalescer.Policy policy2 = new TriggerCoalescer.Policy("http://rundeck2.example.com/", "job",
+                TriggerCoalescer.Mode.LEADING, 1000L, Collections.emptyList());
+
+        coalescer.submit(policy1, null, () -> fired.add("1"));
+        coalescer.submit(policy2, null, () -> fired.add("2"));
+        coalescer.submit(policy1, null, () -> fired.add("3"));
+
+        assertEquals(ImmutableList.of("1", "2"), fired);
+    }
+
+    @Test
+    public void trailingModeForwardsLatestTriggerAtEndOfWindow() throws Exception {
+        final TriggerCoalescer.Policy policy = new TriggerCoalescer.Policy(RUNDECK_URL, "job",
+                TriggerCoalescer.Mode.TRAILING, 100L, ImmutableList.of("source"));
+
+        coalescer.submit(policy, message("host1"), () -> fired.add("1"));
+        coalescer.submit(policy, message("host1"), () -> fired.add("2"));
+        coalescer.submit(policy, message("host1"), () -> fired.add("3"));
+        assertTrue(fired.isEmpty());
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (fired.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+
+        assertEquals(ImmutableList.of("3"), fired);
+        assertEquals(1L, coalescer.forwarded());
+        assertEquals(2L, coalescer.suppressed());
+        assertEquals(0, coalescer.trackedKeys());
+    }
+
+    @Test
+    public void slowTrailingFlushDoesNotDelayOtherWindows() throws Exception {
+        final TriggerCoalescer.Policy policy = new TriggerCoalescer.Policy(RUNDECK_URL, "job",
+                TriggerCoalescer.Mode.TRAILING, 10L, ImmutableList.of("source"));
+        final CountDownLatch slowFlush = new CountDownLatch(1);
+
+        try {
+            coalescer.submit(policy, message("host1"), () -> {
+                try {
+                    slowFlush.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                fired.add("1");
+            });
+            Thread.sleep(50L);
+            coalescer.submit(policy, message("host2"), () -> fired.add("2"));
+
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+            while (fired.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertEquals(ImmutableList.of("2"), fired);
+        } finally {
+            slowFlush.countDown();
+        }
+    }
+
+    @Test
+    public void leadingModeForwardsNextTriggerIfFirstFailed() throws Exception {
+        final TriggerCoalescer.Policy policy = new TriggerCoalescer.Policy(RUNDECK_URL, "job",
+                TriggerCoalescer.Mode.LEADING, 1000L, ImmutableList.of("source"));
+
+        try {
+            coalescer.submit(policy, message("host1"), () -> {
+                throw new AlarmCallbackException("Rundeck is down");
+            });
+            fail("Expected AlarmCallbackException");
+        } catch (AlarmCallbackException e) {
+            assertEquals(0, coalescer.trackedKeys());
+        }
+        coalescer.submit(policy, message("host1"), () -> fired.add("2"));
+        coalescer.submit(policy, message("host1"), () -> fired.add("3"));
+
+        assertEquals(ImmutableList.of("2"), fired);
+        assertEquals(1L, coalescer.suppressed());
+    }
+
+    @Test
+    public void numberOfTrackedKeysIsBounded() throws Exception {
+        final TriggerCoalescer.Policy policy = new TriggerCoalescer.Policy(RUNDECK_URL, "job",
+                TriggerCoalescer.Mode.LEADING, 1000L, ImmutableList.of("source"));
+
+        for (int i = 0; i <= TriggerCoalescer.MAX_KEYS; i++) {
+            coalescer.submit(policy, message("host" + i), () -> {
+            });
+        }
+
+        assertEquals(TriggerCoalescer.MAX_KEYS, coalescer.trackedKeys());
+        assertEquals(TriggerCoalescer.MAX_KEYS + 1L, coalescer.forwarded());
+    }
+
+    private static MessageSummary message(String source) {
+        return new MessageSummary("graylog_0", new Message("Test", source, new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC)));
+    }
+}
@@ -0,0 +1,315 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import com.google.common.collect.ImmutableList;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+public class TriggerOutboxTest {
+    private static final int CAPACITY = 64 * 1024;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final OkHttpClient okHttpClient = new OkHttpClient();
+    private final List<String> receivedPaths = new CopyOnWriteArrayList<>();
+    private final AtomicInteger responseCode = new AtomicInteger(200);
+
+    private MockWebServer mockWebServer;
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        mockWebServer = new MockWebServer();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                final int code = responseCode.get();
+                if (code == 200) {
+                    receivedPaths.add(request.getPath());
+                }
+                return new MockResponse().setResponseCode(code);
+            }
+        });
+        mockWebServer.start();
+        directory = temporaryFolder.newFolder("outbox").toPath();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void appendedRequestsAreDelivered() throws Exception {
+        try (TriggerOutbox outbox = open()) {
+            outbox.append(request("/1"));
+            outbox.append(request("/2"));
+            outbox.append(request("/3"));
+
+            awaitCount(3L, outbox::delivered);
+            awaitCount(0L, outbox::pending);
+        }
+
+        assertEquals(ImmutableList.of("/1", "/2", "/3"), receivedPaths);
+    }
+
+    @Test
+    public void pendingRequestsAreReplayedAfterCrash() throws Exception {
+        responseCode.set(503);
+        final TriggerOutbox crashed = open();
+        crashed.append(request("/1"));
+        crashed.append(request("/2"));
+        final int position = crashed.position();
+        crashed.close();
+
+        // simulate a crash in the middle of appending another request
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve(TriggerOutbox.LOG_FILE_NAME).toFile(), "rw")) {
+            file.seek(position);
+            file.writeInt(200);
+            file.writeInt(0xcafebabe);
+            file.writeByte(1);
+            file.writeLong(3L);
+        }
+
+        responseCode.set(200);
+        try (TriggerOutbox outbox = open()) {
+            awaitCount(2L, outbox::delivered);
+
+            outbox.append(request("/3"));
+            awaitCount(3L, outbox::delivered);
+        }
+
+        assertEquals(ImmutableList.of("/1", "/2", "/3"), receivedPaths);
+    }
+
+    @Test
+    public void deliveredRequestsAreNotReplayed() throws Exception {
+        final TriggerOutbox first = open();
+        first.append(request("/1"));
+        first.append(request("/2"));
+        awaitCount(2L, first::delivered);
+        responseCode.set(503);
+        first.append(request("/3"));
+        first.close();
+
+        responseCode.set(200);
+        try (TriggerOutbox outbox = open()) {
+            awaitCount(1L, outbox::delivered);
+        }
+
+        assertEquals(ImmutableList.of("/1", "/2", "/3"), receivedPaths);
+    }
+
+    @Test
+    public void failingEndpointDoesNotBlockOtherEndpoints() throws Exception {
+        final MockWebServer failingServer = new MockWebServer();
+        failingServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(503);
+            }
+        });
+        failingServer.start();
+        try (TriggerOutbox outbox = TriggerOutbox.open(directory, url -> okHttpClient, CAPACITY, 60000L, 60000L)) {
+            outbox.append(new Request.Builder().get().url(failingServer.url("/failing")).build());
+            awaitCount(1L, failingServer::getRequestCount);
+
+            outbox.append(request("/1"));
+            outbox.append(request("/2"));
+            awaitCount(2L, outbox::delivered);
+            assertEquals(1, outbox.pending());
+            assertEquals(1, failingServer.getRequestCount());
+        } finally {
+            failingServer.shutdown();
+        }
+
+        assertEquals(ImmutableList.of("/1", "/2"), receivedPaths);
+    }
+
+    @Test
+    public void requestsAreDeliveredWithRegisteredClient() throws Exception {
+        final AtomicInteger registeredCalls = new AtomicInteger();
+        try (TriggerOutbox outbox = open()) {
+            outbox.register(mockWebServer.url("/1?argString=ignored"), okHttpClient.newBuilder()
+                    .addInterceptor(chain -> {
+                        registeredCalls.incrementAndGet();
+                        return chain.proceed(chain.request());
+                    })
+                    .build(), new ApiTokens().forConfiguredValue("test_api_token"));
+            outbox.append(request("/1"));
+            outbox.append(request("/2"));
+
+            awaitCount(2L, outbox::delivered);
+        }
+
+        assertEquals(1, registeredCalls.get());
+        assertEquals(ImmutableList.of("/1", "/2"), receivedPaths);
+    }
+
+    @Test
+    public void rejectedRequestsAreDeliveredWithRegisteredApiToken() throws Exception {
+        final AtomicInteger rejected = new AtomicInteger();
+        mockWebServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (!"new_api_token".equals(request.getHeader(ApiTokens.AUTH_TOKEN_HEADER))) {
+                    rejected.incrementAndGet();
+                    return new MockResponse().setResponseCode(401);
+                }
+                receivedPaths.add(request.getPath());
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+
+        try (TriggerOutbox outbox = open()) {
+            outbox.append(request("/1"));
+            awaitCount(2L, rejected::get);
+            assertEquals(1, outbox.pending());
+
+            outbox.register(mockWebServer.url("/1"), okHttpClient, new ApiTokens().forConfiguredValue("new_api_token"));
+            awaitCount(1L, outbox::delivered);
+        }
+
+        assertEquals(ImmutableList.of("/1"), receivedPaths);
+    }
+
+    @Test
+    public void compactionKeepsLogWithinCapacity() throws Exception {
+        try (TriggerOutbox outbox = open()) {
+            for (int i = 0; i < 1000; i++) {
+                outbox.append(request("/" + i));
+                awaitCount(i + 1L, outbox::delivered);
+            }
+
+            assertEquals(CAPACITY, Files.size(outbox.logFile()));
+        }
+
+        assertEquals(1000, receivedPaths.size());
+    }
+
+    @Test
+    public void concurrentAppendsAreCommitted() throws Exception {
+        responseCode.set(503);
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        final TriggerOutbox crashed = open();
+        final List<Future<?>> futures = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final int thread = i;
+            futures.add(executorService.submit(() -> {
+                for (int j = 0; j < 25; j++) {
+                    crashed.append(request("/" + thread + "/" + j));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30L, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+        crashed.close();
+
+        try (TriggerOutbox outbox = open()) {
+            assertEquals(200, outbox.pending());
+        }
+    }
+
+    @Test
+    public void logIsOnlyAccessibleByOwner() throws Exception {
+        assumeTrue(directory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        responseCode.set(503);
+        try (TriggerOutbox outbox = open()) {
+            outbox.append(request("/1"));
+
+            assertEquals(PosixFilePermissions.fromString("rw-------"),
+                    Files.getPosixFilePermissions(directory.resolve(TriggerOutbox.LOG_FILE_NAME)));
+        }
+    }
+
+    @Test
+    public void failureHandlerRunsIfRequestIsRejected() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        responseCode.set(404);
+        try (TriggerOutbox outbox = open()) {
+            outbox.append(request("/1"), failures::incrementAndGet);
+            awaitCount(1L, outbox::rejected);
+            assertEquals(0, outbox.pending());
+            assertEquals(0L, outbox.delivered());
+        }
+
+        assertEquals(1, failures.get());
+    }
+
+    @Test
+    public void requestRejectedForItsApiTokenIsGivenUpOnEventually() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        responseCode.set(401);
+        try (TriggerOutbox outbox = TriggerOutbox.open(directory, url -> okHttpClient, CAPACITY, 1L, 1L)) {
+            outbox.append(request("/1"), failures::incrementAndGet);
+            awaitCount(1L, outbox::rejected);
+            assertEquals(0, outbox.pending());
+        }
+
+        assertEquals(TriggerOutbox.MAX_AUTH_ATTEMPTS, mockWebServer.getRequestCount());
+        assertEquals(1, failures.get());
+    }
+
+    @Test
+    public void failureHandlerDoesNotRunIfRequestIsRetried() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        responseCode.set(503);
+        try (TriggerOutbox outbox = TriggerOutbox.open(directory, url -> okHttpClient, CAPACITY, 60000L, 60000L)) {
+            outbox.append(request("/1"), failures::incrementAndGet);
+            awaitCount(1L, mockWebServer::getRequestCount);
+            assertEquals(1, outbox.pending());
+        }
+
+        assertEquals(0, failures.get());
+    }
+
+    private TriggerOutbox open() throws Exception {
+        return TriggerOutbox.open(directory, url -> okHttpClient, CAPACITY, 10L, 100L);
+    }
+
+    private Request request(String path) {
+        return new Request.Builder()
+                .post(RequestBody.create(MediaType.parse("text/xml"), new byte[0]))
+                .url(mockWebServer.url(path))
+                .addHeader("X-Rundeck-Auth-Token", "test_api_token")
+                .build();
+    }
+
+    private static void awaitCount(long expected, LongSupplier counter) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10L);
+        while (counter.getAsLong() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertEquals(expected, counter.getAsLong());
+    }
+}
@@ -0,0 +1,53 @@
+package org.graylog.alarmcallbacks.rundeck;
+
+import org.graylog2.plugin.Message;
+import org.graylog2.plugin.MessageSummary;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TriggerPriorityTest {
+    @Test
+    public void parseAcceptsNamesAndSyslogLevels() {
+        assertEquals(TriggerPriority.CRITICAL, TriggerPriority.parse("Critical"));
+        assertEquals(TriggerPriority.LOW, TriggerPriority.parse(" low "));
+        assertEquals(TriggerPriority.CRITICAL, TriggerPriority.parse(2));
+        assertEquals(TriggerPriority.HIGH, TriggerPriority.parse("3"));
+        assertEquals(TriggerPriority.NORMAL, TriggerPriority.parse(5L));
+        assertEquals(TriggerPriority.LOW, TriggerPriority.parse(7));
+    }
+
+    @Test
+    public void parseRejectsInvalidValues() {
+        assertNull(TriggerPriority.parse(null));
+        assertNull(TriggerPriority.parse("urgent"));
+        assertNull(TriggerPriority.parse(8));
+        assertNull(TriggerPriority.parse(-1));
+    }
+
+    @Test
+    public void ofFallsBackToDefaultPriority() {
+        final Message message = new Message("Test message", "example.org", new DateTime(2017, 3, 20, 0, 0, DateTimeZone.UTC));
+        message.addField("level", 1);
+        message.addField("priority", "unknown");
+        final MessageSummary summary = new MessageSummary("graylog_0", message);
+
+        assertEquals(TriggerPriority.CRITICAL, TriggerPriority.of(summary, "level", TriggerPriority.LOW));
+        assertEquals(TriggerPriority.LOW, TriggerPriority.of(summary, "priority", TriggerPriority.LOW));
+        assertEquals(TriggerPriority.LOW, TriggerPriority.of(summary, "missing", TriggerPriority.LOW));
+        assertEquals(TriggerPriority.HIGH, TriggerPriority.of(summary, null, TriggerPriority.HIGH));
+        assertEquals(TriggerPriority.HIGH, TriggerPriority.of(null, "level", TriggerPriority.HIGH));
+    }
+
+    @Test
+    public void concurrencyLimitIsShareOfHostLimit() {
+        assertEquals(8, TriggerPriority.CRITICAL.concurrencyLimit(8));
+        assertEquals(6, TriggerPriority.HIGH.concurrencyLimit(8));
+        assertEquals(4, TriggerPriority.NORMAL.concurrencyLimit(8));
+        assertEquals(2, TriggerPriority.LOW.concurrencyLimit(8));
+        assertEquals(1, TriggerPriority.LOW.concurrencyLimit(1));
+    }
+}